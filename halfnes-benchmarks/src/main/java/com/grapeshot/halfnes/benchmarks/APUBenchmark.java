@@ -0,0 +1,98 @@
+package com.grapeshot.halfnes.benchmarks;
+
+import com.grapeshot.halfnes.APU;
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.audio.ExpansionSoundChip;
+import com.grapeshot.halfnes.audio.VRC6SoundChip;
+import com.grapeshot.halfnes.audio.VRC7FixedPointSoundChip;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Just the APU, with no CPU running: all four channels playing plus maybe
+ * an expansion chip, in each of the sound modes. One op is a second of
+ * emulated sound, 60 frames of APU.updateto and finishframe, so the score is
+ * how many times faster than real time it goes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class APUBenchmark {
+
+    @Param({"filter", "point", "blip", "stereo"})
+    public String mode;
+    @Param({"none", "vrc6", "vrc7"})
+    public String expansion;
+
+    private APU apu;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        EmulatorConfig config = EmulatorConfig.DEFAULTS;
+        switch (mode) {
+            case "point":
+                config = config.withSoundFiltering(false);
+                break;
+            case "blip":
+                config = config.withBandLimited(true);
+                break;
+            case "stereo":
+                config = config.withStereo(true);
+                break;
+            default:
+                break;
+        }
+        final NES nes = new NES(null, true, config);
+        nes.loadROM(BenchROMs.get("demo"));
+        apu = nes.getCPURAM().apu;
+        //square, square, triangle, noise, all with the length counter halted
+        final int[] regs = {0x15, 0x0F,
+            0x00, 0xBF, 0x02, 0x40, 0x03, 0x08,
+            0x04, 0x7A, 0x06, 0xA0, 0x07, 0x09,
+            0x08, 0xFF, 0x0A, 0x60, 0x0B, 0x08,
+            0x0C, 0x3F, 0x0E, 0x04, 0x0F, 0x08};
+        for (int i = 0; i < regs.length; i += 2) {
+            apu.write(regs[i], regs[i + 1]);
+        }
+        if (expansion.equals("vrc6")) {
+            final ExpansionSoundChip chip = new VRC6SoundChip();
+            final int[] vrc6 = {0x9000, 0x3F, 0x9001, 0x80, 0x9002, 0x80,
+                0xa000, 0x2A, 0xa001, 0x55, 0xa002, 0x81,
+                0xb000, 0x20, 0xb001, 0x60, 0xb002, 0x80};
+            for (int i = 0; i < vrc6.length; i += 2) {
+                chip.write(vrc6[i], vrc6[i + 1]);
+            }
+            apu.addExpnSound(chip);
+        } else if (expansion.equals("vrc7")) {
+            final ExpansionSoundChip chip = new VRC7FixedPointSoundChip();
+            for (int ch = 0; ch < 6; ++ch) {
+                chip.write(0x30 + ch, ((ch + 1) << 4) | 2);
+                chip.write(0x10 + ch, 0x80 + 24 * ch);
+                chip.write(0x20 + ch, 0x30 | ((2 + ch % 4) << 1));
+            }
+            apu.addExpnSound(chip);
+        }
+    }
+
+    @Benchmark
+    public void oneSecond() {
+        for (int i = 0; i < 60; ++i) {
+            apu.finishframe();
+        }
+    }
+}
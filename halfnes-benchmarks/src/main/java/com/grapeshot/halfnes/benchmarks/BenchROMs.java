@@ -0,0 +1,195 @@
+package com.grapeshot.halfnes.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * ROMs for the benchmarks to run. nestest comes from the main project's test
+ * resources (the pom copies it into the jar), the rest get built here so there
+ * aren't any game ROMs to ship around. Anything that isn't one of the names
+ * below gets treated as a path, so other ROMs can be benchmarked with
+ * -p rom=/path/to/game.nes
+ */
+final class BenchROMs {
+
+    private BenchROMs() {
+    }
+
+    /**
+     * @param name nestest, demo, or a path to a ROM
+     * @return a file NES.loadROM can open
+     */
+    static String get(String name) {
+        switch (name) {
+            case "nestest":
+                return nestest();
+            case "demo":
+                return write(demo());
+            default:
+                return name;
+        }
+    }
+
+    /**
+     * @return nestest.nes, copied out of the jar
+     */
+    static String nestest() {
+        try (InputStream in = BenchROMs.class.getResourceAsStream("/nestest.nes")) {
+            if (in == null) {
+                throw new IllegalStateException("nestest.nes isn't on the classpath");
+            }
+            final File f = File.createTempFile("halfnes", ".nes");
+            f.deleteOnExit();
+            Files.copy(in, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return f.getPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * An NROM program that keeps the PPU and APU busy: background and all 64
+     * sprites on, scrolling every frame, and three sound channels playing
+     * with the pitch changing every frame.
+     */
+    static byte[] demo() {
+        final int[] reset = {
+            0x78, //SEI
+            0xD8, //CLD
+            0xA2, 0xFF, //LDX #$FF
+            0x9A, //TXS
+            0x2C, 0x02, 0x20, //BIT $2002
+            0x10, 0xFB, //BPL -5
+            0x2C, 0x02, 0x20, //BIT $2002
+            0x10, 0xFB, //BPL -5
+            //sprites in page 2, every byte = its own address
+            0xA2, 0x00, //LDX #$00
+            0x8A, //TXA
+            0x9D, 0x00, 0x02, //STA $0200,X
+            0xE8, //INX
+            0xD0, 0xF9, //BNE -7
+            //palette
+            0xA9, 0x3F, 0x8D, 0x06, 0x20, //$3F00
+            0xA9, 0x00, 0x8D, 0x06, 0x20,
+            0xA2, 0x00, //LDX #$00
+            0x8E, 0x07, 0x20, //STX $2007
+            0xE8, //INX
+            0xE0, 0x20, //CPX #$20
+            0xD0, 0xF8, //BNE -8
+            //both nametables
+            0xA9, 0x20, 0x8D, 0x06, 0x20, //$2000
+            0xA9, 0x00, 0x8D, 0x06, 0x20,
+            0xA0, 0x08, //LDY #$08
+            0xA2, 0x00, //LDX #$00
+            0x8E, 0x07, 0x20, //STX $2007
+            0xE8, //INX
+            0xD0, 0xFA, //BNE -6
+            0x88, //DEY
+            0xD0, 0xF7, //BNE -9
+            //square 1, triangle and noise on, all with the length counter halted
+            0xA9, 0x0F, 0x8D, 0x15, 0x40,
+            0xA9, 0xBF, 0x8D, 0x00, 0x40,
+            0xA9, 0xFF, 0x8D, 0x08, 0x40,
+            0xA9, 0x3F, 0x8D, 0x0C, 0x40,
+            0xA9, 0x80, 0x8D, 0x00, 0x20, //NMI on
+            0xA9, 0x1E, 0x8D, 0x01, 0x20, //rendering on
+            0x4C, 0x61, 0xC0 //JMP $C061 (here)
+        };
+        final int[] nmi = {
+            0xE6, 0x00, //INC $00
+            0xA5, 0x00, //LDA $00
+            0x8D, 0x05, 0x20, //STA $2005
+            0x8D, 0x05, 0x20, //STA $2005
+            0xA9, 0x02, 0x8D, 0x14, 0x40, //sprite DMA from page 2
+            0xA5, 0x00, //LDA $00
+            0x8D, 0x02, 0x40, //square period
+            0x4A, //LSR
+            0x8D, 0x0A, 0x40, //triangle period
+            0xA9, 0x08, 0x8D, 0x0B, 0x40,
+            0xA9, 0x08, 0x8D, 0x03, 0x40,
+            0xA9, 0x05, 0x8D, 0x0E, 0x40, //noise period
+            0xA9, 0x08, 0x8D, 0x0F, 0x40,
+            0x40 //RTI
+        };
+        final byte[] rom = nrom();
+        put(rom, 0xC000, reset);
+        final int nmiaddr = 0xC000 + reset.length;
+        put(rom, nmiaddr, nmi);
+        final int rti = nmiaddr + nmi.length - 1;
+        put(rom, 0xFFFA, nmiaddr & 0xff, nmiaddr >> 8, 0x00, 0xC0, rti & 0xff, rti >> 8);
+        //something to look at in every tile
+        for (int i = 0; i < 8192; ++i) {
+            rom[16 + 16384 + i] = (byte) (i * 0x35 ^ i >> 4);
+        }
+        return rom;
+    }
+
+    /**
+     * A ROM for some mapper with nothing in it but a JMP to itself and
+     * a pattern in PRG for cartRead to read.
+     *
+     * @param mapper iNES mapper number
+     * @param prgbanks how many 16k PRG banks
+     * @return the image
+     */
+    static byte[] mapper(int mapper, int prgbanks) {
+        final byte[] rom = new byte[16 + prgbanks * 16384 + 8192];
+        header(rom, mapper, prgbanks);
+        for (int i = 16; i < 16 + prgbanks * 16384; ++i) {
+            rom[i] = (byte) (i * 13);
+        }
+        final int last = 16 + prgbanks * 16384;
+        final int[] end = {0x4C, 0xF0, 0xFF};
+        for (int i = 0; i < end.length; ++i) {
+            rom[last - 16 + i] = (byte) end[i];
+        }
+        //all three vectors at $FFF0
+        for (int i = 6; i > 0; i -= 2) {
+            rom[last - i] = (byte) 0xF0;
+            rom[last - i + 1] = (byte) 0xFF;
+        }
+        return rom;
+    }
+
+    private static byte[] nrom() {
+        final byte[] rom = new byte[16 + 16384 + 8192];
+        header(rom, 0, 1);
+        return rom;
+    }
+
+    private static void header(byte[] rom, int mapper, int prgbanks) {
+        rom[0] = 'N';
+        rom[1] = 'E';
+        rom[2] = 'S';
+        rom[3] = 0x1A;
+        rom[4] = (byte) prgbanks;
+        rom[5] = 1; //8k CHR
+        rom[6] = (byte) ((mapper & 0xf) << 4);
+        rom[7] = (byte) (mapper & 0xf0);
+    }
+
+    private static void put(byte[] rom, int addr, int... data) {
+        for (int i = 0; i < data.length; ++i) {
+            rom[16 + (addr & 0x3fff) + i] = (byte) data[i];
+        }
+    }
+
+    /**
+     * @param rom image
+     * @return a temp file with it in, gone when the JVM exits
+     */
+    static String write(byte[] rom) {
+        try {
+            final File f = File.createTempFile("halfnes", ".nes");
+            f.deleteOnExit();
+            Files.write(f.toPath(), rom);
+            return f.getPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.grapeshot.halfnes.benchmarks;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.ui.PuppetController;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the switch and table driven CPU cores on the nestest automated
+ * run (the one NesTest logs), which goes through every official and most
+ * unofficial opcodes. Look at the "instructions" line for instructions/sec.
+ *
+ * See the README for how to build and run these.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CPUBenchmark {
+
+    @Param({"switch", "table"})
+    public String core;
+
+    private NES nes;
+    private byte[] start;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public long instructions;
+    }
+
+    @Setup(Level.Trial)
+    public void loadROM() {
+        nes = new NES(null, true, EmulatorConfig.DEFAULTS.withTableCPU(core.equals("table")));
+        nes.loadROM(BenchROMs.nestest(), 0xC000);
+        nes.setControllers(new PuppetController(), new PuppetController());
+        start = nes.saveState();
+    }
+
+    @Setup(Level.Invocation)
+    public void rewind() {
+        nes.loadState(start);
+    }
+
+    @Benchmark
+    public void nestest(Counters counters) {
+        final long before = nes.getCPU().instructions;
+        nes.frameAdvance();
+        counters.instructions += nes.getCPU().instructions - before;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CPUBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,61 @@
+package com.grapeshot.halfnes.benchmarks;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.ui.PuppetController;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole frames through NES.frameAdvance, CPU, PPU, APU and all, in frames
+ * per second. nestest sits on its menu with the screen on, demo has sprites,
+ * scrolling and sound going. Give it other ROMs with -p rom=path/to/game.nes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBenchmark {
+
+    @Param({"nestest", "demo"})
+    public String rom;
+
+    private NES nes;
+    private byte[] start;
+
+    @Setup(Level.Trial)
+    public void loadROM() {
+        nes = new NES(null, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM(BenchROMs.get(rom));
+        nes.setControllers(new PuppetController(), new PuppetController());
+        //get past the startup
+        for (int i = 0; i < 60; ++i) {
+            nes.frameAdvance();
+        }
+        start = nes.saveState();
+    }
+
+    @Setup(Level.Iteration)
+    public void rewind() {
+        //so every iteration runs the same frames
+        nes.loadState(start);
+    }
+
+    @Benchmark
+    public void frameAdvance() {
+        nes.frameAdvance();
+    }
+}
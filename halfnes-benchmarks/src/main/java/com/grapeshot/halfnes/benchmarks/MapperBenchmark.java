@@ -0,0 +1,58 @@
+package com.grapeshot.halfnes.benchmarks;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.ROMLoader;
+import com.grapeshot.halfnes.mappers.Mapper;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mapper.cartRead over all of $8000-$FFFF, in reads per second, for a few of
+ * the common mappers: NROM, MMC1, MMC3 and VRC7.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+    @Param({"0", "1", "4", "85"})
+    public int mapper;
+
+    private Mapper m;
+
+    @Setup(Level.Trial)
+    public void loadROM() throws Exception {
+        final ROMLoader loader = new ROMLoader(
+                BenchROMs.write(BenchROMs.mapper(mapper, (mapper == 0) ? 2 : 8)));
+        loader.parseHeader();
+        m = Mapper.getCorrectMapper(loader);
+        m.setLoader(loader);
+        m.setConfig(EmulatorConfig.DEFAULTS);
+        m.loadrom();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(0x8000)
+    public int cartRead() {
+        int sum = 0;
+        for (int addr = 0x8000; addr <= 0xFFFF; ++addr) {
+            sum += m.cartRead(addr);
+        }
+        return sum;
+    }
+}
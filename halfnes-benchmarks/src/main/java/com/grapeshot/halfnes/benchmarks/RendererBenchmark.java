@@ -0,0 +1,61 @@
+package com.grapeshot.halfnes.benchmarks;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import com.grapeshot.halfnes.video.NTSCRenderer;
+import com.grapeshot.halfnes.video.RGBRenderer;
+import com.grapeshot.halfnes.video.Renderer;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning one finished frame of NES pixels into an image, in frames per
+ * second. The frame is one the demo ROM drew, so it's got sprites and
+ * background all over.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RendererBenchmark {
+
+    @Param({"rgb", "ntsc"})
+    public String renderer;
+
+    private Renderer r;
+    private int[] pixels, bgcolors;
+
+    @Setup(Level.Trial)
+    public void grabFrame() {
+        final HeadlessUI ui = new HeadlessUI(BenchROMs.get("demo"), false, EmulatorConfig.DEFAULTS) {
+            @Override
+            public void setFrame(int[] frame, int[] bgcolor, boolean dotcrawl) {
+                pixels = frame.clone();
+                bgcolors = bgcolor.clone();
+            }
+        };
+        for (int i = 0; i < 30; ++i) {
+            ui.runFrame();
+        }
+        r = renderer.equals("ntsc") ? new NTSCRenderer() : new RGBRenderer();
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return r.render(pixels, bgcolors, false);
+    }
+}
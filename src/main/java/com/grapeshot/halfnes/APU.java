@@ -7,7 +7,9 @@ package com.grapeshot.halfnes;
 import com.grapeshot.halfnes.ui.Oscilloscope;
 import com.grapeshot.halfnes.audio.*;
 import com.grapeshot.halfnes.mappers.Mapper;
-import java.util.ArrayList;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+import java.util.Arrays;
 
 public class APU {
 
@@ -23,12 +25,52 @@ public class APU {
     private int[] noiseperiod;
     // different for PAL
     private long accum = 0;
-    private final ArrayList<ExpansionSoundChip> expnSound = new ArrayList<>();
+    //sound chips on the cart. These get run ahead up to EXPN_SPAN cycles at
+    //a time into expnlevel (or expnlevels, one for each in stereo mode) since
+    //nothing can write to them in the middle of an update, see syncCart
+    private ExpansionSoundChip[] expnSound = new ExpansionSoundChip[0];
+    private static final int EXPN_SPAN = 1024;
+    private final int[] expnlevel = new int[EXPN_SPAN];
+    private int[][] expnlevels = new int[0][];
     private boolean soundFiltering;
+    //band limited mode: only the changes in output level go into the blip
+    //buffer, and the timers get run ahead to their next change all at once
+    private boolean bandLimited;
+    private BlipBuffer blip;
+    private int[] blipout;
+    private int bliplevel;
+    //filtered mode: cycles get added up in groups of resampler.getDecimation()
+    //(accum and remainder), then go through the resampler. The filter history
+    //and the sample timing are in save states, since what comes out of them
+    //ends up in the dc filter's state
+    private Resampler resampler;
+    private int[] resampled;
+    private int decimation;
+    //point sampled mode: cycles until the next sample, and the fraction of a
+    //cycle left over, 32.32 fixed point so the samples per frame average out
+    private long sampleperiod, samplefrac;
+    private int sampleleft;
+    //stereo mode: every channel is added up and resampled on its own, then a
+    //whole frame of them gets mixed at once. Always goes the filtered way.
+    //The per channel resamplers aren't in save states, they just start over.
+    private boolean stereo;
+    private StereoMix stereomix;
+    private final StereoMixer mixer = new StereoMixer();
+    private Resampler[] chresamplers = new Resampler[0];
+    private int[] chaccum;
+    private int[][] chout;
+    private int[] mixl, mixr;
+    private double clockrate;
+    //finished samples waiting to go to the audio output, sent once a frame.
+    //left and right alternate in stereo mode
+    private short[] outbuf;
+    private int outpos;
+    private float outputvol;
     private final static int[] TNDLOOKUP = initTndLookup(), SQUARELOOKUP = initSquareLookup();
     private int framectrreload;
     private int framectrdiv = 7456;
     private int dckiller = -6392; //removes icky power on thump
+    private int dckillerR = -6392; //same for the right side in stereo
     private int lpaccum = 0;
     private boolean apuintflag = true, statusdmcint = false, statusframeint = false;
     private int framectr = 0, ctrmode = 4;
@@ -64,6 +106,18 @@ public class APU {
     private final int[] sweepperiod = {15, 15}, sweepshift = {0, 0}, sweeppos = {0, 0};
     private int cyclesperframe;
     private AudioOutInterface ai;
+    //ai came from NES.setAudioOut, so it's whoever set it's job to close it
+    private boolean aiInjected = false;
+    //the CPU only catches the APU up when it gets to a register access, the
+    //end of the frame, or this cycle, which is the next time the APU could do
+    //something the CPU would notice (DMC fetch or IRQ, frame IRQ)
+    public int nextevent = 0;
+    //turn off to sync on every instruction like it used to, for comparing
+    boolean eventSync = true;
+    private boolean updating = false;
+    //for FrameMetrics: cycles run, time spent making the sound, and time
+    //spent handing it to the audio output (which can block)
+    public long cycles, nanos, flushnanos;
 
     public APU(final NES nes, final CPU cpu, final CPURAM cpuram) {
         this.samplerate = 1; //just in case we can't init audio
@@ -93,14 +147,27 @@ public class APU {
 
     public final synchronized void setParameters() {
         Mapper.TVType tvtype = cpuram.mapper.getTVType();
-        soundFiltering = PrefsSingleton.get().getBoolean("soundFiltering", true);
-        samplerate = PrefsSingleton.get().getInt("sampleRate", 44100);
-        if (ai != null) {
+        final EmulatorConfig config = nes.getConfig();
+        soundFiltering = config.isSoundFiltering();
+        bandLimited = config.isBandLimited();
+        stereo = config.isStereo();
+        stereomix = config.getStereoMix();
+        samplerate = config.getSampleRate();
+        outputvol = (float) (config.getOutputVolume() / 16384.);
+        if (ai != null && !aiInjected) {
             ai.destroy();
         }
-        ai = new SwingAudioImpl(nes, samplerate, tvtype);
-        if (PrefsSingleton.get().getBoolean("showScope", false)) {
-            ai = new Oscilloscope(ai);
+        aiInjected = nes.getAudioOut() != null;
+        if (aiInjected) {
+            ai = nes.getAudioOut();
+        } else if (nes.isHeadless()) {
+            //no sound card, and nobody to listen to it anyway
+            ai = new DummyAudioImpl();
+        } else {
+            ai = new SwingAudioImpl(nes, samplerate, tvtype);
+            if (config.isShowScope()) {
+                ai = new Oscilloscope(ai);
+            }
         }
         //pick the appropriate pitches and lengths for NTSC or PAL
         switch (tvtype) {
@@ -109,7 +176,7 @@ public class APU {
                 this.dmcperiods = new int[]{428, 380, 340, 320, 286, 254, 226, 214, 190, 160, 142, 128, 106, 84, 72, 54};
                 this.noiseperiod = new int[]{4, 8, 16, 32, 64, 96, 128, 160, 202, 254, 380, 508, 762, 1016, 2034, 4068};
                 this.framectrreload = 7456;
-                cyclespersample = 1789773.0 / samplerate;
+                clockrate = 1789773.0;
                 cyclesperframe = 29781;
                 break;
 
@@ -117,25 +184,45 @@ public class APU {
                 this.dmcperiods = new int[]{428, 380, 340, 320, 286, 254, 226, 214, 190, 160, 142, 128, 106, 84, 72, 54};
                 this.noiseperiod = new int[]{4, 8, 16, 32, 64, 96, 128, 160, 202, 254, 380, 508, 762, 1016, 2034, 4068};
                 this.framectrreload = 7456;
-                cyclespersample = 1773448.0 / samplerate;
+                clockrate = 1773448.0;
                 cyclesperframe = 35469;
                 break;
             case PAL:
-                cyclespersample = 1662607.0 / samplerate;
+                clockrate = 1662607.0;
                 this.dmcperiods = new int[]{398, 354, 316, 298, 276, 236, 210, 198, 176, 148, 132, 118, 98, 78, 66, 50};
                 this.noiseperiod = new int[]{4, 8, 14, 30, 60, 88, 118, 148, 188, 236, 354, 472, 708, 944, 1890, 3778};
                 this.framectrreload = 8312;
                 cyclesperframe = 33252;
                 break;
         }
+        cyclespersample = clockrate / samplerate;
+        sampleperiod = (long) (cyclespersample * (1L << 32));
+        if (bandLimited) {
+            //room for a frame that runs long
+            blip = new BlipBuffer(cyclespersample, cyclesperframe * 2);
+            blipout = new int[blip.maxSamples()];
+            bliplevel = getOutputLevel();
+            blip.clear(bliplevel);
+        } else {
+            blip = null;
+        }
+        //always there, even if another mode is on, so save states look the same
+        resampler = new Resampler(clockrate, samplerate, cyclesperframe * 2);
+        resampled = new int[resampler.maxSamples()];
+        decimation = resampler.getDecimation();
+        resampler.clear(getOutputLevel());
+        outbuf = new short[((int) (cyclesperframe * 2 / cyclespersample) + 1) * 2];
+        outpos = 0;
+        chresamplers = new Resampler[0];
+        schedule();
 //        ai = new Reverberator(ai, 2,0.7,0.8,0.99);
 //        ai = new Reverberator(ai, 243,0.5,0.7,0.99);
 //       ai = new Reverberator(ai, 4001,0.3,0.5,0.99);
 //       ai = new Reverberator(ai, 20382,0.2,0.3,0.9);
     }
 
-    public boolean bufferHasLessThan(int samples) {
-        return ai.bufferHasLessThan(samples);
+    public boolean pacesFrames() {
+        return ai.pacesFrames();
     }
 
     public final int read(final int addr) {
@@ -156,6 +243,7 @@ public class APU {
                     //System.err.println("Frame interrupt ack at " + cpu.cycles);
                     --cpu.interrupt;
                     statusframeint = false;
+                    schedule();
                 }
 
                 //System.err.println("*" + utils.hex(returnval));
@@ -178,11 +266,14 @@ public class APU {
     };
 
     public void addExpnSound(ExpansionSoundChip chip) {
-        expnSound.add(chip);
+        expnSound = Arrays.copyOf(expnSound, expnSound.length + 1);
+        expnSound[expnSound.length - 1] = chip;
     }
 
     public void destroy() {
-        ai.destroy();
+        if (!aiInjected) {
+            ai.destroy();
+        }
     }
 
     public void pause() {
@@ -393,43 +484,230 @@ public class APU {
             default:
                 break;
         }
+        schedule();
+    }
+
+    /**
+     * Catches the APU up before the CPU touches a cartridge register, if the
+     * cart has its own sound chip. Those get clocked along with the APU, so
+     * they have to be up to date before one is read or written.
+     */
+    public final void syncCart() {
+        if (expnSound.length > 0 && !updating && apucycle < cpu.clocks - 1) {
+            //not while the DMC is fetching from the cart in the middle of an update,
+            //and not at all if nothing's happened since the last sync
+            updateto(cpu.clocks - 1);
+        }
+    }
+
+    /**
+     * Works out nextevent from where the DMC and frame counter are now. This
+     * has to be called again any time their state changes other than by
+     * being clocked. It's fine for it to come out early, that only costs an
+     * extra sync, but it must never be late.
+     */
+    private void schedule() {
+        if (!eventSync) {
+            nextevent = Integer.MIN_VALUE;
+            return;
+        }
+        int next = Integer.MAX_VALUE;
+        if (dmcsamplesleft > 0) {
+            //DMC fetches a byte the cycle after its buffer empties
+            if (dmcBufferEmpty || dmcpos >= dmcrate) {
+                next = apucycle;
+            } else if (dmcbitsleft <= 0 || !dmcsilence) {
+                //buffer gets emptied when the shift register reloads, on the
+                //output clock after the last bit's gone out
+                final int outclocks = Math.max(dmcbitsleft, 0);
+                next = apucycle + (dmcrate - dmcpos) + outclocks * dmcrate;
+            }
+            //otherwise it's silenced with bits left, and stays that way until
+            //a register write
+        }
+        if (ctrmode == 4 && !apuintflag && !statusframeint) {
+            if (framectr > 3) {
+                next = apucycle;
+            } else {
+                //frame irq goes off on the clock where framectr is 3
+                final int frameclocks = (3 - framectr) & 3;
+                next = Math.min(next, apucycle + Math.max(framectrdiv, 1) - 1
+                        + frameclocks * framectrreload);
+            }
+        }
+        nextevent = next;
+    }
+
+    /**
+     * Saves channel and frame counter state. The output filters are included
+     * so there's no pop when a state is loaded; the audio output itself and
+     * the region dependent tables are not, those come from setParameters().
+     *
+     * @param w state writer
+     */
+    public void saveState(StateWriter w) {
+        for (Timer t : timers) {
+            t.saveState(w);
+        }
+        w.writeInt(sprdma_count);
+        w.writeInt(apucycle);
+        w.writeInt(remainder);
+        w.writeLong(accum);
+        w.writeInt(sampleleft);
+        w.writeLong(samplefrac);
+        resampler.saveState(w);
+        w.writeInt(framectrdiv);
+        w.writeInt(dckiller);
+        w.writeInt(dckillerR);
+        w.writeInt(lpaccum);
+        w.writeBoolean(apuintflag);
+        w.writeBoolean(statusdmcint);
+        w.writeBoolean(statusframeint);
+        w.writeInt(framectr);
+        w.writeInt(ctrmode);
+        w.writeBooleans(lenCtrEnable);
+        w.writeInts(volume);
+        w.writeInt(dmcrate);
+        w.writeInt(dmcpos);
+        w.writeInt(dmcshiftregister);
+        w.writeInt(dmcbuffer);
+        w.writeInt(dmcvalue);
+        w.writeInt(dmcsamplelength);
+        w.writeInt(dmcsamplesleft);
+        w.writeInt(dmcstartaddr);
+        w.writeInt(dmcaddr);
+        w.writeInt(dmcbitsleft);
+        w.writeBoolean(dmcsilence);
+        w.writeBoolean(dmcirq);
+        w.writeBoolean(dmcloop);
+        w.writeBoolean(dmcBufferEmpty);
+        w.writeInts(lengthctr);
+        w.writeBooleans(lenctrHalt);
+        w.writeInt(linearctr);
+        w.writeInt(linctrreload);
+        w.writeBoolean(linctrflag);
+        w.writeInts(envelopeValue);
+        w.writeInts(envelopeCounter);
+        w.writeInts(envelopePos);
+        w.writeBooleans(envConstVolume);
+        w.writeBooleans(envelopeStartFlag);
+        w.writeBooleans(sweepenable);
+        w.writeBooleans(sweepnegate);
+        w.writeBooleans(sweepsilence);
+        w.writeBooleans(sweepreload);
+        w.writeInts(sweepperiod);
+        w.writeInts(sweepshift);
+        w.writeInts(sweeppos);
+    }
+
+    public void loadState(StateReader r) {
+        for (Timer t : timers) {
+            t.loadState(r);
+        }
+        sprdma_count = r.readInt();
+        apucycle = r.readInt();
+        remainder = r.readInt();
+        accum = r.readLong();
+        sampleleft = r.readInt();
+        samplefrac = r.readLong();
+        resampler.loadState(r);
+        framectrdiv = r.readInt();
+        dckiller = r.readInt();
+        dckillerR = r.readInt();
+        lpaccum = r.readInt();
+        apuintflag = r.readBoolean();
+        statusdmcint = r.readBoolean();
+        statusframeint = r.readBoolean();
+        framectr = r.readInt();
+        ctrmode = r.readInt();
+        r.readBooleans(lenCtrEnable);
+        r.readInts(volume);
+        dmcrate = r.readInt();
+        dmcpos = r.readInt();
+        dmcshiftregister = r.readInt();
+        dmcbuffer = r.readInt();
+        dmcvalue = r.readInt();
+        dmcsamplelength = r.readInt();
+        dmcsamplesleft = r.readInt();
+        dmcstartaddr = r.readInt();
+        dmcaddr = r.readInt();
+        dmcbitsleft = r.readInt();
+        dmcsilence = r.readBoolean();
+        dmcirq = r.readBoolean();
+        dmcloop = r.readBoolean();
+        dmcBufferEmpty = r.readBoolean();
+        r.readInts(lengthctr);
+        r.readBooleans(lenctrHalt);
+        linearctr = r.readInt();
+        linctrreload = r.readInt();
+        linctrflag = r.readBoolean();
+        r.readInts(envelopeValue);
+        r.readInts(envelopeCounter);
+        r.readInts(envelopePos);
+        r.readBooleans(envConstVolume);
+        r.readBooleans(envelopeStartFlag);
+        r.readBooleans(sweepenable);
+        r.readBooleans(sweepnegate);
+        r.readBooleans(sweepsilence);
+        r.readBooleans(sweepreload);
+        r.readInts(sweepperiod);
+        r.readInts(sweepshift);
+        r.readInts(sweeppos);
+        if (bandLimited) {
+            //no sound from before the load is coming, start from here
+            bliplevel = getOutputLevel();
+            blip.clear(bliplevel);
+        }
+        schedule();
     }
 
     public final void updateto(final int cpucycle) {
+        final long start = System.nanoTime();
+        update(cpucycle);
+        nanos += System.nanoTime() - start;
+    }
+
+    //updateto without the timing, for finishframe which times itself
+    private void update(final int cpucycle) {
         //still have to run this even if sound is disabled, some games rely on DMC IRQ etc.
-        if (soundFiltering) {
-            //linear sampling code
-            //should really be a FIR filter + decimator instead
-            //but I don't have the DSP experience to design something like that
-            //that would be fast enough to work / not require calculating every sample
-            //this works well enough at eliminating aliasing anyway.
+        updating = true;
+        if (stereo) {
+            updateStereo(cpucycle);
+        } else if (bandLimited) {
+            updateBandLimited(cpucycle);
+        } else if (soundFiltering) {
+            //box filter down to a couple times the output rate, then the
+            //resampler does the rest properly
+            final boolean expn = expnSound.length > 0;
             while (apucycle < cpucycle) {
-                ++remainder;
-                clockdmc();
-                if (--framectrdiv <= 0) {
-                    framectrdiv = framectrreload;
-                    clockframecounter();
-                }
-                timers[0].clock();
-                timers[1].clock();
-                if (lengthctr[2] > 0 && linearctr > 0) {
-                    timers[2].clock();
-                }
-                timers[3].clock();
-                if (!expnSound.isEmpty()) {
+                final int span = Math.min(cpucycle - apucycle, EXPN_SPAN);
+                if (expn) {
+                    Arrays.fill(expnlevel, 0, span, 0);
                     for (ExpansionSoundChip c : expnSound) {
-                        c.clock(1);
+                        c.clock(span, expnlevel, 0);
                     }
                 }
-                accum += getOutputLevel();
-
-                if ((apucycle % cyclespersample) < 1) {
-                    //not quite right - there's a non-integer # cycles per sample.
-                    ai.outputSample(lowpass_filter(highpass_filter((int) (accum / remainder))));
-                    remainder = 0;
-                    accum = 0;
+                for (int i = 0; i < span; ++i) {
+                    clockdmc();
+                    if (--framectrdiv <= 0) {
+                        framectrdiv = framectrreload;
+                        clockframecounter();
+                    }
+                    timers[0].clock();
+                    timers[1].clock();
+                    if (lengthctr[2] > 0 && linearctr > 0) {
+                        timers[2].clock();
+                    }
+                    timers[3].clock();
+                    //same as getOutputLevel()
+                    accum += expn ? (int) (getApuLevel() * 0.8) + expnlevel[i] : getApuLevel();
+                    if (++remainder >= decimation) {
+                        resampler.write((int) accum);
+                        remainder = 0;
+                        accum = 0;
+                    }
+                    ++apucycle;
                 }
-                ++apucycle;
             }
         } else {
             //point sampling code
@@ -440,8 +718,10 @@ public class APU {
                     framectrdiv = framectrreload;
                     clockframecounter();
                 }
-                if ((apucycle % cyclespersample) < 1) {
-                    //not quite right - there's a non-integer # cycles per sample.
+                if (--sampleleft <= 0) {
+                    samplefrac += sampleperiod;
+                    sampleleft = (int) (samplefrac >>> 32);
+                    samplefrac &= 0xffffffffL;
                     timers[0].clock(remainder);
                     timers[1].clock(remainder);
                     if (lengthctr[2] > 0 && linearctr > 0) {
@@ -449,27 +729,161 @@ public class APU {
                     }
                     timers[3].clock(remainder);
                     int mixvol = getOutputLevel();
-                    if (!expnSound.isEmpty()) {
+                    if (expnSound.length > 0) {
                         for (ExpansionSoundChip c : expnSound) {
                             c.clock(remainder);
                         }
                     }
                     remainder = 0;
-                    ai.outputSample(lowpass_filter(highpass_filter(mixvol)));
+                    output(lowpass_filter(highpass_filter(mixvol)));
                 }
                 ++apucycle;
             }
         }
+        updating = false;
+        schedule();
     }
 
-    private int getOutputLevel() {
-        int vol;
-        vol = SQUARELOOKUP[volume[0] * timers[0].getval()
-                + volume[1] * timers[1].getval()];
-        vol += TNDLOOKUP[3 * timers[2].getval()
+    private void setupStereo() {
+        final int n = StereoMix.EXPANSION + expnSound.length;
+        chresamplers = new Resampler[n];
+        chaccum = new int[n];
+        chout = new int[n][];
+        for (int c = 0; c < n; ++c) {
+            chresamplers[c] = new Resampler(clockrate, samplerate, cyclesperframe * 2);
+            chresamplers[c].clear(0);
+            chout[c] = new int[chresamplers[c].maxSamples()];
+        }
+        expnlevels = new int[expnSound.length][EXPN_SPAN];
+        mixl = new int[chresamplers[0].maxSamples()];
+        mixr = new int[chresamplers[0].maxSamples()];
+        mixer.setChannels(stereomix, expnSound.length, (expnSound.length == 0) ? 1 : 0.8);
+    }
+
+    private void updateStereo(final int cpucycle) {
+        if (chresamplers.length != StereoMix.EXPANSION + expnSound.length) {
+            //first time, or a game just added an expansion chip
+            setupStereo();
+        }
+        final int[] acc = chaccum;
+        while (apucycle < cpucycle) {
+            final int span = Math.min(cpucycle - apucycle, EXPN_SPAN);
+            for (int c = 0; c < expnSound.length; ++c) {
+                Arrays.fill(expnlevels[c], 0, span, 0);
+                expnSound[c].clock(span, expnlevels[c], 0);
+            }
+            for (int i = 0; i < span; ++i) {
+                clockdmc();
+                if (--framectrdiv <= 0) {
+                    framectrdiv = framectrreload;
+                    clockframecounter();
+                }
+                timers[0].clock();
+                timers[1].clock();
+                if (lengthctr[2] > 0 && linearctr > 0) {
+                    timers[2].clock();
+                }
+                timers[3].clock();
+                //same levels as getOutputLevel, but each through its own
+                //lookup so they can be kept apart
+                acc[StereoMix.PULSE1] += SQUARELOOKUP[volume[0] * timers[0].getval()];
+                acc[StereoMix.PULSE2] += SQUARELOOKUP[volume[1] * timers[1].getval()];
+                acc[StereoMix.TRIANGLE] += TNDLOOKUP[3 * timers[2].getval()];
+                acc[StereoMix.NOISE] += TNDLOOKUP[2 * volume[3] * timers[3].getval()];
+                acc[StereoMix.DMC] += TNDLOOKUP[dmcvalue];
+                for (int c = 0; c < expnlevels.length; ++c) {
+                    acc[StereoMix.EXPANSION + c] += expnlevels[c][i];
+                }
+                if (++remainder >= decimation) {
+                    for (int c = 0; c < acc.length; ++c) {
+                        chresamplers[c].write(acc[c]);
+                        acc[c] = 0;
+                    }
+                    remainder = 0;
+                }
+                ++apucycle;
+            }
+        }
+    }
+
+    private void updateBandLimited(final int cpucycle) {
+        //register writes since last time could have changed the output
+        blipLevel(apucycle);
+        final int expnspan = Math.max((int) cyclespersample, 1);
+        while (apucycle < cpucycle) {
+            //find the next cycle anything can happen on: a timer stepping,
+            //the DMC output clock or a fetch, or the frame counter
+            int n = cpucycle - apucycle;
+            n = Math.min(n, Math.max(framectrdiv, 1));
+            if (dmcBufferEmpty && dmcsamplesleft > 0) {
+                n = 1;
+            } else {
+                n = Math.min(n, (dmcpos < dmcrate) ? dmcrate - dmcpos : 1);
+            }
+            n = Math.min(n, timers[0].nextstep());
+            n = Math.min(n, timers[1].nextstep());
+            final boolean triangle = lengthctr[2] > 0 && linearctr > 0;
+            if (triangle) {
+                n = Math.min(n, timers[2].nextstep());
+            }
+            n = Math.min(n, timers[3].nextstep());
+            if (expnSound.length > 0) {
+                //no way to know when these change, so point sample them
+                n = Math.min(n, expnspan);
+            }
+            //nothing happens until the last cycle of the span
+            if (n > 1) {
+                dmcpos += n - 1;
+                framectrdiv -= n - 1;
+                timers[0].clock(n - 1);
+                timers[1].clock(n - 1);
+                if (triangle) {
+                    timers[2].clock(n - 1);
+                }
+                timers[3].clock(n - 1);
+                apucycle += n - 1;
+            }
+            //and then the last one goes the same as in the other modes
+            clockdmc();
+            if (--framectrdiv <= 0) {
+                framectrdiv = framectrreload;
+                clockframecounter();
+            }
+            timers[0].clock(1);
+            timers[1].clock(1);
+            if (lengthctr[2] > 0 && linearctr > 0) {
+                timers[2].clock(1);
+            }
+            timers[3].clock(1);
+            if (expnSound.length > 0) {
+                for (ExpansionSoundChip c : expnSound) {
+                    c.clock(n);
+                }
+            }
+            blipLevel(apucycle);
+            ++apucycle;
+        }
+    }
+
+    private void blipLevel(final int cycle) {
+        final int level = getOutputLevel();
+        if (level != bliplevel) {
+            blip.addDelta(cycle, level - bliplevel);
+            bliplevel = level;
+        }
+    }
+
+    private int getApuLevel() {
+        return SQUARELOOKUP[volume[0] * timers[0].getval()
+                + volume[1] * timers[1].getval()]
+                + TNDLOOKUP[3 * timers[2].getval()
                 + 2 * volume[3] * timers[3].getval()
                 + dmcvalue];
-        if (!expnSound.isEmpty()) {
+    }
+
+    private int getOutputLevel() {
+        int vol = getApuLevel();
+        if (expnSound.length > 0) {
             vol *= 0.8;
             for (ExpansionSoundChip c : expnSound) {
                 vol += c.getval();
@@ -478,6 +892,32 @@ public class APU {
         return vol; //as usual, lack of unsigned types causes unending pain.
     }
 
+    private void output(int sample) {
+        sample *= outputvol;
+        if (sample < -32768) {
+            sample = -32768;
+        }
+        if (sample > 32767) {
+            sample = 32767;
+        }
+        if (outpos >= outbuf.length) {
+            //frame ran long
+            sendSamples();
+        }
+        outbuf[outpos++] = (short) sample;
+    }
+
+    private void sendSamples() {
+        if (outpos > 0) {
+            if (stereo) {
+                ai.outputStereoSamples(outbuf, 0, outpos / 2);
+            } else {
+                ai.outputSamples(outbuf, 0, outpos);
+            }
+            outpos = 0;
+        }
+    }
+
     private int highpass_filter(int sample) {
         //for killing the dc in the signal
         sample -= dckiller;
@@ -486,14 +926,51 @@ public class APU {
         return sample;
     }
 
+    private int highpass_right(int sample) {
+        sample -= dckillerR;
+        dckillerR += sample >> 8;
+        dckillerR += (sample > 0 ? 1 : -1);
+        return sample;
+    }
+
     private int lowpass_filter(int sample) {
         return lpaccum += 0.5 * (sample - lpaccum); //y = y + a * (x - y)
     }
 
     public final void finishframe() {
-        updateto(cyclesperframe);
+        final long start = System.nanoTime();
+        update(cyclesperframe);
+        if (stereo) {
+            int samples = 0;
+            for (int c = 0; c < chresamplers.length; ++c) {
+                samples = chresamplers[c].readSamples(chout[c]);
+            }
+            mixer.mix(chout, samples, mixl, mixr);
+            for (int i = 0; i < samples; ++i) {
+                output(highpass_filter(mixl[i]));
+                output(highpass_right(mixr[i]));
+            }
+        } else if (bandLimited) {
+            blip.endFrame(apucycle);
+            final int samples = blip.readSamples(blipout);
+            for (int i = 0; i < samples; ++i) {
+                //already band limited, just needs the dc taken out
+                output(highpass_filter(blipout[i]));
+            }
+        } else if (soundFiltering) {
+            final int samples = resampler.readSamples(resampled);
+            for (int i = 0; i < samples; ++i) {
+                output(highpass_filter(resampled[i]));
+            }
+        }
+        final long flush = System.nanoTime();
+        nanos += flush - start;
+        sendSamples();
+        cycles += apucycle;
         apucycle = 0;
+        schedule();
         ai.flushFrame(nes.isFrameLimiterOn());
+        flushnanos += System.nanoTime() - flush;
     }
 
     private void clockframecounter() {
@@ -0,0 +1,303 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.audio.WavAudioImpl;
+import com.grapeshot.halfnes.mappers.Mapper;
+import com.grapeshot.halfnes.mappers.NSFMapper;
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import com.grapeshot.halfnes.ui.PuppetController;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Renders NSF tracks (or the sound from a game, with some scripted input) to
+ * WAV files as fast as the emulator will go. Each track gets its own headless
+ * emulator, and they're spread over an EmulatorPool so there are as many
+ * going at once as there are cores.
+ *
+ * Usage from the command line:
+ * <pre>
+ * java -cp halfnes.jar com.grapeshot.halfnes.AudioRenderer file.nsf outdir [seconds]
+ * </pre>
+ * renders every track of the NSF into outdir.
+ *
+ * @author Andrew Hoffman
+ */
+public class AudioRenderer {
+
+    private final EmulatorPool pool;
+
+    public AudioRenderer() {
+        this(new EmulatorPool());
+    }
+
+    /**
+     * @param pool emulator threads to render on. The sample rate and filter
+     * settings come from the pool's config.
+     */
+    public AudioRenderer(EmulatorPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Starts rendering a track on one of the pool threads.
+     *
+     * @param track what to render
+     * @return future for how it went
+     */
+    public ForkJoinTask<Result> submit(final Track track) {
+        return pool.submit(track.rom, ui -> render(ui, track));
+    }
+
+    /**
+     * Renders a bunch of tracks in parallel and waits for all of them.
+     *
+     * @param tracks what to render
+     * @return how each one went, in the same order
+     */
+    public List<Result> renderAll(final List<Track> tracks) {
+        final List<ForkJoinTask<Result>> jobs = new ArrayList<>();
+        for (Track t : tracks) {
+            jobs.add(submit(t));
+        }
+        final List<Result> results = new ArrayList<>();
+        for (ForkJoinTask<Result> j : jobs) {
+            results.add(j.join());
+        }
+        return results;
+    }
+
+    /**
+     * Renders one track right here on the calling thread.
+     *
+     * @param track what to render
+     * @return how it went
+     */
+    public static Result render(final Track track) {
+        return render(HeadlessUI.pooled(track.rom, false, EmulatorConfig.DEFAULTS), track);
+    }
+
+    private static Result render(final HeadlessUI ui, final Track track) {
+        final NES nes = ui.getNes();
+        if (nes.getCPURAM() == null) {
+            throw new IllegalArgumentException("Couldn't load " + track.rom);
+        }
+        final Mapper mapper = nes.getCPURAM().mapper;
+        final EmulatorConfig config = nes.getConfig();
+        final int rate = config.getSampleRate();
+        final WavAudioImpl wav;
+        try {
+            wav = new WavAudioImpl(track.output, rate, track.raw, config.isStereo());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            nes.setAudioOut(wav);
+            if (track.track >= 0) {
+                if (!(mapper instanceof NSFMapper)) {
+                    throw new IllegalArgumentException(track.rom + " is not an NSF");
+                }
+                ((NSFMapper) mapper).setSong(track.track);
+            }
+            final long length = (long) (track.seconds * rate);
+            final long fade = Math.min((long) (track.fadeSeconds * rate), length);
+            final long silence = (long) (track.silenceSeconds * rate);
+            wav.fadeOut(length - fade, fade);
+            boolean silent = false;
+            int frame = 0;
+            while (!wav.isFinished()) {
+                if (track.input != null) {
+                    track.input.frame(frame, ui.getController1());
+                }
+                ui.runFrame();
+                ++frame;
+                if (silence > 0 && wav.getSilentSamples() >= silence) {
+                    silent = true;
+                    break;
+                }
+            }
+            return new Result(track, wav.getSamplesWritten(), frame, silent);
+        } finally {
+            nes.setAudioOut(null);
+            wav.destroy();
+        }
+    }
+
+    /**
+     * Feeds input to a game as it's rendering.
+     */
+    public interface InputScript {
+
+        /**
+         * Called before every frame is run.
+         *
+         * @param frame frame number, from 0
+         * @param pad controller 1
+         */
+        void frame(int frame, PuppetController pad);
+    }
+
+    /**
+     * One thing to render. Set it up with the with... methods, like the
+     * EmulatorConfig ones these each return a copy.
+     */
+    public static final class Track {
+
+        private final String rom;
+        private final int track;
+        private final Path output;
+        private final double seconds, fadeSeconds, silenceSeconds;
+        private final boolean raw;
+        private final InputScript input;
+
+        /**
+         * @param rom NSF or game to play
+         * @param track NSF track number from 0, or -1 for a game or the NSF's
+         * own starting track
+         * @param output file to write
+         */
+        public Track(String rom, int track, Path output) {
+            this(rom, track, output, 150, 10, 3, false, null);
+        }
+
+        private Track(String rom, int track, Path output, double seconds, double fadeSeconds,
+                double silenceSeconds, boolean raw, InputScript input) {
+            this.rom = rom;
+            this.track = track;
+            this.output = output;
+            this.seconds = seconds;
+            this.fadeSeconds = fadeSeconds;
+            this.silenceSeconds = silenceSeconds;
+            this.raw = raw;
+            this.input = input;
+        }
+
+        /**
+         * @param seconds total length, fade included
+         * @return copy with the new length
+         */
+        public Track withLength(double seconds) {
+            return new Track(rom, track, output, seconds, fadeSeconds, silenceSeconds, raw, input);
+        }
+
+        /**
+         * @param fadeSeconds how long the fade out at the end is
+         * @return copy with the new fade
+         */
+        public Track withFade(double fadeSeconds) {
+            return new Track(rom, track, output, seconds, fadeSeconds, silenceSeconds, raw, input);
+        }
+
+        /**
+         * @param silenceSeconds stop early after this long with no sound, 0
+         * to always go the full length. Silence before the first sound doesn't
+         * count.
+         * @return copy with the new limit
+         */
+        public Track withSilenceLimit(double silenceSeconds) {
+            return new Track(rom, track, output, seconds, fadeSeconds, silenceSeconds, raw, input);
+        }
+
+        /**
+         * @param raw true to write headerless 16 bit little endian PCM
+         * instead of a WAV
+         * @return copy with the new format
+         */
+        public Track withRaw(boolean raw) {
+            return new Track(rom, track, output, seconds, fadeSeconds, silenceSeconds, raw, input);
+        }
+
+        public Track withInput(InputScript input) {
+            return new Track(rom, track, output, seconds, fadeSeconds, silenceSeconds, raw, input);
+        }
+
+        public String getRom() {
+            return rom;
+        }
+
+        public int getTrack() {
+            return track;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * What came of rendering a track.
+     */
+    public static final class Result {
+
+        private final Track track;
+        private final long samples;
+        private final int frames;
+        private final boolean endedInSilence;
+
+        private Result(Track track, long samples, int frames, boolean endedInSilence) {
+            this.track = track;
+            this.samples = samples;
+            this.frames = frames;
+            this.endedInSilence = endedInSilence;
+        }
+
+        public Track getTrack() {
+            return track;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return true if it stopped early because the sound stopped
+         */
+        public boolean endedInSilence() {
+            return endedInSilence;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: AudioRenderer file.nsf outdir [seconds]");
+            System.exit(1);
+        }
+        final String rom = args[0];
+        final Path dir = Paths.get(args[1]);
+        final double seconds = (args.length > 2) ? Double.parseDouble(args[2]) : 150;
+        Files.createDirectories(dir);
+        final String name = FileUtils.stripExtension(FileUtils.getFilenamefromPath(rom));
+        //have to load it once to see how many tracks there are
+        final HeadlessUI probe = HeadlessUI.pooled(rom, false, EmulatorConfig.DEFAULTS);
+        final Mapper mapper = probe.getNESCPURAM().mapper;
+        final int count = (mapper instanceof NSFMapper) ? ((NSFMapper) mapper).getNumSongs() : 1;
+        final List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            final int t = (mapper instanceof NSFMapper) ? i : -1;
+            tracks.add(new Track(rom, t, dir.resolve(String.format("%s-%02d.wav", name, i + 1)))
+                    .withLength(seconds));
+        }
+        final AudioRenderer renderer = new AudioRenderer();
+        final long start = System.nanoTime();
+        for (Result r : renderer.renderAll(tracks)) {
+            System.out.println(r.getTrack().getOutput() + ": "
+                    + String.format("%.1f", r.getSamples() / (double) EmulatorConfig.DEFAULTS.getSampleRate())
+                    + " s" + (r.endedInSilence() ? " (ended in silence)" : ""));
+        }
+        System.out.println(String.format("done in %.1f s", (System.nanoTime() - start) / 1e9));
+        renderer.pool.shutdown();
+    }
+}
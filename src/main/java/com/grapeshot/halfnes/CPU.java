@@ -4,18 +4,27 @@
  */
 package com.grapeshot.halfnes;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+import com.grapeshot.halfnes.trace.TraceWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 
 public final class CPU {
 
     private final CPURAM ram;
     private int cycles; //increment to steal cycles from cpu
     public int clocks; //use for synchronizing with cpu
+    public long instructions; //count of instructions run, for benchmarks
+    //CPU cycles the PPU can let go by without calling runbatch,
+    //and how many it was told it could skip last time
+    public int idlecycles;
+    private int batch;
     private int A, X, Y, S; // registers
     public int PC;
     private boolean carryFlag = false, zeroFlag = false,
@@ -40,1211 +49,2573 @@ public final class CPU {
     private int hackAddr = 0;
     private int hackData = 0;
 
+    //alternate core: one small handler per opcode instead of the big switch
+    private final boolean useOptable;
+    private final Runnable[] optable;
+
     private static enum dummy {
 
-        ONCARRY, ALWAYS; //type of dummy read
+        ONCARRY, ALWAYS; //type of dummy read
+    }
+    OutputStreamWriter w; //debug log writer
+    //binary trace, null when it's off. Cycles from before this frame are in
+    //clockbase so the trace can count them up across frames
+    private TraceWriter trace;
+    private long clockbase, tracestart;
+
+    public CPU(final CPURAM cpuram) {
+        ram = cpuram;
+        //ram is the ONLY thing the cpu tries to talk to.
+        useOptable = ram.mapper != null && ram.mapper.getConfig().isTableCPU();
+        if (useOptable) {
+            optable = new Runnable[256];
+            buildOptable();
+        } else {
+            optable = null;
+        }
+        if (logging) {
+            startLog();
+        }
+    }
+
+    public void startLog() {
+        logging = true;
+        try {
+            w = new OutputStreamWriter(new FileOutputStream(new File("nesdebug.txt")), StandardCharsets.UTF_8); 
+        } catch (IOException e) {
+            System.err.println("Cannot create debug log" + e.getLocalizedMessage());
+        }
+    }
+
+    public void startLog(String path) {
+        logging = true;
+        try {
+            w = new OutputStreamWriter(new FileOutputStream(new File(path)), StandardCharsets.UTF_8); 
+        } catch (IOException e) {
+            System.err.println("Cannot create debug log" + e.getLocalizedMessage());
+        }
+    }
+
+    public void stopLog() {
+        logging = false;
+        flushLog();
+    }
+
+    /**
+     * Starts writing a binary trace of every instruction, which is a lot
+     * faster than the text log. See TraceWriter for the format and
+     * TraceConverter to turn it into text.
+     *
+     * @param path file to write
+     * @throws IOException if it can't be created
+     */
+    public void startTrace(String path) throws IOException {
+        stopTrace();
+        trace = new TraceWriter(Paths.get(path));
+        tracestart = clockbase + clocks;
+    }
+
+    /**
+     * Finishes writing the trace, if there is one.
+     *
+     * @throws IOException if any of it couldn't be written
+     */
+    public void stopTrace() throws IOException {
+        if (trace != null) {
+            final TraceWriter t = trace;
+            trace = null;
+            t.close();
+        }
+    }
+
+    public void init() {
+        init(null);
+    }
+
+    public void init(Integer initialPC) {// different than reset
+        // puts RAM in NES poweron state
+        for (int i = 0; i < 0x800; ++i) {
+            ram.write(i, 0xFF);
+        }
+
+        //poweron RAM values from one specific console (nesdev wiki pre-2015)
+        ram.write(0x0008, 0xF7);
+        ram.write(0x0009, 0xEF);
+        ram.write(0x000A, 0xDF);
+        ram.write(0x000F, 0xBF);
+
+        for (int i = 0x4000; i <= 0x400F; ++i) {
+            ram.write(i, 0x00);
+        }
+
+        ram.write(0x4015, 0x00);
+        ram.write(0x4017, 0x00);
+
+        //clocks = 27393; //correct for position we start vblank in
+        A = 0;
+        X = 0;
+        Y = 0;
+        S = 0xFD;
+        if (initialPC == null) {
+            PC = ram.read(0xFFFD) * 256 + ram.read(0xFFFC);
+        } else {
+            PC = initialPC;
+        }
+    }
+
+    public void reset() {
+        PC = ram.read(0xFFFD) * 256 + ram.read(0xFFFC);
+        ram.write(0x4015, 0);
+        ram.write(0x4017, ram.read(0x4017));
+        //disable audio on reset
+        S -= 3;
+        S &= 0xff;
+        interruptsDisabled = true;
+        //don't stay stuck skipping the idle loop it was in before
+        idle = false;
+    }
+
+    public void modcycles() {
+        //System.err.println(clocks);
+        sync();
+        clockbase += clocks;
+        clocks = 0;
+    }
+
+    /**
+     * Called by the PPU on a CPU cycle once idlecycles has run out. Catches up
+     * on the cycles that were skipped, runs this one, and sets idlecycles to
+     * how many of the following cycles are only counting down the last
+     * instruction, so the PPU doesn't have to call in for those.
+     *
+     * Nothing the CPU does depends on which of those cycles it's on: the
+     * registers only change at the start of an instruction, and the NMI line
+     * and IRQ count only get looked at there, so this comes out cycle for
+     * cycle the same as calling runcycle every time. DMC cycle stealing only
+     * adds to the countdown, so catching the APU up later doesn't change
+     * anything either.
+     *
+     * @param scanline for the debug log
+     * @param pixel for the debug log
+     */
+    public final void runbatch(final int scanline, final int pixel) {
+        clocks += batch;
+        cycles -= batch;
+        runcycle(scanline, pixel);
+        if (ram.apu.sprdma_count > 0 || cycles <= 0) {
+            //sprite dma counts down every cycle
+            batch = 0;
+        } else if (dirtyBattletoadsHack) {
+            //wake up in time for the delayed write
+            batch = cycles - 1;
+        } else {
+            batch = cycles;
+        }
+        idlecycles = batch;
+    }
+
+    /**
+     * Brings cycles and clocks up to date with the PPU and drops the rest of
+     * the current batch, so anything else looking at them sees the real
+     * values. The next CPU cycle goes through runbatch normally.
+     */
+    public final void sync() {
+        final int skipped = batch - idlecycles;
+        clocks += skipped;
+        cycles -= skipped;
+        batch = 0;
+        idlecycles = 0;
+    }
+
+    public void stealcycles(int cyclestosteal) {
+        cycles += cyclestosteal;
+        log("**STEAL " + cyclestosteal + "**");
+    }
+
+    public final void runcycle(final int scanline, final int pixel) {
+        if (clocks > ram.apu.nextevent) {
+            //APU is about to steal cycles or fire an irq, catch it up.
+            //otherwise it only needs syncing when its registers are touched
+            ram.apu.updateto(clocks);
+        }
+        ++clocks;
+
+        //guard against overflows
+//        if ((A & 0xff) != A) {
+//            System.err.println("houston we have A problem");
+//        }
+//        if ((X & 0xff) != X) {
+//            System.err.println("houston we have X problem");
+//        }
+//        if ((Y & 0xff) != Y) {
+//            System.err.println("houston we have Y problem");
+//        }
+//        if ((S & 0xff) != S) {
+//            System.err.println("houston we have S problem");
+//        }
+//        if ((PC & 0xffff) != PC) {
+//            System.err.println("houston we have PC problem");
+//        }
+        if (ram.apu.sprdma_count > 0) {
+            ram.apu.sprdma_count--;
+            if (ram.apu.sprdma_count == 0) {
+                cycles += 513;
+            }
+            //this doesn't look right any more
+            //who patched this in and when? (wasn't me, it was for some bug...)
+        }
+
+        if (dirtyBattletoadsHack && cycles == 1) {
+            ram.write(hackAddr, hackData);
+            dirtyBattletoadsHack = false;
+        }
+
+        if (cycles-- > 0) { //count down cycles until there is work to do again
+            return;
+        }
+        
+        //now we're at the start of a new instruction
+
+        //handle nmi requests (NMI line is edge sensitive not level sensitive)
+        if (nmiNext) {
+            nmi();
+            nmiNext = false;
+        }
+        if (nmi && !prevnmi) {//only trigger on positive rising edge of NMI
+            nmiNext = true;
+        }
+        prevnmi = nmi;
+
+        if (interrupt > 0) {
+            if (!interruptsDisabled && !interruptDelay) {
+                interrupt();
+                cycles += 7;
+                return;
+            } else if (interruptDelay) {
+                interruptDelay = false;
+                if (!previntflag) {
+                    interrupt();
+                    cycles += 7;
+                    return;
+                }
+            }
+        } else {
+            interruptDelay = false;
+        }
+
+        //Idle loop skipping
+        if (idle && idleLoopSkip) {
+            cycles += 3; //not accurate should depend on type of instr we skip decoding
+            return;
+        }
+
+        pb = 0;
+        final int instr = ram.read(PC++);
+        ++instructions;
+        if (trace != null) {
+            trace(instr, scanline, pixel);
+        }
+        //note: 
+        if (logging) {
+            //that looks redundant, but this is a really expensive operation to create the log string
+            //also, logging *might* trigger side effects if logging while executing
+            //code from i/o registers (reading twice). So we don't want to do it always.
+            //TODO: Optimize this! It gets called a LOT
+            //and slows logging to 16 fps
+            //even when not actually writing anything
+            String op = String.format(opcodes[instr],
+                    ram.read(PC),
+                    ram.read(PC + 1),
+                    PC + (byte) (ram.read(PC)) + 1);
+            log(utils.hex(PC - 1) + " " + utils.hex(instr)
+                    + String.format(" %-14s ", op)
+                    + status() + " CYC:" + pixel + " SL:" + scanline + "\n");
+        }
+        if (cycles == 0) {
+            flushLog();
+        }
+
+        if (useOptable) {
+            optable[instr].run();
+        } else {
+            switch (instr) {
+                // ADC
+                case 0x69:
+                    op69();
+                    break;
+                case 0x65:
+                    op65();
+                    break;
+                case 0x75:
+                    op75();
+                    break;
+                case 0x6d:
+                    op6d();
+                    break;
+                case 0x7d:
+                    op7d();
+                    break;
+                case 0x79:
+                    op79();
+                    break;
+                case 0x61:
+                    op61();
+                    break;
+                case 0x71:
+                    op71();
+                    break;
+                // AHX (unofficial)
+                case 0x93:
+                    op93();
+                    break;
+                case 0x9f:
+                    op9f();
+                    break;
+                // ALR (unofficial)
+                case 0x4b:
+                    op4b();
+                    break;
+                // ANC (unofficial)
+                case 0x0b:
+                    op0b();
+                    break;
+                case 0x2b:
+                    op2b();
+                    break;
+                // AND
+                case 0x29:
+                    op29();
+                    break;
+                case 0x25:
+                    op25();
+                    break;
+                case 0x35:
+                    op35();
+                    break;
+                case 0x2d:
+                    op2d();
+                    break;
+                case 0x3d:
+                    op3d();
+                    break;
+                case 0x39:
+                    op39();
+                    break;
+                case 0x21:
+                    op21();
+                    break;
+                case 0x31:
+                    op31();
+                    break;
+                // ARR (unofficial)
+                case 0x6b:
+                    op6b();
+                    break;
+                // ASL
+                case 0x0a:
+                    op0a();
+                    break;
+                case 0x06:
+                    op06();
+                    break;
+                case 0x16:
+                    op16();
+                    break;
+                case 0x0e:
+                    op0e();
+                    break;
+                case 0x1e:
+                    op1e();
+                    break;
+                // AXS (unofficial)
+                case 0xcb:
+                    opcb();
+                    break;
+                // BIT
+                case 0x24:
+                    op24();
+                    break;
+                case 0x2c:
+                    op2c();
+                    break;
+                // Branches: every branch uses rel. addressing
+                case 0x10:
+                    op10();
+                    break;
+                case 0x30:
+                    op30();
+                    break;
+                case 0x50:
+                    op50();
+                    break;
+                case 0x70:
+                    op70();
+                    break;
+                case 0x90:
+                    op90();
+                    break;
+                case 0xb0:
+                    opb0();
+                    break;
+                case 0xd0:
+                    opd0();
+                    break;
+                case 0xf0:
+                    opf0();
+                    break;
+                // BRK
+                case 0x00:
+                    op00();
+                    break;
+                // CMP
+                case 0xc9:
+                    opc9();
+                    break;
+                case 0xc5:
+                    opc5();
+                    break;
+                case 0xd5:
+                    opd5();
+                    break;
+                case 0xcd:
+                    opcd();
+                    break;
+                case 0xdd:
+                    opdd();
+                    break;
+                case 0xd9:
+                    opd9();
+                    break;
+                case 0xc1:
+                    opc1();
+                    break;
+                case 0xd1:
+                    opd1();
+                    break;
+                // CPX
+                case 0xe0:
+                    ope0();
+                    break;
+                case 0xe4:
+                    ope4();
+                    break;
+                case 0xec:
+                    opec();
+                    break;
+                // CPY
+                case 0xc0:
+                    opc0();
+                    break;
+                case 0xc4:
+                    opc4();
+                    break;
+                case 0xcc:
+                    opcc();
+                    break;
+                // DEC
+                case 0xc6:
+                    opc6();
+                    break;
+                case 0xd6:
+                    opd6();
+                    break;
+                case 0xce:
+                    opce();
+                    break;
+                case 0xde:
+                    opde();
+                    break;
+                // DCP (unofficial)
+                case 0xc3:
+                    opc3();
+                    break;
+                case 0xd3:
+                    opd3();
+                    break;
+                case 0xc7:
+                    opc7();
+                    break;
+                case 0xd7:
+                    opd7();
+                    break;
+                case 0xdb:
+                    opdb();
+                    break;
+                case 0xcf:
+                    opcf();
+                    break;
+                case 0xdf:
+                    opdf();
+                    break;
+                // EOR
+                case 0x49:
+                    op49();
+                    break;
+                case 0x45:
+                    op45();
+                    break;
+                case 0x55:
+                    op55();
+                    break;
+                case 0x4d:
+                    op4d();
+                    break;
+                case 0x5d:
+                    op5d();
+                    break;
+                case 0x59:
+                    op59();
+                    break;
+                case 0x41:
+                    op41();
+                    break;
+                case 0x51:
+                    op51();
+                    break;
+                // Flag set/clear
+                case 0x18:
+                    op18();
+                    break;
+                case 0x38:
+                    op38();
+                    break;
+                case 0x58:
+                    op58();
+                    break;
+                case 0x78:
+                    op78();
+                    break;
+                case 0xb8:
+                    opb8();
+                    break;
+                case 0xd8:
+                    opd8();
+                    break;
+                case 0xf8:
+                    opf8();
+                    break;
+                // INC
+                case 0xe6:
+                    ope6();
+                    break;
+                case 0xf6:
+                    opf6();
+                    break;
+                case 0xee:
+                    opee();
+                    break;
+                case 0xfe:
+                    opfe();
+                    break;
+                // ISC (unofficial)
+                case 0xe3:
+                    ope3();
+                    break;
+                case 0xf3:
+                    opf3();
+                    break;
+                case 0xe7:
+                    ope7();
+                    break;
+                case 0xf7:
+                    opf7();
+                    break;
+                case 0xfb:
+                    opfb();
+                    break;
+                case 0xef:
+                    opef();
+                    break;
+                case 0xff:
+                    opff();
+                    break;
+                // JMP
+                case 0x4c:
+                    op4c();
+                    break;
+                case 0x6c:
+                    op6c();
+                    break;
+                // JSR
+                case 0x20:
+                    op20();
+                    break;
+                // KIL (unofficial)
+                case 0x02:
+                case 0x12:
+                case 0x22:
+                case 0x32:
+                case 0x42:
+                case 0x52:
+                case 0x62:
+                case 0x72:
+                case 0x92:
+                case 0xb2:
+                case 0xd2:
+                case 0xf2:
+                    op02();
+                    break;
+                // LAS (unofficial)
+                case 0xbb:
+                    opbb();
+                    break;
+                // LAX (unofficial)
+                case 0xa3:
+                    opa3();
+                    break;
+                case 0xb3:
+                    opb3();
+                    break;
+                case 0xa7:
+                    opa7();
+                    break;
+                case 0xb7:
+                    opb7();
+                    break;
+                case 0xab:
+                    opab();
+                    break;
+                case 0xaf:
+                    opaf();
+                    break;
+                case 0xbf:
+                    opbf();
+                    break;
+                // LDA
+                case 0xa9:
+                    opa9();
+                    break;
+                case 0xa5:
+                    opa5();
+                    break;
+                case 0xb5:
+                    opb5();
+                    break;
+                case 0xad:
+                    opad();
+                    break;
+                case 0xbd:
+                    opbd();
+                    break;
+                case 0xb9:
+                    opb9();
+                    break;
+                case 0xa1:
+                    opa1();
+                    break;
+                case 0xb1:
+                    opb1();
+                    break;
+                // LDX
+                case 0xa2:
+                    opa2();
+                    break;
+                case 0xa6:
+                    opa6();
+                    break;
+                case 0xb6:
+                    opb6();
+                    break;
+                case 0xae:
+                    opae();
+                    break;
+                case 0xbe:
+                    opbe();
+                    break;
+                // LDY
+                case 0xa0:
+                    opa0();
+                    break;
+                case 0xa4:
+                    opa4();
+                    break;
+                case 0xb4:
+                    opb4();
+                    break;
+                case 0xac:
+                    opac();
+                    break;
+                case 0xbc:
+                    opbc();
+                    break;
+                // LSR
+                case 0x4a:
+                    op4a();
+                    break;
+                case 0x46:
+                    op46();
+                    break;
+                case 0x56:
+                    op56();
+                    break;
+                case 0x4e:
+                    op4e();
+                    break;
+                case 0x5e:
+                    op5e();
+                    break;
+                // NOP
+                case 0x1a:
+                case 0x3a:
+                case 0x5a:
+                case 0x7a:
+                case 0xda:
+                case 0xea:
+                case 0xfa:
+                    op1a();
+                    break;
+                case 0x80:
+                case 0x82:
+                case 0xc2:
+                case 0xe2:
+                case 0x89:
+                    op80();
+                    break;
+                case 0x04:
+                case 0x44:
+                case 0x64:
+                    op04();
+                    break;
+                case 0x14:
+                case 0x34:
+                case 0x54:
+                case 0x74:
+                case 0xd4:
+                case 0xf4:
+                    op14();
+                    break;
+                case 0x0c:
+                    op0c();
+                    break;
+                case 0x1c:
+                case 0x3c:
+                case 0x5c:
+                case 0x7c:
+                case 0xdc:
+                case 0xfc:
+                    op1c();
+                    break;
+                // ORA
+                case 0x09:
+                    op09();
+                    break;
+                case 0x05:
+                    op05();
+                    break;
+                case 0x15:
+                    op15();
+                    break;
+                case 0x0d:
+                    op0d();
+                    break;
+                case 0x1d:
+                    op1d();
+                    break;
+                case 0x19:
+                    op19();
+                    break;
+                case 0x01:
+                    op01();
+                    break;
+                case 0x11:
+                    op11();
+                    break;
+                // Register instrs.
+                case 0xaa:
+                    opaa();
+                    break;
+                case 0x8a:
+                    op8a();
+                    break;
+                case 0xca:
+                    opca();
+                    break;
+                case 0xe8:
+                    ope8();
+                    break;
+                case 0xa8:
+                    opa8();
+                    break;
+                case 0x98:
+                    op98();
+                    break;
+                case 0x88:
+                    op88();
+                    break;
+                case 0xc8:
+                    opc8();
+                    break;
+                // RLA (unofficial)
+                case 0x23:
+                    op23();
+                    break;
+                case 0x33:
+                    op33();
+                    break;
+                case 0x27:
+                    op27();
+                    break;
+                case 0x37:
+                    op37();
+                    break;
+                case 0x3b:
+                    op3b();
+                    break;
+                case 0x2f:
+                    op2f();
+                    break;
+                case 0x3f:
+                    op3f();
+                    break;
+                // ROL
+                case 0x2a:
+                    op2a();
+                    break;
+                case 0x26:
+                    op26();
+                    break;
+                case 0x36:
+                    op36();
+                    break;
+                case 0x2e:
+                    op2e();
+                    break;
+                case 0x3e:
+                    op3e();
+                    break;
+                // ROR
+                case 0x6a:
+                    op6a();
+                    break;
+                case 0x66:
+                    op66();
+                    break;
+                case 0x76:
+                    op76();
+                    break;
+                case 0x6e:
+                    op6e();
+                    break;
+                case 0x7e:
+                    op7e();
+                    break;
+                // RRA (unofficial)
+                case 0x63:
+                    op63();
+                    break;
+                case 0x73:
+                    op73();
+                    break;
+                case 0x67:
+                    op67();
+                    break;
+                case 0x77:
+                    op77();
+                    break;
+                case 0x7b:
+                    op7b();
+                    break;
+                case 0x6f:
+                    op6f();
+                    break;
+                case 0x7f:
+                    op7f();
+                    break;
+                // RTI
+                case 0x40:
+                    op40();
+                    break;
+                // RTS
+                case 0x60:
+                    op60();
+                    break;
+                // SAX (unofficial)
+                case 0x83:
+                    op83();
+                    break;
+                case 0x87:
+                    op87();
+                    break;
+                case 0x97:
+                    op97();
+                    break;
+                case 0x8f:
+                    op8f();
+                    break;
+                // SBC
+                case 0xe1:
+                    ope1();
+                    break;
+                case 0xf1:
+                    opf1();
+                    break;
+                case 0xe5:
+                    ope5();
+                    break;
+                case 0xf5:
+                    opf5();
+                    break;
+                case 0xe9:
+                    ope9();
+                    break;
+                case 0xf9:
+                    opf9();
+                    break;
+                case 0xeb:
+                    opeb();
+                    break;
+                case 0xed:
+                    oped();
+                    break;
+                case 0xfd:
+                    opfd();
+                    break;
+                // SHX (unofficial)
+                case 0x9e:
+                    op9e();
+                    break;
+                // SHY (unofficial)
+                case 0x9c:
+                    op9c();
+                    break;
+                // SLO (unofficial)
+                case 0x03:
+                    op03();
+                    break;
+                case 0x07:
+                    op07();
+                    break;
+                case 0x0f:
+                    op0f();
+                    break;
+                case 0x13:
+                    op13();
+                    break;
+                case 0x17:
+                    op17();
+                    break;
+                case 0x1b:
+                    op1b();
+                    break;
+                case 0x1f:
+                    op1f();
+                    break;
+                // SRE (unofficial)
+                case 0x43:
+                    op43();
+                    break;
+                case 0x53:
+                    op53();
+                    break;
+                case 0x47:
+                    op47();
+                    break;
+                case 0x57:
+                    op57();
+                    break;
+                case 0x5b:
+                    op5b();
+                    break;
+                case 0x4f:
+                    op4f();
+                    break;
+                case 0x5f:
+                    op5f();
+                    break;
+                // STA
+                case 0x85:
+                    op85();
+                    break;
+                case 0x95:
+                    op95();
+                    break;
+                case 0x8d:
+                    op8d();
+                    break;
+                case 0x9d:
+                    op9d();
+                    break;
+                case 0x99:
+                    op99();
+                    break;
+                case 0x81:
+                    op81();
+                    break;
+                case 0x91:
+                    op91();
+                    break;
+                // Stack instructions
+                case 0x9a:
+                    op9a();
+                    break;
+                case 0xba:
+                    opba();
+                    break;
+                case 0x48:
+                    op48();
+                    break;
+                case 0x68:
+                    op68();
+                    break;
+                case 0x08:
+                    op08();
+                    break;
+                case 0x28:
+                    op28();
+                    break;
+                // STX
+                case 0x86:
+                    op86();
+                    break;
+                case 0x96:
+                    op96();
+                    break;
+                case 0x8e:
+                    op8e();
+                    break;
+                // STY
+                case 0x84:
+                    op84();
+                    break;
+                case 0x94:
+                    op94();
+                    break;
+                case 0x8c:
+                    op8c();
+                    break;
+                // TAS (unofficial)
+                case 0x9b:
+                    op9b();
+                    break;
+                // XAA (unofficial)
+                case 0x8b:
+                    op8b();
+                    break;
+                default:
+                    cycles += 2;
+                    System.err.println("Illegal opcode:" + utils.hex(instr) + " @ "
+                            + utils.hex(PC - 1));
+                    break;
+            }
+        }
+        pb = 0;
+        PC &= 0xffff;
+    }
+
+    /**
+     * Fills in the handler table for the table driven core. The switch in
+     * runcycle and this table both call the same opXX methods, so each
+     * instruction is only written once.
+     */
+    private void buildOptable() {
+        // ADC
+        optable[0x69] = this::op69;
+        optable[0x65] = this::op65;
+        optable[0x75] = this::op75;
+        optable[0x6d] = this::op6d;
+        optable[0x7d] = this::op7d;
+        optable[0x79] = this::op79;
+        optable[0x61] = this::op61;
+        optable[0x71] = this::op71;
+        // AHX (unofficial)
+        optable[0x93] = this::op93;
+        optable[0x9f] = this::op9f;
+        // ALR (unofficial)
+        optable[0x4b] = this::op4b;
+        // ANC (unofficial)
+        optable[0x0b] = this::op0b;
+        optable[0x2b] = this::op2b;
+        // AND
+        optable[0x29] = this::op29;
+        optable[0x25] = this::op25;
+        optable[0x35] = this::op35;
+        optable[0x2d] = this::op2d;
+        optable[0x3d] = this::op3d;
+        optable[0x39] = this::op39;
+        optable[0x21] = this::op21;
+        optable[0x31] = this::op31;
+        // ARR (unofficial)
+        optable[0x6b] = this::op6b;
+        // ASL
+        optable[0x0a] = this::op0a;
+        optable[0x06] = this::op06;
+        optable[0x16] = this::op16;
+        optable[0x0e] = this::op0e;
+        optable[0x1e] = this::op1e;
+        // AXS (unofficial)
+        optable[0xcb] = this::opcb;
+        // BIT
+        optable[0x24] = this::op24;
+        optable[0x2c] = this::op2c;
+        // Branches: every branch uses rel. addressing
+        optable[0x10] = this::op10;
+        optable[0x30] = this::op30;
+        optable[0x50] = this::op50;
+        optable[0x70] = this::op70;
+        optable[0x90] = this::op90;
+        optable[0xb0] = this::opb0;
+        optable[0xd0] = this::opd0;
+        optable[0xf0] = this::opf0;
+        // BRK
+        optable[0x00] = this::op00;
+        // CMP
+        optable[0xc9] = this::opc9;
+        optable[0xc5] = this::opc5;
+        optable[0xd5] = this::opd5;
+        optable[0xcd] = this::opcd;
+        optable[0xdd] = this::opdd;
+        optable[0xd9] = this::opd9;
+        optable[0xc1] = this::opc1;
+        optable[0xd1] = this::opd1;
+        // CPX
+        optable[0xe0] = this::ope0;
+        optable[0xe4] = this::ope4;
+        optable[0xec] = this::opec;
+        // CPY
+        optable[0xc0] = this::opc0;
+        optable[0xc4] = this::opc4;
+        optable[0xcc] = this::opcc;
+        // DEC
+        optable[0xc6] = this::opc6;
+        optable[0xd6] = this::opd6;
+        optable[0xce] = this::opce;
+        optable[0xde] = this::opde;
+        // DCP (unofficial)
+        optable[0xc3] = this::opc3;
+        optable[0xd3] = this::opd3;
+        optable[0xc7] = this::opc7;
+        optable[0xd7] = this::opd7;
+        optable[0xdb] = this::opdb;
+        optable[0xcf] = this::opcf;
+        optable[0xdf] = this::opdf;
+        // EOR
+        optable[0x49] = this::op49;
+        optable[0x45] = this::op45;
+        optable[0x55] = this::op55;
+        optable[0x4d] = this::op4d;
+        optable[0x5d] = this::op5d;
+        optable[0x59] = this::op59;
+        optable[0x41] = this::op41;
+        optable[0x51] = this::op51;
+        // Flag set/clear
+        optable[0x18] = this::op18;
+        optable[0x38] = this::op38;
+        optable[0x58] = this::op58;
+        optable[0x78] = this::op78;
+        optable[0xb8] = this::opb8;
+        optable[0xd8] = this::opd8;
+        optable[0xf8] = this::opf8;
+        // INC
+        optable[0xe6] = this::ope6;
+        optable[0xf6] = this::opf6;
+        optable[0xee] = this::opee;
+        optable[0xfe] = this::opfe;
+        // ISC (unofficial)
+        optable[0xe3] = this::ope3;
+        optable[0xf3] = this::opf3;
+        optable[0xe7] = this::ope7;
+        optable[0xf7] = this::opf7;
+        optable[0xfb] = this::opfb;
+        optable[0xef] = this::opef;
+        optable[0xff] = this::opff;
+        // JMP
+        optable[0x4c] = this::op4c;
+        optable[0x6c] = this::op6c;
+        // JSR
+        optable[0x20] = this::op20;
+        // KIL (unofficial)
+        optable[0x02] = this::op02;
+        optable[0x12] = this::op02;
+        optable[0x22] = this::op02;
+        optable[0x32] = this::op02;
+        optable[0x42] = this::op02;
+        optable[0x52] = this::op02;
+        optable[0x62] = this::op02;
+        optable[0x72] = this::op02;
+        optable[0x92] = this::op02;
+        optable[0xb2] = this::op02;
+        optable[0xd2] = this::op02;
+        optable[0xf2] = this::op02;
+        // LAS (unofficial)
+        optable[0xbb] = this::opbb;
+        // LAX (unofficial)
+        optable[0xa3] = this::opa3;
+        optable[0xb3] = this::opb3;
+        optable[0xa7] = this::opa7;
+        optable[0xb7] = this::opb7;
+        optable[0xab] = this::opab;
+        optable[0xaf] = this::opaf;
+        optable[0xbf] = this::opbf;
+        // LDA
+        optable[0xa9] = this::opa9;
+        optable[0xa5] = this::opa5;
+        optable[0xb5] = this::opb5;
+        optable[0xad] = this::opad;
+        optable[0xbd] = this::opbd;
+        optable[0xb9] = this::opb9;
+        optable[0xa1] = this::opa1;
+        optable[0xb1] = this::opb1;
+        // LDX
+        optable[0xa2] = this::opa2;
+        optable[0xa6] = this::opa6;
+        optable[0xb6] = this::opb6;
+        optable[0xae] = this::opae;
+        optable[0xbe] = this::opbe;
+        // LDY
+        optable[0xa0] = this::opa0;
+        optable[0xa4] = this::opa4;
+        optable[0xb4] = this::opb4;
+        optable[0xac] = this::opac;
+        optable[0xbc] = this::opbc;
+        // LSR
+        optable[0x4a] = this::op4a;
+        optable[0x46] = this::op46;
+        optable[0x56] = this::op56;
+        optable[0x4e] = this::op4e;
+        optable[0x5e] = this::op5e;
+        // NOP
+        optable[0x1a] = this::op1a;
+        optable[0x3a] = this::op1a;
+        optable[0x5a] = this::op1a;
+        optable[0x7a] = this::op1a;
+        optable[0xda] = this::op1a;
+        optable[0xea] = this::op1a;
+        optable[0xfa] = this::op1a;
+        optable[0x80] = this::op80;
+        optable[0x82] = this::op80;
+        optable[0xc2] = this::op80;
+        optable[0xe2] = this::op80;
+        optable[0x89] = this::op80;
+        optable[0x04] = this::op04;
+        optable[0x44] = this::op04;
+        optable[0x64] = this::op04;
+        optable[0x14] = this::op14;
+        optable[0x34] = this::op14;
+        optable[0x54] = this::op14;
+        optable[0x74] = this::op14;
+        optable[0xd4] = this::op14;
+        optable[0xf4] = this::op14;
+        optable[0x0c] = this::op0c;
+        optable[0x1c] = this::op1c;
+        optable[0x3c] = this::op1c;
+        optable[0x5c] = this::op1c;
+        optable[0x7c] = this::op1c;
+        optable[0xdc] = this::op1c;
+        optable[0xfc] = this::op1c;
+        // ORA
+        optable[0x09] = this::op09;
+        optable[0x05] = this::op05;
+        optable[0x15] = this::op15;
+        optable[0x0d] = this::op0d;
+        optable[0x1d] = this::op1d;
+        optable[0x19] = this::op19;
+        optable[0x01] = this::op01;
+        optable[0x11] = this::op11;
+        // Register instrs.
+        optable[0xaa] = this::opaa;
+        optable[0x8a] = this::op8a;
+        optable[0xca] = this::opca;
+        optable[0xe8] = this::ope8;
+        optable[0xa8] = this::opa8;
+        optable[0x98] = this::op98;
+        optable[0x88] = this::op88;
+        optable[0xc8] = this::opc8;
+        // RLA (unofficial)
+        optable[0x23] = this::op23;
+        optable[0x33] = this::op33;
+        optable[0x27] = this::op27;
+        optable[0x37] = this::op37;
+        optable[0x3b] = this::op3b;
+        optable[0x2f] = this::op2f;
+        optable[0x3f] = this::op3f;
+        // ROL
+        optable[0x2a] = this::op2a;
+        optable[0x26] = this::op26;
+        optable[0x36] = this::op36;
+        optable[0x2e] = this::op2e;
+        optable[0x3e] = this::op3e;
+        // ROR
+        optable[0x6a] = this::op6a;
+        optable[0x66] = this::op66;
+        optable[0x76] = this::op76;
+        optable[0x6e] = this::op6e;
+        optable[0x7e] = this::op7e;
+        // RRA (unofficial)
+        optable[0x63] = this::op63;
+        optable[0x73] = this::op73;
+        optable[0x67] = this::op67;
+        optable[0x77] = this::op77;
+        optable[0x7b] = this::op7b;
+        optable[0x6f] = this::op6f;
+        optable[0x7f] = this::op7f;
+        // RTI
+        optable[0x40] = this::op40;
+        // RTS
+        optable[0x60] = this::op60;
+        // SAX (unofficial)
+        optable[0x83] = this::op83;
+        optable[0x87] = this::op87;
+        optable[0x97] = this::op97;
+        optable[0x8f] = this::op8f;
+        // SBC
+        optable[0xe1] = this::ope1;
+        optable[0xf1] = this::opf1;
+        optable[0xe5] = this::ope5;
+        optable[0xf5] = this::opf5;
+        optable[0xe9] = this::ope9;
+        optable[0xf9] = this::opf9;
+        optable[0xeb] = this::opeb;
+        optable[0xed] = this::oped;
+        optable[0xfd] = this::opfd;
+        // SHX (unofficial)
+        optable[0x9e] = this::op9e;
+        // SHY (unofficial)
+        optable[0x9c] = this::op9c;
+        // SLO (unofficial)
+        optable[0x03] = this::op03;
+        optable[0x07] = this::op07;
+        optable[0x0f] = this::op0f;
+        optable[0x13] = this::op13;
+        optable[0x17] = this::op17;
+        optable[0x1b] = this::op1b;
+        optable[0x1f] = this::op1f;
+        // SRE (unofficial)
+        optable[0x43] = this::op43;
+        optable[0x53] = this::op53;
+        optable[0x47] = this::op47;
+        optable[0x57] = this::op57;
+        optable[0x5b] = this::op5b;
+        optable[0x4f] = this::op4f;
+        optable[0x5f] = this::op5f;
+        // STA
+        optable[0x85] = this::op85;
+        optable[0x95] = this::op95;
+        optable[0x8d] = this::op8d;
+        optable[0x9d] = this::op9d;
+        optable[0x99] = this::op99;
+        optable[0x81] = this::op81;
+        optable[0x91] = this::op91;
+        // Stack instructions
+        optable[0x9a] = this::op9a;
+        optable[0xba] = this::opba;
+        optable[0x48] = this::op48;
+        optable[0x68] = this::op68;
+        optable[0x08] = this::op08;
+        optable[0x28] = this::op28;
+        // STX
+        optable[0x86] = this::op86;
+        optable[0x96] = this::op96;
+        optable[0x8e] = this::op8e;
+        // STY
+        optable[0x84] = this::op84;
+        optable[0x94] = this::op94;
+        optable[0x8c] = this::op8c;
+        // TAS (unofficial)
+        optable[0x9b] = this::op9b;
+        // XAA (unofficial)
+        optable[0x8b] = this::op8b;
+    }
+
+    //one method per opcode, or per group of unofficial opcodes that all do
+    //the same thing. Named after the first opcode in the group.
+    // ADC
+    private void op69() {
+        adc(imm());
+        cycles += 2;
+    }
+
+    private void op65() {
+        adc(zpg());
+        cycles += 3;
+    }
+
+    private void op75() {
+        adc(zpg(X));
+        cycles += 4;
+    }
+
+    private void op6d() {
+        adc(abs());
+        cycles += 4;
+    }
+
+    private void op7d() {
+        adc(abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op79() {
+        adc(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op61() {
+        adc(indX());
+        cycles += 6;
+    }
+
+    private void op71() {
+        adc(indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
+
+    // AHX (unofficial)
+    private void op93() {
+        ahx(indY(dummy.ALWAYS));
+        cycles += 6;
+    }
+
+    private void op9f() {
+        ahx(abs(Y, dummy.ALWAYS));
+        cycles += 5;
+    }
+
+    // ALR (unofficial)
+    private void op4b() {
+        alr(imm());
+        cycles += 2;
+    }
+
+    // ANC (unofficial)
+    private void op0b() {
+        anc(imm());
+        cycles += 2;
+    }
+
+    private void op2b() {
+        anc(imm());
+        cycles += 2;
+    }
+
+    // AND
+    private void op29() {
+        and(imm());
+        cycles += 2;
+    }
+
+    private void op25() {
+        and(zpg());
+        cycles += 3;
+    }
+
+    private void op35() {
+        and(zpg(X));
+        cycles += 4;
+    }
+
+    private void op2d() {
+        and(abs());
+        cycles += 4;
+    }
+
+    private void op3d() {
+        and(abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op39() {
+        and(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op21() {
+        and(indX());
+        cycles += 6;
+    }
+
+    private void op31() {
+        and(indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
+
+    // ARR (unofficial)
+    private void op6b() {
+        arr(imm());
+        cycles += 2;
+    }
+
+    // ASL
+    private void op0a() {
+        aslA();
+        cycles += 2;
+    }
+
+    private void op06() {
+        asl(zpg());
+        cycles += 5;
+    }
+
+    private void op16() {
+        asl(zpg(X));
+        cycles += 6;
+    }
+
+    private void op0e() {
+        asl(abs());
+        cycles += 6;
+    }
+
+    private void op1e() {
+        asl(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // AXS (unofficial)
+    private void opcb() {
+        axs(imm());
+        cycles += 2;
+    }
+
+    // BIT
+    private void op24() {
+        bit(zpg());
+        cycles += 3;
+    }
+
+    private void op2c() {
+        bit(abs());
+        cycles += 4;
+    }
+
+    // Branches: every branch uses rel. addressing
+    private void op10() {
+        branch(!negativeFlag);
+        cycles += 2 + pb;
+    }
+
+    private void op30() {
+        branch(negativeFlag);
+        cycles += 2 + pb;
+    }
+
+    private void op50() {
+        branch(!overflowFlag);
+        cycles += 2 + pb;
+    }
+
+    private void op70() {
+        branch(overflowFlag);
+        cycles += 2 + pb;
+    }
+
+    private void op90() {
+        branch(!carryFlag);
+        cycles += 2 + pb;
+    }
+
+    private void opb0() {
+        branch(carryFlag);
+        cycles += 2 + pb;
+    }
+
+    private void opd0() {
+        branch(!zeroFlag);
+        cycles += 2 + pb;
+    }
+
+    private void opf0() {
+        branch(zeroFlag);
+        cycles += 2 + pb;
+    }
+
+    // BRK
+    private void op00() {
+        //System.err.println("Hey! A break!");
+        breakinterrupt();
+        cycles += 7;
+    }
+
+    // CMP
+    private void opc9() {
+        cmp(A, imm());
+        cycles += 2;
+    }
+
+    private void opc5() {
+        cmp(A, zpg());
+        cycles += 3;
+    }
+
+    private void opd5() {
+        cmp(A, zpg(X));
+        cycles += 4;
+    }
+
+    private void opcd() {
+        cmp(A, abs());
+        cycles += 4;
+    }
+
+    private void opdd() {
+        cmp(A, abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void opd9() {
+        cmp(A, abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void opc1() {
+        cmp(A, indX());
+        cycles += 6;
+    }
+
+    private void opd1() {
+        cmp(A, indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
+
+    // CPX
+    private void ope0() {
+        cmp(X, imm());
+        cycles += 2;
+    }
+
+    private void ope4() {
+        cmp(X, zpg());
+        cycles += 3;
+    }
+
+    private void opec() {
+        cmp(X, abs());
+        cycles += 4;
+    }
+
+    // CPY
+    private void opc0() {
+        cmp(Y, imm());
+        cycles += 2;
+    }
+
+    private void opc4() {
+        cmp(Y, zpg());
+        cycles += 3;
+    }
+
+    private void opcc() {
+        cmp(Y, abs());
+        cycles += 4;
+    }
+
+    // DEC
+    private void opc6() {
+        dec(zpg());
+        cycles += 5;
+    }
+
+    private void opd6() {
+        dec(zpg(X));
+        cycles += 6;
+    }
+
+    private void opce() {
+        dec(abs());
+        cycles += 6;
+    }
+
+    private void opde() {
+        dec(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // DCP (unofficial)
+    private void opc3() {
+        dcp(A, indX());
+        cycles += 8;
+    }
+
+    private void opd3() {
+        dcp(A, indY(dummy.ALWAYS));
+        cycles += 8;
+    }
+
+    private void opc7() {
+        dcp(A, zpg());
+        cycles += 5;
+    }
+
+    private void opd7() {
+        dcp(A, zpg(X));
+        cycles += 6;
+    }
+
+    private void opdb() {
+        dcp(A, abs(Y, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    private void opcf() {
+        dcp(A, abs());
+        cycles += 6;
+    }
+
+    private void opdf() {
+        dcp(A, abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // EOR
+    private void op49() {
+        eor(imm());
+        cycles += 2;
+    }
+
+    private void op45() {
+        eor(zpg());
+        cycles += 3;
+    }
+
+    private void op55() {
+        eor(zpg(X));
+        cycles += 4;
+    }
+
+    private void op4d() {
+        eor(abs());
+        cycles += 4;
+    }
+
+    private void op5d() {
+        eor(abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op59() {
+        eor(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op41() {
+        eor(indX());
+        cycles += 6;
+    }
+
+    private void op51() {
+        eor(indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
+
+    // Flag set/clear
+    private void op18() {
+        carryFlag = false;
+        cycles += 2;
+    }
+
+    private void op38() {
+        carryFlag = true;
+        cycles += 2;
+    }
+
+    private void op58() {
+        //cli
+        //interrupts shouldn't fire for 1 cycle after cli
+        delayInterrupt();
+        interruptsDisabled = false;
+        cycles += 2;
+    }
+
+    private void op78() {
+        //sei
+        delayInterrupt();
+        interruptsDisabled = true;
+        cycles += 2;
+    }
+
+    private void opb8() {
+        overflowFlag = false;
+        cycles += 2;
+    }
+
+    private void opd8() {
+        //decimal mode doesn't do anything on NES
+        decimalModeFlag = false;
+        cycles += 2;
+    }
+
+    private void opf8() {
+        decimalModeFlag = true;
+        cycles += 2;
+    }
+
+    // INC
+    private void ope6() {
+        inc(zpg());
+        cycles += 5;
+    }
+
+    private void opf6() {
+        inc(zpg(X));
+        cycles += 6;
+    }
+
+    private void opee() {
+        inc(abs());
+        cycles += 6;
+    }
+
+    private void opfe() {
+        inc(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // ISC (unofficial)
+    private void ope3() {
+        isc(indX());
+        cycles += 8;
+    }
+
+    private void opf3() {
+        isc(indY(dummy.ALWAYS));
+        cycles += 8;
+    }
+
+    private void ope7() {
+        isc(zpg());
+        cycles += 5;
+    }
+
+    private void opf7() {
+        isc(zpg(X));
+        cycles += 6;
+    }
+
+    private void opfb() {
+        isc(abs(Y, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    private void opef() {
+        isc(abs());
+        cycles += 6;
+    }
+
+    private void opff() {
+        isc(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // JMP
+    private void op4c() {
+        int tempe = PC;
+        PC = abs();
+        if (PC == (tempe - 1)) {
+            idle = true;
+        }
+        cycles += 3;
+    }
+
+    private void op6c() {
+        int tempf = PC;
+        PC = ind();
+        if (PC == (tempf - 1)) {
+            idle = true;
+        }
+        cycles += 5;
+    }
+
+    // JSR
+    private void op20() {
+        jsr(abs());
+        cycles += 6;
+    }
+
+    // KIL (unofficial)
+    private void op02() {
+        System.err.println("KIL - CPU locked");
+        flushLog();
+        ram.apu.nes.runEmulation = false;
+    }
+
+    // LAS (unofficial)
+    private void opbb() {
+        las(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    // LAX (unofficial)
+    private void opa3() {
+        lax(indX());
+        cycles += 6;
+    }
+
+    private void opb3() {
+        lax(indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
+
+    private void opa7() {
+        lax(zpg());
+        cycles += 3;
+    }
+
+    private void opb7() {
+        lax(zpg(Y));
+        cycles += 4;
+    }
+
+    private void opab() {
+        lax(imm());
+        cycles += 2;
+    }
+
+    private void opaf() {
+        lax(abs());
+        cycles += 4;
+    }
+
+    private void opbf() {
+        lax(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    // LDA
+    private void opa9() {
+        lda(imm());
+        cycles += 2;
+    }
+
+    private void opa5() {
+        lda(zpg());
+        cycles += 3;
+    }
+
+    private void opb5() {
+        lda(zpg(X));
+        cycles += 4;
+    }
+
+    private void opad() {
+        lda(abs());
+        cycles += 4;
+    }
+
+    private void opbd() {
+        lda(abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void opb9() {
+        lda(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void opa1() {
+        lda(indX());
+        cycles += 6;
+    }
+
+    private void opb1() {
+        lda(indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
+
+    // LDX
+    private void opa2() {
+        ldx(imm());
+        cycles += 2;
+    }
+
+    private void opa6() {
+        ldx(zpg());
+        cycles += 3;
+    }
+
+    private void opb6() {
+        ldx(zpg(Y));
+        cycles += 4;
+    }
+
+    private void opae() {
+        ldx(abs());
+        cycles += 4;
+    }
+
+    private void opbe() {
+        ldx(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    // LDY
+    private void opa0() {
+        ldy(imm());
+        cycles += 2;
+    }
+
+    private void opa4() {
+        ldy(zpg());
+        cycles += 3;
+    }
+
+    private void opb4() {
+        ldy(zpg(X));
+        cycles += 4;
+    }
+
+    private void opac() {
+        ldy(abs());
+        cycles += 4;
+    }
+
+    private void opbc() {
+        ldy(abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    // LSR
+    private void op4a() {
+        lsrA();
+        cycles += 2;
+    }
+
+    private void op46() {
+        lsr(zpg());
+        cycles += 5;
+    }
+
+    private void op56() {
+        lsr(zpg(X));
+        cycles += 6;
+    }
+
+    private void op4e() {
+        lsr(abs());
+        cycles += 6;
+    }
+
+    private void op5e() {
+        lsr(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // NOP
+    private void op1a() {
+        cycles += 2;
+    }
+
+    private void op80() {
+        imm();
+        cycles += 2;
+    }
+
+    private void op04() {
+        zpg();
+        cycles += 3;
+    }
+
+    private void op14() {
+        zpg(X);
+        cycles += 4;
+    }
+
+    private void op0c() {
+        abs();
+        cycles += 4;
+    }
+
+    private void op1c() {
+        abs(X, dummy.ONCARRY);
+        cycles += 4 + pb;
+    }
+
+    // ORA
+    private void op09() {
+        ora(imm());
+        cycles += 2;
+    }
+
+    private void op05() {
+        ora(zpg());
+        cycles += 3;
+    }
+
+    private void op15() {
+        ora(zpg(X));
+        cycles += 4;
+    }
+
+    private void op0d() {
+        ora(abs());
+        cycles += 4;
+    }
+
+    private void op1d() {
+        ora(abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op19() {
+        ora(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
+
+    private void op01() {
+        ora(indX());
+        cycles += 6;
+    }
+
+    private void op11() {
+        ora(indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
+
+    // Register instrs.
+    private void opaa() {
+        X = A;
+        cycles += 2;
+        setflags(A);
+    }
+
+    private void op8a() {
+        A = X;
+        cycles += 2;
+        setflags(A);
+    }
+
+    private void opca() {
+        X--;
+        X &= 0xFF;
+        setflags(X);
+        cycles += 2;
+    }
+
+    private void ope8() {
+        X++;
+        X &= 0xFF;
+        setflags(X);
+        cycles += 2;
+    }
+
+    private void opa8() {
+        Y = A;
+        cycles += 2;
+        setflags(A);
+    }
+
+    private void op98() {
+        A = Y;
+        cycles += 2;
+        setflags(A);
+    }
+
+    private void op88() {
+        Y--;
+        Y &= 0xFF;
+        setflags(Y);
+        cycles += 2;
+    }
+
+    private void opc8() {
+        Y++;
+        Y &= 0xFF;
+        setflags(Y);
+        cycles += 2;
+    }
+
+    // RLA (unofficial)
+    private void op23() {
+        rla(indX());
+        cycles += 8;
+    }
+
+    private void op33() {
+        rla(indY(dummy.ALWAYS));
+        cycles += 8;
+    }
+
+    private void op27() {
+        rla(zpg());
+        cycles += 5;
+    }
+
+    private void op37() {
+        rla(zpg(X));
+        cycles += 6;
+    }
+
+    private void op3b() {
+        rla(abs(Y, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    private void op2f() {
+        rla(abs());
+        cycles += 6;
+    }
+
+    private void op3f() {
+        rla(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // ROL
+    private void op2a() {
+        rolA();
+        cycles += 2;
+    }
+
+    private void op26() {
+        rol(zpg());
+        cycles += 5;
+    }
+
+    private void op36() {
+        rol(zpg(X));
+        cycles += 6;
+    }
+
+    private void op2e() {
+        rol(abs());
+        cycles += 6;
+    }
+
+    private void op3e() {
+        rol(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // ROR
+    private void op6a() {
+        rorA();
+        cycles += 2;
+    }
+
+    private void op66() {
+        ror(zpg());
+        cycles += 5;
+    }
+
+    private void op76() {
+        ror(zpg(X));
+        cycles += 6;
+    }
+
+    private void op6e() {
+        ror(abs());
+        cycles += 6;
+    }
+
+    private void op7e() {
+        ror(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // RRA (unofficial)
+    private void op63() {
+        rra(indX());
+        cycles += 8;
+    }
+
+    private void op73() {
+        rra(indY(dummy.ALWAYS));
+        cycles += 8;
+    }
+
+    private void op67() {
+        rra(zpg());
+        cycles += 5;
+    }
+
+    private void op77() {
+        rra(zpg(X));
+        cycles += 6;
+    }
+
+    private void op7b() {
+        rra(abs(Y, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    private void op6f() {
+        rra(abs());
+        cycles += 6;
+    }
+
+    private void op7f() {
+        rra(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // RTI
+    private void op40() {
+        rti();
+        cycles += 6;
     }
-    OutputStreamWriter w; //debug log writer
 
-    public CPU(final CPURAM cpuram) {
-        ram = cpuram;
-        //ram is the ONLY thing the cpu tries to talk to.
-        if (logging) {
-            startLog();
-        }
+    // RTS
+    private void op60() {
+        rts();
+        cycles += 6;
     }
 
-    public void startLog() {
-        logging = true;
-        try {
-            w = new OutputStreamWriter(new FileOutputStream(new File("nesdebug.txt")), StandardCharsets.UTF_8); 
-        } catch (IOException e) {
-            System.err.println("Cannot create debug log" + e.getLocalizedMessage());
-        }
+    // SAX (unofficial)
+    private void op83() {
+        sax(indX());
+        cycles += 6;
     }
 
-    public void startLog(String path) {
-        logging = true;
-        try {
-            w = new OutputStreamWriter(new FileOutputStream(new File(path)), StandardCharsets.UTF_8); 
-        } catch (IOException e) {
-            System.err.println("Cannot create debug log" + e.getLocalizedMessage());
-        }
+    private void op87() {
+        sax(zpg());
+        cycles += 3;
     }
 
-    public void stopLog() {
-        logging = false;
-        flushLog();
+    private void op97() {
+        sax(zpg(Y));
+        cycles += 4;
     }
 
-    public void init() {
-        init(null);
+    private void op8f() {
+        sax(abs());
+        cycles += 4;
     }
 
-    public void init(Integer initialPC) {// different than reset
-        // puts RAM in NES poweron state
-        for (int i = 0; i < 0x800; ++i) {
-            ram.write(i, 0xFF);
-        }
+    // SBC
+    private void ope1() {
+        sbc(indX());
+        cycles += 6;
+    }
 
-        //poweron RAM values from one specific console (nesdev wiki pre-2015)
-        ram.write(0x0008, 0xF7);
-        ram.write(0x0009, 0xEF);
-        ram.write(0x000A, 0xDF);
-        ram.write(0x000F, 0xBF);
+    private void opf1() {
+        sbc(indY(dummy.ONCARRY));
+        cycles += 5 + pb;
+    }
 
-        for (int i = 0x4000; i <= 0x400F; ++i) {
-            ram.write(i, 0x00);
-        }
+    private void ope5() {
+        sbc(zpg());
+        cycles += 3;
+    }
 
-        ram.write(0x4015, 0x00);
-        ram.write(0x4017, 0x00);
+    private void opf5() {
+        sbc(zpg(X));
+        cycles += 4;
+    }
 
-        //clocks = 27393; //correct for position we start vblank in
-        A = 0;
-        X = 0;
-        Y = 0;
-        S = 0xFD;
-        if (initialPC == null) {
-            PC = ram.read(0xFFFD) * 256 + ram.read(0xFFFC);
-        } else {
-            PC = initialPC;
-        }
+    private void ope9() {
+        sbc(imm());
+        cycles += 2;
     }
 
-    public void reset() {
-        PC = ram.read(0xFFFD) * 256 + ram.read(0xFFFC);
-        ram.write(0x4015, 0);
-        ram.write(0x4017, ram.read(0x4017));
-        //disable audio on reset
-        S -= 3;
-        S &= 0xff;
-        interruptsDisabled = true;
+    private void opf9() {
+        sbc(abs(Y, dummy.ONCARRY));
+        cycles += 4 + pb;
     }
 
-    public void modcycles() {
-        //System.err.println(clocks);
-        clocks = 0;
+    private void opeb() {
+        sbc(imm());
+        cycles += 2;
     }
 
-    public void stealcycles(int cyclestosteal) {
-        cycles += cyclestosteal;
-        log("**STEAL " + cyclestosteal + "**");
+    private void oped() {
+        sbc(abs());
+        cycles += 4;
     }
 
-    public final void runcycle(final int scanline, final int pixel) {
-        ram.read(0x4000); //attempt to sync the APU every cycle and make dmc irqs work properly, which they still don't. Feh.
-        ++clocks;
+    private void opfd() {
+        sbc(abs(X, dummy.ONCARRY));
+        cycles += 4 + pb;
+    }
 
-        //guard against overflows
-//        if ((A & 0xff) != A) {
-//            System.err.println("houston we have A problem");
-//        }
-//        if ((X & 0xff) != X) {
-//            System.err.println("houston we have X problem");
-//        }
-//        if ((Y & 0xff) != Y) {
-//            System.err.println("houston we have Y problem");
-//        }
-//        if ((S & 0xff) != S) {
-//            System.err.println("houston we have S problem");
-//        }
-//        if ((PC & 0xffff) != PC) {
-//            System.err.println("houston we have PC problem");
-//        }
-        if (ram.apu.sprdma_count > 0) {
-            ram.apu.sprdma_count--;
-            if (ram.apu.sprdma_count == 0) {
-                cycles += 513;
-            }
-            //this doesn't look right any more
-            //who patched this in and when? (wasn't me, it was for some bug...)
-        }
+    // SHX (unofficial)
+    private void op9e() {
+        shx(abs(Y, dummy.ALWAYS));
+        cycles += 5;
+    }
 
-        if (dirtyBattletoadsHack && cycles == 1) {
-            ram.write(hackAddr, hackData);
-            dirtyBattletoadsHack = false;
-        }
+    // SHY (unofficial)
+    private void op9c() {
+        shy(abs(X, dummy.ALWAYS));
+        cycles += 5;
+    }
 
-        if (cycles-- > 0) { //count down cycles until there is work to do again
-            return;
-        }
-        
-        //now we're at the start of a new instruction
+    // SLO (unofficial)
+    private void op03() {
+        slo(indX());
+        cycles += 8;
+    }
 
-        //handle nmi requests (NMI line is edge sensitive not level sensitive)
-        if (nmiNext) {
-            nmi();
-            nmiNext = false;
-        }
-        if (nmi && !prevnmi) {//only trigger on positive rising edge of NMI
-            nmiNext = true;
-        }
-        prevnmi = nmi;
+    private void op07() {
+        slo(zpg());
+        cycles += 5;
+    }
 
-        if (interrupt > 0) {
-            if (!interruptsDisabled && !interruptDelay) {
-                interrupt();
-                cycles += 7;
-                return;
-            } else if (interruptDelay) {
-                interruptDelay = false;
-                if (!previntflag) {
-                    interrupt();
-                    cycles += 7;
-                    return;
-                }
-            }
-        } else {
-            interruptDelay = false;
-        }
+    private void op0f() {
+        slo(abs());
+        cycles += 6;
+    }
 
-        //Idle loop skipping
-        if (idle && idleLoopSkip) {
-            cycles += 3; //not accurate should depend on type of instr we skip decoding
-            return;
-        }
+    private void op13() {
+        slo(indY(dummy.ALWAYS));
+        cycles += 8;
+    }
 
-        pb = 0;
-        final int instr = ram.read(PC++);
-        //note: 
-        if (logging) {
-            //that looks redundant, but this is a really expensive operation to create the log string
-            //also, logging *might* trigger side effects if logging while executing
-            //code from i/o registers (reading twice). So we don't want to do it always.
-            //TODO: Optimize this! It gets called a LOT
-            //and slows logging to 16 fps
-            //even when not actually writing anything
-            String op = String.format(opcodes[instr],
-                    ram.read(PC),
-                    ram.read(PC + 1),
-                    PC + (byte) (ram.read(PC)) + 1);
-            log(utils.hex(PC - 1) + " " + utils.hex(instr)
-                    + String.format(" %-14s ", op)
-                    + status() + " CYC:" + pixel + " SL:" + scanline + "\n");
-        }
-        if (cycles == 0) {
-            flushLog();
-        }
+    private void op17() {
+        slo(zpg(X));
+        cycles += 6;
+    }
 
-        switch (instr) {
-            // ADC
-            case 0x69:
-                adc(imm());
-                cycles += 2;
-                break;
-            case 0x65:
-                adc(zpg());
-                cycles += 3;
-                break;
-            case 0x75:
-                adc(zpg(X));
-                cycles += 4;
-                break;
-            case 0x6d:
-                adc(abs());
-                cycles += 4;
-                break;
-            case 0x7d:
-                adc(abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x79:
-                adc(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x61:
-                adc(indX());
-                cycles += 6;
-                break;
-            case 0x71:
-                adc(indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            // AHX (unofficial)
-            case 0x93:
-                ahx(indY(dummy.ALWAYS));
-                cycles += 6;
-                break;
-            case 0x9f:
-                ahx(abs(Y, dummy.ALWAYS));
-                cycles += 5;
-                break;
-            // ALR (unofficial)
-            case 0x4b:
-                alr(imm());
-                cycles += 2;
-                break;
-            // ANC (unofficial)
-            case 0x0b:
-                anc(imm());
-                cycles += 2;
-                break;
-            case 0x2b:
-                anc(imm());
-                cycles += 2;
-                break;
-            // AND
-            case 0x29:
-                and(imm());
-                cycles += 2;
-                break;
-            case 0x25:
-                and(zpg());
-                cycles += 3;
-                break;
-            case 0x35:
-                and(zpg(X));
-                cycles += 4;
-                break;
-            case 0x2D:
-                and(abs());
-                cycles += 4;
-                break;
-            case 0x3D:
-                and(abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x39:
-                and(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x21:
-                and(indX());
-                cycles += 6;
-                break;
-            case 0x31:
-                and(indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            // ARR (unofficial)
-            case 0x6b:
-                arr(imm());
-                cycles += 2;
-                break;
-            // ASL
-            case 0x0A:
-                aslA();
-                cycles += 2;
-                break;
-            case 0x06:
-                asl(zpg());
-                cycles += 5;
-                break;
-            case 0x16:
-                asl(zpg(X));
-                cycles += 6;
-                break;
-            case 0x0e:
-                asl(abs());
-                cycles += 6;
-                break;
-            case 0x1e:
-                asl(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // AXS (unofficial)
-            case 0xcb:
-                axs(imm());
-                cycles += 2;
-                break;
-            // BIT
-            case 0x24:
-                bit(zpg());
-                cycles += 3;
-                break;
-            case 0x2c:
-                bit(abs());
-                cycles += 4;
-                break;
-            // Branches: every branch uses rel. addressing
-            case 0x10:
-                branch(!negativeFlag);
-                cycles += 2 + pb;
-                break;
-            case 0x30:
-                branch(negativeFlag);
-                cycles += 2 + pb;
-                break;
-            case 0x50:
-                branch(!overflowFlag);
-                cycles += 2 + pb;
-                break;
-            case 0x70:
-                branch(overflowFlag);
-                cycles += 2 + pb;
-                break;
-            case 0x90:
-                branch(!carryFlag);
-                cycles += 2 + pb;
-                break;
-            case 0xB0:
-                branch(carryFlag);
-                cycles += 2 + pb;
-                break;
-            case 0xD0:
-                branch(!zeroFlag);
-                cycles += 2 + pb;
-                break;
-            case 0xF0:
-                branch(zeroFlag);
-                cycles += 2 + pb;
-                break;
-            // BRK
-            case 0x00:
-                //System.err.println("Hey! A break!");
-                breakinterrupt();
-                cycles += 7;
-                break;
-            // CMP
-            case 0xc9:
-                cmp(A, imm());
-                cycles += 2;
-                break;
-            case 0xc5:
-                cmp(A, zpg());
-                cycles += 3;
-                break;
-            case 0xd5:
-                cmp(A, zpg(X));
-                cycles += 4;
-                break;
-            case 0xcd:
-                cmp(A, abs());
-                cycles += 4;
-                break;
-            case 0xdd:
-                cmp(A, abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0xd9:
-                cmp(A, abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0xc1:
-                cmp(A, indX());
-                cycles += 6;
-                break;
-            case 0xd1:
-                cmp(A, indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            // CPX
-            case 0xe0:
-                cmp(X, imm());
-                cycles += 2;
-                break;
-            case 0xe4:
-                cmp(X, zpg());
-                cycles += 3;
-                break;
-            case 0xec:
-                cmp(X, abs());
-                cycles += 4;
-                break;
-            // CPY
-            case 0xc0:
-                cmp(Y, imm());
-                cycles += 2;
-                break;
-            case 0xc4:
-                cmp(Y, zpg());
-                cycles += 3;
-                break;
-            case 0xcc:
-                cmp(Y, abs());
-                cycles += 4;
-                break;
-            // DEC
-            case 0xc6:
-                dec(zpg());
-                cycles += 5;
-                break;
-            case 0xd6:
-                dec(zpg(X));
-                cycles += 6;
-                break;
-            case 0xce:
-                dec(abs());
-                cycles += 6;
-                break;
-            case 0xde:
-                dec(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // DCP (unofficial)
-            case 0xc3:
-                dcp(A, indX());
-                cycles += 8;
-                break;
-            case 0xd3:
-                dcp(A, indY(dummy.ALWAYS));
-                cycles += 8;
-                break;
-            case 0xc7:
-                dcp(A, zpg());
-                cycles += 5;
-                break;
-            case 0xd7:
-                dcp(A, zpg(X));
-                cycles += 6;
-                break;
-            case 0xdb:
-                dcp(A, abs(Y, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            case 0xcf:
-                dcp(A, abs());
-                cycles += 6;
-                break;
-            case 0xdf:
-                dcp(A, abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // EOR
-            case 0x49:
-                eor(imm());
-                cycles += 2;
-                break;
-            case 0x45:
-                eor(zpg());
-                cycles += 3;
-                break;
-            case 0x55:
-                eor(zpg(X));
-                cycles += 4;
-                break;
-            case 0x4d:
-                eor(abs());
-                cycles += 4;
-                break;
-            case 0x5d:
-                eor(abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x59:
-                eor(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x41:
-                eor(indX());
-                cycles += 6;
-                break;
-            case 0x51:
-                eor(indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            // Flag set/clear
-            case 0x18:
-                carryFlag = false;
-                cycles += 2;
-                break;
-            case 0x38:
-                carryFlag = true;
-                cycles += 2;
-                break;
-            case 0x58:
-                //cli
-                //interrupts shouldn't fire for 1 cycle after cli
-                delayInterrupt();
-                interruptsDisabled = false;
-                cycles += 2;
-                break;
-            case 0x78:
-                //sei
-                delayInterrupt();
-                interruptsDisabled = true;
-                cycles += 2;
-                break;
-            case 0xb8:
-                overflowFlag = false;
-                cycles += 2;
-                break;
-            case 0xd8:
-                decimalModeFlag = false;
-                cycles += 2;
-                break;// decimal mode doesnt
-            case 0xf8:
-                decimalModeFlag = true;
-                cycles += 2;
-                break;// do anything on NES
-            // INC
-            case 0xe6:
-                inc(zpg());
-                cycles += 5;
-                break;
-            case 0xf6:
-                inc(zpg(X));
-                cycles += 6;
-                break;
-            case 0xee:
-                inc(abs());
-                cycles += 6;
-                break;
-            case 0xfe:
-                inc(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // ISC (unofficial)
-            case 0xe3:
-                isc(indX());
-                cycles += 8;
-                break;
-            case 0xf3:
-                isc(indY(dummy.ALWAYS));
-                cycles += 8;
-                break;
-            case 0xe7:
-                isc(zpg());
-                cycles += 5;
-                break;
-            case 0xf7:
-                isc(zpg(X));
-                cycles += 6;
-                break;
-            case 0xfb:
-                isc(abs(Y, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            case 0xef:
-                isc(abs());
-                cycles += 6;
-                break;
-            case 0xff:
-                isc(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // JMP
-            case 0x4c:
-                int tempe = PC;
-                PC = abs();
-                if (PC == (tempe - 1)) {
-                    idle = true;
-                }
-                cycles += 3;
-                break;
-            case 0x6c:
-                int tempf = PC;
-                PC = ind();
-                if (PC == (tempf - 1)) {
-                    idle = true;
-                }
-                cycles += 5;
-                break;
-            // JSR
-            case 0x20:
-                jsr(abs());
-                cycles += 6;
-                break;
-            // KIL (unofficial)
-            case 0x02:
-            case 0x12:
-            case 0x22:
-            case 0x32:
-            case 0x42:
-            case 0x52:
-            case 0x62:
-            case 0x72:
-            case 0x92:
-            case 0xb2:
-            case 0xd2:
-            case 0xf2:
-                System.err.println("KIL - CPU locked");
-                flushLog();
-                ram.apu.nes.runEmulation = false;
-                break;
-            // LAS (unofficial)
-            case 0xbb:
-                las(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            // LAX (unofficial)
-            case 0xa3:
-                lax(indX());
-                cycles += 6;
-                break;
-            case 0xb3:
-                lax(indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            case 0xa7:
-                lax(zpg());
-                cycles += 3;
-                break;
-            case 0xb7:
-                lax(zpg(Y));
-                cycles += 4;
-                break;
-            case 0xab:
-                lax(imm());
-                cycles += 2;
-                break;
-            case 0xaf:
-                lax(abs());
-                cycles += 4;
-                break;
-            case 0xbf:
-                lax(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            // LDA
-            case 0xa9:
-                lda(imm());
-                cycles += 2;
-                break;
-            case 0xa5:
-                lda(zpg());
-                cycles += 3;
-                break;
-            case 0xb5:
-                lda(zpg(X));
-                cycles += 4;
-                break;
-            case 0xad:
-                lda(abs());
-                cycles += 4;
-                break;
-            case 0xbd:
-                lda(abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0xb9:
-                lda(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0xa1:
-                lda(indX());
-                cycles += 6;
-                break;
-            case 0xb1:
-                lda(indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            // LDX
-            case 0xa2:
-                ldx(imm());
-                cycles += 2;
-                break;
-            case 0xa6:
-                ldx(zpg());
-                cycles += 3;
-                break;
-            case 0xb6:
-                ldx(zpg(Y));
-                cycles += 4;
-                break;
-            case 0xae:
-                ldx(abs());
-                cycles += 4;
-                break;
-            case 0xbe:
-                ldx(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            // LDY
-            case 0xa0:
-                ldy(imm());
-                cycles += 2;
-                break;
-            case 0xa4:
-                ldy(zpg());
-                cycles += 3;
-                break;
-            case 0xb4:
-                ldy(zpg(X));
-                cycles += 4;
-                break;
-            case 0xac:
-                ldy(abs());
-                cycles += 4;
-                break;
-            case 0xbc:
-                ldy(abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            // LSR
-            case 0x4a:
-                lsrA();
-                cycles += 2;
-                break;
-            case 0x46:
-                lsr(zpg());
-                cycles += 5;
-                break;
-            case 0x56:
-                lsr(zpg(X));
-                cycles += 6;
-                break;
-            case 0x4e:
-                lsr(abs());
-                cycles += 6;
-                break;
-            case 0x5e:
-                lsr(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // NOP
-            case 0x1a:
-            case 0x3a:
-            case 0x5a:
-            case 0x7a:
-            case 0xda:
-            case 0xEA:
-            case 0xfa:
-                cycles += 2;
-                break;
-            case 0x80:
-            case 0x82:
-            case 0xc2:
-            case 0xe2:
-            case 0x89:
-                imm();
-                cycles += 2;
-                break;
-            case 0x04:
-            case 0x44:
-            case 0x64:
-                zpg();
-                cycles += 3;
-                break;
-            case 0x14:
-            case 0x34:
-            case 0x54:
-            case 0x74:
-            case 0xd4:
-            case 0xf4:
-                zpg(X);
-                cycles += 4;
-                break;
-            case 0x0C:
-                abs();
-                cycles += 4;
-                break;
-            case 0x1c:
-            case 0x3c:
-            case 0x5c:
-            case 0x7c:
-            case 0xdc:
-            case 0xfc:
-                abs(X, dummy.ONCARRY);
-                cycles += 4 + pb;
-                break;
-            // ORA
-            case 0x09:
-                ora(imm());
-                cycles += 2;
-                break;
-            case 0x05:
-                ora(zpg());
-                cycles += 3;
-                break;
-            case 0x15:
-                ora(zpg(X));
-                cycles += 4;
-                break;
-            case 0x0d:
-                ora(abs());
-                cycles += 4;
-                break;
-            case 0x1d:
-                ora(abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x19:
-                ora(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0x01:
-                ora(indX());
-                cycles += 6;
-                break;
-            case 0x11:
-                ora(indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            // Register instrs.
-            case 0xAA:
-                X = A;
-                cycles += 2;
-                setflags(A);
-                break;
-            case 0x8a:
-                A = X;
-                cycles += 2;
-                setflags(A);
-                break;
-            case 0xca:
-                X--;
-                X &= 0xFF;
-                setflags(X);
-                cycles += 2;
-                break;
-            case 0xe8:
-                X++;
-                X &= 0xFF;
-                setflags(X);
-                cycles += 2;
-                break;
-            case 0xa8:
-                Y = A;
-                cycles += 2;
-                setflags(A);
-                break;
-            case 0x98:
-                A = Y;
-                cycles += 2;
-                setflags(A);
-                break;
-            case 0x88:
-                Y--;
-                Y &= 0xFF;
-                setflags(Y);
-                cycles += 2;
-                break;
-            case 0xc8:
-                Y++;
-                Y &= 0xFF;
-                setflags(Y);
-                cycles += 2;
-                break;
-            // RLA (unofficial)
-            case 0x23:
-                rla(indX());
-                cycles += 8;
-                break;
-            case 0x33:
-                rla(indY(dummy.ALWAYS));
-                cycles += 8;
-                break;
-            case 0x27:
-                rla(zpg());
-                cycles += 5;
-                break;
-            case 0x37:
-                rla(zpg(X));
-                cycles += 6;
-                break;
-            case 0x3b:
-                rla(abs(Y, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            case 0x2f:
-                rla(abs());
-                cycles += 6;
-                break;
-            case 0x3f:
-                rla(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // ROL
-            case 0x2a:
-                rolA();
-                cycles += 2;
-                break;
-            case 0x26:
-                rol(zpg());
-                cycles += 5;
-                break;
-            case 0x36:
-                rol(zpg(X));
-                cycles += 6;
-                break;
-            case 0x2e:
-                rol(abs());
-                cycles += 6;
-                break;
-            case 0x3e:
-                rol(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // ROR
-            case 0x6a:
-                rorA();
-                cycles += 2;
-                break;
-            case 0x66:
-                ror(zpg());
-                cycles += 5;
-                break;
-            case 0x76:
-                ror(zpg(X));
-                cycles += 6;
-                break;
-            case 0x6e:
-                ror(abs());
-                cycles += 6;
-                break;
-            case 0x7e:
-                ror(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // RRA (unofficial)
-            case 0x63:
-                rra(indX());
-                cycles += 8;
-                break;
-            case 0x73:
-                rra(indY(dummy.ALWAYS));
-                cycles += 8;
-                break;
-            case 0x67:
-                rra(zpg());
-                cycles += 5;
-                break;
-            case 0x77:
-                rra(zpg(X));
-                cycles += 6;
-                break;
-            case 0x7b:
-                rra(abs(Y, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            case 0x6f:
-                rra(abs());
-                cycles += 6;
-                break;
-            case 0x7f:
-                rra(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // RTI
-            case 0x40:
-                rti();
-                cycles += 6;
-                break;
-            // RTS
-            case 0x60:
-                rts();
-                cycles += 6;
-                break;
-            // SAX (unofficial)
-            case 0x83:
-                sax(indX());
-                cycles += 6;
-                break;
-            case 0x87:
-                sax(zpg());
-                cycles += 3;
-                break;
-            case 0x97:
-                sax(zpg(Y));
-                cycles += 4;
-                break;
-            case 0x8f:
-                sax(abs());
-                cycles += 4;
-                break;
-            // SBC
-            case 0xE1:
-                sbc(indX());
-                cycles += 6;
-                break;
-            case 0xF1:
-                sbc(indY(dummy.ONCARRY));
-                cycles += 5 + pb;
-                break;
-            case 0xE5:
-                sbc(zpg());
-                cycles += 3;
-                break;
-            case 0xF5:
-                sbc(zpg(X));
-                cycles += 4;
-                break;
-            case 0xE9:
-                sbc(imm());
-                cycles += 2;
-                break;
-            case 0xF9:
-                sbc(abs(Y, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            case 0xeb:
-                sbc(imm());
-                cycles += 2;
-                break;
-            case 0xEd:
-                sbc(abs());
-                cycles += 4;
-                break;
-            case 0xFd:
-                sbc(abs(X, dummy.ONCARRY));
-                cycles += 4 + pb;
-                break;
-            // SHX (unofficial)
-            case 0x9e:
-                shx(abs(Y, dummy.ALWAYS));
-                cycles += 5;
-                break;
-            // SHY (unofficial)
-            case 0x9c:
-                shy(abs(X, dummy.ALWAYS));
-                cycles += 5;
-                break;
-            // SLO (unofficial)
-            case 0x03:
-                slo(indX());
-                cycles += 8;
-                break;
-            case 0x07:
-                slo(zpg());
-                cycles += 5;
-                break;
-            case 0x0f:
-                slo(abs());
-                cycles += 6;
-                break;
-            case 0x13:
-                slo(indY(dummy.ALWAYS));
-                cycles += 8;
-                break;
-            case 0x17:
-                slo(zpg(X));
-                cycles += 6;
-                break;
-            case 0x1b:
-                slo(abs(Y, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            case 0x1f:
-                slo(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // SRE (unofficial)
-            case 0x43:
-                sre(indX());
-                cycles += 8;
-                break;
-            case 0x53:
-                sre(indY(dummy.ALWAYS));
-                cycles += 8;
-                break;
-            case 0x47:
-                sre(zpg());
-                cycles += 5;
-                break;
-            case 0x57:
-                sre(zpg(X));
-                cycles += 6;
-                break;
-            case 0x5b:
-                sre(abs(Y, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            case 0x4f:
-                sre(abs());
-                cycles += 6;
-                break;
-            case 0x5f:
-                sre(abs(X, dummy.ALWAYS));
-                cycles += 7;
-                break;
-            // STA
-            case 0x85:
-                sta(zpg());
-                cycles += 3;
-                break;
-            case 0x95:
-                sta(zpg(X));
-                cycles += 4;
-                break;
-            case 0x8d:
-                sta(abs());
-                cycles += 4;
-                break;
-            case 0x9d:
-                sta(abs(X, dummy.ALWAYS));
-                cycles += 5;
-                break;
-            case 0x99:
-                sta(abs(Y, dummy.ALWAYS));
-                cycles += 5;
-                break;
-            case 0x81:
-                sta(indX());
-                cycles += 6;
-                break;
-            case 0x91:
-                sta(indY(dummy.ALWAYS));
-                cycles += 6;
-                break;
-            // Stack instructions
-            case 0x9A:
-                S = X;
-                cycles += 2;
-                break;
-            case 0xBA:
-                X = S;
-                cycles += 2;
-                setflags(X);
-                break;
-            case 0x48:
-                ram.read(PC + 1);   //dummy fetch
-                push(A);
-                cycles += 3;
-                break;
-            case 0x68:
-                ram.read(PC + 1);   //dummy fetch
-                A = pop();
-                setflags(A);
-                cycles += 4;
-                break;
-            case 0x08:
-                ram.read(PC + 1);   //dummy fetch
-                push(flagstobyte() | utils.BIT4);
-                cycles += 3;
-                break;
-            case 0x28:
-                //plp
-                delayInterrupt();
-                ram.read(PC + 1);   //dummy fetch
-                bytetoflags(pop());
-                cycles += 4;
-                break;
-            // STX
-            case 0x86:
-                stx(zpg());
-                cycles += 3;
-                break;
-            case 0x96:
-                stx(zpg(Y));
-                cycles += 4;
-                break;
-            case 0x8E:
-                stx(abs());
-                cycles += 4;
-                break;
-            // STY
-            case 0x84:
-                sty(zpg());
-                cycles += 3;
-                break;
-            case 0x94:
-                sty(zpg(X));
-                cycles += 4;
-                break;
-            case 0x8c:
-                sty(abs());
-                cycles += 4;
-                break;
-            // TAS (unofficial)
-            case 0x9b:
-                tas(abs(Y, dummy.ALWAYS));
-                cycles += 5;
-                break;
-            // XAA (unofficial)
-            case 0x8b:
-                xaa(imm());
-                cycles += 2;
-                break;
-            default:
-                cycles += 2;
-                System.err.println("Illegal opcode:" + utils.hex(instr) + " @ "
-                        + utils.hex(PC - 1));
-                break;
-        }
-        pb = 0;
-        PC &= 0xffff;
+    private void op1b() {
+        slo(abs(Y, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    private void op1f() {
+        slo(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // SRE (unofficial)
+    private void op43() {
+        sre(indX());
+        cycles += 8;
+    }
+
+    private void op53() {
+        sre(indY(dummy.ALWAYS));
+        cycles += 8;
+    }
+
+    private void op47() {
+        sre(zpg());
+        cycles += 5;
+    }
+
+    private void op57() {
+        sre(zpg(X));
+        cycles += 6;
+    }
+
+    private void op5b() {
+        sre(abs(Y, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    private void op4f() {
+        sre(abs());
+        cycles += 6;
+    }
+
+    private void op5f() {
+        sre(abs(X, dummy.ALWAYS));
+        cycles += 7;
+    }
+
+    // STA
+    private void op85() {
+        sta(zpg());
+        cycles += 3;
+    }
+
+    private void op95() {
+        sta(zpg(X));
+        cycles += 4;
+    }
+
+    private void op8d() {
+        sta(abs());
+        cycles += 4;
+    }
+
+    private void op9d() {
+        sta(abs(X, dummy.ALWAYS));
+        cycles += 5;
+    }
+
+    private void op99() {
+        sta(abs(Y, dummy.ALWAYS));
+        cycles += 5;
+    }
+
+    private void op81() {
+        sta(indX());
+        cycles += 6;
+    }
+
+    private void op91() {
+        sta(indY(dummy.ALWAYS));
+        cycles += 6;
+    }
+
+    // Stack instructions
+    private void op9a() {
+        S = X;
+        cycles += 2;
+    }
+
+    private void opba() {
+        X = S;
+        cycles += 2;
+        setflags(X);
+    }
+
+    private void op48() {
+        ram.read(PC + 1);   //dummy fetch
+        push(A);
+        cycles += 3;
+    }
+
+    private void op68() {
+        ram.read(PC + 1);   //dummy fetch
+        A = pop();
+        setflags(A);
+        cycles += 4;
+    }
+
+    private void op08() {
+        ram.read(PC + 1);   //dummy fetch
+        push(flagstobyte() | utils.BIT4);
+        cycles += 3;
+    }
+
+    private void op28() {
+        //plp
+        delayInterrupt();
+        ram.read(PC + 1);   //dummy fetch
+        bytetoflags(pop());
+        cycles += 4;
+    }
+
+    // STX
+    private void op86() {
+        stx(zpg());
+        cycles += 3;
+    }
+
+    private void op96() {
+        stx(zpg(Y));
+        cycles += 4;
+    }
+
+    private void op8e() {
+        stx(abs());
+        cycles += 4;
+    }
+
+    // STY
+    private void op84() {
+        sty(zpg());
+        cycles += 3;
+    }
+
+    private void op94() {
+        sty(zpg(X));
+        cycles += 4;
+    }
+
+    private void op8c() {
+        sty(abs());
+        cycles += 4;
+    }
+
+    // TAS (unofficial)
+    private void op9b() {
+        tas(abs(Y, dummy.ALWAYS));
+        cycles += 5;
+    }
+
+    // XAA (unofficial)
+    private void op8b() {
+        xaa(imm());
+        cycles += 2;
     }
 
     /*
@@ -2101,6 +3472,63 @@ public final class CPU {
         log("**PC SET**");
     }
 
+    public void saveState(StateWriter w) {
+        sync();
+        w.writeInt(cycles);
+        w.writeInt(clocks);
+        w.writeInt(A);
+        w.writeInt(X);
+        w.writeInt(Y);
+        w.writeInt(S);
+        w.writeInt(PC);
+        w.writeInt(flagstobyte());
+        w.writeBoolean(previntflag);
+        w.writeBoolean(nmi);
+        w.writeBoolean(prevnmi);
+        w.writeInt(pb);
+        w.writeInt(interrupt);
+        w.writeBoolean(nmiNext);
+        w.writeBoolean(idle);
+        w.writeBoolean(interruptDelay);
+        w.writeBoolean(dirtyBattletoadsHack);
+        w.writeInt(hackAddr);
+        w.writeInt(hackData);
+    }
+
+    public void loadState(StateReader r) {
+        batch = 0;
+        idlecycles = 0;
+        cycles = r.readInt();
+        clocks = r.readInt();
+        A = r.readInt();
+        X = r.readInt();
+        Y = r.readInt();
+        S = r.readInt();
+        PC = r.readInt();
+        bytetoflags(r.readInt());
+        previntflag = r.readBoolean();
+        nmi = r.readBoolean();
+        prevnmi = r.readBoolean();
+        pb = r.readInt();
+        interrupt = r.readInt();
+        nmiNext = r.readBoolean();
+        idle = r.readBoolean();
+        interruptDelay = r.readBoolean();
+        dirtyBattletoadsHack = r.readBoolean();
+        hackAddr = r.readInt();
+        hackData = r.readInt();
+    }
+
+    private void trace(final int instr, final int scanline, final int pixel) {
+        //only read as many operand bytes as there are, in case one of
+        //the ones after is a register that does something when it's read
+        final int len = TraceWriter.length(instr);
+        trace.record(clockbase + clocks - tracestart, PC - 1, instr,
+                (len > 1) ? ram.read(PC) : 0,
+                (len > 2) ? ram.read(PC + 1) : 0,
+                A, X, Y, flagstobyte(), S, scanline, pixel);
+    }
+
     public final void log(String tolog) {
         if (logging) {
             try {
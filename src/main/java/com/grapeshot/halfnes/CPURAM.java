@@ -6,6 +6,8 @@ package com.grapeshot.halfnes;
 
 import com.grapeshot.halfnes.cheats.Patch;
 import com.grapeshot.halfnes.mappers.Mapper;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import java.util.Arrays;
 import java.util.HashMap;
 
@@ -17,7 +19,7 @@ import java.util.HashMap;
  */
 public class CPURAM {
 
-    private final int[] wram = new int[2048];
+    private final byte[] wram = new byte[2048];
     Mapper mapper;
     public APU apu;
     PPU ppu; //need these to call their write handlers from here.
@@ -26,7 +28,7 @@ public class CPURAM {
     public CPURAM(final Mapper mappy) {
         mapper = mappy;
         // init memory
-        Arrays.fill(wram, 0xff);
+        Arrays.fill(wram, (byte) 0xff);
     }
 
     public final int read(final int addr) {
@@ -44,9 +46,13 @@ public class CPURAM {
 
     public final int _read(final int addr) {
         if (addr > 0x4018) {
+            if (addr < 0x6000) {
+                //expansion sound registers
+                apu.syncCart();
+            }
             return mapper.cartRead(addr);
         } else if (addr <= 0x1fff) {
-            return wram[addr & 0x7FF];
+            return wram[addr & 0x7FF] & 0xff;
         } else if (addr <= 0x3fff) {
             // 8 byte ppu regs; mirrored lots
             return ppu.read(addr & 7);
@@ -62,9 +68,14 @@ public class CPURAM {
 //            System.err.println("DANGER WILL ROBINSON");
 //        }
         if (addr > 0x4018) {
+            if (addr < 0x6000 || addr > 0x7fff) {
+                //sound chip registers are never in the PRG RAM window, so
+                //games that hammer their save RAM don't pay for a sync
+                apu.syncCart();
+            }
             mapper.cartWrite(addr, data);
         } else if (addr <= 0x1fff) {
-            wram[addr & 0x7FF] = data;
+            wram[addr & 0x7FF] = (byte) data;
         } else if (addr <= 0x3fff) {
             // 8 byte ppu regs; mirrored lots
             ppu.write(addr & 7, data);
@@ -84,4 +95,12 @@ public class CPURAM {
     public void setPatches(HashMap<Integer, Patch> p) {
         this.patches = p;
     }
+
+    public void saveState(StateWriter w) {
+        w.writeBytes(wram);
+    }
+
+    public void loadState(StateReader r) {
+        r.readBytes(wram);
+    }
 }
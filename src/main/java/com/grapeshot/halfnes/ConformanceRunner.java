@@ -0,0 +1,296 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.trace.TraceDiff;
+import com.grapeshot.halfnes.trace.TraceReader;
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs a folder full of test ROMs headless, spread over the cores, and says
+ * which passed. For checking that a speedup to the CPU or PPU didn't break
+ * anything.
+ *
+ * Two kinds of test are understood:
+ * <ul>
+ * <li>blargg style ROMs, which put a status byte at $6000 ($80 while running,
+ * $81 to ask for the reset button, then 0 for pass or an error code) after
+ * the signature DE B0 61 at $6001, and a message as text from $6004.</li>
+ * <li>any ROM with a CPU log in nestest.log layout next to it with the same
+ * name (nestest.nes and nestest.log). It gets run from the address on the
+ * first line of the log with a CPU trace going, and passes if the trace
+ * matches the whole log.</li>
+ * </ul>
+ *
+ * Usage from the command line:
+ * <pre>
+ * java -cp halfnes.jar com.grapeshot.halfnes.ConformanceRunner testroms [seconds]
+ * </pre>
+ * prints a table of results and exits with 1 if anything didn't pass.
+ *
+ * @author Andrew Hoffman
+ */
+public class ConformanceRunner {
+
+    public enum Status {
+        PASS, FAIL, TIMEOUT, ERROR
+    }
+
+    public static class Result {
+
+        private final String rom, message;
+        private final Status status;
+        private final int code, frames;
+        private final long nanos;
+
+        Result(String rom, Status status, int code, String message, int frames, long nanos) {
+            this.rom = rom;
+            this.status = status;
+            this.code = code;
+            this.message = message;
+            this.frames = frames;
+            this.nanos = nanos;
+        }
+
+        public String getROM() {
+            return rom;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the code a blargg test finished with, 0 for anything else
+         */
+        public int getCode() {
+            return code;
+        }
+
+        /**
+         * @return what the test said, or where the trace went wrong
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return frames it ran for
+         */
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return how long it took, in ns
+         */
+        public long getNanos() {
+            return nanos;
+        }
+    }
+
+    //blargg tests ask for reset to be held for at least 100 ms
+    private static final int RESET_DELAY = 10;
+    private final EmulatorPool pool;
+    private final int maxFrames;
+
+    public ConformanceRunner() {
+        this(new EmulatorPool(), 120);
+    }
+
+    /**
+     * @param pool emulator threads to run the tests on
+     * @param seconds how long (in emulated time) a test gets before it's
+     * counted as hung
+     */
+    public ConformanceRunner(EmulatorPool pool, int seconds) {
+        this.pool = pool;
+        this.maxFrames = seconds * 60;
+    }
+
+    /**
+     * @param dir folder to look in, and all the ones under it
+     * @return every .nes file in there, sorted by path
+     * @throws IOException if the folder can't be read
+     */
+    public static List<String> findROMs(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(p -> p.toString().toLowerCase().endsWith(".nes"))
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Runs every test on the pool and waits for them all.
+     *
+     * @param roms paths of the ROMs
+     * @return results in the same order
+     */
+    public List<Result> runAll(List<String> roms) {
+        final List<ForkJoinTask<Result>> jobs = new ArrayList<>();
+        for (String rom : roms) {
+            jobs.add(pool.submit(rom, ui -> run(ui, rom)));
+        }
+        final List<Result> results = new ArrayList<>();
+        for (ForkJoinTask<Result> job : jobs) {
+            results.add(job.join());
+        }
+        return results;
+    }
+
+    private Result run(HeadlessUI ui, String rom) {
+        final long start = System.nanoTime();
+        try {
+            final Path log = Paths.get(FileUtils.stripExtension(rom) + ".log");
+            if (Files.exists(log)) {
+                return runTrace(ui, rom, log, start);
+            }
+            return runBlargg(ui, rom, start);
+        } catch (IOException | RuntimeException e) {
+            return new Result(rom, Status.ERROR, 0, e.toString(), 0, System.nanoTime() - start);
+        }
+    }
+
+    private Result runBlargg(HeadlessUI ui, String rom, long start) {
+        final NES nes = ui.getNes();
+        if (nes.getCPURAM() == null) {
+            return new Result(rom, Status.ERROR, 0, "couldn't load it", 0, System.nanoTime() - start);
+        }
+        int resetAt = -1;
+        for (int frame = 1; frame <= maxFrames; ++frame) {
+            ui.runFrame();
+            //look at it through the mapper, patches and all, same as the CPU
+            final CPURAM ram = nes.getCPURAM();
+            if (ram.read(0x6001) != 0xDE || ram.read(0x6002) != 0xB0 || ram.read(0x6003) != 0x61) {
+                continue;
+            }
+            final int status = ram.read(0x6000);
+            if (status == 0x81) {
+                if (resetAt < 0) {
+                    resetAt = frame + RESET_DELAY;
+                } else if (frame >= resetAt) {
+                    nes.reset();
+                    resetAt = -1;
+                }
+            } else if (status < 0x80) {
+                return new Result(rom, (status == 0) ? Status.PASS : Status.FAIL,
+                        status, message(ram), frame, System.nanoTime() - start);
+            }
+        }
+        return new Result(rom, Status.TIMEOUT, 0, "", maxFrames, System.nanoTime() - start);
+    }
+
+    private static String message(CPURAM ram) {
+        final StringBuilder s = new StringBuilder();
+        for (int addr = 0x6004; addr < 0x8000; ++addr) {
+            final int c = ram.read(addr);
+            if (c == 0) {
+                break;
+            }
+            s.append((char) c);
+        }
+        return s.toString().trim();
+    }
+
+    private Result runTrace(HeadlessUI ui, String rom, Path log, long start) throws IOException {
+        final String first;
+        long lines = 0;
+        try (BufferedReader r = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            first = r.readLine();
+            for (String l = first; l != null; l = r.readLine()) {
+                ++lines;
+            }
+        }
+        if (first == null || first.length() < 4) {
+            return new Result(rom, Status.ERROR, 0, log + " is empty", 0, System.nanoTime() - start);
+        }
+        final NES nes = ui.getNes();
+        final CPU cpu = nes.getCPU();
+        if (cpu == null) {
+            return new Result(rom, Status.ERROR, 0, "couldn't load it", 0, System.nanoTime() - start);
+        }
+        //the pool already loaded it, nothing's run yet, so all that's left
+        //is starting where the log does instead of at the reset vector
+        cpu.setPC(Integer.parseInt(first.substring(0, 4), 16));
+        final File trace = File.createTempFile("halfnes", ".trace");
+        try {
+            cpu.startTrace(trace.getPath());
+            int frame = 0;
+            while (cpu.instructions < lines && frame < maxFrames) {
+                ui.runFrame();
+                ++frame;
+            }
+            cpu.stopTrace();
+            final TraceDiff.Result diff;
+            try (TraceReader t = new TraceReader(trace.toPath());
+                    BufferedReader r = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+                diff = TraceDiff.diff(t, r);
+            }
+            return new Result(rom, diff.matches() ? Status.PASS : Status.FAIL, 0,
+                    diff.toString(), frame, System.nanoTime() - start);
+        } finally {
+            trace.delete();
+        }
+    }
+
+    /**
+     * @param results from runAll
+     * @return a table of them, one line each, and totals at the bottom
+     */
+    public static String table(List<Result> results) {
+        int width = 3;
+        for (Result r : results) {
+            width = Math.max(width, r.getROM().length());
+        }
+        final StringBuilder s = new StringBuilder();
+        s.append(String.format("%-" + width + "s  %-7s  %4s  %6s  %8s  %s%n",
+                "ROM", "RESULT", "CODE", "FRAMES", "MS", "MESSAGE"));
+        final int[] counts = new int[Status.values().length];
+        for (Result r : results) {
+            ++counts[r.getStatus().ordinal()];
+            //first line only, the rest is in getMessage
+            final String msg = r.getMessage().split("\n", 2)[0];
+            s.append(String.format("%-" + width + "s  %-7s  %4d  %6d  %8.1f  %s%n",
+                    r.getROM(), r.getStatus(), r.getCode(), r.getFrames(),
+                    r.getNanos() / 1e6, msg));
+        }
+        s.append(String.format("%d passed, %d failed, %d timed out, %d errors%n",
+                counts[Status.PASS.ordinal()], counts[Status.FAIL.ordinal()],
+                counts[Status.TIMEOUT.ordinal()], counts[Status.ERROR.ordinal()]));
+        return s.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ConformanceRunner testroms [seconds]");
+            System.exit(1);
+        }
+        final Path dir = Paths.get(args[0]);
+        final int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 120;
+        final EmulatorPool pool = new EmulatorPool();
+        final List<Result> results = new ConformanceRunner(pool, seconds).runAll(findROMs(dir));
+        pool.shutdown();
+        System.out.print(table(results));
+        for (Result r : results) {
+            if (r.getStatus() != Status.PASS) {
+                System.exit(1);
+            }
+        }
+    }
+}
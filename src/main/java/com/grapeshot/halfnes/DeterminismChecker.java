@@ -0,0 +1,391 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.audio.AudioOutInterface;
+import com.grapeshot.halfnes.movie.Movie;
+import com.grapeshot.halfnes.movie.MoviePlayer;
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Makes sure a change to the emulator didn't change what it does. One run
+ * records a hash of the picture, the sound and the CPU's RAM for every frame
+ * of a ROM played with some input; a later run (with a faster core, other
+ * settings, or just newer code) plays the same thing and says which frame and
+ * which part first came out different.
+ *
+ * Each hash carries on from the one for the frame before, so once something
+ * goes different it stays different. The file is little endian: "HNFH",
+ * version, ROM CRC, then 3 longs a frame (video, audio, RAM).
+ *
+ * Input is either a Movie or 2 bytes a frame, controller 1 then 2, with the
+ * buttons laid out like PuppetController.setButtons. Buttons are let go once
+ * it runs out.
+ *
+ * Usage from the command line:
+ * <pre>
+ * java -cp halfnes.jar com.grapeshot.halfnes.DeterminismChecker record game.nes hashes.bin frames [input] [options]
+ * java -cp halfnes.jar com.grapeshot.halfnes.DeterminismChecker check game.nes hashes.bin [input] [options]
+ * </pre>
+ * where input is a movie or a file of raw input bytes, and
+ * options are -tablecpu (the table driven CPU), -slowppu (every dot through
+ * PPU.clock()) and -syncapu (sync the APU every instruction), to check the
+ * fast paths against the slow ones.
+ *
+ * @author Andrew Hoffman
+ */
+public class DeterminismChecker {
+
+    public static final int MAGIC = 0x48464e48, //"HNFH"
+            VERSION = 1;
+
+    public enum Component {
+        VIDEO, AUDIO, RAM
+    }
+
+    /**
+     * Where a run first came out different from the recording.
+     */
+    public static class Divergence {
+
+        private final long frame;
+        private final Set<Component> components;
+
+        Divergence(long frame, Set<Component> components) {
+            this.frame = frame;
+            this.components = components;
+        }
+
+        /**
+         * @return frame number, from 0
+         */
+        public long getFrame() {
+            return frame;
+        }
+
+        /**
+         * @return what was different on that frame
+         */
+        public Set<Component> getComponents() {
+            return components;
+        }
+
+        @Override
+        public String toString() {
+            return "frame " + frame + ": " + components;
+        }
+    }
+
+    private final String rom;
+    private final EmulatorConfig config;
+    private byte[] input = new byte[0];
+    private Movie movie;
+    private boolean fastLines = true, eventSync = true;
+
+    /**
+     * @param rom ROM to run
+     * @param config settings to run it with
+     */
+    public DeterminismChecker(String rom, EmulatorConfig config) {
+        this.rom = rom;
+        this.config = config;
+    }
+
+    /**
+     * @param input 2 bytes a frame, see above
+     */
+    public void setInput(byte[] input) {
+        this.input = input.clone();
+        movie = null;
+    }
+
+    /**
+     * @param movie input to play instead, resets and all
+     */
+    public void setMovie(Movie movie) {
+        this.movie = movie;
+    }
+
+    /**
+     * @param fastLines false to run every PPU dot through clock()
+     */
+    public void setFastPPU(boolean fastLines) {
+        this.fastLines = fastLines;
+    }
+
+    /**
+     * @param eventSync false to catch the APU up on every instruction
+     */
+    public void setEventSync(boolean eventSync) {
+        this.eventSync = eventSync;
+    }
+
+    /**
+     * One emulator with hashers hooked up to it.
+     */
+    private class Run implements AudioOutInterface {
+
+        private final HeadlessUI ui;
+        private final NES nes;
+        private final MoviePlayer player;
+        private final XXHash64 video = new XXHash64(), audio = new XXHash64(),
+                ram = new XXHash64();
+        private long videohash, audiohash, ramhash;
+        private int frame = 0;
+
+        Run() {
+            ui = new HeadlessUI(rom, false, true, config) {
+                @Override
+                public void setFrame(int[] frame, int[] bgcolor, boolean dotcrawl) {
+                    video.reset(videohash);
+                    for (int px : frame) {
+                        video.updateInt(px);
+                    }
+                    videohash = video.digest();
+                }
+            };
+            nes = ui.getNes();
+            if (nes.getCPURAM() == null) {
+                throw new IllegalArgumentException("Couldn't load " + rom);
+            }
+            nes.setAudioOut(this);
+            if (movie != null) {
+                player = new MoviePlayer(movie);
+                player.attach(nes);
+            } else {
+                player = null;
+            }
+            audio.reset(0);
+        }
+
+        long getCRC() {
+            return nes.getCPURAM().mapper.getCRC();
+        }
+
+        /**
+         * Runs a frame and puts its hashes in out.
+         */
+        void step(long[] out) {
+            //a power cycle in a movie makes a new PPU and APU, so set these every time
+            nes.getCPURAM().ppu.fastLines = fastLines;
+            nes.getCPURAM().apu.eventSync = eventSync;
+            if (player != null) {
+                if (!player.runFrame()) {
+                    ui.runFrame();
+                }
+            } else {
+                if (frame * 2 + 1 < input.length) {
+                    ui.getController1().setButtons(input[frame * 2]);
+                    ui.getController2().setButtons(input[frame * 2 + 1]);
+                } else {
+                    ui.getController1().resetButtons();
+                    ui.getController2().resetButtons();
+                }
+                ui.runFrame();
+            }
+            ++frame;
+            audiohash = audio.digest();
+            audio.reset(audiohash);
+            final CPURAM cpuram = nes.getCPURAM();
+            ram.reset(ramhash);
+            for (int addr = 0; addr < 0x800; ++addr) {
+                ram.updateByte(cpuram.read(addr));
+            }
+            final byte[] prgram = cpuram.mapper.getPRGRam();
+            if (prgram != null) {
+                ram.update(prgram, 0, prgram.length);
+            }
+            ramhash = ram.digest();
+            out[Component.VIDEO.ordinal()] = videohash;
+            out[Component.AUDIO.ordinal()] = audiohash;
+            out[Component.RAM.ordinal()] = ramhash;
+        }
+
+        @Override
+        public void outputSamples(short[] buf, int off, int len) {
+            for (int i = off; i < off + len; ++i) {
+                audio.updateShort(buf[i]);
+            }
+        }
+
+        @Override
+        public void outputStereoSamples(short[] buf, int off, int frames) {
+            outputSamples(buf, off, frames * 2);
+        }
+
+        @Override
+        public void flushFrame(boolean waitIfBufferFull) {
+        }
+
+        @Override
+        public void pause() {
+        }
+
+        @Override
+        public void resume() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public boolean pacesFrames() {
+            return false;
+        }
+    }
+
+    private static final int RECORD = 8 * Component.values().length;
+
+    /**
+     * Runs the ROM and writes out the hashes.
+     *
+     * @param out file to write
+     * @param frames how many frames to run
+     * @throws IOException if it can't be written
+     */
+    public void record(Path out, int frames) throws IOException {
+        final Run run = new Run();
+        final long[] hashes = new long[Component.values().length];
+        final ByteBuffer buf = ByteBuffer.allocate(Math.max(16, RECORD)).order(ByteOrder.LITTLE_ENDIAN);
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(out))) {
+            buf.putInt(MAGIC).putInt(VERSION).putLong(run.getCRC());
+            os.write(buf.array(), 0, 16);
+            for (int f = 0; f < frames; ++f) {
+                run.step(hashes);
+                buf.clear();
+                for (long h : hashes) {
+                    buf.putLong(h);
+                }
+                os.write(buf.array(), 0, RECORD);
+            }
+        }
+    }
+
+    /**
+     * Runs the ROM for as many frames as there are in a recording and
+     * compares the hashes as it goes.
+     *
+     * @param in file made by record()
+     * @return where it first went different, or null if it didn't
+     * @throws IOException if the file can't be read or isn't a recording
+     * @throws IllegalArgumentException if it's a recording of another ROM
+     */
+    public Divergence check(Path in) throws IOException {
+        final Run run = new Run();
+        final long[] hashes = new long[Component.values().length];
+        final ByteBuffer buf = ByteBuffer.allocate(Math.max(16, RECORD)).order(ByteOrder.LITTLE_ENDIAN);
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(in)))) {
+            is.readFully(buf.array(), 0, 16);
+            if (buf.getInt(0) != MAGIC) {
+                throw new IOException(in + " isn't a frame hash recording");
+            }
+            if (buf.getInt(4) != VERSION) {
+                throw new IOException("Frame hash version " + buf.getInt(4)
+                        + " is not supported (expected " + VERSION + ")");
+            }
+            if (buf.getLong(8) != run.getCRC()) {
+                throw new IllegalArgumentException("Frame hashes are for a different ROM");
+            }
+            for (long frame = 0;; ++frame) {
+                if (!readRecord(is, buf.array())) {
+                    return null;
+                }
+                run.step(hashes);
+                final Set<Component> diff = EnumSet.noneOf(Component.class);
+                for (Component c : Component.values()) {
+                    if (buf.getLong(c.ordinal() * 8) != hashes[c.ordinal()]) {
+                        diff.add(c);
+                    }
+                }
+                if (!diff.isEmpty()) {
+                    return new Divergence(frame, diff);
+                }
+            }
+        }
+    }
+
+    private static boolean readRecord(InputStream is, byte[] b) throws IOException {
+        int got = 0;
+        while (got < RECORD) {
+            final int n = is.read(b, got, RECORD - got);
+            if (n < 0) {
+                if (got == 0) {
+                    return false;
+                }
+                throw new EOFException("Frame hash recording ends partway through a frame");
+            }
+            got += n;
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final List<String> pos = new ArrayList<>();
+        EmulatorConfig config = EmulatorConfig.DEFAULTS;
+        boolean slowppu = false, syncapu = false;
+        for (String a : args) {
+            switch (a) {
+                case "-tablecpu":
+                    config = config.withTableCPU(true);
+                    break;
+                case "-slowppu":
+                    slowppu = true;
+                    break;
+                case "-syncapu":
+                    syncapu = true;
+                    break;
+                default:
+                    pos.add(a);
+            }
+        }
+        final boolean record = !pos.isEmpty() && pos.get(0).equals("record");
+        if ((record && pos.size() < 4) || (!record && (pos.size() < 3 || !pos.get(0).equals("check")))) {
+            System.err.println("Usage: DeterminismChecker record game.nes hashes.bin frames [input] [options]\n"
+                    + "       DeterminismChecker check game.nes hashes.bin [input] [options]\n"
+                    + "options: -tablecpu -slowppu -syncapu");
+            System.exit(1);
+        }
+        final DeterminismChecker checker = new DeterminismChecker(pos.get(1), config);
+        checker.setFastPPU(!slowppu);
+        checker.setEventSync(!syncapu);
+        final int inputArg = record ? 4 : 3;
+        if (pos.size() > inputArg) {
+            final byte[] input = Files.readAllBytes(Paths.get(pos.get(inputArg)));
+            if (input.length >= 4 && ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN).getInt() == Movie.MAGIC) {
+                checker.setMovie(Movie.fromBytes(input));
+            } else {
+                checker.setInput(input);
+            }
+        }
+        final Path hashes = Paths.get(pos.get(2));
+        if (record) {
+            checker.record(hashes, Integer.parseInt(pos.get(3)));
+        } else {
+            final Divergence d = checker.check(hashes);
+            if (d != null) {
+                System.out.println("Different at " + d);
+                System.exit(1);
+            }
+            System.out.println("Same");
+        }
+    }
+}
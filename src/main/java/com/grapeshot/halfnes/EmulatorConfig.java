@@ -0,0 +1,274 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.audio.StereoMix;
+import java.util.prefs.Preferences;
+
+/**
+ * Settings for one emulator instance. This never changes once made: to change
+ * a setting make a new one (the with... methods copy it) and hand it to
+ * NES.setConfig.
+ *
+ * The emulator reads these from plain fields, so running hundreds of
+ * instances doesn't mean hundreds of threads fighting over the Preferences
+ * lock every frame.
+ *
+ * @author Andrew Hoffman
+ */
+public final class EmulatorConfig {
+
+    /**
+     * The same defaults the preferences dialog uses.
+     */
+    public static final EmulatorConfig DEFAULTS = new EmulatorConfig(new Settings());
+
+    //0 = auto detect from the ROM, 1 = NTSC, 2 = PAL, 3 = Dendy
+    private final int region;
+    private final boolean sleep;
+    private final boolean soundEnable;
+    private final boolean soundFiltering;
+    private final int sampleRate;
+    //16384 is unity gain
+    private final int outputVolume;
+    private final boolean showScope;
+    private final boolean ntView;
+    private final int rewindSeconds;
+    //use the table driven CPU core instead of the switch one
+    private final boolean tableCPU;
+    //how much sound to keep queued up for the sound card, in ms
+    private final int audioLatency;
+    //band limited step synthesis instead of averaging every cycle
+    private final boolean bandLimited;
+    //every channel mixed into stereo with its own pan and gain
+    private final boolean stereo;
+    //pan and gain for each channel in stereo mode
+    private final StereoMix stereoMix;
+
+    private EmulatorConfig(Settings s) {
+        region = s.region;
+        sleep = s.sleep;
+        soundEnable = s.soundEnable;
+        soundFiltering = s.soundFiltering;
+        sampleRate = s.sampleRate;
+        outputVolume = s.outputVolume;
+        showScope = s.showScope;
+        ntView = s.ntView;
+        rewindSeconds = s.rewindSeconds;
+        tableCPU = s.tableCPU;
+        audioLatency = s.audioLatency;
+        bandLimited = s.bandLimited;
+        stereo = s.stereo;
+        stereoMix = s.stereoMix;
+    }
+
+    /**
+     * Everything in one place to be changed a field at a time, so a with...
+     * method only has to mention its own setting.
+     */
+    private static final class Settings {
+
+        int region = 0;
+        boolean sleep = true;
+        boolean soundEnable = true;
+        boolean soundFiltering = true;
+        int sampleRate = 44100;
+        int outputVolume = 13107;
+        boolean showScope = false;
+        boolean ntView = false;
+        int rewindSeconds = 60;
+        boolean tableCPU = false;
+        int audioLatency = 67;
+        boolean bandLimited = false;
+        boolean stereo = false;
+        StereoMix stereoMix = StereoMix.DEFAULTS;
+
+        Settings() {
+            //the defaults above
+        }
+
+        Settings(EmulatorConfig c) {
+            region = c.region;
+            sleep = c.sleep;
+            soundEnable = c.soundEnable;
+            soundFiltering = c.soundFiltering;
+            sampleRate = c.sampleRate;
+            outputVolume = c.outputVolume;
+            showScope = c.showScope;
+            ntView = c.ntView;
+            rewindSeconds = c.rewindSeconds;
+            tableCPU = c.tableCPU;
+            audioLatency = c.audioLatency;
+            bandLimited = c.bandLimited;
+            stereo = c.stereo;
+            stereoMix = c.stereoMix;
+        }
+    }
+
+    /**
+     * Reads the current settings out of the user's preferences.
+     *
+     * @param prefs usually PrefsSingleton.get()
+     * @return config matching the preferences right now
+     */
+    public static EmulatorConfig fromPreferences(Preferences prefs) {
+        final Settings s = new Settings();
+        s.region = prefs.getInt("region", s.region);
+        s.sleep = prefs.getBoolean("Sleep", s.sleep);
+        s.soundEnable = prefs.getBoolean("soundEnable", s.soundEnable);
+        s.soundFiltering = prefs.getBoolean("soundFiltering", s.soundFiltering);
+        s.sampleRate = prefs.getInt("sampleRate", s.sampleRate);
+        s.outputVolume = prefs.getInt("outputvol", s.outputVolume);
+        s.showScope = prefs.getBoolean("showScope", s.showScope);
+        s.ntView = prefs.getBoolean("ntView", s.ntView);
+        s.rewindSeconds = prefs.getInt("rewindSeconds", s.rewindSeconds);
+        s.tableCPU = prefs.getBoolean("tableCPU", s.tableCPU);
+        s.audioLatency = prefs.getInt("audioLatency", s.audioLatency);
+        s.bandLimited = prefs.getBoolean("bandLimited", s.bandLimited);
+        s.stereo = prefs.getBoolean("stereo", s.stereo);
+        s.stereoMix = StereoMix.parse(prefs.get("stereoMix", null), s.stereoMix);
+        return new EmulatorConfig(s);
+    }
+
+    public int getRegion() {
+        return region;
+    }
+
+    public boolean isSleep() {
+        return sleep;
+    }
+
+    public boolean isSoundEnable() {
+        return soundEnable;
+    }
+
+    public boolean isSoundFiltering() {
+        return soundFiltering;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getOutputVolume() {
+        return outputVolume;
+    }
+
+    public boolean isShowScope() {
+        return showScope;
+    }
+
+    public boolean isNtView() {
+        return ntView;
+    }
+
+    public int getRewindSeconds() {
+        return rewindSeconds;
+    }
+
+    public boolean isTableCPU() {
+        return tableCPU;
+    }
+
+    public int getAudioLatency() {
+        return audioLatency;
+    }
+
+    public boolean isBandLimited() {
+        return bandLimited;
+    }
+
+    public boolean isStereo() {
+        return stereo;
+    }
+
+    public StereoMix getStereoMix() {
+        return stereoMix;
+    }
+
+    public EmulatorConfig withRegion(int region) {
+        final Settings s = new Settings(this);
+        s.region = region;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withSleep(boolean sleep) {
+        final Settings s = new Settings(this);
+        s.sleep = sleep;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withSoundEnable(boolean soundEnable) {
+        final Settings s = new Settings(this);
+        s.soundEnable = soundEnable;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withSoundFiltering(boolean soundFiltering) {
+        final Settings s = new Settings(this);
+        s.soundFiltering = soundFiltering;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withSampleRate(int sampleRate) {
+        final Settings s = new Settings(this);
+        s.sampleRate = sampleRate;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withOutputVolume(int outputVolume) {
+        final Settings s = new Settings(this);
+        s.outputVolume = outputVolume;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withShowScope(boolean showScope) {
+        final Settings s = new Settings(this);
+        s.showScope = showScope;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withNtView(boolean ntView) {
+        final Settings s = new Settings(this);
+        s.ntView = ntView;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withRewindSeconds(int rewindSeconds) {
+        final Settings s = new Settings(this);
+        s.rewindSeconds = rewindSeconds;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withTableCPU(boolean tableCPU) {
+        final Settings s = new Settings(this);
+        s.tableCPU = tableCPU;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withAudioLatency(int audioLatency) {
+        final Settings s = new Settings(this);
+        s.audioLatency = audioLatency;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withBandLimited(boolean bandLimited) {
+        final Settings s = new Settings(this);
+        s.bandLimited = bandLimited;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withStereo(boolean stereo) {
+        final Settings s = new Settings(this);
+        s.stereo = stereo;
+        return new EmulatorConfig(s);
+    }
+
+    public EmulatorConfig withStereoMix(StereoMix stereoMix) {
+        final Settings s = new Settings(this);
+        s.stereoMix = stereoMix;
+        return new EmulatorConfig(s);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs lots of headless emulators in one JVM on a fixed set of worker threads,
+ * one per core by default.
+ *
+ * Instances added to the pool are stepped together with runFrames(), which
+ * splits them up between the workers. Idle workers steal from busy ones, so a
+ * few slow games don't hold everything else up. An instance is only ever run
+ * by one worker at a time, but don't touch an instance from another thread
+ * while runFrames() is going.
+ *
+ * One-off jobs that want an emulator to themselves can use submit() instead.
+ *
+ * @author Andrew Hoffman
+ */
+public class EmulatorPool {
+
+    private final ForkJoinPool workers;
+    private final List<HeadlessUI> instances = new ArrayList<>();
+    private final boolean renderFrames;
+    private final EmulatorConfig config;
+
+    public EmulatorPool() {
+        this(Runtime.getRuntime().availableProcessors(), false, EmulatorConfig.DEFAULTS);
+    }
+
+    /**
+     * @param threads number of worker threads
+     * @param renderFrames whether instances should keep a BufferedImage of
+     * the last frame. Turn it off unless you need it, it's not free.
+     * @param config settings for every instance. The default settings are
+     * used rather than the user's preferences so batch runs come out the same
+     * on every machine.
+     */
+    public EmulatorPool(int threads, boolean renderFrames, EmulatorConfig config) {
+        this.renderFrames = renderFrames;
+        this.config = config;
+        workers = new ForkJoinPool(threads, pool -> {
+            final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("Emulator Pool " + t.getPoolIndex());
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Loads a ROM into a new emulator and adds it to the pool.
+     *
+     * @param romToLoad path of the ROM
+     * @return the new instance
+     */
+    public HeadlessUI addInstance(String romToLoad) {
+        final HeadlessUI ui = HeadlessUI.pooled(romToLoad, renderFrames, config);
+        synchronized (instances) {
+            instances.add(ui);
+        }
+        return ui;
+    }
+
+    public void removeInstance(HeadlessUI ui) {
+        synchronized (instances) {
+            instances.remove(ui);
+        }
+    }
+
+    public List<HeadlessUI> getInstances() {
+        synchronized (instances) {
+            return Collections.unmodifiableList(new ArrayList<>(instances));
+        }
+    }
+
+    /**
+     * Runs every instance in the pool for some number of frames, and waits
+     * until they're all done.
+     *
+     * @param frames frames to run each instance for
+     */
+    public void runFrames(int frames) {
+        final HeadlessUI[] batch;
+        synchronized (instances) {
+            batch = instances.toArray(new HeadlessUI[instances.size()]);
+        }
+        if (batch.length > 0) {
+            workers.invoke(new RunFrames(batch, 0, batch.length, frames));
+        }
+    }
+
+    /**
+     * Runs a job on its own emulator, on one of the pool threads. The emulator
+     * isn't added to the pool and is dropped once the job is finished.
+     *
+     * @param romToLoad path of the ROM
+     * @param job what to do with the emulator
+     * @return future for the job's result
+     */
+    public <T> ForkJoinTask<T> submit(String romToLoad, Function<HeadlessUI, T> job) {
+        return workers.submit(() -> job.apply(HeadlessUI.pooled(romToLoad, renderFrames, config)));
+    }
+
+    public int getThreadCount() {
+        return workers.getParallelism();
+    }
+
+    /**
+     * Stops the workers once the jobs already submitted are done.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    private static class RunFrames extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final HeadlessUI[] batch;
+        private final int start, end, frames;
+
+        RunFrames(HeadlessUI[] batch, int start, int end, int frames) {
+            this.batch = batch;
+            this.start = start;
+            this.end = end;
+            this.frames = frames;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                final HeadlessUI ui = batch[start];
+                for (int i = 0; i < frames; ++i) {
+                    ui.runFrame();
+                }
+            } else {
+                //split all the way down to single instances
+                //so the other workers have something to steal
+                final int mid = (start + end) >>> 1;
+                invokeAll(new RunFrames(batch, start, mid, frames),
+                        new RunFrames(batch, mid, end, frames));
+            }
+        }
+    }
+}
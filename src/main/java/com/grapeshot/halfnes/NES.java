@@ -5,13 +5,22 @@
 package com.grapeshot.halfnes;
 
 import com.grapeshot.halfnes.cheats.ActionReplay;
+import com.grapeshot.halfnes.audio.AudioOutInterface;
 import com.grapeshot.halfnes.mappers.BadMapperException;
 import com.grapeshot.halfnes.mappers.Mapper;
+import com.grapeshot.halfnes.metrics.FrameMetrics;
+import com.grapeshot.halfnes.movie.Movie;
+import com.grapeshot.halfnes.movie.MovieRecorder;
+import com.grapeshot.halfnes.state.RewindBuffer;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.ui.ControllerInterface;
 import com.grapeshot.halfnes.ui.FrameLimiterImpl;
 import com.grapeshot.halfnes.ui.FrameLimiterInterface;
 import com.grapeshot.halfnes.ui.GUIInterface;
+import java.util.concurrent.atomic.AtomicInteger;
 import javafx.application.Platform;
+import javax.management.JMException;
 
 public class NES implements ProjectInfo {
 
@@ -23,7 +32,6 @@ public class NES implements ProjectInfo {
     private GUIInterface gui;
     private ControllerInterface controller1, controller2;
     public boolean runEmulation = false;
-    private boolean dontSleep = false;
     private boolean shutdown = false;
     public long frameStartTime, framecount, frameDoneTime;
     private boolean frameLimiterOn = true;
@@ -31,8 +39,62 @@ public class NES implements ProjectInfo {
     private final FrameLimiterInterface limiter = new FrameLimiterImpl(this, 16639267);
     // Pro Action Replay device
     private ActionReplay actionReplay;
+    //save states. bump the version whenever the layout of any section changes
+    public static final int STATE_VERSION = 4;
+    private final StateWriter stateWriter = new StateWriter();
+    //rewind history, null if turned off or not used yet with this ROM
+    private volatile RewindBuffer rewind;
+    private final StateReader rewindReader = new StateReader(new byte[0]);
+    private volatile boolean rewinding = false;
+    //headless instances have no window, sound or save files of their own,
+    //so lots of them can run side by side in one JVM
+    private final boolean headless;
+    private volatile EmulatorConfig config;
+    //sound goes here instead of to the sound card if set
+    private AudioOutInterface audioOut;
+    //what each frame did and how long it took
+    private final FrameMetrics metrics = new FrameMetrics();
+    //numbers the JMX names so a second windowed instance doesn't clash
+    private static final AtomicInteger instances = new AtomicInteger();
+    private final long[] framecounts = new long[FrameMetrics.Counter.values().length],
+            framenanos = new long[FrameMetrics.Phase.values().length];
+    //input being recorded, null if not. The controllers the game reads
+    //are wrapped by it, the ones that were plugged in are kept here
+    private volatile MovieRecorder movie;
+    private ControllerInterface unwrapped1, unwrapped2;
 
     public NES(GUIInterface gui) {
+        this(gui, false);
+    }
+
+    /**
+     * @param gui user interface, may be null
+     * @param headless if true, don't open a sound device, don't read or write
+     * .sav files, don't keep rewind history and don't shut down JavaFX on quit.
+     */
+    public NES(GUIInterface gui, boolean headless) {
+        this(gui, headless, EmulatorConfig.fromPreferences(PrefsSingleton.get()));
+    }
+
+    /**
+     * @param gui user interface, may be null
+     * @param headless see above
+     * @param config settings for this instance
+     */
+    public NES(GUIInterface gui, boolean headless, EmulatorConfig config) {
+        this.headless = headless;
+        this.config = config;
+        if (!headless) {
+            //headless ones can register their own if they want. the first
+            //one is plain halfnes, any after that get halfnes-2, halfnes-3...
+            final int n = instances.incrementAndGet();
+            try {
+                metrics.register(n == 1 ? "halfnes" : "halfnes-" + n);
+            } catch (JMException e) {
+                //the emulator works fine without it
+                System.err.println("Couldn't register frame metrics: " + e);
+            }
+        }
         if (gui != null) {
             this.gui = gui;
             gui.setNES(this);
@@ -60,9 +122,17 @@ public class NES implements ProjectInfo {
         while (!shutdown) {
             if (runEmulation) {
                 frameStartTime = System.nanoTime();
-                actionReplay.applyPatches();
-                runframe();
-                if (frameLimiterOn && !dontSleep) {
+                if (rewinding && rewind != null && movie == null) {
+                    rewindframe();
+                } else {
+                    actionReplay.applyPatches();
+                    recordframe();
+                    runframe();
+                }
+                //when the sound card is setting the pace (the end of frame
+                //flush waited for it) sleeping here too would only make the
+                //emulator fall behind it
+                if (frameLimiterOn && !apu.pacesFrames()) {
                     limiter.sleep();
                 }
                 frameDoneTime = System.nanoTime() - frameStartTime;
@@ -76,15 +146,17 @@ public class NES implements ProjectInfo {
     }
 
     private synchronized void runframe() {
+        //where the counters were at the start of the frame
+        final long instructions = cpu.instructions, dots = ppu.dots,
+                overflows = ppu.spriteoverflows, apucycles = apu.cycles,
+                irqs = mapper.irqs, apunanos = apu.nanos, flushnanos = apu.flushnanos;
+        final long start = System.nanoTime();
         //run cpu, ppu for a whole frame
         ppu.runFrame();
+        //the APU catching up in the middle of the frame isn't CPU or PPU time
+        final long ran = System.nanoTime() - start - (apu.nanos - apunanos);
 
         //do end of frame stuff
-        dontSleep = apu.bufferHasLessThan(1000);
-        //if the audio buffer is completely drained, don't sleep for this frame
-        //this is to prevent the emulator from getting stuck sleeping too much
-        //on a slow system or when the audio buffer runs dry.
-
         apu.finishframe();
         cpu.modcycles();
 
@@ -93,16 +165,84 @@ public class NES implements ProjectInfo {
 //            System.err.println("log on");
 //        }
         //render the frame
+        final long rendering = System.nanoTime();
         ppu.renderFrame(gui);
+        final long rendered = System.nanoTime();
         if ((framecount & 2047) == 0) {
             //save sram every 30 seconds or so
             saveSRAM(true);
         }
         ++framecount;
         //System.err.println(framecount);
+        framecounts[FrameMetrics.Counter.INSTRUCTIONS.ordinal()] = cpu.instructions - instructions;
+        framecounts[FrameMetrics.Counter.PPU_DOTS.ordinal()] = ppu.dots - dots;
+        framecounts[FrameMetrics.Counter.APU_CYCLES.ordinal()] = apu.cycles - apucycles;
+        framecounts[FrameMetrics.Counter.MAPPER_IRQS.ordinal()] = mapper.irqs - irqs;
+        framecounts[FrameMetrics.Counter.SPRITE_OVERFLOWS.ordinal()] = ppu.spriteoverflows - overflows;
+        framenanos[FrameMetrics.Phase.CPU_PPU.ordinal()] = ran;
+        framenanos[FrameMetrics.Phase.APU.ordinal()] = apu.nanos - apunanos;
+        framenanos[FrameMetrics.Phase.RENDER.ordinal()] = rendered - rendering;
+        framenanos[FrameMetrics.Phase.AUDIO_FLUSH.ordinal()] = apu.flushnanos - flushnanos;
+        framenanos[FrameMetrics.Phase.FRAME.ordinal()] = System.nanoTime() - start;
+        metrics.recordFrame(framecounts, framenanos);
+        if (movie != null) {
+            movie.endFrame();
+        }
+    }
+
+    private synchronized void recordframe() {
+        //save the state at the start of every frame for rewinding
+        if (rewind != null) {
+            stateWriter.reset();
+            saveState(stateWriter);
+            rewind.push(stateWriter);
+        }
     }
 
-    public void setControllers(ControllerInterface controller1, ControllerInterface controller2) {
+    private synchronized void rewindframe() {
+        //go back to the start of the last frame and run it again
+        //so there's a picture to show. Once the history is used up
+        //it just sits on the oldest frame until rewind is let go.
+        if (rewind != null && rewind.pop(rewindReader)) {
+            loadState(rewindReader);
+            runframe();
+        }
+    }
+
+    public synchronized void setRewinding(final boolean rewinding) {
+        if (rewinding) {
+            startRewind();
+        }
+        this.rewinding = rewinding;
+    }
+
+    public boolean isRewinding() {
+        return rewinding;
+    }
+
+    public synchronized void toggleRewind() {
+        startRewind();
+        rewinding = !rewinding;
+    }
+
+    private void startRewind() {
+        //the history only starts being kept the first time rewind gets used,
+        //so nobody who never rewinds pays for a few MB of it
+        final int rewindSeconds = headless ? 0 : config.getRewindSeconds();
+        if (rewind == null && cpu != null && rewindSeconds > 0) {
+            //about 128k a second is plenty for most games, frames past that
+            //just don't get kept.
+            rewind = new RewindBuffer(rewindSeconds * 60, rewindSeconds * 131072, 60);
+        }
+    }
+
+    public synchronized void setControllers(ControllerInterface controller1, ControllerInterface controller2) {
+        if (movie != null) {
+            unwrapped1 = controller1;
+            unwrapped2 = controller2;
+            controller1 = movie.wrap(0, controller1);
+            controller2 = movie.wrap(1, controller2);
+        }
         this.controller1 = controller1;
         this.controller2 = controller2;
     }
@@ -126,13 +266,14 @@ public class NES implements ProjectInfo {
                 loader.parseHeader();
                 newmapper = Mapper.getCorrectMapper(loader);
                 newmapper.setLoader(loader);
+                newmapper.setConfig(config);
                 newmapper.loadrom();
             } catch (BadMapperException e) {
-                gui.messageBox("Error Loading File: ROM is"
+                messageBox("Error Loading File: ROM is"
                         + " corrupted or uses an unsupported mapper.\n" + e.getMessage());
                 return;
             } catch (Exception e) {
-                gui.messageBox("Error Loading File: ROM is"
+                messageBox("Error Loading File: ROM is"
                         + " corrupted or uses an unsupported mapper.\n" + e.toString() + e.getMessage());
                 e.printStackTrace();
                 return;
@@ -160,8 +301,10 @@ public class NES implements ProjectInfo {
             curRomName = FileUtils.getFilenamefromPath(filename);
 
             framecount = 0;
+            rewinding = false;
+            rewind = null;
             //if savestate exists, load it
-            if (mapper.hasSRAM()) {
+            if (mapper.hasSRAM() && !headless) {
                 loadSRAM();
             }
             //and start emulation
@@ -170,13 +313,13 @@ public class NES implements ProjectInfo {
             setParameters();
             runEmulation = true;
         } else {
-            gui.messageBox("Could not load file:\nFile " + filename + "\n"
+            messageBox("Could not load file:\nFile " + filename + "\n"
                     + "does not exist or is not a valid NES game.");
         }
     }
 
     private void saveSRAM(final boolean async) {
-        if (mapper != null && mapper.hasSRAM() && mapper.supportsSaves()) {
+        if (!headless && mapper != null && mapper.hasSRAM() && mapper.supportsSaves()) {
             if (async) {
                 FileUtils.asyncwritetofile(mapper.getPRGRam(), FileUtils.stripExtension(curRomPath) + ".sav");
             } else {
@@ -204,11 +347,17 @@ public class NES implements ProjectInfo {
         //System.Exit is very dirty and does NOT let the delete on exit handler
         //fire so the natives stick around...
         shutdown = true;
-        Platform.exit();
+        metrics.unregister();
+        if (!headless) {
+            Platform.exit();
+        }
     }
 
     public synchronized void reset() {
         if (cpu != null) {
+            if (movie != null) {
+                movie.event(Movie.Event.RESET);
+            }
             mapper.reset();
             cpu.reset();
             runEmulation = true;
@@ -222,9 +371,48 @@ public class NES implements ProjectInfo {
     }
 
     public synchronized void reloadROM() {
+        if (movie != null) {
+            movie.event(Movie.Event.POWER);
+        }
         loadROM(curRomPath);
     }
 
+    /**
+     * Starts recording a movie of the game. The ROM gets reloaded first so the
+     * movie starts from power on; after that every frame's controller input
+     * is recorded, along with resets and hard resets, until stopMovie(). Rewind
+     * doesn't work while recording, since the movie can't be taken back.
+     */
+    public synchronized void recordMovie() {
+        if (cpu == null) {
+            return;
+        }
+        stopMovie();
+        reloadROM();
+        movie = new MovieRecorder(mapper.getCRC());
+        setControllers(controller1, controller2);
+    }
+
+    /**
+     * Stops recording and plugs the controllers back in like they were.
+     *
+     * @return what was recorded, or null if nothing was being recorded
+     */
+    public synchronized Movie stopMovie() {
+        if (movie == null) {
+            return null;
+        }
+        final Movie recorded = movie.toMovie();
+        movie = null;
+        controller1 = unwrapped1;
+        controller2 = unwrapped2;
+        return recorded;
+    }
+
+    public boolean isRecordingMovie() {
+        return movie != null;
+    }
+
     public synchronized void pause() {
         if (apu != null) {
             apu.pause();
@@ -232,10 +420,29 @@ public class NES implements ProjectInfo {
         runEmulation = false;
     }
 
+    public boolean isHeadless() {
+        return headless;
+    }
+
     public long getFrameTime() {
         return frameDoneTime;
     }
 
+    /**
+     * @return counts and timings for every frame run so far
+     */
+    public FrameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return CRC of the ROM that's loaded, or 0 if there isn't one
+     */
+    public long getCRC() {
+        final Mapper m = mapper;
+        return (m != null) ? m.getCRC() : 0;
+    }
+
     public String getrominfo() {
         if (mapper != null) {
             return mapper.getrominfo();
@@ -281,6 +488,38 @@ public class NES implements ProjectInfo {
         return controller2;
     }
 
+    public EmulatorConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Sends the sound somewhere other than the sound card, a file for
+     * instance. The emulator never closes it, that's up to whoever set it.
+     *
+     * @param out where to send the sound, or null to go back to normal
+     */
+    public synchronized void setAudioOut(final AudioOutInterface out) {
+        this.audioOut = out;
+        setParameters();
+    }
+
+    public AudioOutInterface getAudioOut() {
+        return audioOut;
+    }
+
+    /**
+     * Switches to new settings, which take effect right away.
+     *
+     * @param config the new settings
+     */
+    public synchronized void setConfig(final EmulatorConfig config) {
+        this.config = config;
+        if (mapper != null) {
+            mapper.setConfig(config);
+        }
+        setParameters();
+    }
+
     public synchronized void setParameters() {
         if (apu != null) {
             apu.setParameters();
@@ -301,6 +540,93 @@ public class NES implements ProjectInfo {
         }
     }
 
+    /**
+     * Takes a snapshot of the whole machine. The state is only good for the
+     * ROM that is loaded right now.
+     *
+     * @return the save state, or null if no ROM is loaded
+     */
+    public synchronized byte[] saveState() {
+        if (cpu == null) {
+            return null;
+        }
+        stateWriter.reset();
+        saveState(stateWriter);
+        return stateWriter.toByteArray();
+    }
+
+    /**
+     * Writes a snapshot into a caller supplied writer, which doesn't allocate
+     * once the writer's buffer is big enough. Only call this between frames.
+     *
+     * @param w writer to append the state to
+     */
+    public synchronized void saveState(final StateWriter w) {
+        w.beginSection("HNSS");
+        w.writeInt(STATE_VERSION);
+        w.writeLong(mapper.getCRC());
+        w.writeLong(framecount);
+        w.endSection();
+        w.beginSection("CPU ");
+        cpu.saveState(w);
+        w.endSection();
+        w.beginSection("CRAM");
+        cpuram.saveState(w);
+        w.endSection();
+        w.beginSection("PPU ");
+        ppu.saveState(w);
+        w.endSection();
+        w.beginSection("APU ");
+        apu.saveState(w);
+        w.endSection();
+        w.beginSection("MAPR");
+        mapper.saveState(w);
+        w.endSection();
+    }
+
+    public synchronized void loadState(final byte[] state) {
+        loadState(new StateReader(state));
+    }
+
+    /**
+     * Restores a snapshot made by saveState. Throws IllegalArgumentException
+     * if it was made with another ROM or version, or is damaged; a damaged
+     * state can leave the machine half restored.
+     *
+     * @param r reader positioned at the start of the state
+     */
+    public synchronized void loadState(final StateReader r) {
+        if (cpu == null) {
+            throw new IllegalStateException("No ROM loaded");
+        }
+        r.beginSection("HNSS");
+        final int version = r.readInt();
+        if (version != STATE_VERSION) {
+            throw new IllegalArgumentException("Save state version " + version
+                    + " is not supported (expected " + STATE_VERSION + ")");
+        }
+        if (r.readLong() != mapper.getCRC()) {
+            throw new IllegalArgumentException("Save state is for a different ROM");
+        }
+        framecount = r.readLong();
+        r.endSection();
+        r.beginSection("CPU ");
+        cpu.loadState(r);
+        r.endSection();
+        r.beginSection("CRAM");
+        cpuram.loadState(r);
+        r.endSection();
+        r.beginSection("PPU ");
+        ppu.loadState(r);
+        r.endSection();
+        r.beginSection("APU ");
+        apu.loadState(r);
+        r.endSection();
+        r.beginSection("MAPR");
+        mapper.loadState(r);
+        r.endSection();
+    }
+
     /**
      * Access to the Pro Action Replay device.
      */
@@ -4,8 +4,9 @@
  */
 package com.grapeshot.halfnes;
 
-import static com.grapeshot.halfnes.PrefsSingleton.get;
 import com.grapeshot.halfnes.mappers.Mapper;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.ui.DebugUI;
 import com.grapeshot.halfnes.ui.GUIInterface;
 import static com.grapeshot.halfnes.utils.reverseByte;
@@ -24,6 +25,8 @@ public class PPU {
     private int loopyX = 0;//fine x scroll
     public int scanline = 0;
     public int cycles = 0;
+    //for FrameMetrics
+    public long dots, spriteoverflows;
     private int framecount = 0;
     private int div = 2;
     private final int[] OAM = new int[256], secOAM = new int[32],
@@ -39,7 +42,7 @@ public class PPU {
     public final int[] pal;
     private DebugUI debuggui;
     private int vraminc = 1;
-    private final static boolean PPUDEBUG = get().getBoolean("ntView", false);
+    private final boolean PPUDEBUG;
     private BufferedImage nametableView;
     private final int[] bgcolors = new int[256];
     private int openbus = 0; //the last value written to the PPU
@@ -50,6 +53,13 @@ public class PPU {
     private int numscanlines;
     private int vblankline;
     private final int[] cpudivider = {3, 3, 3, 3, 3};
+    //set by any register write, so renderLine knows to stop
+    private boolean linedirty;
+    private final boolean[] fastline = new boolean[312];
+    //turn off to run every line through clock(), for comparing
+    boolean fastLines = true;
+    //pattern data can come from mapper.tileRow()
+    private final boolean tilecache;
 
     public PPU(final Mapper mapper) {
         this.pal = new int[]{0x09, 0x01, 0x00, 0x01, 0x00, 0x02, 0x02, 0x0D,
@@ -62,6 +72,8 @@ public class PPU {
      expecting this set of values and nesemu1, BizHawk, RockNES, MyNes use it
          */
         this.mapper = mapper;
+        PPUDEBUG = mapper.getConfig().isNtView();
+        tilecache = mapper.usesTileCache();
         fill(OAM, 0xff);
         if (PPUDEBUG) {
             nametableView = new BufferedImage(512, 480, TYPE_INT_BGR);
@@ -193,6 +205,7 @@ public class PPU {
 //                    + " frame " + framecount + " scanline " + scanline);
 //        }
         //debugdraw();
+        linedirty = true;
         openbus = data;
         switch (regnum) {
             case 0: //PPUCONTROL (2000)
@@ -346,11 +359,108 @@ public class PPU {
                 && scanline == 0
                 && renderingOn()
                 && !((framecount & (utils.BIT1)) != 0)) ? 1 : 0;
-        for (cycles = skip; cycles < 341; ++cycles) {
+        cycles = skip;
+        dots += 341 - skip;
+        if (fastLines && this.scanline < 240 && renderingOn()) {
+            renderLine();
+            fastline[scanline] = (cycles == 341);
+        } else {
+            fastline[scanline] = false;
+        }
+        //drop back to one dot at a time for whatever's left
+        for (; cycles < 341; ++cycles) {
             clock();
         }
     }
 
+    /**
+     * True if the line was run start to finish by renderLine on the last
+     * frame, false if it went dot by dot through clock() for all or part of
+     * it.
+     *
+     * @param line scanline number
+     * @return whether the fast path was used
+     */
+    public boolean wasFastLine(int line) {
+        return fastline[line];
+    }
+
+    /**
+     * Does the same thing as calling clock() for every dot on a visible line
+     * with rendering on, but all the checks for which scanline it is, whether
+     * rendering is on, grayscale etc. are done once for the line instead of
+     * 341 times. Those can only change when the CPU writes a PPU register, so
+     * after any CPU cycle where that happened this stops and leaves the rest
+     * of the line to clock().
+     */
+    private void renderLine() {
+        final int line = scanline;
+        final int lineoffset = line << 8;
+        final boolean bg = bgOn, gray = grayscale;
+        final int emphasis = emph;
+        //can't change without a PPU write either
+        mapper.cpu.setNMI(vblankflag && nmicontrol);
+        linedirty = false;
+        for (; cycles < 341; ++cycles) {
+            if (cycles >= 1 && cycles <= 256) {
+                if (cycles == 1) {
+                    if (line == 0) {
+                        dotcrawl = true;
+                    }
+                    bgcolors[line] = pal[0];
+                } else if (cycles == 65) {
+                    oamstart = oamaddr;
+                }
+                bgFetch(tilecache);
+                final int bufferoffset = lineoffset + (cycles - 1);
+                if (bg) {
+                    final boolean isBG = drawBGPixel(bufferoffset);
+                    drawSprites(line, cycles - 1, isBG);
+                } else {
+                    bitmap[bufferoffset] = ((loopyV > 0x3f00 && loopyV < 0x3fff) ? mapper.ppuRead(loopyV) : pal[0]);
+                    drawSprites(line, cycles - 1, true);
+                }
+                if (gray) {
+                    bitmap[bufferoffset] &= 0x30;
+                }
+                bitmap[bufferoffset] = (bitmap[bufferoffset] & 0x3f) | emphasis;
+            } else if (cycles >= 321 && cycles <= 336) {
+                bgFetch(tilecache);
+            } else if (cycles == 257) {
+                loopyV &= ~0x41f;
+                loopyV |= loopyT & 0x41f;
+            } else if (cycles > 257) {
+                oamaddr = 0;
+                if (cycles == 260) {
+                    evalSprites();
+                } else if (cycles == 340) {
+                    fetchNTByte();
+                    fetchNTByte();
+                }
+            }
+            div = (div + 1) % cpudivider[cpudividerctr];
+            if (div == 0) {
+                if (mapper.cpu.idlecycles > 0) {
+                    --mapper.cpu.idlecycles;
+                } else {
+                    mapper.cpu.runbatch(line, cycles);
+                }
+                mapper.cpucycle(1);
+                cpudividerctr = (cpudividerctr + 1) % cpudivider.length;
+            }
+            if (cycles == 257) {
+                mapper.notifyscanline(line);
+            } else if (cycles == 340) {
+                scanline = line + 1;
+            }
+            if (linedirty) {
+                //registers changed, finish off the rest of the line slowly
+                ++cycles;
+                return;
+            }
+        }
+    }
+
     private int tileAddr = 0;
     private int cpudividerctr = 0;
 
@@ -374,7 +484,7 @@ public class PPU {
                     && ((cycles >= 1 && cycles <= 256)
                     || (cycles >= 321 && cycles <= 336))) {
                 //fetch background tiles, load shift registers
-                bgFetch();
+                bgFetch(false);
             } else if (cycles == 257 && renderingOn()) {
                 //x scroll reset
                 //horizontal bits of loopyV = loopyT
@@ -461,7 +571,12 @@ public class PPU {
         //clock CPU, once every 3 ppu cycles
         div = (div + 1) % cpudivider[cpudividerctr];
         if (div == 0) {
-            mapper.cpu.runcycle(scanline, cycles);
+            if (mapper.cpu.idlecycles > 0) {
+                //cpu is still busy with the last instruction
+                --mapper.cpu.idlecycles;
+            } else {
+                mapper.cpu.runbatch(scanline, cycles);
+            }
             mapper.cpucycle(1);
             cpudividerctr = (cpudividerctr + 1) % cpudivider.length;
         }
@@ -475,7 +590,12 @@ public class PPU {
         }
     }
 
-    private void bgFetch() {
+    /**
+     * @param cached get the bit planes from the tile cache instead of
+     * ppuRead. Each plane is still looked up on its own dot, since a mapper
+     * can switch CHR banks in between without writing a PPU register.
+     */
+    private void bgFetch(final boolean cached) {
         //fetch tiles for background
         //on real PPU this logic is repurposed for sprite fetches as well
         //System.err.println(hex(loopyV));
@@ -494,13 +614,21 @@ public class PPU {
                 break;
             case 5:
                 //fetch low bg byte
-                linelowbits = mapper.ppuRead((tileAddr)
-                        + ((loopyV & 0x7000) >> 12));
+                if (cached) {
+                    linelowbits = mapper.tileRow(tileAddr + ((loopyV & 0x7000) >> 12)) & 0xff;
+                } else {
+                    linelowbits = mapper.ppuRead((tileAddr)
+                            + ((loopyV & 0x7000) >> 12));
+                }
                 break;
             case 7:
                 //fetch high bg byte
-                linehighbits = mapper.ppuRead((tileAddr) + 8
-                        + ((loopyV & 0x7000) >> 12));
+                if (cached) {
+                    linehighbits = (mapper.tileRow(tileAddr + ((loopyV & 0x7000) >> 12)) >> 8) & 0xff;
+                } else {
+                    linehighbits = mapper.ppuRead((tileAddr) + 8
+                            + ((loopyV & 0x7000) >> 12));
+                }
                 bgShiftRegL |= linelowbits;
                 bgShiftRegH |= linehighbits;
                 nextattr = penultimateattr;
@@ -617,6 +745,7 @@ public class PPU {
                 //if more than 8 sprites, set overflow bit and STOP looking
                 //todo: add "no sprite limit" option back
                 spriteoverflow = true;
+                ++spriteoverflows;
                 break; //also the real PPU does strange stuff on sprite overflow
                 //todo: emulate register trashing that happens when overflow
             } else {
@@ -668,7 +797,12 @@ public class PPU {
         tilefetched += offset;
         //now load up the shift registers for said sprite
         final boolean hflip = ((oamextra & (utils.BIT6)) != 0);
-        if (!hflip) {
+        if (tilecache) {
+            //rows come out of the cache already mirrored
+            final int row = mapper.tileRow(tilefetched);
+            spriteshiftregL[found] = hflip ? row & 0xff : (row >> 16) & 0xff;
+            spriteshiftregH[found] = hflip ? (row >> 8) & 0xff : row >>> 24;
+        } else if (!hflip) {
             spriteshiftregL[found] = reverseByte(mapper.ppuRead(tilefetched));
             spriteshiftregH[found] = reverseByte(mapper.ppuRead(tilefetched + 8));
         } else {
@@ -814,6 +948,112 @@ public class PPU {
         return dat;
     }
 
+    /**
+     * Saves everything the PPU needs to pick up where it left off. The output
+     * bitmap isn't included, it gets redrawn by the next frame anyway.
+     *
+     * @param w state writer
+     */
+    public void saveState(StateWriter w) {
+        w.writeInt(oamaddr);
+        w.writeInt(oamstart);
+        w.writeInt(readbuffer);
+        w.writeInt(loopyV);
+        w.writeInt(loopyT);
+        w.writeInt(loopyX);
+        w.writeInt(scanline);
+        w.writeInt(cycles);
+        w.writeInt(framecount);
+        w.writeInt(div);
+        w.writeInt(cpudividerctr);
+        w.writeBytes(OAM);
+        w.writeBytes(secOAM);
+        w.writeBytes(pal);
+        w.writeInts(spriteshiftregH);
+        w.writeInts(spriteshiftregL);
+        w.writeInts(spriteXlatch);
+        w.writeInts(spritepals);
+        w.writeBooleans(spritebgflags);
+        w.writeInt(found);
+        w.writeInt(bgShiftRegH);
+        w.writeInt(bgShiftRegL);
+        w.writeInt(bgAttrShiftRegH);
+        w.writeInt(bgAttrShiftRegL);
+        w.writeInt(tileAddr);
+        w.writeInt(nextattr);
+        w.writeInt(linelowbits);
+        w.writeInt(linehighbits);
+        w.writeInt(penultimateattr);
+        w.writeInt(emph);
+        w.writeInt(vraminc);
+        w.writeInt(openbus);
+        w.writeBoolean(even);
+        w.writeBoolean(bgpattern);
+        w.writeBoolean(sprpattern);
+        w.writeBoolean(spritesize);
+        w.writeBoolean(nmicontrol);
+        w.writeBoolean(grayscale);
+        w.writeBoolean(bgClip);
+        w.writeBoolean(spriteClip);
+        w.writeBoolean(bgOn);
+        w.writeBoolean(spritesOn);
+        w.writeBoolean(vblankflag);
+        w.writeBoolean(sprite0hit);
+        w.writeBoolean(spriteoverflow);
+        w.writeBoolean(dotcrawl);
+        w.writeBoolean(sprite0here);
+    }
+
+    public void loadState(StateReader r) {
+        oamaddr = r.readInt();
+        oamstart = r.readInt();
+        readbuffer = r.readInt();
+        loopyV = r.readInt();
+        loopyT = r.readInt();
+        loopyX = r.readInt();
+        scanline = r.readInt();
+        cycles = r.readInt();
+        framecount = r.readInt();
+        div = r.readInt();
+        cpudividerctr = r.readInt();
+        r.readBytes(OAM);
+        r.readBytes(secOAM);
+        r.readBytes(pal);
+        r.readInts(spriteshiftregH);
+        r.readInts(spriteshiftregL);
+        r.readInts(spriteXlatch);
+        r.readInts(spritepals);
+        r.readBooleans(spritebgflags);
+        found = r.readInt();
+        bgShiftRegH = r.readInt();
+        bgShiftRegL = r.readInt();
+        bgAttrShiftRegH = r.readInt();
+        bgAttrShiftRegL = r.readInt();
+        tileAddr = r.readInt();
+        nextattr = r.readInt();
+        linelowbits = r.readInt();
+        linehighbits = r.readInt();
+        penultimateattr = r.readInt();
+        emph = r.readInt();
+        vraminc = r.readInt();
+        openbus = r.readInt();
+        even = r.readBoolean();
+        bgpattern = r.readBoolean();
+        sprpattern = r.readBoolean();
+        spritesize = r.readBoolean();
+        nmicontrol = r.readBoolean();
+        grayscale = r.readBoolean();
+        bgClip = r.readBoolean();
+        spriteClip = r.readBoolean();
+        bgOn = r.readBoolean();
+        spritesOn = r.readBoolean();
+        vblankflag = r.readBoolean();
+        sprite0hit = r.readBoolean();
+        spriteoverflow = r.readBoolean();
+        dotcrawl = r.readBoolean();
+        sprite0here = r.readBoolean();
+    }
+
     /**
      * Sends off a frame of NES video to be rendered by the GUI. also includes
      * dot crawl flag and BG color to be displayed around edges which are needed
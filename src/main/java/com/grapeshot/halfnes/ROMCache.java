@@ -0,0 +1,169 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps one copy of each ROM for the whole process, so 200 instances of the
+ * same game share one PRG and CHR instead of having 200 of each. Files get
+ * memory mapped read only and are looked up by size, CRC32 and SHA-1 of
+ * what's in them, so the same ROM under two different names is still only
+ * kept once. Opening a file that was already opened (same path, size and
+ * modified time) skips the mapping and hashing and goes straight to the
+ * image it got last time.
+ *
+ * The arrays Image.slice hands out are shared by everything running that ROM
+ * and must never be written to. Mappers with CHR RAM already make their own.
+ * Images are only weakly held here: one stays around as long as some
+ * ROMLoader (so some Mapper) still has it.
+ *
+ * @author Andrew Hoffman
+ */
+public final class ROMCache {
+
+    private static final ConcurrentHashMap<String, WeakReference<Image>> images
+            = new ConcurrentHashMap<>();
+    //path:size:mtime to the image that file gave last time it was opened
+    private static final ConcurrentHashMap<String, WeakReference<Image>> files
+            = new ConcurrentHashMap<>();
+
+    private ROMCache() {
+    }
+
+    /**
+     * Gets the image for a ROM file, mapping and hashing it, or the one that's
+     * already loaded if something else has the same ROM open.
+     *
+     * @param path ROM file
+     * @return shared image of the file's contents
+     * @throws IOException if the file can't be read
+     */
+    public static Image get(final String path) throws IOException {
+        final Path file = Paths.get(path).toAbsolutePath();
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        final String fileKey = file + ":" + attrs.size() + ":"
+                + attrs.lastModifiedTime().toMillis();
+        final WeakReference<Image> seen = files.get(fileKey);
+        final Image known = (seen == null) ? null : seen.get();
+        if (known != null) {
+            return known;
+        }
+        final ByteBuffer data;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        final Image fresh = new Image(data);
+        final Image[] found = new Image[1];
+        images.compute(fresh.key(), (k, ref) -> {
+            found[0] = (ref == null) ? null : ref.get();
+            if (found[0] == null) {
+                found[0] = fresh;
+                return new WeakReference<>(fresh);
+            }
+            return ref;
+        });
+        files.put(fileKey, new WeakReference<>(found[0]));
+        //forget about roms nothing's using any more
+        images.values().removeIf(ref -> ref.get() == null);
+        files.values().removeIf(ref -> ref.get() == null);
+        return found[0];
+    }
+
+    /**
+     * @return how many different ROMs are loaded right now
+     */
+    public static int size() {
+        images.values().removeIf(ref -> ref.get() == null);
+        files.values().removeIf(ref -> ref.get() == null);
+        return images.size();
+    }
+
+    /**
+     * Contents of one ROM file.
+     */
+    public static final class Image {
+
+        private final ByteBuffer data;
+        private final long crc32;
+        private final String sha1;
+        //PRG and CHR get cut out of the file once and shared after that
+        private final ConcurrentHashMap<Long, byte[]> slices = new ConcurrentHashMap<>();
+
+        private Image(final ByteBuffer data) {
+            this.data = data;
+            final CRC32 c = new CRC32();
+            c.update(data.duplicate());
+            crc32 = c.getValue();
+            try {
+                final MessageDigest md = MessageDigest.getInstance("SHA-1");
+                md.update(data.duplicate());
+                final StringBuilder sb = new StringBuilder(40);
+                for (byte b : md.digest()) {
+                    sb.append(String.format("%02x", b & 0xff));
+                }
+                sha1 = sb.toString();
+            } catch (NoSuchAlgorithmException e) {
+                //every JRE has to have SHA-1
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private String key() {
+            return length() + ":" + utils.hex(crc32) + ":" + sha1;
+        }
+
+        public int length() {
+            return data.capacity();
+        }
+
+        /**
+         * @param offset position in the file
+         * @return the byte there, 0-255
+         */
+        public int get(final int offset) {
+            return data.get(offset) & 0xff;
+        }
+
+        /**
+         * Gets part of the file as an array. Asking for the same part again
+         * (from this or any other instance) gives back the same array, so
+         * don't write to it.
+         *
+         * @param offset position in the file
+         * @param size number of bytes
+         * @return shared, read only copy of those bytes
+         */
+        public byte[] slice(final int offset, final int size) {
+            return slices.computeIfAbsent(((long) offset << 32) | size, k -> {
+                final byte[] b = new byte[size];
+                final ByteBuffer d = data.duplicate();
+                d.position(offset);
+                d.get(b);
+                return b;
+            });
+        }
+
+        public long getCRC32() {
+            return crc32;
+        }
+
+        public String getSHA1() {
+            return sha1;
+        }
+    }
+}
@@ -6,6 +6,7 @@ package com.grapeshot.halfnes;
 
 import com.grapeshot.halfnes.mappers.BadMapperException;
 import com.grapeshot.halfnes.mappers.Mapper;
+import java.io.IOException;
 
 public class ROMLoader {
     //this is the oldest code in the project... I'm honestly ashamed
@@ -24,10 +25,10 @@ public class ROMLoader {
     public int prgoff, chroff;
     public boolean savesram = false;
     public int[] header;
-    private final int[] therom;
+    private final ROMCache.Image therom;
 
-    public ROMLoader(String filename) {
-        therom = FileUtils.readfromfile(filename);
+    public ROMLoader(String filename) throws IOException {
+        therom = ROMCache.get(filename);
         name = filename;
     }
 
@@ -35,7 +36,9 @@ public class ROMLoader {
         // iNES header is 16 bytes, nsf header is 128,
         //other headers increasingly large
         header = new int[len];
-        System.arraycopy(therom, 0, header, 0, len);
+        for (int i = 0; i < len; ++i) {
+            header[i] = therom.get(i);
+        }
     }
 
     public void parseHeader() throws BadMapperException {
@@ -64,12 +67,12 @@ public class ROMLoader {
                 //submapper number is the high 4 bits of byte 8
                 submapper = (header[8] >> 4);
                 //extra prg and chr bits in byte 9
-                prgsize = Math.min(therom.length - 16,
+                prgsize = Math.min(therom.length() - 16,
                         16384 * (header[4] + ((header[9] & 15) << 8)));
                 if (prgsize == 0) {
                     throw new BadMapperException("No PRG ROM size in header");
                 }
-                chrsize = Math.min(therom.length - 16 - prgsize,
+                chrsize = Math.min(therom.length() - 16 - prgsize,
                         8192 * (header[5] + ((header[9] >> 4) << 8)));
                 //prg ram size in header byte 10
                 //chr ram size byte 11
@@ -87,7 +90,7 @@ public class ROMLoader {
 
             } else {
                 //nes 1 format, with hacks
-                prgsize = Math.min(therom.length - 16, 16384 * header[4]);
+                prgsize = Math.min(therom.length() - 16, 16384 * header[4]);
                 if (prgsize == 0) {
                     throw new BadMapperException("No PRG ROM size in header");
                     //someone made this field zero on a 4mb multicart ROM
@@ -95,7 +98,7 @@ public class ROMLoader {
                     //so if anyone gets this error make some heuristics to fix it.
                     //basically no multicarts > 2mb in iNES 1.0 format
                 }
-                chrsize = Math.min(therom.length - 16 - prgsize, 8192 * header[5]);
+                chrsize = Math.min(therom.length() - 16 - prgsize, 8192 * header[5]);
                 if (header[11] + header[12] + header[13] + header[14]
                         + header[15] == 0) {
                     //only consider upper bytes of mapper # if the end bytes are zero
@@ -125,7 +128,7 @@ public class ROMLoader {
             mappertype = -1;
             //reread header since it's 128 bytes
             ReadHeader(128);
-            prgsize = therom.length - 128;
+            prgsize = therom.length() - 128;
         } else if (header[0] == 'U') {
             throw new BadMapperException("This is a UNIF file with the wrong extension");
         } else {
@@ -133,13 +136,17 @@ public class ROMLoader {
         }
     }
 
-    public int[] load(int size, int offset) {
-        int[] bindata = new int[size];
-        System.arraycopy(therom, offset + header.length, bindata, 0, size);
-        return bindata;
+    //this is shared with every other instance running the same rom,
+    //so copy it before writing to it.
+    public byte[] load(int size, int offset) {
+        return therom.slice(offset + header.length, size);
+    }
+
+    public ROMCache.Image getImage() {
+        return therom;
     }
 
     public int romlen() {
-        return therom.length - header.length;
+        return therom.length() - header.length;
     }
 }
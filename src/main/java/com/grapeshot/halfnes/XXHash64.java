@@ -0,0 +1,147 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes;
+
+/**
+ * xxHash64, fed a little at a time. Bytes, shorts and ints all go in as their
+ * little endian bytes, so the result is the same as hashing that byte string
+ * with any other xxHash64. Doesn't allocate, so one of these can be reset and
+ * reused every frame.
+ *
+ * @author Andrew Hoffman
+ */
+public final class XXHash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L, P2 = 0xC2B2AE3D27D4EB4FL,
+            P3 = 0x165667B19E3779F9L, P4 = 0x85EBCA77C2B2AE63L, P5 = 0x27D4EB2F165667C5L;
+    private long seed, v1, v2, v3, v4, length;
+    //whole longs waiting to make up a 32 byte stripe, and bytes waiting to
+    //make up a long
+    private final long[] stripe = new long[4];
+    private int lanes;
+    private long pending;
+    private int pendingBytes;
+
+    public XXHash64() {
+        reset(0);
+    }
+
+    /**
+     * Starts over.
+     *
+     * @param seed seed for the next hash
+     */
+    public void reset(long seed) {
+        this.seed = seed;
+        v1 = seed + P1 + P2;
+        v2 = seed + P2;
+        v3 = seed;
+        v4 = seed - P1;
+        length = 0;
+        lanes = 0;
+        pending = 0;
+        pendingBytes = 0;
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    private static long merge(long h, long v) {
+        return (h ^ round(0, v)) * P1 + P4;
+    }
+
+    private void pushLong(long l) {
+        stripe[lanes++] = l;
+        pending = 0;
+        pendingBytes = 0;
+        if (lanes == 4) {
+            v1 = round(v1, stripe[0]);
+            v2 = round(v2, stripe[1]);
+            v3 = round(v3, stripe[2]);
+            v4 = round(v4, stripe[3]);
+            lanes = 0;
+        }
+    }
+
+    public void updateByte(int b) {
+        pending |= (b & 0xffL) << (pendingBytes << 3);
+        ++length;
+        if (++pendingBytes == 8) {
+            pushLong(pending);
+        }
+    }
+
+    public void updateShort(int s) {
+        if ((pendingBytes & 1) != 0) {
+            updateByte(s);
+            updateByte(s >> 8);
+            return;
+        }
+        pending |= (s & 0xffffL) << (pendingBytes << 3);
+        length += 2;
+        if ((pendingBytes += 2) == 8) {
+            pushLong(pending);
+        }
+    }
+
+    public void updateInt(int i) {
+        if ((pendingBytes & 3) != 0) {
+            updateShort(i);
+            updateShort(i >> 16);
+            return;
+        }
+        pending |= (i & 0xffffffffL) << (pendingBytes << 3);
+        length += 4;
+        if ((pendingBytes += 4) == 8) {
+            pushLong(pending);
+        }
+    }
+
+    public void update(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; ++i) {
+            updateByte(b[i]);
+        }
+    }
+
+    /**
+     * @return the hash of everything since the last reset. More can still be
+     * added after.
+     */
+    public long digest() {
+        long h;
+        if (length >= 32) {
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                    + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = merge(h, v1);
+            h = merge(h, v2);
+            h = merge(h, v3);
+            h = merge(h, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += length;
+        for (int i = 0; i < lanes; ++i) {
+            h ^= round(0, stripe[i]);
+            h = Long.rotateLeft(h, 27) * P1 + P4;
+        }
+        int i = 0;
+        if (pendingBytes >= 4) {
+            h ^= (pending & 0xffffffffL) * P1;
+            h = Long.rotateLeft(h, 23) * P2 + P3;
+            i = 4;
+        }
+        for (; i < pendingBytes; ++i) {
+            h ^= ((pending >>> (i << 3)) & 0xff) * P5;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
@@ -10,7 +10,27 @@ package com.grapeshot.halfnes.audio;
  */
 public interface AudioOutInterface {
 
-    public void outputSample(int sample);
+    /**
+     * Takes a block of finished samples, volume already applied. The APU
+     * hands over a frame's worth at a time. Implementations must not hang on
+     * to buf after returning, it gets reused.
+     *
+     * @param buf 16 bit signed samples
+     * @param off first one to use
+     * @param len how many
+     */
+    public void outputSamples(short[] buf, int off, int len);
+
+    /**
+     * Takes a block of stereo samples, left and right alternating. Outputs
+     * that only do mono average the two sides, into a buffer of their own
+     * since buf can't be written to.
+     *
+     * @param buf 16 bit signed samples, left first
+     * @param off first one to use
+     * @param frames how many left and right pairs
+     */
+    public void outputStereoSamples(short[] buf, int off, int frames);
 
     public void flushFrame(boolean waitIfBufferFull);
 
@@ -20,5 +40,10 @@ public interface AudioOutInterface {
 
     public void destroy();
 
-    public boolean bufferHasLessThan(int samples);
+    /**
+     * @return true if flushFrame is keeping the emulator running at the
+     * speed the sound card plays at, so the frame limiter doesn't have to
+     * sleep as well. False if it isn't, or can't right now.
+     */
+    public boolean pacesFrames();
 }
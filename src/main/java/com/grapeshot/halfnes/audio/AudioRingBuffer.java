@@ -0,0 +1,143 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring of samples that one thread can write while one other thread reads,
+ * without locks. The emulator writes samples in, the audio output thread takes
+ * them out.
+ *
+ * It never overwrites data that hasn't been read: a write to a full ring is
+ * dropped and counted as an overrun. Reads from an empty ring just get
+ * nothing.
+ *
+ * @author Andrew Hoffman
+ */
+public class AudioRingBuffer {
+
+    //total samples ever written and read. only the writer thread changes
+    //written and only the reader changes read, so these never wrap around
+    //in any reasonable amount of time and the difference is the fill level.
+    private final AtomicLong written = new AtomicLong(), read = new AtomicLong();
+    private final int[] buffer;
+    private final int bufsize, mask;
+    //what each side last saw of the other's position, so they don't have to
+    //look at the other thread's counter on every sample
+    private long readSeen, writtenSeen;
+    private volatile long overruns;
+
+    /**
+     * @param size samples it has to hold at least. Rounded up to a power of
+     * two (if it isn't one already), at most 2^26.
+     */
+    public AudioRingBuffer(int size) {
+        if (size < 0 || size > (1 << 26)) {
+            throw new IllegalArgumentException("Bad buffer size " + size);
+        }
+        bufsize = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        buffer = new int[bufsize];
+        mask = bufsize - 1;
+    }
+
+    /**
+     * Writer side. Adds a sample if there's room.
+     *
+     * @param data sample
+     * @return false if the buffer was full and the sample got dropped
+     */
+    public boolean offer(final int data) {
+        final long w = written.get();
+        if (w - readSeen >= bufsize) {
+            readSeen = read.get();
+            if (w - readSeen >= bufsize) {
+                ++overruns;
+                return false;
+            }
+        }
+        buffer[(int) w & mask] = data;
+        written.lazySet(w + 1);
+        return true;
+    }
+
+    /**
+     * Writer side. Adds as many of a block of samples as there's room for,
+     * all in one go. Whatever doesn't fit gets dropped and counted as
+     * overruns.
+     *
+     * @param src samples
+     * @param off first index in src
+     * @param len how many
+     * @return how many were added
+     */
+    public int offer(final int[] src, final int off, final int len) {
+        final long w = written.get();
+        if (w - readSeen + len > bufsize) {
+            readSeen = read.get();
+        }
+        final int n = (int) Math.min(len, bufsize - (w - readSeen));
+        for (int i = 0; i < n; ++i) {
+            buffer[(int) (w + i) & mask] = src[off + i];
+        }
+        written.lazySet(w + n);
+        overruns += len - n;
+        return n;
+    }
+
+    /**
+     * Reader side. Takes out as many samples as are there, up to len.
+     *
+     * @param dest where to put them
+     * @param off first index in dest
+     * @param len most samples to take
+     * @return how many were taken
+     */
+    public int poll(final int[] dest, final int off, final int len) {
+        final long r = read.get();
+        if (writtenSeen - r < len) {
+            writtenSeen = written.get();
+        }
+        final int n = (int) Math.min(len, writtenSeen - r);
+        if (n <= 0) {
+            return 0;
+        }
+        final int start = (int) r & mask;
+        final int first = Math.min(n, bufsize - start);
+        System.arraycopy(buffer, start, dest, off, first);
+        System.arraycopy(buffer, 0, dest, off + first, n - first);
+        read.lazySet(r + n);
+        return n;
+    }
+
+    /**
+     * Reader side. Throws away everything that's been written so far.
+     */
+    public void clear() {
+        read.lazySet(written.get());
+    }
+
+    /**
+     * @return samples waiting to be read. Can be out of date by the time it
+     * returns if called from the writer or any third thread.
+     */
+    public int size() {
+        return (int) (written.get() - read.get());
+    }
+
+    /**
+     * @return how many samples fit in the buffer at most
+     */
+    public int capacity() {
+        return bufsize;
+    }
+
+    /**
+     * @return samples dropped because the buffer was full
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+}
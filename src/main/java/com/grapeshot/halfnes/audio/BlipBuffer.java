@@ -0,0 +1,109 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+import java.util.Arrays;
+
+/**
+ * Band limited step synthesis, the same idea as blargg's Blip_Buffer. Instead
+ * of working out the output level on every CPU cycle and averaging, the APU
+ * only tells this when the level changes and by how much. Each change gets
+ * added in as a windowed sinc pulse at the right fractional sample position,
+ * and adding the pulses back up gives a step with no aliasing in it.
+ *
+ * Times are in CPU cycles from the start of the frame.
+ *
+ * @author Andrew Hoffman
+ */
+public class BlipBuffer {
+
+    private static final int PHASE_BITS = 5, PHASES = 1 << PHASE_BITS;
+    //pulse width in samples. every step shows up this many samples late.
+    private static final int TAPS = 16;
+    private static final int KERNEL_BITS = 15;
+    //cut off a bit below nyquist so the window has room to roll off
+    private static final int[][] KERNEL = SincKernel.make(0.9, PHASES, TAPS, KERNEL_BITS);
+    private final long[] buf;
+    //samples per cycle, and where cycle 0 of this frame is, both 32.32 fixed point
+    private final long factor;
+    private long offset;
+    private long integrator;
+    private int avail;
+
+    /**
+     * @param cyclespersample CPU cycles per output sample, can be fractional
+     * @param maxframe most CPU cycles there will be in a frame
+     */
+    public BlipBuffer(double cyclespersample, int maxframe) {
+        factor = (long) ((1L << 32) / cyclespersample);
+        buf = new long[(int) Math.ceil(maxframe / cyclespersample) + TAPS * 2 + 1];
+    }
+
+    /**
+     * Adds a change in output level.
+     *
+     * @param time CPU cycle in this frame it happened on
+     * @param delta how much the level went up (or down)
+     */
+    public final void addDelta(final int time, final int delta) {
+        final long pos = offset + time * factor;
+        final int index = (int) (pos >>> 32);
+        final int[] k = KERNEL[(int) (pos >>> (32 - PHASE_BITS)) & (PHASES - 1)];
+        for (int i = 0; i < TAPS; ++i) {
+            buf[index + i] += (long) delta * k[i];
+        }
+    }
+
+    /**
+     * Ends the frame, making all the samples up to that point ready to read.
+     *
+     * @param time length of the frame in CPU cycles
+     * @return number of samples now ready
+     */
+    public final int endFrame(final int time) {
+        offset += time * factor;
+        avail = (int) (offset >>> 32);
+        return avail;
+    }
+
+    /**
+     * @return most samples one frame can make, for sizing readSamples' array
+     */
+    public final int maxSamples() {
+        return buf.length - TAPS;
+    }
+
+    /**
+     * Takes out everything endFrame said was ready.
+     *
+     * @param dest where the samples go, at least maxSamples() long
+     * @return how many there were
+     */
+    public final int readSamples(final int[] dest) {
+        final int n = avail;
+        for (int i = 0; i < n; ++i) {
+            integrator += buf[i];
+            dest[i] = (int) (integrator >> KERNEL_BITS);
+        }
+        //what's left is the tail end of pulses that haven't fully happened yet
+        System.arraycopy(buf, n, buf, 0, TAPS);
+        Arrays.fill(buf, TAPS, n + TAPS, 0);
+        offset -= (long) n << 32;
+        avail = 0;
+        return n;
+    }
+
+    /**
+     * Forgets everything, for after a state load.
+     *
+     * @param level output level to start from
+     */
+    public final void clear(final int level) {
+        Arrays.fill(buf, 0);
+        offset = 0;
+        avail = 0;
+        integrator = (long) level << KERNEL_BITS;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+/**
+ * Audio output that throws everything away, for running without a sound card
+ * (or hundreds of emulators at once, which would all want the same one).
+ *
+ * @author Andrew
+ */
+public class DummyAudioImpl implements AudioOutInterface {
+
+    @Override
+    public void outputSamples(short[] buf, int off, int len) {
+    }
+
+    @Override
+    public void outputStereoSamples(short[] buf, int off, int frames) {
+    }
+
+    @Override
+    public void flushFrame(boolean waitIfBufferFull) {
+    }
+
+    @Override
+    public void pause() {
+    }
+
+    @Override
+    public void resume() {
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    @Override
+    public boolean pacesFrames() {
+        //leave it to the frame limiter
+        return false;
+    }
+}
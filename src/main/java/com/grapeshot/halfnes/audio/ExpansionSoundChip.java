@@ -4,6 +4,9 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+
 /**
  *
  * @author Andrew
@@ -15,4 +18,29 @@ public interface ExpansionSoundChip {
     public void write(int register, int data);
 
     public int getval();
+
+    /**
+     * Runs the chip for a bunch of cycles at once and adds what getval() would
+     * have said after each one to out. The APU doesn't write to the chip in
+     * the middle of one of these, so chips whose output only changes now and
+     * then can skip ahead instead of going a cycle at a time like this does.
+     *
+     * @param cycles how many cycles to run
+     * @param out where the output levels get added
+     * @param off where in out the first cycle goes
+     */
+    public default void clock(final int cycles, final int[] out, final int off) {
+        for (int i = 0; i < cycles; ++i) {
+            clock(1);
+            out[off + i] += getval();
+        }
+    }
+
+    /**
+     * Writes everything the chip needs to carry on exactly where it was:
+     * registers, timers, phase, envelopes and output filters.
+     */
+    public void saveState(StateWriter w);
+
+    public void loadState(StateReader r);
 }
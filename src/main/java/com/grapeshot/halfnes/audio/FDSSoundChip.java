@@ -4,6 +4,8 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.utils;
 
 /**
@@ -50,6 +52,15 @@ public class FDSSoundChip implements ExpansionSoundChip {
         }
     }
 
+    @Override
+    public void clock(final int cycles, final int[] out, final int off) {
+        //this one changes every cycle anyway
+        for (int i = 0; i < cycles; ++i) {
+            runUnits();
+            out[off + i] += lpaccum;
+        }
+    }
+
     private void runUnits() {
         //increment wave accumulator
         if ((pitch + modout) > 0 && !haltWaveAndReset) {
@@ -318,4 +329,70 @@ public class FDSSoundChip implements ExpansionSoundChip {
         return lpaccum;
     }
 
+    @Override
+    public void saveState(StateWriter w) {
+        w.writeBoolean(regEnable);
+        w.writeInts(wavetable);
+        w.writeInt(waveAddr);
+        w.writeInt(waveOut);
+        w.writeInt(waveAccum);
+        w.writeBoolean(waveWriteEnable);
+        w.writeBoolean(volEnvDirection);
+        w.writeBoolean(volEnvDisable);
+        w.writeBoolean(modEnvDirection);
+        w.writeBoolean(modEnvDisable);
+        w.writeInt(volEnvSpeed);
+        w.writeInt(modEnvSpeed);
+        w.writeInt(envClockMultiplier);
+        w.writeInt(pitch);
+        w.writeBoolean(modDisable);
+        w.writeInt(modCtr);
+        w.writeInt(modFreq);
+        w.writeInt(modAccum);
+        w.writeInts(modTable);
+        w.writeInt(modTableAddr);
+        w.writeInt(masterVol);
+        w.writeInt(volGain);
+        w.writeInt(modGain);
+        w.writeInt(lpaccum);
+        w.writeInt(modout);
+        w.writeBoolean(BothEnvDisable);
+        w.writeBoolean(haltWaveAndReset);
+        w.writeInt(modEnvAccum);
+        w.writeInt(volEnvAccum);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        regEnable = r.readBoolean();
+        r.readInts(wavetable);
+        waveAddr = r.readInt();
+        waveOut = r.readInt();
+        waveAccum = r.readInt();
+        waveWriteEnable = r.readBoolean();
+        volEnvDirection = r.readBoolean();
+        volEnvDisable = r.readBoolean();
+        modEnvDirection = r.readBoolean();
+        modEnvDisable = r.readBoolean();
+        volEnvSpeed = r.readInt();
+        modEnvSpeed = r.readInt();
+        envClockMultiplier = r.readInt();
+        pitch = r.readInt();
+        modDisable = r.readBoolean();
+        modCtr = r.readInt();
+        modFreq = r.readInt();
+        modAccum = r.readInt();
+        r.readInts(modTable);
+        modTableAddr = r.readInt();
+        masterVol = r.readInt();
+        volGain = r.readInt();
+        modGain = r.readInt();
+        lpaccum = r.readInt();
+        modout = r.readInt();
+        BothEnvDisable = r.readBoolean();
+        haltWaveAndReset = r.readBoolean();
+        modEnvAccum = r.readInt();
+        volEnvAccum = r.readInt();
+    }
+
 }
@@ -4,6 +4,8 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.utils;
 
 /**
@@ -31,6 +33,24 @@ public class MMC5SoundChip implements ExpansionSoundChip {
         timers[1].clock(cycle);
     }
 
+    @Override
+    public final void clock(final int cycles, final int[] out, final int off) {
+        int i = 0;
+        while (i < cycles) {
+            //stop at the frame counter too, clock() only does one of those
+            //per call
+            final int n = Math.min(cycles - i, Math.min(Math.max(7445 - this.cycles, 1),
+                    Math.min(timers[0].nextstep(), timers[1].nextstep())));
+            final int val = getval();
+            for (int j = off + i; j < off + i + n; ++j) {
+                out[j] += val;
+            }
+            clock(n);
+            out[off + i + n - 1] += getval() - val;
+            i += n;
+        }
+    }
+
     @Override
     public void write(int register, int data) {
         switch (register) {
@@ -125,6 +145,48 @@ public class MMC5SoundChip implements ExpansionSoundChip {
         return accum;
     }
 
+    @Override
+    public void saveState(StateWriter w) {
+        for (Timer t : timers) {
+            t.saveState(w);
+        }
+        w.writeInts(volume);
+        w.writeBooleans(lenCtrEnable);
+        w.writeBoolean(pcmMode);
+        w.writeBoolean(pcmIRQen);
+        w.writeInt(cycles);
+        w.writeInt(pcmOut);
+        w.writeInts(lengthctr);
+        w.writeBooleans(lenctrHalt);
+        w.writeInts(envelopeValue);
+        w.writeInts(envelopeCounter);
+        w.writeInts(envelopePos);
+        w.writeBooleans(envConstVolume);
+        w.writeBooleans(envelopeStartFlag);
+        w.writeInt(framectr);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        for (Timer t : timers) {
+            t.loadState(r);
+        }
+        r.readInts(volume);
+        r.readBooleans(lenCtrEnable);
+        pcmMode = r.readBoolean();
+        pcmIRQen = r.readBoolean();
+        cycles = r.readInt();
+        pcmOut = r.readInt();
+        r.readInts(lengthctr);
+        r.readBooleans(lenctrHalt);
+        r.readInts(envelopeValue);
+        r.readInts(envelopeCounter);
+        r.readInts(envelopePos);
+        r.readBooleans(envConstVolume);
+        r.readBooleans(envelopeStartFlag);
+        framectr = r.readInt();
+    }
+
     public int status() {
         return (lengthctr[0] == 0 ? 0 : 1) + (lengthctr[1] == 0 ? 0 : 2);
     }
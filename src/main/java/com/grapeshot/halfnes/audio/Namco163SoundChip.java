@@ -4,6 +4,8 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.utils;
 
 /**
@@ -34,6 +36,22 @@ public class Namco163SoundChip implements ExpansionSoundChip {
         }
     }
 
+    @Override
+    public void clock(final int cycles, final int[] out, final int off) {
+        int i = 0;
+        while (i < cycles) {
+            //only changes when a channel gets updated, every 15 cycles
+            final int n = Math.min(cycles - i, 15 - cycpos);
+            final int val = getval();
+            for (int j = off + i; j < off + i + n; ++j) {
+                out[j] += val;
+            }
+            clock(n);
+            out[off + i + n - 1] += getval() - val;
+            i += n;
+        }
+    }
+
     private void clock_channel(final int ch) {
         //get channel register start position
         final int off = 0x80 - (8 * (ch + 1));
@@ -93,6 +111,26 @@ public class Namco163SoundChip implements ExpansionSoundChip {
     }
     int lpaccum = 0;
 
+    @Override
+    public void saveState(StateWriter w) {
+        w.writeInts(registers);
+        w.writeInts(out);
+        w.writeInt(numch);
+        w.writeInt(cycpos);
+        w.writeInt(curch);
+        w.writeInt(lpaccum);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        r.readInts(registers);
+        r.readInts(out);
+        numch = r.readInt();
+        cycpos = r.readInt();
+        curch = r.readInt();
+        lpaccum = r.readInt();
+    }
+
     private void output() {
         int sample = 0;
         for (int i = 0; i < numch; ++i) {
@@ -4,6 +4,8 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.utils;
 
 /**
@@ -15,6 +17,7 @@ public class NoiseTimer extends Timer {
     private int divider = 0;
     private int[] values = genvalues(1, 1);
     private int prevduty = 1;
+    private int seed = 1; //what the current sequence was generated from
     private final static int periodadd = 0;
 
     public NoiseTimer() {
@@ -24,7 +27,8 @@ public class NoiseTimer extends Timer {
     @Override
     public void setduty(int duty) {
         if (duty != prevduty) {
-            values = genvalues(duty, values[position]);
+            seed = values[position];
+            values = genvalues(duty, seed);
             position = 0;
         }
         prevduty = duty;
@@ -42,6 +46,14 @@ public class NoiseTimer extends Timer {
         divider -= (period + periodadd) * periods;
     }
 
+    @Override
+    public final int nextstep() {
+        if (period + periodadd <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(-divider, 1);
+    }
+
     @Override
     public final int getval() {
         return (values[position] & 1);
@@ -86,4 +98,26 @@ public class NoiseTimer extends Timer {
     public void setduty(int[] duty) {
         throw new UnsupportedOperationException("Not supported on noise channel.");
     }
-}
\ No newline at end of file
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(divider);
+        w.writeInt(prevduty);
+        w.writeInt(seed);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        divider = r.readInt();
+        final int duty = r.readInt();
+        final int newseed = r.readInt();
+        if (duty != prevduty || newseed != seed) {
+            //only regenerate the sequence if it's actually different
+            values = genvalues(duty, newseed);
+            prevduty = duty;
+            seed = newseed;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+import java.util.Arrays;
+
+/**
+ * Gets the APU's one-level-per-CPU-cycle output down to the sound card's
+ * sample rate. It goes in two steps:
+ *
+ * First every so many cycles get added up into one sample, a whole number of
+ * cycles each, so about twice the output rate. That's just a box filter but
+ * it's cheap and good enough to stop anything near the CPU clock from aliasing.
+ *
+ * Then a windowed sinc filter cuts off everything above the output's nyquist
+ * frequency and picks out the output samples at the right fractional points in
+ * between. There's a set of precomputed filter kernels for different
+ * fractional positions (the polyphase part), and where the next output sample
+ * is kept in 32.32 fixed point, so it stays exactly in step with the real rate
+ * across frames instead of drifting or rounding each frame to a whole number.
+ *
+ * @author Andrew Hoffman
+ */
+public class Resampler {
+
+    private static final int PHASE_BITS = 6, PHASES = 1 << PHASE_BITS;
+    private static final int TAPS = 32;
+    private static final int KERNEL_BITS = 15;
+    private static final long ONE = 1L << 32;
+    private final int[][] kernel;
+    private final int decimation;
+    //input samples per output sample, 32.32
+    private final long step;
+    //last TAPS inputs, stored twice over so they can always be read in a row
+    private final int[] history = new int[TAPS * 2];
+    private int pos;
+    //how far (in input samples, 32.32) until the next output sample is due
+    private long due;
+    //only grows if a frame runs longer than the maxframe it was made for
+    private int[] out;
+    private int avail;
+
+    /**
+     * @param clockrate input rate, CPU cycles per second
+     * @param samplerate output rate
+     * @param maxframe most CPU cycles there will be in a frame
+     */
+    public Resampler(double clockrate, int samplerate, int maxframe) {
+        //whole cycles per input sample. want at least 2x the output rate
+        //into the sinc, so the box filter's droop stays out of the audible part
+        decimation = Math.max((int) (clockrate / (samplerate * 2)), 1);
+        final double inputrate = clockrate / decimation;
+        step = (long) (inputrate / samplerate * ONE);
+        //cut off a bit below output nyquist, in terms of the input's
+        kernel = SincKernel.make(Math.min(0.9 * samplerate / inputrate, 0.9),
+                PHASES, TAPS, KERNEL_BITS);
+        out = new int[(int) Math.ceil(maxframe / (clockrate / samplerate)) + 2];
+    }
+
+    /**
+     * @return how many CPU cycles to add up for each call to write()
+     */
+    public final int getDecimation() {
+        return decimation;
+    }
+
+    /**
+     * Adds one input sample.
+     *
+     * @param sum output level added up over getDecimation() cycles
+     */
+    public final void write(final int sum) {
+        history[pos] = sum;
+        history[pos + TAPS] = sum;
+        pos = (pos + 1) & (TAPS - 1);
+        due -= ONE;
+        while (due < 0) {
+            //the oldest input is at pos, the newest at pos + TAPS - 1
+            final int[] k = kernel[(int) ((due + ONE) >>> (32 - PHASE_BITS))];
+            long acc = 0;
+            for (int i = 0; i < TAPS; ++i) {
+                acc += (long) history[pos + i] * k[i];
+            }
+            if (avail == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            out[avail++] = (int) (acc / ((long) decimation << KERNEL_BITS));
+            due += step;
+        }
+    }
+
+    /**
+     * @return most samples one frame can make, for sizing readSamples' array.
+     * Goes up if a frame ever runs longer than the maxframe given to the
+     * constructor.
+     */
+    public final int maxSamples() {
+        return out.length;
+    }
+
+    /**
+     * Takes out the output samples made since last time, as many as fit in
+     * dest. If there are more than that (because a frame ran long) the rest
+     * are kept for next time, nothing gets dropped.
+     *
+     * @param dest where the samples go, normally maxSamples() long
+     * @return how many were taken
+     */
+    public final int readSamples(final int[] dest) {
+        final int n = Math.min(avail, dest.length);
+        System.arraycopy(out, 0, dest, 0, n);
+        avail -= n;
+        System.arraycopy(out, n, out, 0, avail);
+        return n;
+    }
+
+    /**
+     * Starts over at a steady level, forgetting all input so far.
+     *
+     * @param level output level to start from
+     */
+    public final void clear(final int level) {
+        Arrays.fill(history, level * decimation);
+        due = 0;
+        avail = 0;
+    }
+
+    /**
+     * Saves the filter's history. Only meant to be done between frames, when
+     * all the output has been read. The layout doesn't depend on the rates.
+     *
+     * @param w state writer
+     */
+    public void saveState(StateWriter w) {
+        w.writeInt(pos);
+        w.writeLong(due);
+        w.writeInts(history);
+    }
+
+    public void loadState(StateReader r) {
+        pos = r.readInt() & (TAPS - 1);
+        due = r.readLong();
+        r.readInts(history);
+        avail = 0;
+    }
+}
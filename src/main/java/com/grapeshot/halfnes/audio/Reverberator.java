@@ -38,21 +38,44 @@ public class Reverberator implements AudioOutInterface {
         return sample;
     }
 
+    //the input block belongs to whoever sent it, so the echo goes in here
+    private short[] out = new short[0];
+    //and stereo gets mixed down in here, this only does mono
+    private short[] mono = new short[0];
+
     @Override
-    public void outputSample(int sample) {
-        sample -= cb.read() * echo;
-        if (sample < -32768) {
-            sample = -32768;
-            //System.err.println("clip");
+    public void outputSamples(short[] buf, int off, int len) {
+        if (out.length < len) {
+            out = new short[len];
         }
-        if (sample > 32767) {
-            sample = 32767;
-            //System.err.println("clop");
+        for (int i = 0; i < len; ++i) {
+            int sample = buf[off + i];
+            sample -= cb.read() * echo;
+            if (sample < -32768) {
+                sample = -32768;
+                //System.err.println("clip");
+            }
+            if (sample > 32767) {
+                sample = 32767;
+                //System.err.println("clop");
+            }
+            cb.write(lowpass_filter(highpass_filter(sample)));
+            out[i] = (short) sample;
         }
-        cb.write(lowpass_filter(highpass_filter(sample)));
         if (!(iface == null)) {
-            iface.outputSample(sample);
+            iface.outputSamples(out, 0, len);
+        }
+    }
+
+    @Override
+    public void outputStereoSamples(short[] buf, int off, int frames) {
+        if (mono.length < frames) {
+            mono = new short[frames];
+        }
+        for (int i = 0; i < frames; ++i) {
+            mono[i] = (short) ((buf[off + i * 2] + buf[off + i * 2 + 1]) >> 1);
         }
+        outputSamples(mono, 0, frames);
     }
 
     @Override
@@ -85,9 +108,9 @@ public class Reverberator implements AudioOutInterface {
     }
 
     @Override
-    public boolean bufferHasLessThan(int samples) {
+    public boolean pacesFrames() {
         if (!(iface == null)) {
-            return iface.bufferHasLessThan(samples);
+            return iface.pacesFrames();
         } else {
             return false;
         }
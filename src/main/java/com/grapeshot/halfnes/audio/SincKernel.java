@@ -0,0 +1,52 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+/**
+ * Builds the Blackman windowed sinc kernels BlipBuffer and Resampler use, one
+ * row of fixed point taps per fractional sample position.
+ *
+ * @author Andrew Hoffman
+ */
+final class SincKernel {
+
+    private SincKernel() {
+    }
+
+    /**
+     * @param cutoff where the low pass cuts off, as a fraction of nyquist
+     * @param phases how many fractional positions there are between samples
+     * @param taps kernel length in samples
+     * @param bits fixed point bits, each phase adds up to exactly 1 << bits
+     * @return kernel[phase][tap]
+     */
+    static int[][] make(final double cutoff, final int phases, final int taps, final int bits) {
+        final int[][] k = new int[phases][taps];
+        for (int p = 0; p < phases; ++p) {
+            final double frac = p / (double) phases;
+            final double[] h = new double[taps];
+            double sum = 0;
+            for (int i = 0; i < taps; ++i) {
+                final double x = i - (taps / 2 - 1) - frac;
+                final double sinc = (x == 0) ? 1 : Math.sin(Math.PI * cutoff * x) / (Math.PI * cutoff * x);
+                //blackman window across the taps
+                final double w = (x + taps / 2.) / taps;
+                final double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * w) + 0.08 * Math.cos(4 * Math.PI * w);
+                h[i] = sinc * Math.max(window, 0);
+                sum += h[i];
+            }
+            //every phase has exactly unity gain at DC, or a steady level
+            //would leave a bit of DC on every step (BlipBuffer) or come out
+            //with a tiny whine at the phase rate (Resampler)
+            int isum = 0;
+            for (int i = 0; i < taps; ++i) {
+                k[p][i] = (int) Math.round(h[i] / sum * (1 << bits));
+                isum += k[p][i];
+            }
+            k[p][taps / 2 - 1] += (1 << bits) - isum;
+        }
+        return k;
+    }
+}
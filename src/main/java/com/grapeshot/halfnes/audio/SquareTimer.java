@@ -4,13 +4,16 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+
 /**
  *
  * @author Andrew
  */
 public class SquareTimer extends Timer {
 
-    protected int[] values;
+    protected final int[] values;
     final private int periodadd;
     private int divider = 0;
 
@@ -44,6 +47,16 @@ public class SquareTimer extends Timer {
         divider -= (period + periodadd) * periods;
     }
 
+    @Override
+    public final int nextstep() {
+        //with a period this low clock(cycles) leaves the channel alone
+        if (period < 8 || period + periodadd <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        //divider counts up from -(period + periodadd) to 0
+        return Math.max(-divider, 1);
+    }
+
     public SquareTimer(final int ctrlen, final int periodadd) {
         this.periodadd = periodadd;
         values = new int[ctrlen];
@@ -74,7 +87,8 @@ public class SquareTimer extends Timer {
 
     @Override
     public final void setduty(int[] dutyarray) {
-        values = dutyarray;
+        //copied rather than referenced so a save state can restore it in place
+        System.arraycopy(dutyarray, 0, values, 0, values.length);
     }
 
     @Override
@@ -86,4 +100,18 @@ public class SquareTimer extends Timer {
     public final void setperiod(final int newperiod) {
         period = newperiod;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(divider);
+        w.writeInts(values);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        divider = r.readInt();
+        r.readInts(values);
+    }
+}
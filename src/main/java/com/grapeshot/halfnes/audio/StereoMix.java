@@ -0,0 +1,129 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+import java.util.Arrays;
+
+/**
+ * Where each sound channel goes in stereo mode, and how loud. Like
+ * EmulatorConfig this never changes, the with... methods make a copy.
+ *
+ * Pan goes from -1 (all the way left) to 1 (all the way right). At 0 the
+ * channel is at full volume on both sides.
+ *
+ * Everything centered is close to mono but not exactly the same. The real
+ * NES mixes the two pulse channels through one nonlinear curve and triangle,
+ * noise and DMC through another. Channels that share a curve hold each other
+ * down a little when they're loud at the same time. To pan them separately
+ * each channel goes through its curve on its own here, so when several play
+ * at once stereo comes out a bit louder than mono.
+ *
+ * @author Andrew Hoffman
+ */
+public final class StereoMix {
+
+    public static final int PULSE1 = 0, PULSE2 = 1, TRIANGLE = 2, NOISE = 3,
+            DMC = 4, EXPANSION = 5, CHANNELS = 6;
+    /**
+     * Highest gain a channel can have. StereoMixer counts on this to mix in an
+     * int without overflowing.
+     */
+    public static final double MAX_GAIN = 4;
+    /**
+     * The two pulse channels a bit apart, everything else in the middle.
+     */
+    public static final StereoMix DEFAULTS = new StereoMix(
+            new double[]{-0.4, 0.4, 0, 0, 0, 0},
+            new double[]{1, 1, 1, 1, 1, 1});
+    private final double[] pan, gain;
+
+    private StereoMix(double[] pan, double[] gain) {
+        this.pan = pan;
+        this.gain = gain;
+    }
+
+    /**
+     * @param channel one of the channel constants. Every expansion chip a
+     * game has uses the EXPANSION setting.
+     * @return pan, -1 to 1
+     */
+    public double getPan(int channel) {
+        return pan[channel];
+    }
+
+    /**
+     * @param channel one of the channel constants
+     * @return gain, 0 to MAX_GAIN, 1 is normal
+     */
+    public double getGain(int channel) {
+        return gain[channel];
+    }
+
+    public StereoMix withPan(int channel, double pan) {
+        final double[] p = this.pan.clone();
+        p[channel] = Math.max(-1, Math.min(1, pan));
+        return new StereoMix(p, gain);
+    }
+
+    public StereoMix withGain(int channel, double gain) {
+        final double[] g = this.gain.clone();
+        g[channel] = Math.max(0, Math.min(MAX_GAIN, gain));
+        return new StereoMix(pan, g);
+    }
+
+    /**
+     * @return the settings as a string for the preferences, see parse()
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < CHANNELS; ++i) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            sb.append(pan[i]).append(',').append(gain[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads back what toString() wrote: pan,gain for each channel, separated
+     * by semicolons.
+     *
+     * @param s saved settings, may be null
+     * @param fallback what to use if s is missing or garbled
+     * @return the settings
+     */
+    public static StereoMix parse(String s, StereoMix fallback) {
+        if (s == null) {
+            return fallback;
+        }
+        final String[] channels = s.split(";");
+        if (channels.length != CHANNELS) {
+            return fallback;
+        }
+        StereoMix mix = DEFAULTS;
+        try {
+            for (int i = 0; i < CHANNELS; ++i) {
+                final String[] pg = channels[i].split(",");
+                mix = mix.withPan(i, Double.parseDouble(pg[0])).withGain(i, Double.parseDouble(pg[1]));
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return fallback;
+        }
+        return mix;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof StereoMix) && Arrays.equals(pan, ((StereoMix) o).pan)
+                && Arrays.equals(gain, ((StereoMix) o).gain);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(pan) + Arrays.hashCode(gain);
+    }
+}
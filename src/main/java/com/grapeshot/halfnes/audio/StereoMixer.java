@@ -0,0 +1,84 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+import java.util.Arrays;
+
+/**
+ * Mixes a frame of separate channel buffers down to left and right. It goes
+ * one channel at a time over the whole frame, a multiply and add per sample
+ * with the gain held in a local, which is the kind of loop the JIT turns into
+ * SIMD instructions.
+ *
+ * Gains are fixed point with GAIN_BITS fraction bits. StereoMix caps them at
+ * MAX_GAIN, so a 16 bit sample times its gain fits in 27 bits and 16 channels
+ * at full volume still can't overflow an int. That's the 5 APU channels plus
+ * every expansion chip an NSF can ask for, with room to spare.
+ *
+ * @author Andrew Hoffman
+ */
+public class StereoMixer {
+
+    private static final int GAIN_BITS = 10;
+    private int[] gainl = new int[0], gainr = new int[0];
+
+    /**
+     * Works out the gains for the channels a game has.
+     *
+     * @param mix pan and gain settings
+     * @param expansion how many expansion chips there are after the 5 APU
+     * channels
+     * @param apugain extra gain for the 5 APU channels. The mono mix turns
+     * those down a bit when there are expansion chips so this needs to too.
+     */
+    public void setChannels(StereoMix mix, int expansion, double apugain) {
+        final int n = StereoMix.EXPANSION + expansion;
+        gainl = new int[n];
+        gainr = new int[n];
+        for (int c = 0; c < n; ++c) {
+            final int setting = Math.min(c, StereoMix.EXPANSION);
+            final double pan = mix.getPan(setting);
+            final double gain = mix.getGain(setting) * ((c < StereoMix.EXPANSION) ? apugain : 1)
+                    * (1 << GAIN_BITS);
+            gainl[c] = (int) Math.round(gain * Math.min(1, 1 - pan));
+            gainr[c] = (int) Math.round(gain * Math.min(1, 1 + pan));
+        }
+    }
+
+    /**
+     * @return number of channels setChannels set up
+     */
+    public int getChannels() {
+        return gainl.length;
+    }
+
+    /**
+     * @param channels one buffer per channel, in StereoMix order with the
+     * expansion chips after
+     * @param n samples in each buffer
+     * @param left where the left side goes
+     * @param right where the right side goes
+     */
+    public void mix(final int[][] channels, final int n, final int[] left, final int[] right) {
+        Arrays.fill(left, 0, n, 0);
+        Arrays.fill(right, 0, n, 0);
+        for (int c = 0; c < gainl.length; ++c) {
+            final int[] src = channels[c];
+            final int gl = gainl[c], gr = gainr[c];
+            for (int i = 0; i < n; ++i) {
+                left[i] += src[i] * gl;
+            }
+            for (int i = 0; i < n; ++i) {
+                right[i] += src[i] * gr;
+            }
+        }
+        for (int i = 0; i < n; ++i) {
+            left[i] >>= GAIN_BITS;
+        }
+        for (int i = 0; i < n; ++i) {
+            right[i] >>= GAIN_BITS;
+        }
+    }
+}
@@ -4,6 +4,8 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.utils;
 
 /**
@@ -76,6 +78,23 @@ public class Sunsoft5BSoundChip implements ExpansionSoundChip {
         timers[2].clock(cycle);
     }
 
+    @Override
+    public final void clock(final int cycles, final int[] out, final int off) {
+        int i = 0;
+        while (i < cycles) {
+            //the envelope doesn't do anything, so only the timers change it
+            final int n = Math.min(cycles - i, Math.min(timers[0].nextstep(),
+                    Math.min(timers[1].nextstep(), timers[2].nextstep())));
+            final int val = getval();
+            for (int j = off + i; j < off + i + n; ++j) {
+                out[j] += val;
+            }
+            clock(n);
+            out[off + i + n - 1] += getval() - val;
+            i += n;
+        }
+    }
+
     @Override
     public final int getval() {
         return (enable[0] ? ((useenvelope[0] ? enval : VOLTBL[volume[0]]) * timers[0].getval()) : 0)
@@ -94,6 +113,28 @@ public class Sunsoft5BSoundChip implements ExpansionSoundChip {
         return vols;
     }
 
+    @Override
+    public void saveState(StateWriter w) {
+        for (Timer t : timers) {
+            t.saveState(w);
+        }
+        w.writeBooleans(enable);
+        w.writeBooleans(useenvelope);
+        w.writeInts(volume);
+        w.writeInt(enval);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        for (Timer t : timers) {
+            t.loadState(r);
+        }
+        r.readBooleans(enable);
+        r.readBooleans(useenvelope);
+        r.readInts(volume);
+        enval = r.readInt();
+    }
+
     private void clockenvelope(final int cycles) {
         enval = 0; //gimmick only uses the envelope to mute a channel.
     }
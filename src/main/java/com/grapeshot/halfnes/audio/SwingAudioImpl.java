@@ -5,26 +5,37 @@
 package com.grapeshot.halfnes.audio;
 
 import com.grapeshot.halfnes.NES;
-import com.grapeshot.halfnes.PrefsSingleton;
 import com.grapeshot.halfnes.audio.AudioOutInterface;
 import com.grapeshot.halfnes.mappers.Mapper;
+import java.util.concurrent.locks.LockSupport;
 import javax.sound.sampled.*;
 
 /**
+ * Plays sound through Java Sound. Samples go into a ring buffer and a
+ * separate thread feeds them to the sound card, so if the sound card (or the
+ * OS mixer) stalls it's that thread that blocks and not the emulator.
  *
  * @author Andrew
  */
 public class SwingAudioImpl implements AudioOutInterface {
 
+    //samples the output thread moves at a time, ~6 ms
+    private static final int CHUNK = 256;
     private boolean soundEnable;
     private SourceDataLine sdl;
-    private byte[] audiobuf;
-    private int bufptr = 0;
-    private float outputvol;
+    //one int per sample frame, left in the low 16 bits and right in the high
+    private AudioRingBuffer ring;
+    private int[] packed = new int[0];
+    private Thread thread;
+    private volatile boolean running, paused;
+    //when the output thread last got anything into the sound card
+    private volatile long lastwrite;
+    private volatile long underruns;
+    private int samplesperframe;
+    private long frametime, stalltime;
 
     public SwingAudioImpl(final NES nes, final int samplerate, Mapper.TVType tvtype) {
-        soundEnable = PrefsSingleton.get().getBoolean("soundEnable", true);
-        outputvol = (float) (PrefsSingleton.get().getInt("outputvol", 13107) / 16384.);
+        soundEnable = nes.getConfig().isSoundEnable();
         double fps;
         switch (tvtype) {
             case NTSC:
@@ -37,8 +48,14 @@ public class SwingAudioImpl implements AudioOutInterface {
                 break;
         }
         if (soundEnable) {
-            final int samplesperframe = (int) Math.ceil((samplerate * 2) / fps);
-            audiobuf = new byte[samplesperframe * 2];
+            samplesperframe = (int) Math.ceil(samplerate / fps);
+            frametime = (long) (1e9 / fps);
+            //how much the sound card itself buffers. the ring only has to
+            //smooth out the emulator running in bursts of a frame at a time
+            final int latency = Math.max(CHUNK * 2,
+                    samplerate * nes.getConfig().getAudioLatency() / 1000);
+            stalltime = Math.max(frametime * 2, 1000000000L * latency / samplerate);
+            ring = new AudioRingBuffer(latency + samplesperframe * 2);
             try {
                 AudioFormat af = new AudioFormat(
                         samplerate,
@@ -49,8 +66,7 @@ public class SwingAudioImpl implements AudioOutInterface {
                 //(works everywhere, afaict, but macs need 44100 sample rate)
                 );
                 sdl = AudioSystem.getSourceDataLine(af);
-                sdl.open(af, samplesperframe * 4 * 2 /*ch*/ * 2 /*bytes/sample*/); 
-                //create 4 frame audio buffer
+                sdl.open(af, latency * 2 /*ch*/ * 2 /*bytes/sample*/);
                 sdl.start();
             } catch (LineUnavailableException a) {
                 System.err.println(a);
@@ -62,58 +78,101 @@ public class SwingAudioImpl implements AudioOutInterface {
                 soundEnable = false;
             }
         }
+        if (soundEnable) {
+            running = true;
+            lastwrite = System.nanoTime();
+            thread = new Thread(this::play, "halfnes audio");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+    }
+
+    private void play() {
+        final int[] samples = new int[CHUNK];
+        final byte[] bytes = new byte[CHUNK * 4];
+        boolean dry = false;
+        while (running) {
+            if (paused) {
+                ring.clear();
+                LockSupport.parkNanos(1000000);
+                continue;
+            }
+            final int n = ring.poll(samples, 0, CHUNK);
+            if (n == 0) {
+                //count it once each time the sound card actually runs out,
+                //not every time we look and find nothing new
+                if (!dry && sdl.available() >= sdl.getBufferSize()) {
+                    dry = true;
+                    ++underruns;
+                }
+                LockSupport.parkNanos(500000);
+                continue;
+            }
+            dry = false;
+            for (int i = 0, j = 0; i < n; ++i, j += 4) {
+                final int sample = samples[i];
+                //left ch
+                bytes[j] = (byte) (sample & 0xff);
+                bytes[j + 1] = (byte) ((sample >> 8) & 0xff);
+                //right ch
+                bytes[j + 2] = (byte) ((sample >> 16) & 0xff);
+                bytes[j + 3] = (byte) ((sample >> 24) & 0xff);
+            }
+            //this is the part that can block for a long time
+            sdl.write(bytes, 0, n * 4);
+            lastwrite = System.nanoTime();
+        }
     }
 
     @Override
     public final void flushFrame(final boolean waitIfBufferFull) {
-        if (soundEnable) {
-
-//            if (sdl.available() == sdl.getBufferSize()) {
-//                System.err.println("Audio is underrun");
-//            }
-            if (sdl.available() < bufptr) {
-//                System.err.println("Audio is blocking");
-                if (waitIfBufferFull) {
-
-                    //write to audio buffer and don't worry if it blocks
-                    sdl.write(audiobuf, 0, bufptr);
-                }
-                //else don't bother to write if the buffer is full
-            } else {
-                sdl.write(audiobuf, 0, bufptr);
+        if (soundEnable && waitIfBufferFull) {
+            //with the frame limiter on, this is what keeps the emulator
+            //running at the sound card's speed (see pacesFrames). wait (at
+            //most a frame) for the output thread to catch up, unless it looks
+            //stuck, since then it could be a long time and there's no sense
+            //holding up the game. running behind, it doesn't wait at all.
+            final long start = System.nanoTime();
+            while (ring.size() > samplesperframe * 2
+                    && System.nanoTime() - start < frametime
+                    && System.nanoTime() - lastwrite < stalltime) {
+                LockSupport.parkNanos(500000);
             }
         }
-        bufptr = 0;
+    }
 
+    @Override
+    public final void outputSamples(final short[] buf, final int off, final int len) {
+        if (soundEnable) {
+            if (packed.length < len) {
+                packed = new int[len];
+            }
+            for (int i = 0; i < len; ++i) {
+                final int s = buf[off + i];
+                packed[i] = (s & 0xffff) | (s << 16);
+            }
+            ring.offer(packed, 0, len);
+        }
     }
 
     @Override
-    public final void outputSample(int sample) {
+    public final void outputStereoSamples(final short[] buf, final int off, final int frames) {
         if (soundEnable) {
-            sample *= outputvol;
-            if (sample < -32768) {
-                sample = -32768;
-                //System.err.println("clip");
+            if (packed.length < frames) {
+                packed = new int[frames];
             }
-            if (sample > 32767) {
-                sample = 32767;
-                //System.err.println("clop");
+            for (int i = 0; i < frames; ++i) {
+                packed[i] = (buf[off + i * 2] & 0xffff) | (buf[off + i * 2 + 1] << 16);
             }
-            //left ch
-            int lch = sample;
-            audiobuf[bufptr] = (byte) (lch & 0xff);
-            audiobuf[bufptr + 1] = (byte) ((lch >> 8) & 0xff);
-            //right ch
-            int rch = sample;
-            audiobuf[bufptr + 2] = (byte) (rch & 0xff);
-            audiobuf[bufptr + 3] = (byte) ((rch >> 8) & 0xff);
-            bufptr += 4;
+            ring.offer(packed, 0, frames);
         }
     }
 
     @Override
     public void pause() {
         if (soundEnable) {
+            paused = true;
             sdl.flush();
             sdl.stop();
         }
@@ -123,19 +182,43 @@ public class SwingAudioImpl implements AudioOutInterface {
     public void resume() {
         if (soundEnable) {
             sdl.start();
+            paused = false;
         }
     }
 
     @Override
     public final void destroy() {
         if (soundEnable) {
+            running = false;
             sdl.stop();
             sdl.close();
+            try {
+                thread.join(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
-    public final boolean bufferHasLessThan(final int samples) {
-        //returns true if the audio buffer has less than the specified amt of samples remaining in it
-        return (sdl == null) ? false : ((sdl.getBufferSize() - sdl.available()) <= samples);
+    @Override
+    public final boolean pacesFrames() {
+        //flushFrame holds the emulator back whenever it gets ahead of the
+        //sound card, but not while paused or if the output thread is stuck
+        return soundEnable && !paused && System.nanoTime() - lastwrite < stalltime;
+    }
+
+    /**
+     * @return samples thrown away because the emulator got too far ahead of
+     * the sound card
+     */
+    public long getOverruns() {
+        return soundEnable ? ring.getOverruns() : 0;
+    }
+
+    /**
+     * @return times the sound card ran out of samples to play
+     */
+    public long getUnderruns() {
+        return underruns;
     }
 }
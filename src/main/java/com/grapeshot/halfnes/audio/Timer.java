@@ -4,6 +4,9 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+
 public abstract class Timer {
 
     protected int period;
@@ -26,4 +29,20 @@ public abstract class Timer {
     public abstract void clock(final int cycles);
 
     public abstract int getval();
+
+    /**
+     * @return how many clock() calls from now getval() could next change, or
+     * Integer.MAX_VALUE if it's stuck (until the period gets changed)
+     */
+    public abstract int nextstep();
+
+    public void saveState(StateWriter w) {
+        w.writeInt(period);
+        w.writeInt(position);
+    }
+
+    public void loadState(StateReader r) {
+        period = r.readInt();
+        position = r.readInt();
+    }
 }
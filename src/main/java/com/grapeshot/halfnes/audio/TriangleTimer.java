@@ -4,6 +4,9 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+
 /**
  *
  * @author Andrew
@@ -56,6 +59,14 @@ public class TriangleTimer extends Timer {
         divider -= (period + periodadd) * periods;
     }
 
+    @Override
+    public final int nextstep() {
+        if (period == 0) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(-divider, 1);
+    }
+
     @Override
     public final int getval() {
         return (period == 0) ? 7 : triangle[position];
@@ -79,4 +90,16 @@ public class TriangleTimer extends Timer {
     public void setduty(int[] duty) {
         throw new UnsupportedOperationException("Triangle counter has no duty setting.");
     }
-}
\ No newline at end of file
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(divider);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        divider = r.readInt();
+    }
+}
@@ -4,6 +4,8 @@
  */
 package com.grapeshot.halfnes.audio;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import com.grapeshot.halfnes.utils;
 
 /**
@@ -74,6 +76,23 @@ public class VRC6SoundChip implements ExpansionSoundChip {
         }
     }
 
+    @Override
+    public final void clock(final int cycles, final int[] out, final int off) {
+        int i = 0;
+        while (i < cycles) {
+            //output can't change before a timer steps or the saw counter runs out
+            final int n = Math.min(cycles - i, Math.min(sawctr + 1,
+                    Math.min(timers[0].nextstep(), timers[1].nextstep())));
+            final int val = getval();
+            for (int j = off + i; j < off + i + n; ++j) {
+                out[j] += val;
+            }
+            clock(n);
+            out[off + i + n - 1] += getval() - val;
+            i += n;
+        }
+    }
+
     @Override
     public final int getval() {
         return 320 * (((enable[0] ? volume[0] : 0) * timers[0].getval()
@@ -81,6 +100,34 @@ public class VRC6SoundChip implements ExpansionSoundChip {
                 + (enable[2] ? ((volume[2] & 0xff) >> 3) : 0));
     }
 
+    @Override
+    public void saveState(StateWriter w) {
+        for (Timer t : timers) {
+            t.saveState(w);
+        }
+        w.writeBooleans(enable);
+        w.writeInts(volume);
+        w.writeInt(sawdivider);
+        w.writeInt(sawctr);
+        w.writeInt(sawaccum);
+        w.writeInt(sawseq);
+        w.writeBoolean(clocknow);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        for (Timer t : timers) {
+            t.loadState(r);
+        }
+        r.readBooleans(enable);
+        r.readInts(volume);
+        sawdivider = r.readInt();
+        sawctr = r.readInt();
+        sawaccum = r.readInt();
+        sawseq = r.readInt();
+        clocknow = r.readBoolean();
+    }
+
     private void clocksaw() {
         --sawctr;
         if (sawctr < 0) {
@@ -0,0 +1,567 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+import static com.grapeshot.halfnes.utils.*;
+import java.util.Arrays;
+
+/**
+ * Same YM2413 emulation as VRC7SoundChip, but all integer, and instead of
+ * running the whole chip one cycle at a time it works out how many times each
+ * channel gets updated in a clock() call and does those all in one go, one
+ * operator at a time: first the phase and envelopes, then the modulator, then
+ * the carrier, each a loop over the block with table lookups in it. Then the
+ * outputs go through the filter in the order the channels would have updated.
+ *
+ * Phase is kept in 1/512ths like the other one does with a double, so it
+ * comes out exactly the same. Vibrato and the log attack curve are table
+ * based here so they can be off by one now and then, VRC7SoundChip is the
+ * reference and the test compares the two.
+ *
+ * @author Andrew Hoffman
+ */
+public class VRC7FixedPointSoundChip implements ExpansionSoundChip {
+
+    private static final int CUTOFF = 0, ATTACK = 1, DECAY = 2, RELEASE = 3;
+    private final int[] modenv_state = new int[6], carenv_state = new int[6];
+    private final int[] vol = new int[6], freq = new int[6],
+            octave = new int[6], instrument = new int[6];
+    private final boolean[] key = new boolean[6], chSust = new boolean[6];
+    private int fmctr = 0, amctr = 0;
+    //in 1/512ths, wraps at 1024
+    private final int[] phase = new int[6];
+    private final int[] mod = new int[6];
+    private final int[] usertone = new int[8], modenv_vol = new int[6], carenv_vol = new int[6];
+    private final int[][] instdata = {
+        usertone,
+        {0x03, 0x21, 0x05, 0x06, 0xE8, 0x81, 0x42, 0x27}, //Bell
+        {0x13, 0x41, 0x14, 0x0D, 0xD8, 0xF6, 0x23, 0x12}, //Guitar
+        {0x11, 0x11, 0x08, 0x08, 0xFA, 0xB2, 0x20, 0x12}, //Wurlitzer
+        {0x31, 0x61, 0x0c, 0x07, 0xA8, 0x64, 0x61, 0x27}, //Flute
+        {0x32, 0x21, 0x1E, 0x06, 0xE1, 0x76, 0x01, 0x28}, //Clarinet
+        {0x02, 0x01, 0x06, 0x00, 0xA3, 0xE2, 0xF4, 0xF4}, //Synth
+        {0x21, 0x61, 0x1D, 0x07, 0x82, 0x81, 0x11, 0x07}, //Trumpet
+        {0x23, 0x21, 0x22, 0x17, 0xA2, 0x72, 0x01, 0x17}, //Organ
+        {0x35, 0x11, 0x25, 0x00, 0x40, 0x73, 0x72, 0x01}, //Bells
+        {0xB5, 0x01, 0x0F, 0x0F, 0xA8, 0xA5, 0x51, 0x02}, //Vibes
+        {0x17, 0xC1, 0x24, 0x07, 0xF8, 0xF8, 0x22, 0x12}, //Vibraphone
+        {0x71, 0x23, 0x11, 0x06, 0x65, 0x74, 0x18, 0x16}, //Tutti
+        {0x01, 0x02, 0xD3, 0x05, 0xC9, 0x95, 0x03, 0x02}, //Fretless
+        {0x61, 0x63, 0x0C, 0x00, 0x94, 0xC0, 0x33, 0xF6}, //Synth Bass
+        {0x21, 0x72, 0x0D, 0x00, 0xC1, 0xD5, 0x56, 0x06} //Sweep
+    };
+    private static final int PHASE_MASK = (1024 * 512) - 1;
+    //a whole sine wave of log attenuation, bit 9 of the phase is the sign
+    private static final int[] LOGSIN = genlogsintbl();
+    //the exp table with the shift already done, for every 13 bit attenuation
+    private static final int[] EXP = genexptbl();
+    private static final int[] AM = genamtbl();
+    //vibrato depth in 1/4096ths of a phase step
+    private static final int[] VIBRATO = genvibtbl();
+    //log2 of 1 + x/1024 in 1/65536ths, for the attack curve
+    private static final int[] LOG2 = genlog2tbl();
+    //frequency multipliers times 2 so 0.5 is an integer too
+    private static final int[] MULTIPLIER = {1, 2, 4, 6, 8, 10,
+        12, 14, 16, 18, 20, 20, 24, 24, 30, 30};
+    private static final int[] KEYSCALE = {0, 1536, 2048, 2368, 2560,
+        2752, 2880, 3008, 3072, 3200, 3264, 3328, 3392, 3456, 3520, 3584
+    };
+    private static final int ZEROVOL = 8388608; //2^23
+    private static final int MAXVOL = 0;
+    //per channel work space for a block, grows as needed
+    private int[] blockphase = new int[0], blockmodenv = new int[0],
+            blockcarenv = new int[0], blockmod = new int[0];
+    private final int[][] blockout = new int[6][0];
+    private final int[] count = new int[6], pos = new int[6];
+    private int ch = 0;
+    private int lpaccum = 0, lpaccum2 = 0;
+
+    public VRC7FixedPointSoundChip() {
+        Arrays.fill(modenv_state, CUTOFF);
+        Arrays.fill(carenv_state, CUTOFF);
+        Arrays.fill(modenv_vol, 511);
+        Arrays.fill(carenv_vol, 511);
+    }
+
+    private static double tri(double x) {
+        x %= 2 * Math.PI;
+        if (x < (Math.PI / 2)) {
+            return x / (Math.PI);
+        } else if (x < (3 * Math.PI) / 2) {
+            return 1 - (x / (Math.PI));
+        } else {
+            return x / (Math.PI) - 2;
+        }
+    }
+
+    private static int[] genvibtbl() {
+        //same wave as VRC7SoundChip's, just scaled up to an int
+        double l = 1789773 / 6.;
+        double f = 6.4;
+        int depth = 10;
+        int[] tbl = new int[(int) Math.ceil(l / f)];
+        for (int x = 0; x < tbl.length; ++x) {
+            tbl[x] = (int) Math.round(depth * tri(2 * Math.PI * f * x / l) * 4096);
+        }
+        return tbl;
+    }
+
+    private static int[] genamtbl() {
+        double l = 1789773 / 6.;
+        double f = 3.7;
+        int depth = 128;
+        int[] tbl = new int[(int) Math.ceil(l / f)];
+        for (int x = 0; x < tbl.length; ++x) {
+            tbl[x] = (int) (depth * tri(2 * Math.PI * f * x / l) + depth);
+        }
+        return tbl;
+    }
+
+    private static int[] genlogsintbl() {
+        final int[] quarter = new int[256];
+        for (int i = 0; i < quarter.length; ++i) {
+            quarter[i] = (int) Math.round(-Math.log(Math.sin((i + 0.5) * Math.PI / 256 / 2)) / Math.log(2) * 256);
+        }
+        //mirror it out to the whole wave like logsin() in the other one does
+        final int[] tbl = new int[1024];
+        for (int i = 0; i < 256; ++i) {
+            tbl[i] = quarter[i];
+            tbl[i + 256] = quarter[255 - i];
+            tbl[i + 512] = quarter[i];
+            tbl[i + 768] = quarter[255 - i];
+        }
+        return tbl;
+    }
+
+    private static int[] genexptbl() {
+        final int[] mantissa = new int[256];
+        for (int i = 0; i < mantissa.length; ++i) {
+            mantissa[i] = (int) Math.round((Math.pow(2, i / 256.) - 1) * 1024.);
+        }
+        final int[] tbl = new int[BIT13];
+        for (int val = 0; val < tbl.length; ++val) {
+            tbl[val] = (mantissa[-val & 0xff] + 1024) >> -((-val) >> 8);
+        }
+        return tbl;
+    }
+
+    private static int[] genlog2tbl() {
+        final int[] tbl = new int[1024];
+        for (int i = 0; i < tbl.length; ++i) {
+            //middle of each step so truncating the input doesn't bias it
+            tbl[i] = (int) Math.round(Math.log(1 + (i + 0.5) / 1024.) / Math.log(2) * 65536);
+        }
+        return tbl;
+    }
+
+    @Override
+    public final void write(int register, int data) {
+        switch (register) {
+            case 0:
+            case 1:
+            case 2:
+            case 3:
+            case 4:
+            case 5:
+            case 6:
+            case 7:
+                usertone[register & 7] = data;
+                break;
+            case 0x10:
+            case 0x11:
+            case 0x12:
+            case 0x13:
+            case 0x14:
+            case 0x15:
+                int n = register - 0x10;
+                freq[n] = (freq[n] & 0xf00) | data;
+                break;
+            case 0x20:
+            case 0x21:
+            case 0x22:
+            case 0x23:
+            case 0x24:
+            case 0x25:
+                int m = register - 0x20;
+                octave[m] = (data >> 1) & 7;
+                freq[m] = (freq[m] & 0xff) | ((data & 1) << 8);
+                if (((data & (BIT4)) != 0) && !key[m]) {
+                    carenv_state[m] = CUTOFF;
+                    modenv_state[m] = CUTOFF;
+                }
+                key[m] = ((data & (BIT4)) != 0);
+                chSust[m] = ((data & (BIT5)) != 0);
+                break;
+            case 0x30:
+            case 0x31:
+            case 0x32:
+            case 0x33:
+            case 0x34:
+            case 0x35:
+                int j = register - 0x30;
+                vol[j] = data & 0xf;
+                instrument[j] = (data >> 4) & 0xf;
+                break;
+            default:
+        }
+    }
+
+    @Override
+    public final void clock(final int cycles) {
+        run(cycles, null, 0);
+    }
+
+    @Override
+    public final void clock(final int cycles, final int[] out, final int off) {
+        run(cycles, out, off);
+    }
+
+    private void run(final int cycles, final int[] out, final int off) {
+        //the chip updates channel 0-5 on the first 6 of every 36 cycles, see
+        //VRC7SoundChip.
+        if (cycles < 36) {
+            //each channel updates once at most, not worth working out blocks
+            for (int i = 0; i < cycles; ++i) {
+                ch = (ch == 35) ? 0 : ch + 1;
+                if (ch < 6) {
+                    fmctr = (fmctr + 1) % VIBRATO.length;
+                    amctr = (amctr + 1) % AM.length;
+                    operate(ch, 1, fmctr, amctr);
+                    filter(blockout[ch][0]);
+                }
+                if (out != null) {
+                    out[off + i] += lpaccum2;
+                }
+            }
+            return;
+        }
+        //work out how many updates each channel gets in here
+        int total = 0;
+        for (int c = 0; c < 6; ++c) {
+            int first = c - ch;
+            if (first <= 0) {
+                first += 36;
+            }
+            count[c] = (cycles >= first) ? (cycles - first) / 36 + 1 : 0;
+            total += count[c];
+        }
+        final int firstch = (ch < 5) ? ch + 1 : 0;
+        for (int c = 0; c < 6; ++c) {
+            if (count[c] > 0) {
+                //the vibrato and AM counters step once per channel update,
+                //so this channel's nth update sees them 6n further on
+                final int order = (c - firstch + 6) % 6;
+                operate(c, count[c], (fmctr + 1 + order) % VIBRATO.length,
+                        (amctr + 1 + order) % AM.length);
+            }
+        }
+        fmctr = (fmctr + total) % VIBRATO.length;
+        amctr = (amctr + total) % AM.length;
+        //filter the outputs in the order the chip made them
+        Arrays.fill(pos, 0);
+        if (out == null) {
+            int next = firstch;
+            for (int i = 0; i < total; ++i) {
+                filter(blockout[next][pos[next]++]);
+                next = (next == 5) ? 0 : next + 1;
+            }
+        } else {
+            //same thing, but going through every cycle to fill in the output
+            int t = ch;
+            for (int i = 0; i < cycles; ++i) {
+                t = (t == 35) ? 0 : t + 1;
+                if (t < 6) {
+                    filter(blockout[t][pos[t]++]);
+                }
+                out[off + i] += lpaccum2;
+            }
+        }
+        ch = (ch + cycles) % 36;
+    }
+
+    @Override
+    public void saveState(StateWriter w) {
+        w.writeInts(modenv_state);
+        w.writeInts(carenv_state);
+        w.writeInts(vol);
+        w.writeInts(freq);
+        w.writeInts(octave);
+        w.writeInts(instrument);
+        w.writeBooleans(key);
+        w.writeBooleans(chSust);
+        w.writeInt(fmctr);
+        w.writeInt(amctr);
+        w.writeInts(phase);
+        w.writeInts(mod);
+        w.writeInts(usertone);
+        w.writeInts(modenv_vol);
+        w.writeInts(carenv_vol);
+        w.writeInt(ch);
+        w.writeInt(lpaccum);
+        w.writeInt(lpaccum2);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        r.readInts(modenv_state);
+        r.readInts(carenv_state);
+        r.readInts(vol);
+        r.readInts(freq);
+        r.readInts(octave);
+        r.readInts(instrument);
+        r.readBooleans(key);
+        r.readBooleans(chSust);
+        fmctr = r.readInt();
+        amctr = r.readInt();
+        r.readInts(phase);
+        r.readInts(mod);
+        r.readInts(usertone);
+        r.readInts(modenv_vol);
+        r.readInts(carenv_vol);
+        ch = r.readInt();
+        lpaccum = r.readInt();
+        lpaccum2 = r.readInt();
+    }
+
+    private void filter(final int out) {
+        int sample = out * 24;
+        //two stage low pass filter (looked @ schematic of hybrid on PCB)
+        sample += lpaccum;
+        lpaccum -= sample >> 2;
+        int j = lpaccum;
+        j += lpaccum2;
+        lpaccum2 -= j >> 2;
+    }
+
+    private void operate(final int c, final int n, final int fmstart, final int amstart) {
+        if (blockphase.length < n) {
+            blockphase = new int[n];
+            blockmodenv = new int[n];
+            blockcarenv = new int[n];
+            blockmod = new int[n];
+        }
+        if (blockout[c].length < n) {
+            blockout[c] = new int[n];
+        }
+        final int[] ph = blockphase, modenv = blockmodenv, carenv = blockcarenv,
+                modout = blockmod, out = blockout[c];
+        final int[] inst = instdata[instrument[c]];
+        final int oct = octave[c];
+        final int step = freq[c] << oct;
+        //phase and envelopes first, those can reset the phase on key on
+        for (int i = 0; i < n; ++i) {
+            phase[c] = (phase[c] + step) & PHASE_MASK;
+            modenv[i] = envelope(inst, modenv_state, modenv_vol, c, false) << 2;
+            carenv[i] = envelope(inst, carenv_state, carenv_vol, c, true) << 2;
+            ph[i] = phase[c];
+        }
+        //key scaling
+        int keyscale = KEYSCALE[freq[c] >> 5] - 512 * (7 - oct);
+        if (keyscale < 0) {
+            keyscale = 0;
+        }
+        int modks = inst[2] >> 6;
+        modks = (modks == 0) ? 0 : (keyscale >> (3 - modks));
+        int carks = (inst[3] >> 6);
+        carks = (carks == 0) ? 0 : (keyscale >> (3 - carks));
+        final int fb = (~inst[3] & 7);
+
+        //modulator. This one has to go in order because of the feedback.
+        //everything's in 1/1024ths of a sine table step until the >> 10
+        final boolean modVib = (inst[0] & BIT6) != 0;
+        final int modMult = MULTIPLIER[inst[0] & 0xf];
+        final int modAtt = (inst[2] & 0x3f) * 32 + modks;
+        final boolean modAM = (inst[0] & BIT7) != 0;
+        final boolean modRectify = (inst[3] & BIT3) != 0;
+        int m = mod[c];
+        int fm = fmstart, am = amstart;
+        for (int i = 0; i < n; ++i) {
+            //the old one adds the last two outputs for feedback, but they're
+            //always the same by then
+            final int feedback = (fb == 7) ? 0 : (m + m) >> (2 + fb);
+            final int vib = modVib ? (VIBRATO[fm] << oct) >> 2 : 0;
+            final int x = feedback + ((vib + modMult * ph[i]) >> 10);
+            final int att = modAtt + modenv[i] + (modAM ? AM[am] : 0);
+            m = operator(x, att, modRectify) << 2;
+            modout[i] = m;
+            fm += 6;
+            if (fm >= VIBRATO.length) {
+                fm -= VIBRATO.length;
+            }
+            am += 6;
+            if (am >= AM.length) {
+                am -= AM.length;
+            }
+        }
+        mod[c] = m;
+
+        //carrier, modulated by what the modulator just put out
+        final boolean carVib = (inst[1] & BIT6) != 0;
+        final int carMult = MULTIPLIER[inst[1] & 0xf];
+        final int carAtt = vol[c] * 128 + carks;
+        final boolean carAM = (inst[1] & BIT7) != 0;
+        final boolean carRectify = (inst[3] & BIT4) != 0;
+        fm = fmstart;
+        am = amstart;
+        for (int i = 0; i < n; ++i) {
+            final int vib = carVib ? (VIBRATO[fm] * step) >> 11 : 0;
+            final int x = modout[i] + ((vib + carMult * ph[i]) >> 10);
+            final int att = carAtt + carenv[i] + (carAM ? AM[am] : 0);
+            out[i] = operator(x, att, carRectify) << 2;
+            fm += 6;
+            if (fm >= VIBRATO.length) {
+                fm -= VIBRATO.length;
+            }
+            am += 6;
+            if (am >= AM.length) {
+                am -= AM.length;
+            }
+        }
+    }
+
+    private static int operator(final int phase, final int att, final boolean rectify) {
+        int val = LOGSIN[phase & 0x3ff] + att;
+        if (val > BIT13 - 1) {
+            val = BIT13 - 1;
+        }
+        final int out = EXP[val];
+        //the sign bit skips everything else and goes straight to the dac
+        return ((phase & 0x200) == 0) ? out : (rectify ? 0 : -out);
+    }
+
+    @Override
+    public final int getval() {
+        return lpaccum2;
+    }
+
+    private int envelope(final int[] instrument, final int[] state,
+            final int[] vol, final int ch, final boolean isCarrier) {
+        //see VRC7SoundChip.setenvelope for where all this comes from
+        final boolean keyscaleRate = ((instrument[(isCarrier ? 1 : 0)] & (BIT4)) != 0);
+        final int ksrShift = keyscaleRate
+                ? (octave[ch] << 1) + (freq[ch] >> 8)
+                : octave[ch] >> 1;
+        switch (state[ch]) {
+            default:
+            case CUTOFF:
+                if (vol[ch] < ZEROVOL) {
+                    vol[ch] += 16384;
+                } else {
+                    vol[ch] = ZEROVOL;
+                    if (key[ch]) {
+                        state[ch] = ATTACK;
+                        phase[ch] = 0;
+                    }
+                }
+                break;
+            case ATTACK:
+                if (vol[ch] > MAXVOL + 8) {
+                    vol[ch] -= ATTACKVAL[(instrument[(isCarrier ? 5 : 4)] >> 4) * 4
+                            + ksrShift];
+                } else {
+                    state[ch] = DECAY;
+                }
+                if (!key[ch]) {
+                    state[ch] = RELEASE;
+                }
+                break;
+            case DECAY:
+                if (vol[ch] < ((instrument[(isCarrier ? 7 : 6)] >> 4)) * 524288) {
+                    vol[ch] += DECAYVAL[(instrument[(isCarrier ? 5 : 4)] & 0xf) * 4
+                            + ksrShift];
+                } else {
+                    state[ch] = RELEASE;
+                }
+                if (!key[ch]) {
+                    state[ch] = RELEASE;
+                }
+                break;
+            case RELEASE:
+                final boolean d5 = ((instrument[isCarrier ? 1 : 0] & (BIT5)) != 0);
+                final int rate;
+                if (key[ch]) {
+                    //sustained tones hold, percussive ones decay at release rate
+                    rate = d5 ? -1 : instrument[(isCarrier ? 7 : 6)] & 0xf;
+                } else if (chSust[ch]) {
+                    //1.2 seconds to cut off
+                    rate = 5;
+                } else {
+                    //release rate, or 7 for percussive tones
+                    rate = d5 ? instrument[(isCarrier ? 7 : 6)] & 0xf : 7;
+                }
+                if (rate >= 0) {
+                    vol[ch] += DECAYVAL[rate * 4 + ksrShift];
+                }
+                break;
+        }
+        if (vol[ch] < MAXVOL) {
+            vol[ch] = MAXVOL;
+        }
+        if (vol[ch] > ZEROVOL) {
+            vol[ch] = ZEROVOL;
+        }
+        if (state[ch] == ATTACK) {
+            return attackCurve(vol[ch]);
+        }
+        return vol[ch] >> 14;
+    }
+
+    private static int attackCurve(final int vol) {
+        //48 dB - (48 dB * ln(EGC) / ln(1<<23)), same as the other one but
+        //with the log2 done as exponent plus a table for the fraction
+        final int r = ZEROVOL - vol;
+        if (r <= 0) {
+            //the float version overflows here, at least this stays quiet
+            return 511;
+        }
+        final int e = 31 - Integer.numberOfLeadingZeros(r);
+        final int frac = ((e >= 10) ? r >> (e - 10) : r << (10 - e)) & 1023;
+        final int log2 = (e << 16) + LOG2[frac];
+        //2^23 * log2 / 23, with the 2^16 from the table taken back out.
+        //the table rounding can take it just under 0 right at the top
+        return Math.max(ZEROVOL - (log2 << 7) / 23, 0) >> 14;
+    }
+
+    private static final int[] ATTACKVAL = {0, 0, 0, 0,
+        98, 120, 146, 171,
+        195, 216, 293, 341,
+        390, 471, 602, 683,
+        780, 964, 1168, 1366,
+        1560, 1927, 2315, 2731,
+        3075, 3855, 4682, 5461,
+        6242, 8035, 9364, 10921,
+        12480, 15423, 18727, 21856,
+        24960, 30847, 37413, 43713,
+        51130, 61580, 74991, 87425,
+        99841, 123161, 149319, 173949,
+        200870, 241044, 281218, 312464,
+        337461, 401739, 496266, 562435,
+        602609, 766957, 937392, 1205218,
+        8388607, 8388607, 8388607, 8388607,
+        8388607, 8388607, 8388607, 8388607,
+        8388607, 8388607, 8388607, 8388607,
+        8388607, 8388607, 8388607, 8388607};
+    private static final int[] DECAYVAL = {0, 0, 0, 0,
+        8, 10, 12, 14,
+        16, 20, 24, 28,
+        32, 40, 48, 56,
+        65, 77, 96, 112,
+        129, 161, 193, 224,
+        258, 321, 386, 449,
+        516, 643, 771, 898,
+        1032, 1285, 1542, 1796,
+        2064, 2570, 3084, 3591,
+        4211, 5268, 6167, 7183,
+        8255, 10282, 12407, 14360,
+        16510, 20552, 24668, 28745,
+        33020, 41154, 49336, 57391,
+        66169, 82308, 98673, 114783,
+        132859, 132859, 132859, 132859,
+        132859, 132859, 132859, 132859,
+        132859, 132859, 132859, 132859,
+        132859, 132859, 132859, 132859,};
+}
@@ -5,11 +5,16 @@
 package com.grapeshot.halfnes.audio;
 
 //import com.grapeshot.halfnes.ui.DebugUI;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import static com.grapeshot.halfnes.utils.*;
 //import java.awt.image.BufferedImage;
 import java.util.Arrays;
 
 /**
+ * The original floating point version. The mappers use
+ * VRC7FixedPointSoundChip now, this one stays as the reference that gets
+ * checked against.
  *
  * @author Andrew
  */
@@ -325,6 +330,58 @@ public class VRC7SoundChip implements ExpansionSoundChip {
     public final int getval() {
         return lpaccum2;
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        for (int i = 0; i < 6; ++i) {
+            w.writeInt(modenv_state[i].ordinal());
+            w.writeInt(carenv_state[i].ordinal());
+            w.writeDouble(phase[i]);
+        }
+        w.writeInts(vol);
+        w.writeInts(freq);
+        w.writeInts(octave);
+        w.writeInts(instrument);
+        w.writeInts(mod);
+        w.writeInts(oldmodout);
+        w.writeInts(out);
+        w.writeBooleans(key);
+        w.writeBooleans(chSust);
+        w.writeInt(fmctr);
+        w.writeInt(amctr);
+        w.writeInts(usertone);
+        w.writeInts(modenv_vol);
+        w.writeInts(carenv_vol);
+        w.writeInt(ch);
+        w.writeInt(lpaccum);
+        w.writeInt(lpaccum2);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        for (int i = 0; i < 6; ++i) {
+            modenv_state[i] = EnvState.values()[r.readInt()];
+            carenv_state[i] = EnvState.values()[r.readInt()];
+            phase[i] = r.readDouble();
+        }
+        r.readInts(vol);
+        r.readInts(freq);
+        r.readInts(octave);
+        r.readInts(instrument);
+        r.readInts(mod);
+        r.readInts(oldmodout);
+        r.readInts(out);
+        r.readBooleans(key);
+        r.readBooleans(chSust);
+        fmctr = r.readInt();
+        amctr = r.readInt();
+        r.readInts(usertone);
+        r.readInts(modenv_vol);
+        r.readInts(carenv_vol);
+        ch = r.readInt();
+        lpaccum = r.readInt();
+        lpaccum2 = r.readInt();
+    }
     final private static int ZEROVOL = 8388608; //2^23
     final private static int MAXVOL = 0;
 
@@ -0,0 +1,224 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.audio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the sound to a file instead of playing it: a 16 bit mono or stereo
+ * WAV, or the same samples with no header at all for raw PCM (left and right
+ * alternating for stereo). Samples get collected in a buffer and written out
+ * in big chunks. Stereo samples sent to a mono file get mixed down, and mono
+ * ones sent to a stereo file go on both sides.
+ *
+ * It also keeps track of how long the sound has been quiet and can fade out
+ * and stop at a set point, which is what's needed for rendering music tracks
+ * that otherwise loop forever.
+ *
+ * @author Andrew Hoffman
+ */
+public class WavAudioImpl implements AudioOutInterface {
+
+    private static final int HEADER = 44;
+    //anything this close to 0 counts as silence
+    private static final int QUIET = 16;
+    private final FileChannel out;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(65536).order(ByteOrder.LITTLE_ENDIAN);
+    private final int samplerate;
+    private final boolean raw, stereo;
+    //written counts sample frames, so a left and right pair is one
+    private long written, silent;
+    //silence only starts counting once there's been some sound, so a track
+    //with a long quiet intro doesn't get cut off before it starts
+    private boolean heard;
+    private long fadestart = Long.MAX_VALUE, fadelen, end = Long.MAX_VALUE;
+    private boolean closed;
+
+    /**
+     * @param file file to write, replaced if it's there already
+     * @param samplerate sample rate the APU is running at
+     * @param raw true for just the samples, false for a WAV file
+     * @throws IOException if the file can't be created
+     */
+    public WavAudioImpl(Path file, int samplerate, boolean raw) throws IOException {
+        this(file, samplerate, raw, false);
+    }
+
+    /**
+     * @param file file to write, replaced if it's there already
+     * @param samplerate sample rate the APU is running at
+     * @param raw true for just the samples, false for a WAV file
+     * @param stereo true for 2 channels, false for mono
+     * @throws IOException if the file can't be created
+     */
+    public WavAudioImpl(Path file, int samplerate, boolean raw, boolean stereo) throws IOException {
+        this.samplerate = samplerate;
+        this.raw = raw;
+        this.stereo = stereo;
+        out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (!raw) {
+            //sizes get filled in when the file's closed
+            buf.put(header(0));
+        }
+    }
+
+    private ByteBuffer header(final long datasize) {
+        final ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        h.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+        h.putInt((int) (datasize + HEADER - 8));
+        h.put("WAVEfmt ".getBytes(StandardCharsets.US_ASCII));
+        h.putInt(16);
+        h.putShort((short) 1);//PCM
+        final int channels = stereo ? 2 : 1;
+        h.putShort((short) channels);
+        h.putInt(samplerate);
+        h.putInt(samplerate * 2 * channels);//bytes per second
+        h.putShort((short) (2 * channels));//bytes per sample frame
+        h.putShort((short) 16);//bits
+        h.put("data".getBytes(StandardCharsets.US_ASCII));
+        h.putInt((int) datasize);
+        h.flip();
+        return h;
+    }
+
+    /**
+     * Fades out linearly starting at one sample and throws away everything
+     * after the fade's done.
+     *
+     * @param start sample number to start fading at
+     * @param length how many samples the fade takes, 0 to just cut off
+     */
+    public void fadeOut(final long start, final long length) {
+        fadestart = start;
+        fadelen = length;
+        end = start + length;
+    }
+
+    @Override
+    public void outputSamples(final short[] samples, final int off, final int len) {
+        if (closed) {
+            return;
+        }
+        final int n = (int) Math.min(len, end - written);
+        for (int i = off; i < off + n; ++i) {
+            put(samples[i], samples[i]);
+        }
+    }
+
+    @Override
+    public void outputStereoSamples(final short[] samples, final int off, final int frames) {
+        if (closed) {
+            return;
+        }
+        final int n = (int) Math.min(frames, end - written);
+        for (int i = 0, j = off; i < n; ++i, j += 2) {
+            put(samples[j], samples[j + 1]);
+        }
+    }
+
+    private void put(int left, int right) {
+        if (written >= fadestart) {
+            left = (int) (left * (end - written) / fadelen);
+            right = (int) (right * (end - written) / fadelen);
+        }
+        if (Math.abs(left) > QUIET || Math.abs(right) > QUIET) {
+            heard = true;
+            silent = 0;
+        } else if (heard) {
+            ++silent;
+        }
+        if (buf.remaining() < 4) {
+            drain();
+        }
+        if (stereo) {
+            buf.putShort((short) left);
+            buf.putShort((short) right);
+        } else {
+            buf.putShort((short) ((left + right) >> 1));
+        }
+        ++written;
+    }
+
+    private void drain() {
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buf.clear();
+    }
+
+    /**
+     * @return samples in the file so far
+     */
+    public long getSamplesWritten() {
+        return written;
+    }
+
+    /**
+     * @return how many samples in a row at the end have been silent, not
+     * counting any silence before the first sound
+     */
+    public long getSilentSamples() {
+        return silent;
+    }
+
+    /**
+     * @return true once the fade out's finished, nothing more will be written
+     */
+    public boolean isFinished() {
+        return written >= end;
+    }
+
+    @Override
+    public void flushFrame(boolean waitIfBufferFull) {
+        //nothing to wait for
+    }
+
+    @Override
+    public void pause() {
+    }
+
+    @Override
+    public void resume() {
+    }
+
+    /**
+     * Writes out what's left, fills in the WAV header and closes the file.
+     */
+    @Override
+    public void destroy() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            drain();
+            if (!raw) {
+                out.write(header(written * (stereo ? 4 : 2)), 0);
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean pacesFrames() {
+        //there's no real time to keep up with
+        return false;
+    }
+}
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.utils;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -69,7 +71,7 @@ public class Action52Mapper extends Mapper {
         // by default has wram at 0x6000 and cartridge at 0x8000-0xfff
         // but some mappers have different so override for those
         if (addr >= 0x8000) {
-            return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)];
+            return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)] & 0xff;
         } else if (addr < 0x6000) {
             return ram[addr & 3] & 0xf;
         }
@@ -79,4 +81,24 @@ public class Action52Mapper extends Mapper {
     public void reset() {
         cartWrite(0x8000, 0);
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInts(ram);
+        w.writeInt(prgchip);
+        w.writeInt(prgpage);
+        w.writeInt(chrpage);
+        w.writeBoolean(prgmode);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        r.readInts(ram);
+        prgchip = r.readInt();
+        prgpage = r.readInt();
+        chrpage = r.readInt();
+        prgmode = r.readBoolean();
+    }
 }
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.utils;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import java.util.Arrays;
 
 /**
@@ -73,15 +75,15 @@ public class AfterburnerMapper extends Mapper {
 
     public int ppuRead(int addr) {
         if (addr < 0x2000) {
-            return chr[chr_map[addr >> 10] + (addr & 1023)];
+            return chr[chr_map[addr >> 10] + (addr & 1023)] & 0xff;
         } else {
             switch (addr & 0xc00) {
                 case 0:
-                    return (useromnt ? chr[(addr & 0x3ff) + (romnt1 * 1024)] : nt0[addr & 0x3ff]);
+                    return (useromnt ? (chr[(addr & 0x3ff) + (romnt1 * 1024)] & 0xff) : (nt0[addr & 0x3ff] & 0xff));
                 case 0x400:
-                    return (useromnt ? chr[(addr & 0x3ff) + (romnt2 * 1024)] : nt1[addr & 0x3ff]);
+                    return (useromnt ? (chr[(addr & 0x3ff) + (romnt2 * 1024)] & 0xff) : (nt1[addr & 0x3ff] & 0xff));
                 case 0x800:
-                    return (useromnt ? chr[(addr & 0x3ff) + (romnt2 * 1024)] : nt2[addr & 0x3ff]);
+                    return (useromnt ? (chr[(addr & 0x3ff) + (romnt2 * 1024)] & 0xff) : (nt2[addr & 0x3ff] & 0xff));
                 case 0xc00:
                 default:
                     if (addr >= 0x3f00) {
@@ -91,9 +93,25 @@ public class AfterburnerMapper extends Mapper {
                         }
                         return ppu.pal[addr];
                     } else {
-                        return (useromnt ? chr[(addr & 0x3ff) + (romnt1 * 1024)] : nt3[addr & 0x3ff]);
+                        return (useromnt ? (chr[(addr & 0x3ff) + (romnt1 * 1024)] & 0xff) : (nt3[addr & 0x3ff] & 0xff));
                     }
             }
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBoolean(useromnt);
+        w.writeInt(romnt1);
+        w.writeInt(romnt2);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        useromnt = r.readBoolean();
+        romnt1 = r.readInt();
+        romnt2 = r.readInt();
+    }
 }
@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class CaltronMapper extends Mapper {
 
@@ -36,4 +38,16 @@ public class CaltronMapper extends Mapper {
             }
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(reg);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        reg = r.readInt();
+    }
 }
@@ -7,6 +7,8 @@ package com.grapeshot.halfnes.mappers;
 import com.grapeshot.halfnes.utils;
 import com.grapeshot.halfnes.*;
 import com.grapeshot.halfnes.audio.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -50,12 +52,12 @@ public class FME7Mapper extends Mapper {
         if (addr >= 0x6000) {
             if (addr < 0x8000 && ramSelect) {
                 if (ramEnable) {
-                    return prgram[addr - 0x6000];
+                    return prgram[addr - 0x6000] & 0xff;
                 } else {
                     return addr >> 8; //open bus
                 }
             }
-            return prg[prg_map[(addr - 0x6000) >> 10] + (addr & 1023)];
+            return prg[prg_map[(addr - 0x6000) >> 10] + (addr & 1023)] & 0xff;
         }
         return addr >> 8; //open bus
     }
@@ -158,6 +160,7 @@ public class FME7Mapper extends Mapper {
                 if (irqenabled && !interrupted) {
                     interrupted = true;
                     ++cpu.interrupt;
+                    ++irqs;
                     //System.err.println("FME7 Interrupt");
                 }
             } else {
@@ -176,4 +179,41 @@ public class FME7Mapper extends Mapper {
             chr_map[i] = (1024 * charbanks[i]) % chrsize;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(commandRegister);
+        w.writeInt(soundCommand);
+        w.writeInts(charbanks);
+        w.writeInts(prgbanks);
+        w.writeBoolean(ramEnable);
+        w.writeBoolean(ramSelect);
+        w.writeInt(irqcounter);
+        w.writeBoolean(irqenabled);
+        w.writeBoolean(irqclock);
+        w.writeBoolean(interrupted);
+        w.writeBoolean(hasInitSound);
+        sndchip.saveState(w);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        commandRegister = r.readInt();
+        soundCommand = r.readInt();
+        r.readInts(charbanks);
+        r.readInts(prgbanks);
+        ramEnable = r.readBoolean();
+        ramSelect = r.readBoolean();
+        irqcounter = r.readInt();
+        irqenabled = r.readBoolean();
+        irqclock = r.readBoolean();
+        interrupted = r.readBoolean();
+        if (r.readBoolean() && !hasInitSound) {
+            cpuram.apu.addExpnSound(sndchip);
+            hasInitSound = true;
+        }
+        sndchip.loadState(r);
+    }
 }
@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class IremH3001Mapper extends Mapper {
 
@@ -69,6 +71,7 @@ public class IremH3001Mapper extends Mapper {
             if (irqctr <= 0) {
                 if (!interrupted) {
                     ++cpu.interrupt;
+                    ++irqs;
                     interrupted = true;
                 }
                 irqenable = false;
@@ -83,4 +86,24 @@ public class IremH3001Mapper extends Mapper {
             chr_map[i + bankpos] = (1024 * (banknum + i)) & (chrsize - 1);
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInts(chrbank);
+        w.writeInt(irqctr);
+        w.writeInt(irqreload);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(interrupted);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        r.readInts(chrbank);
+        irqctr = r.readInt();
+        irqreload = r.readInt();
+        irqenable = r.readBoolean();
+        interrupted = r.readBoolean();
+    }
 }
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class MMC1Mapper extends Mapper {
 
@@ -162,4 +164,32 @@ public class MMC1Mapper extends Mapper {
         }
         //utils.printarray(prg_map);
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(mmc1shift);
+        w.writeInt(mmc1latch);
+        w.writeInt(mmc1ctrl);
+        w.writeInt(mmc1chr0);
+        w.writeInt(mmc1chr1);
+        w.writeInt(mmc1prg);
+        w.writeBoolean(soromlatch);
+        w.writeDouble(cpucycleprev);
+        w.writeLong(framecountprev);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        mmc1shift = r.readInt();
+        mmc1latch = r.readInt();
+        mmc1ctrl = r.readInt();
+        mmc1chr0 = r.readInt();
+        mmc1chr1 = r.readInt();
+        mmc1prg = r.readInt();
+        soromlatch = r.readBoolean();
+        cpucycleprev = r.readDouble();
+        framecountprev = r.readLong();
+    }
 }
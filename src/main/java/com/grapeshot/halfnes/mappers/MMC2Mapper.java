@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -118,4 +120,26 @@ public class MMC2Mapper extends Mapper {
         }
         //utils.printarray(chr_map);
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBoolean(chrlatchL);
+        w.writeBoolean(chrlatchR);
+        w.writeInt(chrbankL1);
+        w.writeInt(chrbankR1);
+        w.writeInt(chrbankL2);
+        w.writeInt(chrbankR2);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        chrlatchL = r.readBoolean();
+        chrlatchR = r.readBoolean();
+        chrbankL1 = r.readInt();
+        chrbankR1 = r.readInt();
+        chrbankL2 = r.readInt();
+        chrbankR2 = r.readInt();
+    }
 }
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -196,6 +198,7 @@ public class MMC3Mapper extends Mapper {
         }
         if ((irqctr == 0) && irqenable && !interrupted) {
             ++cpu.interrupt;
+            ++irqs;
             interrupted = true;
             //System.err.println("interrupt line " + ppu.scanline + " reload " + irqctrreload);
         }
@@ -208,4 +211,38 @@ public class MMC3Mapper extends Mapper {
             chr_map[i + bankpos] = (1024 * ((banknum) + i)) % chrsize;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(whichbank);
+        w.writeBoolean(prgconfig);
+        w.writeBoolean(chrconfig);
+        w.writeInt(irqctrreload);
+        w.writeInt(irqctr);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqreload);
+        w.writeInt(bank6);
+        w.writeInts(chrreg);
+        w.writeBoolean(interrupted);
+        w.writeBoolean(lastA12);
+        w.writeInt(a12timer);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        whichbank = r.readInt();
+        prgconfig = r.readBoolean();
+        chrconfig = r.readBoolean();
+        irqctrreload = r.readInt();
+        irqctr = r.readInt();
+        irqenable = r.readBoolean();
+        irqreload = r.readBoolean();
+        bank6 = r.readInt();
+        r.readInts(chrreg);
+        interrupted = r.readBoolean();
+        lastA12 = r.readBoolean();
+        a12timer = r.readInt();
+    }
 }
@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class MMC4Mapper extends Mapper {
 
@@ -101,4 +103,26 @@ public class MMC4Mapper extends Mapper {
             chr_map[i + bankpos] = (1024 * ((banksize * banknum) + i)) % chrsize;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBoolean(chrlatchL);
+        w.writeBoolean(chrlatchR);
+        w.writeInt(chrbankL1);
+        w.writeInt(chrbankR1);
+        w.writeInt(chrbankL2);
+        w.writeInt(chrbankR2);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        chrlatchL = r.readBoolean();
+        chrlatchR = r.readBoolean();
+        chrbankL1 = r.readInt();
+        chrbankR1 = r.readInt();
+        chrbankL2 = r.readInt();
+        chrbankR2 = r.readInt();
+    }
 }
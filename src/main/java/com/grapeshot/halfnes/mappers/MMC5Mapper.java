@@ -6,6 +6,8 @@ package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.utils;
 import com.grapeshot.halfnes.audio.MMC5SoundChip;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import java.util.Arrays;
 
 /**
@@ -15,7 +17,7 @@ import java.util.Arrays;
 public class MMC5Mapper extends Mapper {
 
     //the infamous kitchen sink mapper
-    final int[] exram = new int[1024];
+    final byte[] exram = new byte[1024];
     private int exramMode, chrMode, prgMode;
     private int wramWrite1, wramWrite2, multiplier1, multiplier2;
     private int prgpage, chrOr, wrambank;
@@ -26,7 +28,7 @@ public class MMC5Mapper extends Mapper {
     private final int[] chrmapB = new int[4];
     private final boolean[] romHere = new boolean[3];
     private int scanctrLine, irqCounter = 20;
-    private final int[] fillnt = new int[1024];
+    private final byte[] fillnt = new byte[1024];
     private MMC5SoundChip soundchip;
     private boolean inFrame = false;
 
@@ -45,7 +47,7 @@ public class MMC5Mapper extends Mapper {
         for (int i = 0; i < 8; ++i) {
             chr_map[i] = 1024 * i;
         }
-        prgram = new int[65536];
+        prgram = new byte[65536];
     }
 
     @Override
@@ -99,11 +101,11 @@ public class MMC5Mapper extends Mapper {
                     break;
                 case 0x5106:
                     //fill tile
-                    Arrays.fill(fillnt, 0, 32 * 30, data);
+                    Arrays.fill(fillnt, 0, 32 * 30, (byte) data);
                     break;
                 case 0x5107:
                     //fill attribute
-                    Arrays.fill(fillnt, 32 * 30, fillnt.length, data & 0x3 + (data & 3) << 2 + (data & 3) << 4 + (data & 3) << 6);
+                    Arrays.fill(fillnt, 32 * 30, fillnt.length, (byte) (data & 0x3 + (data & 3) << 2 + (data & 3) << 4 + (data & 3) << 6));
                     break;
                 case 0x5113:
                     //PRG RAM register
@@ -218,24 +220,24 @@ public class MMC5Mapper extends Mapper {
             }
         } else if (addr < 0x6000) {
             //exram
-            exram[addr - 0x5c00] = data;
+            exram[addr - 0x5c00] = (byte) data;
         } else if (addr < 0x8000) {
             final int wramaddr = wrambank * 8192 + (addr - 0x6000);
             //System.err.println("wrote wram " + utils.hex(wramaddr));
-            prgram[wramaddr] = data;
+            prgram[wramaddr] = (byte) data;
         } else if (addr < 0xA000 && !romHere[0] && prgMode == 3) {
             System.err.println("RAM write to 0x8000 area");
-            prgram[((prgregs[0] & 7) * 8192) + (addr - 0x8000)] = data;
+            prgram[((prgregs[0] & 7) * 8192) + (addr - 0x8000)] = (byte) data;
         } else if (addr < 0xC000 && !romHere[1]) {
             int subaddr = (prgMode == 3) ? 0xA000 : 0x8000;
             int prgbank = (prgMode == 3) ? (prgregs[1] & 7) : ((prgregs[1] & 7) >> 1);
             int ramaddr = (prgbank * ((prgMode == 3) ? 8192 : 16384)) + (addr - subaddr);
             ////System.err.println("RAM write to 0xA000 area " + utils.hex(addr) + " " + prgbank);
             //System.err.println(utils.hex(ramaddr));
-            prgram[ramaddr] = data;
+            prgram[ramaddr] = (byte) data;
         } else if (addr < 0xE000 && !romHere[2]) {
             System.err.println("RAM write to 0xC000 area " + utils.hex(addr));
-            prgram[((prgregs[2] & 7) * 8192) + (addr - 0xc000)] = data;
+            prgram[((prgregs[2] & 7) * 8192) + (addr - 0xc000)] = (byte) data;
         } else {
             System.err.println("unsupported mmc5 write " + utils.hex(addr)
                     + romHere[0] + romHere[1] + romHere[2] + prgMode);
@@ -258,7 +260,7 @@ public class MMC5Mapper extends Mapper {
                     || (addr >= 0xc000 && romHere[2])
                     || (addr >= 0xa000 && romHere[1])
                     || romHere[0])))) {
-                return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)];
+                return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)] & 0xff;
             } else {
                 //don't know quite how to deal with this yet
                 System.err.println("MMC5 wants RAM at " + utils.hex(addr));
@@ -269,10 +271,10 @@ public class MMC5Mapper extends Mapper {
             //wram
             int ramaddr = wrambank * 8192 + (addr - 0x6000);
             //System.err.println("reading prgram from " + utils.hex(ramaddr));
-            return prgram[ramaddr];
+            return prgram[ramaddr] & 0xff;
         } else if (addr >= 0x5c00) {
             //exram
-            return exram[addr - 0x5c00];
+            return exram[addr - 0x5c00] & 0xff;
         } else {
             switch (addr) {
                 case 0x5015:
@@ -405,7 +407,7 @@ public class MMC5Mapper extends Mapper {
                 //System.err.println(" sprites");
             }
             if (spritemode) {
-                return chr[chr_map[addr >> 10] + (addr & 1023)];
+                return chr[chr_map[addr >> 10] + (addr & 1023)] & 0xff;
             } else {
                 //bg mode
                 //System.err.print("t");
@@ -413,14 +415,14 @@ public class MMC5Mapper extends Mapper {
                     if (exlatch == 2) {
                         //fetch 3: tile bitmap a
                         ++exlatch;
-                        return chr[((chrOr * 1024) | ((exram[lastfetch] & 0x3f) * 4096) | (addr & 4095)) % chr.length];
+                        return chr[((chrOr * 1024) | ((exram[lastfetch] & 0x3f) * 4096) | (addr & 4095)) % chr.length] & 0xff;
                     } else if (exlatch == 3) {
                         //fetch 4: tile bitmap b (+ 8 bytes from tile bitmap a)
                         exlatch = 0;
-                        return chr[((chrOr * 1024) | ((exram[lastfetch] & 0x3f) * 4096) | (addr & 4095)) % chr.length];
+                        return chr[((chrOr * 1024) | ((exram[lastfetch] & 0x3f) * 4096) | (addr & 4095)) % chr.length] & 0xff;
                     }
                 }
-                return chr[chrmapB[(addr >> 10) & 3] + (addr & 1023)];
+                return chr[chrmapB[(addr >> 10) & 3] + (addr & 1023)] & 0xff;
             }
         } else {
             // System.err.print("n");
@@ -445,7 +447,7 @@ public class MMC5Mapper extends Mapper {
                 } else if (exlatch == 1) {
                     ++exlatch;
                     //fetch 2: attribute table fetch
-                    int theone = exram[lastfetch];
+                    int theone = exram[lastfetch] & 0xff;
                     return ((theone & 0xc0) >> 6) | ((theone & 0xc0) >> 4) | ((theone & 0xc0) >> 2) | (theone & 0xc0);
                 }
             }
@@ -468,11 +470,12 @@ public class MMC5Mapper extends Mapper {
             }
             if (irqPend && scanctrEnable) {
                 ++cpu.interrupt;
+                ++irqs;
             }
         }
     }
 
-    public void setMirroring(int ntsetup, int[] exram) {
+    public void setMirroring(int ntsetup, byte[] exram) {
         //hook for the MMC5
         switch (ntsetup & 3) {
             case 0:
@@ -537,4 +540,100 @@ public class MMC5Mapper extends Mapper {
                 break;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBytes(exram);
+        w.writeBytes(fillnt);
+        w.writeInt(exramMode);
+        w.writeInt(chrMode);
+        w.writeInt(prgMode);
+        w.writeInt(wramWrite1);
+        w.writeInt(wramWrite2);
+        w.writeInt(multiplier1);
+        w.writeInt(multiplier2);
+        w.writeInt(prgpage);
+        w.writeInt(chrOr);
+        w.writeInt(wrambank);
+        w.writeBoolean(scanctrEnable);
+        w.writeBoolean(irqPend);
+        w.writeInts(chrregsA);
+        w.writeInts(chrregsB);
+        w.writeInts(prgregs);
+        w.writeInts(chrmapB);
+        w.writeBooleans(romHere);
+        w.writeInt(scanctrLine);
+        w.writeInt(irqCounter);
+        w.writeBoolean(inFrame);
+        w.writeInt(fetchcount);
+        w.writeInt(exlatch);
+        w.writeInt(lastfetch);
+        w.writeInt(prevfetch);
+        w.writeInt(prevprevfetch);
+        w.writeBoolean(spritemode);
+        w.writeBoolean(soundchip != null);
+        if (soundchip != null) {
+            soundchip.saveState(w);
+        }
+        //nametables can also point at exram or the fill mode table
+        w.writeByte(ntSource(nt0));
+        w.writeByte(ntSource(nt1));
+        w.writeByte(ntSource(nt2));
+        w.writeByte(ntSource(nt3));
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        r.readBytes(exram);
+        r.readBytes(fillnt);
+        exramMode = r.readInt();
+        chrMode = r.readInt();
+        prgMode = r.readInt();
+        wramWrite1 = r.readInt();
+        wramWrite2 = r.readInt();
+        multiplier1 = r.readInt();
+        multiplier2 = r.readInt();
+        prgpage = r.readInt();
+        chrOr = r.readInt();
+        wrambank = r.readInt();
+        scanctrEnable = r.readBoolean();
+        irqPend = r.readBoolean();
+        r.readInts(chrregsA);
+        r.readInts(chrregsB);
+        r.readInts(prgregs);
+        r.readInts(chrmapB);
+        r.readBooleans(romHere);
+        scanctrLine = r.readInt();
+        irqCounter = r.readInt();
+        inFrame = r.readBoolean();
+        fetchcount = r.readInt();
+        exlatch = r.readInt();
+        lastfetch = r.readInt();
+        prevfetch = r.readInt();
+        prevprevfetch = r.readInt();
+        spritemode = r.readBoolean();
+        if (r.readBoolean() && soundchip == null) {
+            soundchip = new MMC5SoundChip();
+            cpuram.apu.addExpnSound(soundchip);
+        }
+        if (soundchip != null) {
+            soundchip.loadState(r);
+        }
+        setMirroring(r.readByte() | (r.readByte() << 2)
+                | (r.readByte() << 4) | (r.readByte() << 6), exram);
+    }
+
+    private int ntSource(final byte[] nt) {
+        //same encoding as the $5105 register
+        if (nt == pput1) {
+            return 1;
+        } else if (nt == exram) {
+            return 2;
+        } else if (nt == fillnt) {
+            return 3;
+        }
+        return 0;
+    }
 }
@@ -6,8 +6,9 @@ package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
 import com.grapeshot.halfnes.PPU;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import java.util.Arrays;
-import java.util.prefs.Preferences;
 import java.util.zip.CRC32;
 
 public abstract class Mapper {
@@ -17,20 +18,32 @@ public abstract class Mapper {
     public CPU cpu;
     public CPURAM cpuram;
     public PPU ppu;
-    protected int[] prg, chr, chr_map, prg_map, prgram = new int[8192];
+    //IRQs raised by the cart, for FrameMetrics
+    public long irqs;
+    protected int[] chr_map, prg_map;
+    //rom and ram are kept one byte per byte (not one int per byte like they
+    //used to be) so read them back with & 0xff
+    protected byte[] prg, chr, prgram = new byte[8192];
     protected MirrorType scrolltype;
     protected boolean haschrram = false, hasprgram = true, savesram = false;
     // PPU nametables
-    protected final int[] pput0 = new int[0x400], pput1 = new int[0x400],
-            pput2 = new int[0x400], pput3 = new int[0x400];
+    protected final byte[] pput0 = new byte[0x400], pput1 = new byte[0x400],
+            pput2 = new byte[0x400], pput3 = new byte[0x400];
     //99% of games only use 2 of these, but we have to create 4 and use ptrs to them
     //for those with extra RAM for 4 screen mirror
-    protected int[] nt0, nt1, nt2, nt3;
+    protected byte[] nt0, nt1, nt2, nt3;
+    //where loadState puts nametables that aren't one of the 4 above
+    private final byte[][] loadednt = new byte[4][];
     //and these are pointers to the nametables, so  for singlescreen when we switch
     //and then switch back the data in the other singlescreen NT isn't gone.
     long crc;
     TVType region;
-    Preferences prefs = PrefsSingleton.get();
+    EmulatorConfig config = EmulatorConfig.DEFAULTS;
+    //decoded tile rows for the PPU, see tileRow()
+    private final boolean tilecache = usesPlainPPURead();
+    private int[] tilerows;
+    private byte[] tilechr;
+    private boolean[] tilepages;
 
     public boolean supportsSaves() {
         return savesram;
@@ -54,11 +67,9 @@ public abstract class Mapper {
         DENDY;
     }
 
-    public static long crc32(int[] array) {
+    public static long crc32(byte[] array) {
         CRC32 c = new CRC32();
-        for (int i : array) {
-            c.update(i);
-        }
+        c.update(array);
         return c.getValue();
     }
 
@@ -87,7 +98,7 @@ public abstract class Mapper {
         if (chrsize == 0) {//chr ram
             haschrram = true;
             chrsize = 8192;
-            chr = new int[8192];
+            chr = new byte[8192];
         }
         prg_map = new int[32];
         for (int i = 0; i < 32; ++i) {
@@ -100,10 +111,10 @@ public abstract class Mapper {
         cpuram = new CPURAM(this);
         cpu = new CPU(cpuram);
         ppu = new PPU(this);
-        Arrays.fill(pput0, 0xa0);
-        Arrays.fill(pput1, 0xb0);
-        Arrays.fill(pput2, 0xc0);
-        Arrays.fill(pput3, 0xd0);
+        Arrays.fill(pput0, (byte) 0xa0);
+        Arrays.fill(pput1, (byte) 0xb0);
+        Arrays.fill(pput2, (byte) 0xc0);
+        Arrays.fill(pput3, (byte) 0xd0);
         setmirroring(scrolltype);
     }
 
@@ -116,7 +127,7 @@ public abstract class Mapper {
     public void cartWrite(final int addr, final int data) {
         //default no-mapper operation just writes if in PRG RAM range
         if (addr >= 0x6000 && addr < 0x8000) {
-            prgram[addr & 0x1fff] = data;
+            prgram[addr & 0x1fff] = (byte) data;
         }
     }
 
@@ -124,24 +135,24 @@ public abstract class Mapper {
         // by default has wram at 0x6000 and cartridge at 0x8000-0xfff
         // but some mappers have different so override for those
         if (addr >= 0x8000) {
-            return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)];
+            return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)] & 0xff;
         } else if (addr >= 0x6000 && hasprgram) {
-            return prgram[addr & 0x1fff];
+            return prgram[addr & 0x1fff] & 0xff;
         }
         return addr >> 8; //open bus
     }
 
     public int ppuRead(int addr) {
         if (addr < 0x2000) {
-            return chr[chr_map[addr >> 10] + (addr & 1023)];
+            return chr[chr_map[addr >> 10] + (addr & 1023)] & 0xff;
         } else {
             switch (addr & 0xc00) {
                 case 0:
-                    return nt0[addr & 0x3ff];
+                    return nt0[addr & 0x3ff] & 0xff;
                 case 0x400:
-                    return nt1[addr & 0x3ff];
+                    return nt1[addr & 0x3ff] & 0xff;
                 case 0x800:
-                    return nt2[addr & 0x3ff];
+                    return nt2[addr & 0x3ff] & 0xff;
                 case 0xc00:
                 default:
                     if (addr >= 0x3f00) {
@@ -151,31 +162,93 @@ public abstract class Mapper {
                         }
                         return ppu.pal[addr];
                     } else {
-                        return nt3[addr & 0x3ff];
+                        return nt3[addr & 0x3ff] & 0xff;
                     }
             }
         }
     }
 
+    /**
+     * Whether the PPU can get pattern data from tileRow() instead of ppuRead.
+     * That's only OK if reading $0000-$1FFF has no side effects and is just a
+     * chr_map lookup, so mappers that override ppuRead don't get it unless
+     * they say otherwise: MMC2/4 latch on certain tiles being read, MMC3
+     * watches A12, MMC5 has separate sprite and background banks, etc.
+     *
+     * @return true if tileRow() gives the same data ppuRead would
+     */
+    public boolean usesTileCache() {
+        return tilecache;
+    }
+
+    private boolean usesPlainPPURead() {
+        try {
+            return getClass().getMethod("ppuRead", int.class).getDeclaringClass() == Mapper.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets one 8 pixel row of a tile, for the PPU. Works on whole 1k CHR
+     * pages at a time, which get decoded the first time they're drawn from
+     * and again after a CHR RAM write to them.
+     *
+     * @param addr PPU address of the row's low bit plane, $0000-$1FFF
+     * @return low plane in bits 0-7, high plane in 8-15, and the same two
+     * bytes mirrored left to right in 16-23 and 24-31, which is what the
+     * sprite shift registers want for a sprite that isn't flipped.
+     */
+    public final int tileRow(final int addr) {
+        if (tilechr != chr) {
+            //new chr, or first time through
+            tilechr = chr;
+            tilerows = new int[(chr.length + 1) >> 1];
+            tilepages = new boolean[(chr.length + 1023) >> 10];
+        }
+        final int off = chr_map[addr >> 10] + (addr & 1023);
+        if (!tilepages[off >> 10]) {
+            decodeTilePage(off >> 10);
+        }
+        return tilerows[((off >> 4) << 3) + (off & 7)];
+    }
+
+    private void decodeTilePage(final int page) {
+        final int end = Math.min((page + 1) << 10, chr.length) - 8;
+        for (int off = page << 10; off < end; off += 16) {
+            for (int row = 0; row < 8; ++row) {
+                final int lo = chr[off + row] & 0xff, hi = chr[off + row + 8] & 0xff;
+                tilerows[((off >> 4) << 3) + row] = lo | (hi << 8)
+                        | (utils.reverseByte(lo) << 16) | (utils.reverseByte(hi) << 24);
+            }
+        }
+        tilepages[page] = true;
+    }
+
     public void ppuWrite(int addr, final int data) {
         addr &= 0x3fff;
         if (addr < 0x2000) {
             if (haschrram) {
                 // Shame on you, Milon's Secret Castle. What possible
                 // reason could you have to write to your own chr rom?
-                chr[chr_map[addr >> 10] + (addr & 1023)] = data;
+                final int off = chr_map[addr >> 10] + (addr & 1023);
+                chr[off] = (byte) data;
+                if (tilepages != null) {
+                    //decode this page again next time it's drawn
+                    tilepages[off >> 10] = false;
+                }
                 // anyway, only allowing writes when there's actual ram here.
             }
         } else {
             switch (addr & 0xc00) {
                 case 0x0:
-                    nt0[addr & 0x3ff] = data;
+                    nt0[addr & 0x3ff] = (byte) data;
                     break;
                 case 0x400:
-                    nt1[addr & 0x3ff] = data;
+                    nt1[addr & 0x3ff] = (byte) data;
                     break;
                 case 0x800:
-                    nt2[addr & 0x3ff] = data;
+                    nt2[addr & 0x3ff] = (byte) data;
                     break;
                 case 0xc00:
                     if (addr >= 0x3f00 && addr <= 0x3fff) {
@@ -186,7 +259,7 @@ public abstract class Mapper {
                         }
                         ppu.pal[addr] = (data & 0x3f);
                     } else {
-                        nt3[addr & 0x3ff] = data;
+                        nt3[addr & 0x3ff] = (byte) data;
                     }
                     break;
                 default:
@@ -409,12 +482,12 @@ public abstract class Mapper {
         //needed for mmc3 irq counter
     }
 
-    public void setPRGRAM(final int[] newprgram) {
+    public void setPRGRAM(final byte[] newprgram) {
         prgram = newprgram.clone();
 
     }
 
-    public int[] getPRGRam() {
+    public byte[] getPRGRam() {
         return prgram.clone();
     }
 
@@ -455,9 +528,103 @@ public abstract class Mapper {
         }
     }
 
+    /**
+     * Saves bank mappings, RAM and nametable layout. Mappers with registers
+     * or IRQ counters that can't be rebuilt from the bank maps override this
+     * and add their own state after calling super.
+     *
+     * @param w state writer
+     */
+    public void saveState(StateWriter w) {
+        w.writeInts(prg_map);
+        w.writeInts(chr_map);
+        w.writeBytes(prgram);
+        if (haschrram) {
+            w.writeBytes(chr);
+        }
+        w.writeBytes(pput0);
+        w.writeBytes(pput1);
+        w.writeBytes(pput2);
+        w.writeBytes(pput3);
+        saveNt(w, nt0);
+        saveNt(w, nt1);
+        saveNt(w, nt2);
+        saveNt(w, nt3);
+    }
+
+    public void loadState(StateReader r) {
+        r.readInts(prg_map);
+        r.readInts(chr_map);
+        r.readBytes(prgram);
+        if (haschrram) {
+            r.readBytes(chr);
+            //throw away anything decoded from the old chr
+            tilechr = null;
+        }
+        r.readBytes(pput0);
+        r.readBytes(pput1);
+        r.readBytes(pput2);
+        r.readBytes(pput3);
+        nt0 = loadNt(r, 0);
+        nt1 = loadNt(r, 1);
+        nt2 = loadNt(r, 2);
+        nt3 = loadNt(r, 3);
+    }
+
+    private void saveNt(final StateWriter w, final byte[] nt) {
+        //which of the 4 internal nametables this pointer is at.
+        //anything else (chr rom mapped as nametable etc) gets saved whole,
+        //mappers that point the nametables at their own memory should
+        //re-point them after calling super.loadState.
+        if (nt == pput0) {
+            w.writeByte(0);
+        } else if (nt == pput1) {
+            w.writeByte(1);
+        } else if (nt == pput2) {
+            w.writeByte(2);
+        } else if (nt == pput3) {
+            w.writeByte(3);
+        } else {
+            w.writeByte(0xff);
+            w.writeBytes(nt);
+        }
+    }
+
+    private byte[] loadNt(final StateReader r, final int slot) {
+        switch (r.readByte()) {
+            case 0:
+                return pput0;
+            case 1:
+                return pput1;
+            case 2:
+                return pput2;
+            case 3:
+                return pput3;
+            default:
+                //one array per slot that gets reused, rewind loads states
+                //every frame and shouldn't make garbage doing it
+                if (loadednt[slot] == null) {
+                    loadednt[slot] = new byte[1024];
+                }
+                r.readBytes(loadednt[slot]);
+                return loadednt[slot];
+        }
+    }
+
+    public void setConfig(EmulatorConfig config) {
+        this.config = config;
+    }
+
+    public EmulatorConfig getConfig() {
+        return config;
+    }
+
+    public long getCRC() {
+        return crc;
+    }
+
     public TVType getTVType() {
-        int prefsregion = prefs.getInt("region", 0);
-        switch (prefsregion) {
+        switch (config.getRegion()) {
             case 0:
             default://auto detect
                 return region;
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.utils;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -14,15 +16,15 @@ import com.grapeshot.halfnes.utils;
 //mmc3 derivative with chr ram and rom
 public class Mapper119 extends MMC3Mapper {
 
-    int[] chrRam = new int[8192];
+    byte[] chrRam = new byte[8192];
 
     @Override
     public int ppuRead(final int addr) {
         if (addr < 0x2000) {
             checkA12(addr);
             return (chr_map[addr >> 10] > 65535)
-                    ? chrRam[(chr_map[addr >> 10] + (addr & 1023)) & 8191]
-                    : chr[(chr_map[addr >> 10] & 65535) + (addr & 1023)];
+                    ? (chrRam[(chr_map[addr >> 10] + (addr & 1023)) & 8191] & 0xff)
+                    : (chr[(chr_map[addr >> 10] & 65535) + (addr & 1023)] & 0xff);
         } else {
             return super.ppuRead(addr);
         }
@@ -33,7 +35,7 @@ public class Mapper119 extends MMC3Mapper {
         if (addr < 0x2000) {
             checkA12(addr);
             if (chr_map[addr >> 10] > 63) {
-                chrRam[(chr_map[addr >> 10] + (addr & 1023)) & 8191] = data;
+                chrRam[(chr_map[addr >> 10] + (addr & 1023)) & 8191] = (byte) data;
             }
         } else {
             super.ppuWrite(addr, data);
@@ -67,4 +69,16 @@ public class Mapper119 extends MMC3Mapper {
             chr_map[i + bankpos] = (1024 * ((banknum) + i));
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBytes(chrRam);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        r.readBytes(chrRam);
+    }
 }
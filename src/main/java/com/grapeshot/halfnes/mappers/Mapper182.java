@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Mapper182 extends Mapper {
     //Pirate MMC3 clone with scrambled registers
@@ -179,6 +181,7 @@ public class Mapper182 extends Mapper {
             }
             if (irqenable && !interrupted) {
                 ++cpu.interrupt;
+                ++irqs;
                 interrupted = true;
             }
             irqctr = irqctrreload;
@@ -191,4 +194,34 @@ public class Mapper182 extends Mapper {
             chr_map[i + bankpos] = (1024 * ((banknum) + i)) % chrsize;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(whichbank);
+        w.writeBoolean(prgconfig);
+        w.writeBoolean(chrconfig);
+        w.writeInt(irqctrreload);
+        w.writeInt(irqctr);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqreload);
+        w.writeInt(bank6);
+        w.writeInts(chrreg);
+        w.writeBoolean(interrupted);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        whichbank = r.readInt();
+        prgconfig = r.readBoolean();
+        chrconfig = r.readBoolean();
+        irqctrreload = r.readInt();
+        irqctr = r.readInt();
+        irqenable = r.readBoolean();
+        irqreload = r.readBoolean();
+        bank6 = r.readInt();
+        r.readInts(chrreg);
+        interrupted = r.readBoolean();
+    }
 }
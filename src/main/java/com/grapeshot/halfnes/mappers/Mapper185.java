@@ -4,6 +4,9 @@
  */
 package com.grapeshot.halfnes.mappers;
 
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+
 //CNROM with copy protection
 public class Mapper185 extends Mapper {
 
@@ -28,7 +31,7 @@ public class Mapper185 extends Mapper {
             return 0x12;
         }
         if (addr < 0x2000) {
-            return chr[chr_map[addr >> 10] + (addr & 1023)];
+            return chr[chr_map[addr >> 10] + (addr & 1023)] & 0xff;
         } else {
             return super.ppuRead(addr);
         }
@@ -47,4 +50,16 @@ public class Mapper185 extends Mapper {
             chr_enabled = ((chr_map[i] & 0xF) > 0 && (chr_map[i] != 0x13));
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBoolean(chr_enabled);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        chr_enabled = r.readBoolean();
+    }
 }
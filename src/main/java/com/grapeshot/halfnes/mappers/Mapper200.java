@@ -21,9 +21,9 @@ public class Mapper200 extends Mapper {
         // by default has wram at 0x6000 and cartridge at 0x8000-0xfff
         // but some mappers have different so override for those
         if (addr < 0x4000) {
-            return prg[prg_map[((addr & 0x3fff)) >> 10] + (addr & 1023)];
+            return prg[prg_map[((addr & 0x3fff)) >> 10] + (addr & 1023)] & 0xff;
         } else {
-            return prg[prg_map[((addr & 0x3fff)) >> 10] + ((addr - 0x4000) & 1023)];
+            return prg[prg_map[((addr & 0x3fff)) >> 10] + ((addr - 0x4000) & 1023)] & 0xff;
         }
     }
 
@@ -18,7 +18,7 @@ public class Mapper203 extends Mapper {
 
     @Override
     public int cartRead(final int addr) {
-        return prg[prg_map[((addr & 0x3fff)) >> 10] + ((addr & 0x3fff) & 1023)];
+        return prg[prg_map[((addr & 0x3fff)) >> 10] + ((addr & 0x3fff) & 1023)] & 0xff;
     }
 
     @Override
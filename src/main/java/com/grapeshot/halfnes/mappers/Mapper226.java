@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Mapper226 extends Mapper {
 
@@ -45,4 +47,16 @@ public class Mapper226 extends Mapper {
             }
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInts(reg);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        r.readInts(reg);
+    }
 }
@@ -6,6 +6,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.utils;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -29,7 +31,7 @@ public class Mapper31 extends Mapper {
     public void cartWrite(final int addr, final int data) {
         if (addr >= 0x6000 && addr < 0x8000) {
             //default no-mapper operation just writes if in PRG RAM range
-            prgram[addr & 0x1fff] = data;
+            prgram[addr & 0x1fff] = (byte) data;
         } else if ((addr >= 0x5000) && (addr < 0x6000)) {
             nsfBanks[addr & 7] = data;
             //System.err.println(addr - 0x5ff8 + " " + data);
@@ -46,10 +48,10 @@ public class Mapper31 extends Mapper {
         if (addr >= 0x8000) {
 
             int fuuu = prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023);
-            return prg[fuuu];
+            return prg[fuuu] & 0xff;
         } else if (addr >= 0x6000 && hasprgram) {
 
-            return prgram[addr & 0x1fff];
+            return prgram[addr & 0x1fff] & 0xff;
         } else if ((addr >= 0x5000)) {
             return nsfBanks[addr & 7];
         }
@@ -67,4 +69,15 @@ public class Mapper31 extends Mapper {
         }
     }
 
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInts(nsfBanks);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        r.readInts(nsfBanks);
+    }
 }
@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Mapper33 extends Mapper {
 
@@ -100,4 +102,20 @@ public class Mapper33 extends Mapper {
             chr_map[i + bankpos] = (1024 * (i + (banksize * banknum))) & (chrsize - 1);
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(prgbank0);
+        w.writeInt(prgbank1);
+        w.writeInts(chrbank);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prgbank0 = r.readInt();
+        prgbank1 = r.readInt();
+        r.readInts(chrbank);
+    }
 }
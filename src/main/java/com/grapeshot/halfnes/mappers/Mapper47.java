@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -132,4 +134,16 @@ public class Mapper47 extends MMC3Mapper {
             chr_map[i + bankpos] = ((1024 * ((banknum) + i)) % (chrsize / 2)) + multibank * 131072;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(multibank);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        multibank = r.readInt();
+    }
 }
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Mapper48 extends Mapper {
 
@@ -166,9 +168,36 @@ public class Mapper48 extends Mapper {
             }
             if (irqenable && !interrupted) {
                 ++cpu.interrupt;
+                ++irqs;
                 interrupted = true;
             }
             irqctr = irqctrreload;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(prgbank0);
+        w.writeInt(prgbank1);
+        w.writeInts(chrbank);
+        w.writeInt(irqctrreload);
+        w.writeInt(irqctr);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqreload);
+        w.writeBoolean(interrupted);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prgbank0 = r.readInt();
+        prgbank1 = r.readInt();
+        r.readInts(chrbank);
+        irqctrreload = r.readInt();
+        irqctr = r.readInt();
+        irqenable = r.readBoolean();
+        irqreload = r.readBoolean();
+        interrupted = r.readBoolean();
+    }
 }
@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Mapper60 extends Mapper {
 
@@ -39,4 +41,16 @@ public class Mapper60 extends Mapper {
             prg_map[i + 16] = (1024 * (i + 16 * reg)) & (prgsize - 1);
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(reg);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        reg = r.readInt();
+    }
 }
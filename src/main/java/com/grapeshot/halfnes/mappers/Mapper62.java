@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Mapper62 extends Mapper {
 
@@ -51,4 +53,20 @@ public class Mapper62 extends Mapper {
         setmirroring( 
         ((addr & (utils.BIT7)) != 0) ? MirrorType.H_MIRROR : MirrorType.V_MIRROR);
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBoolean(prg_mode);
+        w.writeInt(prgselect);
+        w.writeInt(chrselect);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prg_mode = r.readBoolean();
+        prgselect = r.readInt();
+        chrselect = r.readInt();
+    }
 }
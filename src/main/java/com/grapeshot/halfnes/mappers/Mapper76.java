@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -71,4 +73,18 @@ public class Mapper76 extends Mapper {
             chr_map[i + bankpos] = (1024 * ((banknum) + i)) & (chrsize - 1);
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(whichbank);
+        w.writeInts(chrreg);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        whichbank = r.readInt();
+        r.readInts(chrreg);
+    }
 }
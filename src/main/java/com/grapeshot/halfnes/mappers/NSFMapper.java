@@ -6,6 +6,8 @@ package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
 import com.grapeshot.halfnes.audio.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import java.util.Arrays;
 
 /**
@@ -29,7 +31,7 @@ public class NSFMapper extends Mapper {
     private int s5bSoundCommand = 0;
     private Namco163SoundChip n163Audio;
     private VRC6SoundChip vrc6Audio;
-    private VRC7SoundChip vrc7Audio;
+    private VRC7FixedPointSoundChip vrc7Audio;
     private Sunsoft5BSoundChip s5bAudio;
     private MMC5SoundChip mmc5Audio;
     private static final String trackstr = "Track --- / ---          <-B A->";
@@ -76,12 +78,12 @@ public class NSFMapper extends Mapper {
         //so total number of banks can be 2 more than # of 4k
         //chunks in the file.
         int paddingLen = (nsfBanking) ? load & 0x0fff : load - 0x8000;
-        prg = new int[1024 * 1024];
+        prg = new byte[1024 * 1024];
         System.arraycopy(loader.load(loader.romlen(), prgoff), 0, prg, paddingLen, loader.romlen());
         crc = crc32(prg);
         haschrram = true;
         chrsize = 8192;
-        chr = new int[8192];
+        chr = new byte[8192];
         prg_map = new int[(((sndchip & (utils.BIT2)) != 0)) ? 40 : 32];
         if (!nsfBanking) {
             //identity mapping from 1st loaded bank
@@ -104,7 +106,7 @@ public class NSFMapper extends Mapper {
         cpuram = new CPURAM(this);
         cpu = new CPU(cpuram);
         ppu = new PPU(this);
-        Arrays.fill(pput0, 0x00);
+        Arrays.fill(pput0, (byte) 0x00);
         setmirroring(scrolltype);
         //System.out.println(sndchip);
 
@@ -115,7 +117,9 @@ public class NSFMapper extends Mapper {
         ppu.pal[2] = 0x20 + (int) (crc % 12);
         ppu.pal[3] = 0x20 + (int) (crc % 12);
 
-        chr = NSFPlayerFont.font;
+        for (int i = 0; i < NSFPlayerFont.font.length; ++i) {
+            chr[i] = (byte) NSFPlayerFont.font[i];
+        }
     }
 
     @Override
@@ -153,14 +157,14 @@ public class NSFMapper extends Mapper {
         //copy titles to ppu nametable
         for (int i = 0; i < 32 * 24; ++i) {
             //random pattern from basic one liner
-            pput0[i] = (Math.random() > 0.5) ? 0x2f : 0x5c;
+            pput0[i] = (byte) ((Math.random() > 0.5) ? 0x2f : 0x5c);
         }
         for (int i = 0; i < 96; ++i) {
-            pput0[i + (32 * 25)] = loader.header[i + 0xe];
+            pput0[i + (32 * 25)] = (byte) loader.header[i + 0xe];
         }
 
         for (int i = 0; i < trackstr.length(); ++i) {
-            pput0[i + (32 * 28)] = trackstr.charAt(i);
+            pput0[i + (32 * 28)] = (byte) trackstr.charAt(i);
         }
 
         if (!hasInitSound) {
@@ -174,6 +178,31 @@ public class NSFMapper extends Mapper {
         }
     }
 
+    /**
+     * @return number of tracks in the NSF
+     */
+    public int getNumSongs() {
+        return numSongs + 1;
+    }
+
+    public int getSong() {
+        return song;
+    }
+
+    /**
+     * Starts playing a different track, same as pressing A or B until it
+     * gets there.
+     *
+     * @param song track number, from 0
+     */
+    public void setSong(final int song) {
+        if (song < 0 || song > numSongs) {
+            throw new IllegalArgumentException("NSF has no track " + (song + 1));
+        }
+        this.song = song;
+        init();
+    }
+
     @Override
     public void reset() {
         song = loader.header[7] - 1;
@@ -209,21 +238,21 @@ public class NSFMapper extends Mapper {
         } else if (fds && nsfBanking && addr >= 0x6000) {
             if (addr < 0x8000) {
                 int fuuu = prg_map[((addr - 0x6000) >> 10) + 32] + (addr & 1023);
-                prg[fuuu] = data;
+                prg[fuuu] = (byte) data;
             } else {
                 int fuuu = prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023);
-                prg[fuuu] = data;
+                prg[fuuu] = (byte) data;
             }
         } else if (fds && !nsfBanking && addr >= 0x6000) {
             if (addr < 0x8000) {
-                prgram[addr - 0x6000] = data;
+                prgram[addr - 0x6000] = (byte) data;
             } else {
                 int fuuu = prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023);
-                prg[fuuu] = data;
+                prg[fuuu] = (byte) data;
             }
         } else if (addr >= 0x6000 && addr < 0x8000) {
             //default no-mapper operation just writes if in PRG RAM range
-            prgram[addr & 0x1fff] = data;
+            prgram[addr & 0x1fff] = (byte) data;
         } else if ((addr >= 0x5ff8) && (addr < 0x6000)) {
             nsfBanks[addr - 0x5ff8] = data;
             //System.err.println(addr - 0x5ff8 + " " + data);
@@ -237,7 +266,7 @@ public class NSFMapper extends Mapper {
             nsfBanks[9] = data;
             setBanks();
         } else if (mmc5 && (addr >= 0x5C00) && (addr <= 0x5FF5)) {
-            prgram[addr - 0x5C00] = data; //RAM emulates ExRAM here
+            prgram[addr - 0x5C00] = (byte) data; //RAM emulates ExRAM here
         } else if (mmc5 && (addr == 0x5206)) {
             mmc5multiplier2 = data;
         } else if (mmc5 && (addr == 0x5205)) {
@@ -272,13 +301,13 @@ public class NSFMapper extends Mapper {
                 }
             }
             int fuuu = prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023);
-            return prg[fuuu];
+            return prg[fuuu] & 0xff;
         } else if (addr >= 0x6000 && hasprgram) {
             if (fds && nsfBanking) {
                 int fuuu = prg_map[((addr - 0x6000) >> 10) + 32] + (addr & 1023);
-                return prg[fuuu];
+                return prg[fuuu] & 0xff;
             } else {
-                return prgram[addr & 0x1fff];
+                return prgram[addr & 0x1fff] & 0xff;
             }
         } else if ((addr >= 0x5ff8)) {
             return nsfBanks[addr - 0x5ff8];
@@ -287,7 +316,7 @@ public class NSFMapper extends Mapper {
         } else if (fds && nsfBanking && (addr == 0x5ff7)) {
             return nsfBanks[9];
         } else if (mmc5 && addr >= 0x5C00) {
-            return prgram[addr - 0x5C00]; //RAM emulates ExRAM here
+            return prgram[addr - 0x5C00] & 0xff; //RAM emulates ExRAM here
         } else if (mmc5 && addr == 0x5206) {
             return ((mmc5multiplier1 * mmc5multiplier2) >> 8) & 0xff;
         } else if (mmc5 && addr == 0x5205) {
@@ -449,7 +478,7 @@ public class NSFMapper extends Mapper {
         if (((sndchip & (utils.BIT1)) != 0)) {
             //VRC7 audio
             vrc7 = true;
-            vrc7Audio = new VRC7SoundChip();
+            vrc7Audio = new VRC7FixedPointSoundChip();
             cpuram.apu.addExpnSound(vrc7Audio);
         }
         if (((sndchip & (utils.BIT2)) != 0)) {
@@ -481,7 +510,78 @@ public class NSFMapper extends Mapper {
     private void writeTracks() {
         String cur = String.format("%3d / %-3d", song + 1, numSongs + 1);
         for (int i = 0; i < cur.length(); ++i) {
-            pput0[i + (32 * 28) + 6] = cur.charAt(i);
+            pput0[i + (32 * 28) + 6] = (byte) cur.charAt(i);
+        }
+    }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(song);
+        w.writeInts(nsfBanks);
+        w.writeBoolean(n163autoincrement);
+        w.writeInt(n163soundAddr);
+        w.writeInt(mmc5multiplier1);
+        w.writeInt(mmc5multiplier2);
+        w.writeInt(vrc7regaddr);
+        w.writeInt(s5bSoundCommand);
+        w.writeInt(control);
+        w.writeInt(prevcontrol);
+        w.writeInt(unfinishedcounter);
+        w.writeInt(time);
+        //the same chips get made for the same NSF, so no flags needed
+        if (vrc6Audio != null) {
+            vrc6Audio.saveState(w);
+        }
+        if (vrc7Audio != null) {
+            vrc7Audio.saveState(w);
+        }
+        if (fdsAudio != null) {
+            fdsAudio.saveState(w);
+        }
+        if (mmc5Audio != null) {
+            mmc5Audio.saveState(w);
+        }
+        if (n163Audio != null) {
+            n163Audio.saveState(w);
+        }
+        if (s5bAudio != null) {
+            s5bAudio.saveState(w);
+        }
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        song = r.readInt();
+        r.readInts(nsfBanks);
+        n163autoincrement = r.readBoolean();
+        n163soundAddr = r.readInt();
+        mmc5multiplier1 = r.readInt();
+        mmc5multiplier2 = r.readInt();
+        vrc7regaddr = r.readInt();
+        s5bSoundCommand = r.readInt();
+        control = r.readInt();
+        prevcontrol = r.readInt();
+        unfinishedcounter = r.readInt();
+        time = r.readInt();
+        if (vrc6Audio != null) {
+            vrc6Audio.loadState(r);
+        }
+        if (vrc7Audio != null) {
+            vrc7Audio.loadState(r);
+        }
+        if (fdsAudio != null) {
+            fdsAudio.loadState(r);
+        }
+        if (mmc5Audio != null) {
+            mmc5Audio.loadState(r);
+        }
+        if (n163Audio != null) {
+            n163Audio.loadState(r);
+        }
+        if (s5bAudio != null) {
+            s5bAudio.loadState(r);
         }
     }
 }
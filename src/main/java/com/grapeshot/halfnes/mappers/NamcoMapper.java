@@ -6,6 +6,8 @@ package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.audio.*;
 import com.grapeshot.halfnes.utils;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 import java.util.Arrays;
 
 /**
@@ -20,7 +22,8 @@ public class NamcoMapper extends Mapper {
     Namco163SoundChip sound = new Namco163SoundChip();
     private boolean hasInitSound = false;
     private int irqcounter = 0x3fff;
-    private int[] chrbanks = new int[8], chr_ram = new int[16384];
+    private int[] chrbanks = new int[8];
+    private byte[] chr_ram = new byte[16384];
 
     @Override
     public void loadrom() throws BadMapperException {
@@ -56,9 +59,9 @@ public class NamcoMapper extends Mapper {
             irqack();
             return ((irqcounter >> 8) & 0x7f) | (irqenable ? 0x80 : 0);
         } else if (addr >= 0x8000) {
-            return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)];
+            return prg[prg_map[((addr & 0x7fff)) >> 10] + (addr & 1023)] & 0xff;
         } else if (addr >= 0x6000 && hasprgram) {
-            return prgram[addr & 0x1fff];
+            return prgram[addr & 0x1fff] & 0xff;
         }
         return addr >> 8; //open bus
     }
@@ -168,6 +171,7 @@ public class NamcoMapper extends Mapper {
         }
         if (irqcounter == 0x7fff && irqenable && !interrupted) {
             ++cpu.interrupt;
+            ++irqs;
             interrupted = true;
         }
     }
@@ -186,15 +190,15 @@ public class NamcoMapper extends Mapper {
         //so who knows if this works?
         if (addr < 0x1000) {
             if (chrramenable0 && chrbanks[addr >> 10] > 0xe0) {
-                return chr_ram[chr_map[addr >> 10] + (addr & 1023)];
+                return chr_ram[chr_map[addr >> 10] + (addr & 1023)] & 0xff;
             } else {
-                return chr[chr_map[addr >> 10] + (addr & 1023)];
+                return chr[chr_map[addr >> 10] + (addr & 1023)] & 0xff;
             }
         } else if (addr < 0x2000) {
             if (chrramenable1 && chrbanks[addr >> 10] > 0xe0) {
-                return chr_ram[chr_map[addr >> 10] - (0xe0 << 10) + (addr & 1023)];
+                return chr_ram[chr_map[addr >> 10] - (0xe0 << 10) + (addr & 1023)] & 0xff;
             } else {
-                return chr[chr_map[addr >> 10] + (addr & 1023)];
+                return chr[chr_map[addr >> 10] + (addr & 1023)] & 0xff;
             }
         } else {
             return super.ppuRead(addr);
@@ -206,18 +210,53 @@ public class NamcoMapper extends Mapper {
         addr &= 0x3fff;
         if (addr < 0x1000) {
             if (chrramenable0 && chrbanks[addr >> 10] > 0xe0) {
-                chr_ram[chr_map[addr >> 10] - (0xe0 << 10) + (addr & 1023)] = data;
-            } else {
-                chr[chr_map[addr >> 10] + (addr & 1023)] = data;
+                chr_ram[chr_map[addr >> 10] - (0xe0 << 10) + (addr & 1023)] = (byte) data;
+            } else if (haschrram) {
+                chr[chr_map[addr >> 10] + (addr & 1023)] = (byte) data;
             }
         } else if (addr < 0x2000) {
             if (chrramenable1 && chrbanks[addr >> 10] > 0xe0) {
-                chr_ram[chr_map[addr >> 10] - (0xe0 << 10) + (addr & 1023)] = data;
-            } else {
-                chr[chr_map[addr >> 10] + (addr & 1023)] = data;
+                chr_ram[chr_map[addr >> 10] - (0xe0 << 10) + (addr & 1023)] = (byte) data;
+            } else if (haschrram) {
+                chr[chr_map[addr >> 10] + (addr & 1023)] = (byte) data;
             }
         } else {
             super.ppuWrite(addr, data);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(soundAddr);
+        w.writeBoolean(autoincrement);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(interrupted);
+        w.writeBoolean(chrramenable0);
+        w.writeBoolean(chrramenable1);
+        w.writeInt(irqcounter);
+        w.writeInts(chrbanks);
+        w.writeBytes(chr_ram);
+        w.writeBoolean(hasInitSound);
+        sound.saveState(w);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        soundAddr = r.readInt();
+        autoincrement = r.readBoolean();
+        irqenable = r.readBoolean();
+        interrupted = r.readBoolean();
+        chrramenable0 = r.readBoolean();
+        chrramenable1 = r.readBoolean();
+        irqcounter = r.readInt();
+        r.readInts(chrbanks);
+        r.readBytes(chr_ram);
+        if (r.readBoolean() && !hasInitSound) {
+            cpuram.apu.addExpnSound((ExpansionSoundChip) sound);
+            hasInitSound = true;
+        }
+        sound.loadState(r);
+    }
+}
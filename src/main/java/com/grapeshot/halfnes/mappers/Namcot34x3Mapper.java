@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Namcot34x3Mapper extends Mapper {
     //MIMIC variant with increased support for CHR up to 128 kB
@@ -78,4 +80,20 @@ public class Namcot34x3Mapper extends Mapper {
             chr_map[i + bankpos] = (1024 * (banknum + i)) % chrsize;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeBoolean(mirroring);
+        w.writeInt(whichbank);
+        w.writeInts(chrreg);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        mirroring = r.readBoolean();
+        whichbank = r.readInt();
+        r.readInts(chrreg);
+    }
 }
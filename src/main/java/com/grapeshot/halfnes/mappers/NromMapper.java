@@ -17,7 +17,7 @@ public class NromMapper extends Mapper {
         super.loadrom();
         //copy the whole rom around so we need to do less math
 
-        int[] shiftedprg = new int[65536];
+        byte[] shiftedprg = new byte[65536];
         System.arraycopy(prg, 0, shiftedprg, 0x8000, prg.length);
         if (prgsize <= 16384) {
             //double up the rom if 16k
@@ -29,26 +29,32 @@ public class NromMapper extends Mapper {
     @Override
     public int cartRead(final int addr) {
         if (addr >= 0x8000) {
-            return prg[addr];
+            return prg[addr] & 0xff;
         } else if (addr >= 0x6000 && hasprgram) {
-            return prgram[addr & 0x1fff];
+            return prgram[addr & 0x1fff] & 0xff;
         }
         return addr >> 8; //open bus
     }
 
+    @Override
+    public boolean usesTileCache() {
+        //chr_map is never changed from 0-8k, so this is the same thing
+        return true;
+    }
+
     @Override
     public int ppuRead(int addr) {
         if (addr < 0x2000) {
             //math is hard let's go shopping
-            return chr[addr];
+            return chr[addr] & 0xff;
         } else {
             switch (addr & 0xc00) {
                 case 0:
-                    return nt0[addr & 0x3ff];
+                    return nt0[addr & 0x3ff] & 0xff;
                 case 0x400:
-                    return nt1[addr & 0x3ff];
+                    return nt1[addr & 0x3ff] & 0xff;
                 case 0x800:
-                    return nt2[addr & 0x3ff];
+                    return nt2[addr & 0x3ff] & 0xff;
                 case 0xc00:
                 default:
                     if (addr >= 0x3f00) {
@@ -58,7 +64,7 @@ public class NromMapper extends Mapper {
                         }
                         return ppu.pal[addr];
                     } else {
-                        return nt3[addr & 0x3ff];
+                        return nt3[addr & 0x3ff] & 0xff;
                     }
             }
         }
@@ -1,6 +1,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class Sunsoft03Mapper extends Mapper {
 
@@ -87,6 +89,7 @@ public class Sunsoft03Mapper extends Mapper {
                 irqctr = 0xFFFF;
                 if (!interrupted) {
                     ++cpu.interrupt;
+                    ++irqs;
                     interrupted = true;
                 }
                 irqenable = false;
@@ -108,4 +111,24 @@ public class Sunsoft03Mapper extends Mapper {
             chr_map[i + bankpos] = (1024 * (i + 2 * banknum)) % chrsize;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInts(chrbank);
+        w.writeInt(irqctr);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(interrupted);
+        w.writeBoolean(irqtoggle);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        r.readInts(chrbank);
+        irqctr = r.readInt();
+        irqenable = r.readBoolean();
+        interrupted = r.readBoolean();
+        irqtoggle = r.readBoolean();
+    }
 }
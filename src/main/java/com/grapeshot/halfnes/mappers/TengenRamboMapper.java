@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 /**
  *
@@ -218,6 +220,7 @@ public class TengenRamboMapper extends Mapper {
             intnextcycle = false;
             if (!interrupted) {
                 ++cpu.interrupt;
+                ++irqs;
                 interrupted = true;
             }
         }
@@ -252,4 +255,46 @@ public class TengenRamboMapper extends Mapper {
             chr_map[i + bankpos] = (1024 * ((banknum) + i)) % chrsize;
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(whichbank);
+        w.writeBoolean(prgconfig);
+        w.writeBoolean(chrconfig);
+        w.writeBoolean(chrmode1k);
+        w.writeBoolean(irqmode);
+        w.writeInt(irqctrreload);
+        w.writeInt(irqctr);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqreload);
+        w.writeInt(prgreg0);
+        w.writeInt(prgreg1);
+        w.writeInt(prgreg2);
+        w.writeInts(chrreg);
+        w.writeBoolean(interrupted);
+        w.writeInt(remainder);
+        w.writeBoolean(intnextcycle);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        whichbank = r.readInt();
+        prgconfig = r.readBoolean();
+        chrconfig = r.readBoolean();
+        chrmode1k = r.readBoolean();
+        irqmode = r.readBoolean();
+        irqctrreload = r.readInt();
+        irqctr = r.readInt();
+        irqenable = r.readBoolean();
+        irqreload = r.readBoolean();
+        prgreg0 = r.readInt();
+        prgreg1 = r.readInt();
+        prgreg2 = r.readInt();
+        r.readInts(chrreg);
+        interrupted = r.readBoolean();
+        remainder = r.readInt();
+        intnextcycle = r.readBoolean();
+    }
 }
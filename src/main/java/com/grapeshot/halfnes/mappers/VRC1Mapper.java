@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class VRC1Mapper extends Mapper {
 
@@ -94,4 +96,22 @@ public class VRC1Mapper extends Mapper {
             chr_map[i + bankpos] = (1024 * (i + 4 * banknum)) % (chrsize - 1);
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(prgbank0);
+        w.writeInt(prgbank1);
+        w.writeInt(prgbank2);
+        w.writeInts(chrbank);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prgbank0 = r.readInt();
+        prgbank1 = r.readInt();
+        prgbank2 = r.readInt();
+        r.readInts(chrbank);
+    }
 }
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class VRC2Mapper extends Mapper {
     //vrc2a mapper(INES #22); vrc2b is mapped to 23 along with the one form of vrc4
@@ -105,4 +107,20 @@ public class VRC2Mapper extends Mapper {
         }
 //        utils.printarray(chr_map);
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(prgbank0);
+        w.writeInt(prgbank1);
+        w.writeInts(chrbank);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prgbank0 = r.readInt();
+        prgbank1 = r.readInt();
+        r.readInts(chrbank);
+    }
 }
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class VRC3Mapper extends Mapper {
 
@@ -93,6 +95,7 @@ public class VRC3Mapper extends Mapper {
                     irqctr |= (irqreload & 0xFF);
                     if (!interrupted) {
                         ++cpu.interrupt;
+                        ++irqs;
                         interrupted = true;
                     }
                 } else {
@@ -104,6 +107,7 @@ public class VRC3Mapper extends Mapper {
                     irqctr = irqreload;
                     if (!interrupted) {
                         ++cpu.interrupt;
+                        ++irqs;
                         interrupted = true;
                     }
                 } else {
@@ -112,4 +116,26 @@ public class VRC3Mapper extends Mapper {
             }
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(irqctr);
+        w.writeInt(irqreload);
+        w.writeBoolean(irqmode);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqackenable);
+        w.writeBoolean(interrupted);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        irqctr = r.readInt();
+        irqreload = r.readInt();
+        irqmode = r.readBoolean();
+        irqenable = r.readBoolean();
+        irqackenable = r.readBoolean();
+        interrupted = r.readBoolean();
+    }
 }
@@ -5,6 +5,8 @@
 package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class VRC4Mapper extends Mapper {
 
@@ -234,6 +236,7 @@ public class VRC4Mapper extends Mapper {
                 //System.err.println("Interrupt @ Scanline " + scanline + " reload " + irqreload);
                 if (!firedinterrupt) {
                     ++cpu.interrupt;
+                    ++irqs;
                 }
                 firedinterrupt = true;
             } else {
@@ -241,4 +244,36 @@ public class VRC4Mapper extends Mapper {
             }
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(prgbank0);
+        w.writeInt(prgbank1);
+        w.writeInts(chrbank);
+        w.writeBoolean(prgmode);
+        w.writeBoolean(irqmode);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqack);
+        w.writeBoolean(firedinterrupt);
+        w.writeInt(irqreload);
+        w.writeInt(irqcounter);
+        w.writeInt(prescaler);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prgbank0 = r.readInt();
+        prgbank1 = r.readInt();
+        r.readInts(chrbank);
+        prgmode = r.readBoolean();
+        irqmode = r.readBoolean();
+        irqenable = r.readBoolean();
+        irqack = r.readBoolean();
+        firedinterrupt = r.readBoolean();
+        irqreload = r.readInt();
+        irqcounter = r.readInt();
+        prescaler = r.readInt();
+    }
 }
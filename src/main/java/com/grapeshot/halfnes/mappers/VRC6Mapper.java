@@ -6,6 +6,8 @@ package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
 import com.grapeshot.halfnes.audio.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class VRC6Mapper extends Mapper {
 
@@ -195,6 +197,7 @@ public class VRC6Mapper extends Mapper {
                 //System.err.println("Interrupt @ Scanline " + scanline + " reload " + irqreload);
                 if (!firedinterrupt) {
                     ++cpu.interrupt;
+                    ++irqs;
                 }
                 firedinterrupt = true;
             } else {
@@ -202,4 +205,41 @@ public class VRC6Mapper extends Mapper {
             }
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(prgbank0);
+        w.writeInt(prgbank1);
+        w.writeInts(chrbank);
+        w.writeBoolean(irqmode);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqack);
+        w.writeBoolean(firedinterrupt);
+        w.writeInt(irqreload);
+        w.writeInt(irqcounter);
+        w.writeInt(prescaler);
+        w.writeBoolean(hasInitSound);
+        sndchip.saveState(w);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prgbank0 = r.readInt();
+        prgbank1 = r.readInt();
+        r.readInts(chrbank);
+        irqmode = r.readBoolean();
+        irqenable = r.readBoolean();
+        irqack = r.readBoolean();
+        firedinterrupt = r.readBoolean();
+        irqreload = r.readInt();
+        irqcounter = r.readInt();
+        prescaler = r.readInt();
+        if (r.readBoolean() && !hasInitSound) {
+            cpuram.apu.addExpnSound(sndchip);
+            hasInitSound = true;
+        }
+        sndchip.loadState(r);
+    }
 }
@@ -6,6 +6,8 @@ package com.grapeshot.halfnes.mappers;
 
 import com.grapeshot.halfnes.*;
 import com.grapeshot.halfnes.audio.*;
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
 
 public class VRC7Mapper extends Mapper {
     //need to add extra audio still.
@@ -15,7 +17,7 @@ public class VRC7Mapper extends Mapper {
     boolean irqmode, irqenable, irqack, firedinterrupt = false;
     int irqreload, irqcounter = 22;
     int regaddr = 0;
-    ExpansionSoundChip sndchip = new VRC7SoundChip();
+    ExpansionSoundChip sndchip = new VRC7FixedPointSoundChip();
     boolean hasInitSound = false;
     
     @Override
@@ -195,6 +197,7 @@ public class VRC7Mapper extends Mapper {
                 //System.err.println("Interrupt @ Scanline " + scanline + " reload " + irqreload);
                 if (!firedinterrupt) {
                     ++cpu.interrupt;
+                    ++irqs;
                 }
                 firedinterrupt = true;
             } else {
@@ -202,4 +205,45 @@ public class VRC7Mapper extends Mapper {
             }
         }
     }
+
+    @Override
+    public void saveState(StateWriter w) {
+        super.saveState(w);
+        w.writeInt(prgbank0);
+        w.writeInt(prgbank1);
+        w.writeInt(prgbank2);
+        w.writeInts(chrbank);
+        w.writeBoolean(irqmode);
+        w.writeBoolean(irqenable);
+        w.writeBoolean(irqack);
+        w.writeBoolean(firedinterrupt);
+        w.writeInt(irqreload);
+        w.writeInt(irqcounter);
+        w.writeInt(regaddr);
+        w.writeInt(prescaler);
+        w.writeBoolean(hasInitSound);
+        sndchip.saveState(w);
+    }
+
+    @Override
+    public void loadState(StateReader r) {
+        super.loadState(r);
+        prgbank0 = r.readInt();
+        prgbank1 = r.readInt();
+        prgbank2 = r.readInt();
+        r.readInts(chrbank);
+        irqmode = r.readBoolean();
+        irqenable = r.readBoolean();
+        irqack = r.readBoolean();
+        firedinterrupt = r.readBoolean();
+        irqreload = r.readInt();
+        irqcounter = r.readInt();
+        regaddr = r.readInt();
+        prescaler = r.readInt();
+        if (r.readBoolean() && !hasInitSound) {
+            cpuram.apu.addExpnSound(sndchip);
+            hasInitSound = true;
+        }
+        sndchip.loadState(r);
+    }
 }
@@ -0,0 +1,241 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts of what the emulator did each frame and where the time went. NES
+ * fills one of these in at the end of every frame; read it from anywhere with
+ * the getters here, or over JMX once it's registered (windowed instances do
+ * that themselves, as com.grapeshot.halfnes:type=FrameMetrics,name=halfnes).
+ *
+ * The CPU and PPU take turns a few dots at a time, so there's no cheap way to
+ * time them apart and they come as one number. APU time is all the time spent
+ * making sound, in the middle of the frame or at the end, and isn't in the
+ * CPU and PPU time.
+ *
+ * @author Andrew Hoffman
+ */
+public final class FrameMetrics implements FrameMetricsMBean {
+
+    public enum Counter {
+        //CPU instructions run
+        INSTRUCTIONS,
+        //PPU dots, 341 a line less the skipped one on odd frames
+        PPU_DOTS,
+        //APU cycles, which go at the CPU clock rate
+        APU_CYCLES,
+        //IRQs the cart raised
+        MAPPER_IRQS,
+        //times sprite evaluation found more than 8 sprites on a line
+        SPRITE_OVERFLOWS
+    }
+
+    public enum Phase {
+        //running the CPU and PPU for the frame
+        CPU_PPU,
+        //making the sound
+        APU,
+        //handing the frame to the GUI
+        RENDER,
+        //sending the sound to the output, which can wait on the sound card
+        AUDIO_FLUSH,
+        //the whole frame from start to finish, not counting the frame limiter
+        FRAME
+    }
+
+    private static final Counter[] COUNTERS = Counter.values();
+    private static final Phase[] PHASES = Phase.values();
+    private final AtomicLongArray last = new AtomicLongArray(COUNTERS.length),
+            total = new AtomicLongArray(COUNTERS.length),
+            lastNanos = new AtomicLongArray(PHASES.length);
+    private final Histogram[] histograms = new Histogram[PHASES.length];
+    private final AtomicLong frames = new AtomicLong();
+    private ObjectName name;
+
+    public FrameMetrics() {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Adds on a frame. Only NES should be calling this.
+     *
+     * @param counts what happened this frame, indexed by Counter.ordinal()
+     * @param nanos how long each phase took, indexed by Phase.ordinal()
+     */
+    public void recordFrame(final long[] counts, final long[] nanos) {
+        for (int i = 0; i < COUNTERS.length; ++i) {
+            last.lazySet(i, counts[i]);
+            total.addAndGet(i, counts[i]);
+        }
+        for (int i = 0; i < PHASES.length; ++i) {
+            lastNanos.lazySet(i, nanos[i]);
+            histograms[i].record(nanos[i]);
+        }
+        frames.incrementAndGet();
+    }
+
+    public long getLast(Counter c) {
+        return last.get(c.ordinal());
+    }
+
+    public long getTotal(Counter c) {
+        return total.get(c.ordinal());
+    }
+
+    /**
+     * @param p phase
+     * @return how long it took on the last frame, in ns
+     */
+    public long getLastNanos(Phase p) {
+        return lastNanos.get(p.ordinal());
+    }
+
+    /**
+     * @param p phase
+     * @return how long it's taken on every frame so far, in ns
+     */
+    public Histogram getHistogram(Phase p) {
+        return histograms[p.ordinal()];
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.get();
+    }
+
+    @Override
+    public long getInstructionsLastFrame() {
+        return getLast(Counter.INSTRUCTIONS);
+    }
+
+    @Override
+    public long getPpuDotsLastFrame() {
+        return getLast(Counter.PPU_DOTS);
+    }
+
+    @Override
+    public long getApuCyclesLastFrame() {
+        return getLast(Counter.APU_CYCLES);
+    }
+
+    @Override
+    public long getMapperIrqsLastFrame() {
+        return getLast(Counter.MAPPER_IRQS);
+    }
+
+    @Override
+    public long getSpriteOverflowsLastFrame() {
+        return getLast(Counter.SPRITE_OVERFLOWS);
+    }
+
+    @Override
+    public long getInstructionsTotal() {
+        return getTotal(Counter.INSTRUCTIONS);
+    }
+
+    @Override
+    public long getMapperIrqsTotal() {
+        return getTotal(Counter.MAPPER_IRQS);
+    }
+
+    @Override
+    public long getSpriteOverflowsTotal() {
+        return getTotal(Counter.SPRITE_OVERFLOWS);
+    }
+
+    @Override
+    public double getCpuPpuMillisMean() {
+        return getHistogram(Phase.CPU_PPU).getMean() / 1e6;
+    }
+
+    @Override
+    public double getApuMillisMean() {
+        return getHistogram(Phase.APU).getMean() / 1e6;
+    }
+
+    @Override
+    public double getRenderMillisMean() {
+        return getHistogram(Phase.RENDER).getMean() / 1e6;
+    }
+
+    @Override
+    public double getAudioFlushMillisMean() {
+        return getHistogram(Phase.AUDIO_FLUSH).getMean() / 1e6;
+    }
+
+    @Override
+    public double getFrameMillisMean() {
+        return getHistogram(Phase.FRAME).getMean() / 1e6;
+    }
+
+    @Override
+    public double getFrameMillis50() {
+        return getHistogram(Phase.FRAME).getValueAtPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getFrameMillis99() {
+        return getHistogram(Phase.FRAME).getValueAtPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getFrameMillis999() {
+        return getHistogram(Phase.FRAME).getValueAtPercentile(99.9) / 1e6;
+    }
+
+    @Override
+    public double getFrameMillisMax() {
+        return getHistogram(Phase.FRAME).getMax() / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < COUNTERS.length; ++i) {
+            last.set(i, 0);
+            total.set(i, 0);
+        }
+        for (int i = 0; i < PHASES.length; ++i) {
+            lastNanos.set(i, 0);
+            histograms[i].reset();
+        }
+        frames.set(0);
+    }
+
+    /**
+     * Shows these over JMX.
+     *
+     * @param instance tells this emulator apart from any others in the JVM.
+     * Keep it to letters, numbers and dashes.
+     * @throws JMException if that name's taken or no good
+     */
+    public synchronized void register(final String instance) throws JMException {
+        unregister();
+        final ObjectName n = new ObjectName("com.grapeshot.halfnes:type=FrameMetrics,name=" + instance);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, n);
+        name = n;
+    }
+
+    /**
+     * Takes these back off JMX, if they were on.
+     */
+    public synchronized void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                //already gone
+            }
+            name = null;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.metrics;
+
+/**
+ * What FrameMetrics shows over JMX (in jconsole, VisualVM etc.) Times are in
+ * milliseconds per frame.
+ *
+ * @author Andrew Hoffman
+ */
+public interface FrameMetricsMBean {
+
+    public long getFrames();
+
+    public long getInstructionsLastFrame();
+
+    public long getPpuDotsLastFrame();
+
+    public long getApuCyclesLastFrame();
+
+    public long getMapperIrqsLastFrame();
+
+    public long getSpriteOverflowsLastFrame();
+
+    public long getInstructionsTotal();
+
+    public long getMapperIrqsTotal();
+
+    public long getSpriteOverflowsTotal();
+
+    public double getCpuPpuMillisMean();
+
+    public double getApuMillisMean();
+
+    public double getRenderMillisMean();
+
+    public double getAudioFlushMillisMean();
+
+    public double getFrameMillisMean();
+
+    public double getFrameMillis50();
+
+    public double getFrameMillis99();
+
+    public double getFrameMillis999();
+
+    public double getFrameMillisMax();
+
+    public void reset();
+}
@@ -0,0 +1,112 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often values (times in ns, say) come up, laid out the same way
+ * as HdrHistogram: values under 128 get a bucket each, then every power of 2
+ * above that is split into 64 buckets, so whatever comes back out of it is
+ * within 1.6% of what went in. Goes up to 2^40 (18 minutes in ns), anything
+ * bigger gets counted as that.
+ *
+ * Recording never locks or allocates, and it's fine to read it from another
+ * thread while the emulator is recording into it. A reading taken while a
+ * value is going in might or might not have that value in it yet.
+ *
+ * @author Andrew Hoffman
+ */
+public final class Histogram {
+
+    private static final int SUB_BITS = 7, SUB = 1 << SUB_BITS, HALF = SUB / 2;
+    private static final long MAX = (1L << 40) - 1;
+    private final AtomicLongArray counts = new AtomicLongArray(index(MAX) + 1);
+    private final AtomicLong count = new AtomicLong(), sum = new AtomicLong(),
+            max = new AtomicLong();
+
+    static int index(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        final int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    /**
+     * @param index bucket
+     * @return the largest value that goes in it
+     */
+    static long highestValue(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        final int shift = (index - SUB) / HALF + 1;
+        final long sub = (index - SUB) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * @param value what to count. Negative values count as 0.
+     */
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, MAX));
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m;
+        while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            //someone else got a bigger one in first, try again
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long n = count.get();
+        return (n == 0) ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the value that percentile of everything recorded is at or
+     * under, or 0 if nothing has been
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        final long wanted = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            seen += counts.get(i);
+            if (seen >= wanted) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Forgets everything. Anything being recorded at the same time might get
+     * half forgotten.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); ++i) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.movie;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recording of what was pressed on both controllers every frame of a game,
+ * starting from power on, plus when the reset button was pressed or the power
+ * was cycled. Made by MovieRecorder and played back by MoviePlayer.
+ *
+ * The file is little endian: "HNMV", version, the ROM's CRC, the number of
+ * frames and the number of events, then 5 bytes per event (frame, type), then
+ * the buttons as runs of identical frames: a varint run length followed by the
+ * button bytes for controller 1 and 2 (laid out like
+ * PuppetController.setButtons). Most of the time nobody's pressing anything
+ * different from the frame before, so an hour of play is usually only a few
+ * tens of kilobytes.
+ *
+ * @author Andrew Hoffman
+ */
+public final class Movie {
+
+    public static final int MAGIC = 0x564d4e48, //"HNMV"
+            VERSION = 1;
+    /**
+     * Longest a movie can be: a day at 60 frames a second, 10 MB of buttons.
+     * Anything claiming to be longer is taken as corrupted rather than
+     * allocating however much its header asks for.
+     */
+    public static final int MAX_FRAMES = 60 * 60 * 60 * 24;
+    private static final int HEADER_SIZE = 24, EVENT_SIZE = 5;
+
+    public enum Event {
+        //same as the reset button
+        RESET,
+        //same as turning it off and on again (reloading the ROM)
+        POWER
+    }
+
+    private final long crc;
+    //2 bytes per frame
+    private final byte[] buttons;
+    private final int frames;
+    private final int[] eventFrames;
+    private final Event[] events;
+
+    Movie(long crc, byte[] buttons, int frames, int[] eventFrames, Event[] events) {
+        this.crc = crc;
+        this.buttons = buttons;
+        this.frames = frames;
+        this.eventFrames = eventFrames;
+        this.events = events;
+    }
+
+    /**
+     * @return CRC of the ROM this was recorded on, see Mapper.getCRC()
+     */
+    public long getCRC() {
+        return crc;
+    }
+
+    /**
+     * @return how many frames long it is
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @param frame frame number, from 0
+     * @param port 0 for controller 1, 1 for controller 2
+     * @return buttons held that frame, laid out like PuppetController.setButtons
+     */
+    public int getButtons(int frame, int port) {
+        return buttons[frame * 2 + port] & 0xff;
+    }
+
+    /**
+     * @return how many resets and power cycles there are
+     */
+    public int getEventCount() {
+        return events.length;
+    }
+
+    /**
+     * @param i which event, they're in the order they happened
+     * @return the frame it happens before
+     */
+    public int getEventFrame(int i) {
+        return eventFrames[i];
+    }
+
+    /**
+     * @param i which event
+     * @return what happened
+     */
+    public Event getEvent(int i) {
+        return events[i];
+    }
+
+    /**
+     * @return the movie in the file format described above
+     */
+    public byte[] toBytes() {
+        int size = HEADER_SIZE + EVENT_SIZE * events.length;
+        for (int f = 0; f < frames;) {
+            final int run = runLength(f);
+            size += varintSize(run) + 2;
+            f += run;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(crc).putInt(frames).putInt(events.length);
+        for (int i = 0; i < events.length; ++i) {
+            buf.putInt(eventFrames[i]).put((byte) events[i].ordinal());
+        }
+        for (int f = 0; f < frames;) {
+            final int run = runLength(f);
+            int len = run;
+            while (len >= 0x80) {
+                buf.put((byte) (len | 0x80));
+                len >>>= 7;
+            }
+            buf.put((byte) len).put(buttons[f * 2]).put(buttons[f * 2 + 1]);
+            f += run;
+        }
+        return buf.array();
+    }
+
+    private int runLength(int start) {
+        int f = start + 1;
+        while (f < frames && buttons[f * 2] == buttons[start * 2]
+                && buttons[f * 2 + 1] == buttons[start * 2 + 1]) {
+            ++f;
+        }
+        return f - start;
+    }
+
+    private static int varintSize(int i) {
+        int size = 1;
+        while (i >= 0x80) {
+            i >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
+    /**
+     * @param path where to save it
+     * @throws IOException if it can't be written
+     */
+    public void save(Path path) throws IOException {
+        Files.write(path, toBytes());
+    }
+
+    /**
+     * @param path a movie file
+     * @return the movie
+     * @throws IOException if it can't be read or isn't a movie
+     */
+    public static Movie load(Path path) throws IOException {
+        return fromBytes(Files.readAllBytes(path));
+    }
+
+    /**
+     * @param data a movie in the file format described above
+     * @return the movie
+     * @throws IOException if it isn't a movie or is cut off
+     */
+    public static Movie fromBytes(byte[] data) throws IOException {
+        final ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (data.length < HEADER_SIZE || buf.getInt() != MAGIC) {
+                throw new IOException("Not a movie file");
+            }
+            final int version = buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("Movie version " + version + " is not supported (expected "
+                        + VERSION + ")");
+            }
+            final long crc = buf.getLong();
+            final int frames = buf.getInt(), count = buf.getInt();
+            if (frames < 0 || frames > MAX_FRAMES
+                    || count < 0 || count > buf.remaining() / EVENT_SIZE) {
+                throw new IOException("Movie is corrupted");
+            }
+            final int[] eventFrames = new int[count];
+            final Event[] events = new Event[count];
+            for (int i = 0; i < count; ++i) {
+                eventFrames[i] = buf.getInt();
+                final int type = buf.get();
+                if (type < 0 || type >= Event.values().length
+                        || (i > 0 && eventFrames[i] < eventFrames[i - 1])) {
+                    throw new IOException("Movie is corrupted");
+                }
+                events[i] = Event.values()[type];
+            }
+            final byte[] buttons = new byte[frames * 2];
+            for (int f = 0; f < frames;) {
+                int run = 0;
+                for (int shift = 0;; shift += 7) {
+                    final int b = buf.get();
+                    run |= (b & 0x7f) << shift;
+                    if ((b & 0x80) == 0) {
+                        break;
+                    }
+                }
+                if (run <= 0 || run > frames - f) {
+                    throw new IOException("Movie is corrupted");
+                }
+                final byte pad1 = buf.get(), pad2 = buf.get();
+                for (int end = f + run; f < end; ++f) {
+                    buttons[f * 2] = pad1;
+                    buttons[f * 2 + 1] = pad2;
+                }
+            }
+            return new Movie(crc, buttons, frames, eventFrames, events);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Movie file is cut off");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Movie)) {
+            return false;
+        }
+        final Movie m = (Movie) o;
+        return crc == m.crc && frames == m.frames
+                && Arrays.equals(buttons, m.buttons)
+                && Arrays.equals(eventFrames, m.eventFrames) && Arrays.equals(events, m.events);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(crc) * 31 + frames;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.movie;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Plays a Movie back. attach() plugs the player's controllers into an NES that
+ * has just had the movie's ROM loaded, then each runFrame() does any reset or
+ * power cycle due and runs one frame with the recorded buttons held down.
+ * Nothing gets allocated per frame, so long movies can be run as fast as the
+ * emulator goes for benchmarking or to get back to where a bug happened.
+ *
+ * Battery RAM isn't part of the movie, so a game that was recorded with a
+ * save file in place only plays back right if it's started with the same one.
+ * Headless NES instances don't load save files at all.
+ *
+ * Usage from the command line:
+ * <pre>
+ * java -cp halfnes.jar com.grapeshot.halfnes.movie.MoviePlayer game.nes movie.hnm
+ * </pre>
+ * runs the whole movie headless with the default settings and prints how
+ * fast it went.
+ *
+ * @author Andrew Hoffman
+ */
+public class MoviePlayer {
+
+    private final Movie movie;
+    private final ControllerInterface controller1 = new Port(0), controller2 = new Port(1);
+    private NES nes;
+    private int frame = 0, nextEvent = 0;
+
+    /**
+     * Plays one controller port of the movie.
+     */
+    private class Port implements ControllerInterface {
+
+        private final int port;
+        private int latchbyte = 0, outbyte = 0;
+
+        Port(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public void strobe() {
+            outbyte = latchbyte & 1;
+            latchbyte = ((latchbyte >> 1) | 0x100);
+        }
+
+        @Override
+        public void output(boolean state) {
+            //past the end of the movie everything is let go
+            latchbyte = (frame < movie.getFrames()) ? movie.getButtons(frame, port) : 0;
+        }
+
+        @Override
+        public int peekOutput() {
+            return latchbyte;
+        }
+
+        @Override
+        public int getbyte() {
+            return outbyte;
+        }
+    }
+
+    /**
+     * @param movie what to play
+     */
+    public MoviePlayer(Movie movie) {
+        this.movie = movie;
+    }
+
+    /**
+     * Plugs the movie's controllers into an NES.
+     *
+     * @param nes emulator with the movie's ROM freshly loaded
+     * @throws IllegalArgumentException if some other ROM is loaded
+     */
+    public void attach(NES nes) {
+        if (nes.getCPURAM() == null) {
+            throw new IllegalArgumentException("No ROM loaded");
+        }
+        if (nes.getCRC() != movie.getCRC()) {
+            throw new IllegalArgumentException("Movie was recorded with a different ROM");
+        }
+        this.nes = nes;
+        nes.setControllers(controller1, controller2);
+    }
+
+    /**
+     * Runs the next frame of the movie.
+     *
+     * @return false if the movie's over, in which case nothing was run
+     */
+    public boolean runFrame() {
+        if (frame >= movie.getFrames()) {
+            return false;
+        }
+        while (nextEvent < movie.getEventCount() && movie.getEventFrame(nextEvent) <= frame) {
+            switch (movie.getEvent(nextEvent++)) {
+                case RESET:
+                    nes.reset();
+                    break;
+                case POWER:
+                    nes.reloadROM();
+                    break;
+            }
+        }
+        nes.frameAdvance();
+        ++frame;
+        return true;
+    }
+
+    /**
+     * @return how many frames have been played
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * @param port 0 for controller 1, 1 for controller 2
+     * @return the controller the movie is played through
+     */
+    public ControllerInterface getController(int port) {
+        return (port == 0) ? controller1 : controller2;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: MoviePlayer game.nes movie.hnm");
+            System.exit(1);
+        }
+        final Movie movie = Movie.load(Paths.get(args[1]));
+        final HeadlessUI ui = HeadlessUI.pooled(args[0], false, EmulatorConfig.DEFAULTS);
+        final MoviePlayer player = new MoviePlayer(movie);
+        player.attach(ui.getNes());
+        final long start = System.nanoTime();
+        while (player.runFrame()) {
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d frames in %.2f s, %.1f fps%n", player.getFrame(), seconds,
+                player.getFrame() / seconds);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.movie;
+
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import java.util.Arrays;
+
+/**
+ * Records a Movie. The controllers the game reads from get wrapped with
+ * wrap(), which notes the buttons every time the game latches them; call
+ * endFrame() after every frame to write down what was latched, and event()
+ * whenever reset is pressed or the power gets cycled. NES.recordMovie() does
+ * all of that.
+ *
+ * What gets kept for a frame is the last thing the game latched in it (or the
+ * frame before's, if it didn't read the controllers at all), so it only plays
+ * back exactly if the game sees the same buttons every time it reads them in a
+ * frame. That's always true for PuppetController, and true for the keyboard
+ * unless a key goes down between two reads in the same frame.
+ *
+ * @author Andrew Hoffman
+ */
+public class MovieRecorder {
+
+    private final long crc;
+    private byte[] buttons = new byte[2 * 60 * 60];
+    private int frames = 0;
+    private int[] eventFrames = new int[4];
+    private Movie.Event[] events = new Movie.Event[4];
+    private int eventCount = 0;
+    private final int[] latched = new int[2];
+
+    /**
+     * @param crc CRC of the ROM being played, see Mapper.getCRC()
+     */
+    public MovieRecorder(long crc) {
+        this.crc = crc;
+    }
+
+    /**
+     * @param port 0 for controller 1, 1 for controller 2
+     * @param controller where the buttons really come from
+     * @return a controller that passes everything through to that one and
+     * remembers what it latched
+     */
+    public ControllerInterface wrap(final int port, final ControllerInterface controller) {
+        return new ControllerInterface() {
+            @Override
+            public void strobe() {
+                controller.strobe();
+            }
+
+            @Override
+            public void output(boolean state) {
+                controller.output(state);
+                latched[port] = controller.peekOutput() & 0xff;
+            }
+
+            @Override
+            public int peekOutput() {
+                return controller.peekOutput();
+            }
+
+            @Override
+            public int getbyte() {
+                return controller.getbyte();
+            }
+        };
+    }
+
+    /**
+     * Writes down the buttons for the frame that just ran. Stops recording
+     * at Movie.MAX_FRAMES, since nothing could load a longer one.
+     */
+    public synchronized void endFrame() {
+        if (frames == Movie.MAX_FRAMES) {
+            return;
+        }
+        if (frames * 2 == buttons.length) {
+            buttons = Arrays.copyOf(buttons, buttons.length * 2);
+        }
+        buttons[frames * 2] = (byte) latched[0];
+        buttons[frames * 2 + 1] = (byte) latched[1];
+        ++frames;
+    }
+
+    /**
+     * Notes a reset or power cycle, which happens before the next frame.
+     *
+     * @param event what happened
+     */
+    public synchronized void event(Movie.Event event) {
+        if (eventCount == events.length) {
+            eventFrames = Arrays.copyOf(eventFrames, eventCount * 2);
+            events = Arrays.copyOf(events, eventCount * 2);
+        }
+        eventFrames[eventCount] = frames;
+        events[eventCount++] = event;
+    }
+
+    /**
+     * @return how many frames have been recorded
+     */
+    public synchronized int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return everything recorded so far
+     */
+    public synchronized Movie toMovie() {
+        return new Movie(crc, Arrays.copyOf(buttons, frames * 2), frames,
+                Arrays.copyOf(eventFrames, eventCount), Arrays.copyOf(events, eventCount));
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.state;
+
+/**
+ * Keeps the last few seconds of save states in one fixed size block of memory
+ * so the game can be run backwards.
+ *
+ * Every so often a whole state is stored as a keyframe. The frames in between
+ * are stored as the XOR of the state with the last keyframe, with the runs of
+ * zeros (bytes that didn't change) squeezed out. Most of a state doesn't change
+ * from frame to frame, so that's a lot smaller than a whole state. Getting a
+ * frame back is one copy of the keyframe and one pass over the delta no matter
+ * how far back it is, and nothing is allocated once the buffers are set up.
+ *
+ * The byte ring is used like a log: entries go in one after the other and when
+ * it's full the oldest keyframe is thrown away along with all of the frames
+ * that depend on it.
+ *
+ * @author Andrew Hoffman
+ */
+public class RewindBuffer {
+
+    private final byte[] ring;
+    private final int keyframeInterval;
+    //entry info, in a circular list from oldest (head) to newest
+    private final long[] start, keyStart;
+    private final int[] length, rawLength;
+    private final boolean[] keyframe;
+    private int head = 0, count = 0;
+    //positions in the ring count up forever, ring offset is position % size
+    private long writePos = 0;
+    private long curKey = -1;
+    private int curKeyLength, framesSinceKey;
+    private boolean needKeyframe = true;
+    private byte[] scratch = new byte[0];
+
+    /**
+     * @param frames most frames to keep
+     * @param bytes size of the ring in bytes. This is the limit on memory use;
+     * if the frames don't compress well fewer than the requested number will
+     * be kept.
+     * @param keyframeInterval frames between keyframes
+     */
+    public RewindBuffer(final int frames, final int bytes, final int keyframeInterval) {
+        if (frames < 1 || keyframeInterval < 1) {
+            throw new IllegalArgumentException("Rewind buffer needs at least one frame");
+        }
+        ring = new byte[bytes];
+        this.keyframeInterval = keyframeInterval;
+        start = new long[frames];
+        keyStart = new long[frames];
+        length = new int[frames];
+        rawLength = new int[frames];
+        keyframe = new boolean[frames];
+    }
+
+    /**
+     * Adds a state to the buffer, throwing out the oldest states if there
+     * isn't room for it.
+     *
+     * @param w writer holding the state to save
+     */
+    public void push(final StateWriter w) {
+        push(w.buffer(), w.size());
+    }
+
+    public void push(final byte[] state, final int len) {
+        //worst case for a delta is a few bytes bigger than the state itself
+        final int reserve = len + 8;
+        if (reserve > ring.length) {
+            return;
+        }
+        long pos = writePos;
+        if ((pos % ring.length) + reserve > ring.length) {
+            //entries don't wrap around the end of the ring
+            pos += ring.length - (pos % ring.length);
+        }
+        while (count == start.length
+                || (count > 0 && pos + reserve - start[head] > ring.length)) {
+            dropOldest();
+        }
+        boolean key = needKeyframe || count == 0
+                || framesSinceKey >= keyframeInterval || len != curKeyLength;
+        final int off = (int) (pos % ring.length);
+        final int stored;
+        if (key) {
+            System.arraycopy(state, 0, ring, off, len);
+            stored = len;
+            curKey = pos;
+            curKeyLength = len;
+            framesSinceKey = 0;
+            needKeyframe = false;
+        } else {
+            stored = encode(state, len, (int) (curKey % ring.length), off);
+            ++framesSinceKey;
+        }
+        final int e = (head + count) % start.length;
+        start[e] = pos;
+        keyStart[e] = curKey;
+        length[e] = stored;
+        rawLength[e] = len;
+        keyframe[e] = key;
+        ++count;
+        writePos = pos + stored;
+    }
+
+    /**
+     * Takes the newest state out of the buffer and points the reader at it.
+     * The data stays good until the next call to pop.
+     *
+     * @param r reader to reset onto the state
+     * @return false if the buffer is empty
+     */
+    public boolean pop(final StateReader r) {
+        if (count == 0) {
+            return false;
+        }
+        final int e = (head + count - 1) % start.length;
+        final int len = rawLength[e];
+        if (scratch.length < len) {
+            scratch = new byte[len];
+        }
+        final int off = (int) (start[e] % ring.length);
+        if (keyframe[e]) {
+            System.arraycopy(ring, off, scratch, 0, len);
+            //the rest of the frames will have to start from a new keyframe
+            needKeyframe = true;
+        } else {
+            System.arraycopy(ring, (int) (keyStart[e] % ring.length), scratch, 0, len);
+            decode(off, length[e], scratch);
+            --framesSinceKey;
+        }
+        --count;
+        writePos = start[e];
+        r.reset(scratch, len);
+        return true;
+    }
+
+    /**
+     * @return number of states that can be popped right now
+     */
+    public int size() {
+        return count;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+        writePos = 0;
+        needKeyframe = true;
+    }
+
+    private void dropOldest() {
+        //head is always a keyframe, and the deltas right after it can't be
+        //decoded without it, so they go too.
+        do {
+            head = (head + 1) % start.length;
+            --count;
+        } while (count > 0 && !keyframe[head]);
+        if (count == 0) {
+            needKeyframe = true;
+        }
+    }
+
+    private int encode(final byte[] state, final int len, final int keyOff, final int off) {
+        //pairs of (count of unchanged bytes, count of changed bytes)
+        //followed by the changed bytes XORed with the keyframe.
+        //short runs of unchanged bytes just get stored as changed bytes
+        //since a new pair would cost as much as it saves.
+        int out = off;
+        int i = 0;
+        while (i < len) {
+            final int zeroStart = i;
+            while (i < len && state[i] == ring[keyOff + i]) {
+                ++i;
+            }
+            final int litStart = i;
+            int zeros = 0;
+            while (i < len && zeros < 4) {
+                zeros = (state[i] == ring[keyOff + i]) ? zeros + 1 : 0;
+                ++i;
+            }
+            final int litEnd = i - zeros;
+            i = litEnd;
+            out = writeVarint(litStart - zeroStart, out);
+            out = writeVarint(litEnd - litStart, out);
+            for (int j = litStart; j < litEnd; ++j) {
+                ring[out++] = (byte) (state[j] ^ ring[keyOff + j]);
+            }
+        }
+        return out - off;
+    }
+
+    private void decode(int pos, final int len, final byte[] dest) {
+        final int end = pos + len;
+        int o = 0;
+        while (pos < end) {
+            int zeros = 0, lits = 0, shift = 0, b;
+            do {
+                b = ring[pos++];
+                zeros |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            shift = 0;
+            do {
+                b = ring[pos++];
+                lits |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            o += zeros;
+            for (int j = 0; j < lits; ++j) {
+                dest[o++] ^= ring[pos++];
+            }
+        }
+    }
+
+    private int writeVarint(int val, int out) {
+        while (val > 0x7f) {
+            ring[out++] = (byte) (val | 0x80);
+            val >>>= 7;
+        }
+        ring[out++] = (byte) val;
+        return out;
+    }
+}
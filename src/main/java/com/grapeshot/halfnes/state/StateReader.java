@@ -0,0 +1,142 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.state;
+
+/**
+ * Reads back what a StateWriter wrote, in the same order. Arrays are read into
+ * the existing arrays of the emulator so restoring a state does not allocate.
+ * Anything that doesn't line up with what we expect throws an
+ * IllegalArgumentException, since at that point the state is unusable.
+ *
+ * @author Andrew Hoffman
+ */
+public class StateReader {
+
+    private byte[] buf;
+    private int pos, limit;
+    private int sectionEnd = -1;
+    private String section;
+
+    public StateReader(final byte[] data) {
+        this(data, data.length);
+    }
+
+    public StateReader(final byte[] data, final int length) {
+        reset(data, length);
+    }
+
+    /**
+     * Points the reader at new data, so one reader can be reused forever.
+     */
+    public void reset(final byte[] data, final int length) {
+        buf = data;
+        pos = 0;
+        limit = length;
+        sectionEnd = -1;
+        section = null;
+    }
+
+    public void beginSection(final String tag) {
+        final int found = readInt();
+        if (found != StateWriter.tagToInt(tag)) {
+            throw new IllegalArgumentException("Save state is corrupt: expected section "
+                    + tag + " at offset " + (pos - 4));
+        }
+        final int len = readInt();
+        if (len < 0 || pos + len > limit) {
+            throw new IllegalArgumentException("Save state is corrupt: section " + tag + " is truncated");
+        }
+        section = tag;
+        sectionEnd = pos + len;
+    }
+
+    public void endSection() {
+        if (pos != sectionEnd) {
+            throw new IllegalArgumentException("Save state is corrupt: section "
+                    + section + " is " + (sectionEnd - pos) + " bytes off");
+        }
+        sectionEnd = -1;
+        section = null;
+    }
+
+    public int readByte() {
+        check(1);
+        return buf[pos++] & 0xff;
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public int readInt() {
+        check(4);
+        final int val = (buf[pos] & 0xff)
+                | ((buf[pos + 1] & 0xff) << 8)
+                | ((buf[pos + 2] & 0xff) << 16)
+                | ((buf[pos + 3] & 0xff) << 24);
+        pos += 4;
+        return val;
+    }
+
+    public long readLong() {
+        final long lo = readInt() & 0xffffffffL;
+        return lo | ((long) readInt() << 32);
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads bytes written by StateWriter.writeBytes into an existing array.
+     * Length of the array has to match what was saved.
+     */
+    public void readBytes(final byte[] dest) {
+        checkLength(dest.length);
+        check(dest.length);
+        System.arraycopy(buf, pos, dest, 0, dest.length);
+        pos += dest.length;
+    }
+
+    public void readBytes(final int[] dest) {
+        checkLength(dest.length);
+        check(dest.length);
+        for (int i = 0; i < dest.length; ++i) {
+            dest[i] = buf[pos + i] & 0xff;
+        }
+        pos += dest.length;
+    }
+
+    public void readInts(final int[] dest) {
+        checkLength(dest.length);
+        for (int i = 0; i < dest.length; ++i) {
+            dest[i] = readInt();
+        }
+    }
+
+    public void readBooleans(final boolean[] dest) {
+        checkLength(dest.length);
+        for (int i = 0; i < dest.length; ++i) {
+            dest[i] = readBoolean();
+        }
+    }
+
+    private void checkLength(final int expected) {
+        final int len = readInt();
+        if (len != expected) {
+            throw new IllegalArgumentException("Save state is corrupt: array of "
+                    + len + " entries where " + expected + " expected"
+                    + (section != null ? " in section " + section : ""));
+        }
+    }
+
+    private void check(final int bytes) {
+        final int end = (sectionEnd >= 0) ? sectionEnd : limit;
+        if (pos + bytes > end) {
+            throw new IllegalArgumentException("Save state is corrupt: read past end of "
+                    + (section != null ? "section " + section : "data"));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.state;
+
+import java.util.Arrays;
+
+/**
+ * Serializes emulator state into a compact little endian binary blob. State is
+ * grouped into tagged sections (one per component) so a reader can tell which
+ * part of a bad file it choked on. The buffer is kept between uses, so calling
+ * reset() and writing the same machine again does not allocate.
+ *
+ * @author Andrew Hoffman
+ */
+public class StateWriter {
+
+    private byte[] buf;
+    private int pos = 0;
+    private int sectionStart = -1;
+
+    public StateWriter() {
+        this(32768);
+    }
+
+    public StateWriter(final int initialSize) {
+        buf = new byte[initialSize];
+    }
+
+    /**
+     * Throws away everything written so far but keeps the buffer around.
+     */
+    public void reset() {
+        pos = 0;
+        sectionStart = -1;
+    }
+
+    /**
+     * Starts a new section. Sections can't be nested.
+     *
+     * @param tag 4 character section name
+     */
+    public void beginSection(final String tag) {
+        if (sectionStart >= 0) {
+            throw new IllegalStateException("Section " + tag + " started inside another section");
+        }
+        writeInt(tagToInt(tag));
+        //length gets patched in when the section ends
+        writeInt(0);
+        sectionStart = pos;
+    }
+
+    public void endSection() {
+        if (sectionStart < 0) {
+            throw new IllegalStateException("No section to end");
+        }
+        final int len = pos - sectionStart;
+        final int end = pos;
+        pos = sectionStart - 4;
+        writeInt(len);
+        pos = end;
+        sectionStart = -1;
+    }
+
+    public void writeByte(final int data) {
+        ensure(1);
+        buf[pos++] = (byte) data;
+    }
+
+    public void writeBoolean(final boolean data) {
+        writeByte(data ? 1 : 0);
+    }
+
+    public void writeInt(final int data) {
+        ensure(4);
+        buf[pos] = (byte) data;
+        buf[pos + 1] = (byte) (data >> 8);
+        buf[pos + 2] = (byte) (data >> 16);
+        buf[pos + 3] = (byte) (data >> 24);
+        pos += 4;
+    }
+
+    public void writeLong(final long data) {
+        writeInt((int) data);
+        writeInt((int) (data >> 32));
+    }
+
+    public void writeDouble(final double data) {
+        writeLong(Double.doubleToRawLongBits(data));
+    }
+
+    /**
+     * Writes the emulated memories (RAM, CHR RAM, nametables).
+     */
+    public void writeBytes(final byte[] data) {
+        writeInt(data.length);
+        ensure(data.length);
+        System.arraycopy(data, 0, buf, pos, data.length);
+        pos += data.length;
+    }
+
+    /**
+     * Writes the low 8 bits of every element, for the few small memories
+     * that still keep one byte per int (OAM, palette etc.) Comes out the same
+     * as writeBytes(byte[]) so either can be read back into either.
+     */
+    public void writeBytes(final int[] data) {
+        writeInt(data.length);
+        ensure(data.length);
+        for (int i = 0; i < data.length; ++i) {
+            buf[pos + i] = (byte) data[i];
+        }
+        pos += data.length;
+    }
+
+    public void writeInts(final int[] data) {
+        writeInt(data.length);
+        for (int i : data) {
+            writeInt(i);
+        }
+    }
+
+    public void writeBooleans(final boolean[] data) {
+        writeInt(data.length);
+        for (boolean b : data) {
+            writeBoolean(b);
+        }
+    }
+
+    /**
+     * @return number of bytes written since the last reset
+     */
+    public int size() {
+        return pos;
+    }
+
+    /**
+     * Direct access to the internal buffer, valid up to size(). Contents are
+     * overwritten by the next reset, so copy it if you need to keep it.
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    private void ensure(final int bytes) {
+        if (pos + bytes > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+        }
+    }
+
+    static int tagToInt(final String tag) {
+        if (tag.length() != 4) {
+            throw new IllegalArgumentException("Section tags must be 4 characters: " + tag);
+        }
+        return tag.charAt(0) | (tag.charAt(1) << 8) | (tag.charAt(2) << 16) | (tag.charAt(3) << 24);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.trace;
+
+import com.grapeshot.halfnes.CPU;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Turns a binary trace from TraceWriter into text laid out like nestest.log:
+ * <pre>
+ * C000  4C F5 C5  JMP $C5F5                       A:00 X:00 Y:00 P:24 SP:FD CYC:  0 SL:241
+ * </pre>
+ * The disassembly is the same as the CPU's own text log, so it doesn't have
+ * the memory values ("STX $00 = 00") or the * on unofficial opcodes that
+ * nestest.log does. Everything else lines up column for column.
+ *
+ * Usage from the command line:
+ * <pre>
+ * java -cp halfnes.jar com.grapeshot.halfnes.trace.TraceConverter trace.bin [out.log]
+ * </pre>
+ * writes to standard out if no output file is given.
+ *
+ * @author Andrew Hoffman
+ */
+public class TraceConverter {
+
+    private static final String[] OPCODES = CPU.opcodes();
+    private TraceConverter() {
+    }
+
+    /**
+     * @param r reader with a record loaded
+     * @return that record as a line of nestest.log, without the line break
+     */
+    public static String toNestest(TraceReader r) {
+        final int len = TraceWriter.length(r.opcode);
+        final String bytes = (len == 1) ? String.format("%02X", r.opcode)
+                : (len == 2) ? String.format("%02X %02X", r.opcode, r.op1)
+                        : String.format("%02X %02X %02X", r.opcode, r.op1, r.op2);
+        final String op = String.format(OPCODES[r.opcode], r.op1, r.op2,
+                (r.pc + 2 + (byte) r.op1) & 0xffff);
+        return String.format("%04X  %-8s  %-31s A:%02X X:%02X Y:%02X P:%02X SP:%02X CYC:%3d SL:%d",
+                r.pc, bytes, op, r.a, r.x, r.y, r.p, r.s, r.dot, r.scanline);
+    }
+
+    /**
+     * Converts a whole trace.
+     *
+     * @param r trace to read
+     * @param w where the text goes
+     * @return how many lines were written
+     * @throws IOException if either side fails
+     */
+    public static long convert(TraceReader r, Writer w) throws IOException {
+        long lines = 0;
+        while (r.next()) {
+            w.write(toNestest(r));
+            w.write('\n');
+            ++lines;
+        }
+        w.flush();
+        return lines;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceConverter trace.bin [out.log]");
+            System.exit(1);
+        }
+        try (TraceReader r = new TraceReader(Paths.get(args[0]));
+                Writer w = new BufferedWriter((args.length > 1)
+                        ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+                        : new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)) {
+            convert(r, w);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Checks a binary trace against a reference log in nestest.log layout, a
+ * line at a time, so neither one has to fit in memory. Compares the address,
+ * the instruction bytes and the registers; the disassembly and PPU timing
+ * columns are left out since they're written differently by every emulator.
+ *
+ * @author Andrew Hoffman
+ */
+public final class TraceDiff {
+
+    private TraceDiff() {
+    }
+
+    public static final class Result {
+
+        private final long lines, mismatch;
+        private final String expected, actual;
+
+        Result(long lines, long mismatch, String expected, String actual) {
+            this.lines = lines;
+            this.mismatch = mismatch;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        /**
+         * @return whether every line of the reference matched
+         */
+        public boolean matches() {
+            return mismatch == 0;
+        }
+
+        /**
+         * @return lines that matched before the first one that didn't
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        /**
+         * @return line number (from 1) of the first difference, or 0 if
+         * there wasn't one
+         */
+        public long getMismatch() {
+            return mismatch;
+        }
+
+        /**
+         * @return the reference line that didn't match, or null
+         */
+        public String getExpected() {
+            return expected;
+        }
+
+        /**
+         * @return the trace's version of it, or null if the trace ran out
+         */
+        public String getActual() {
+            return actual;
+        }
+
+        @Override
+        public String toString() {
+            return matches() ? lines + " lines match"
+                    : "line " + mismatch + ": expected\n" + expected + "\ngot\n"
+                    + ((actual == null) ? "end of trace" : actual);
+        }
+    }
+
+    /**
+     * Reads the reference until it runs out or something doesn't match. Any
+     * more trace after the end of the reference is fine.
+     *
+     * @param trace trace to check, read from wherever it's at
+     * @param reference log in nestest.log layout
+     * @return where they first differ, if they do
+     * @throws IOException if either can't be read
+     */
+    public static Result diff(TraceReader trace, BufferedReader reference) throws IOException {
+        long line = 0;
+        for (String expected = reference.readLine(); expected != null; expected = reference.readLine()) {
+            ++line;
+            if (!trace.next()) {
+                return new Result(line - 1, line, expected, null);
+            }
+            if (!matches(trace, expected)) {
+                return new Result(line - 1, line, expected, TraceConverter.toNestest(trace));
+            }
+        }
+        return new Result(line, 0, null, null);
+    }
+
+    private static boolean matches(TraceReader r, String line) {
+        if (line.length() < 73) {
+            return false;
+        }
+        final int len = TraceWriter.length(r.opcode);
+        return hex(line, 0, 4) == r.pc
+                && hex(line, 6, 2) == r.opcode
+                && hex(line, 9, 2) == ((len > 1) ? r.op1 : -1)
+                && hex(line, 12, 2) == ((len > 2) ? r.op2 : -1)
+                && hex(line, 50, 2) == r.a
+                && hex(line, 55, 2) == r.x
+                && hex(line, 60, 2) == r.y
+                && hex(line, 65, 2) == r.p
+                && hex(line, 71, 2) == r.s;
+    }
+
+    /**
+     * @return the hex number at that spot, or -1 if there are spaces there
+     */
+    private static int hex(String s, int start, int digits) {
+        int val = 0;
+        for (int i = start; i < start + digits; ++i) {
+            final int d = Character.digit(s.charAt(i), 16);
+            if (d < 0) {
+                return -1;
+            }
+            val = (val << 4) | d;
+        }
+        return val;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.trace;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Goes through a trace made by TraceWriter one record at a time. next() loads
+ * the record into the fields here, so reading a trace of any length doesn't
+ * allocate anything past the one buffer.
+ *
+ * @author Andrew Hoffman
+ */
+public class TraceReader implements AutoCloseable {
+
+    private final FileChannel in;
+    private final ByteBuffer buf;
+    public long cycle;
+    public int pc, opcode, op1, op2, a, x, y, p, s, scanline, dot;
+
+    /**
+     * @param path trace file
+     * @throws IOException if it can't be read or isn't a trace
+     */
+    public TraceReader(Path path) throws IOException {
+        in = FileChannel.open(path, StandardOpenOption.READ);
+        buf = ByteBuffer.allocateDirect(TraceWriter.RECORD_SIZE * 16384).order(ByteOrder.LITTLE_ENDIAN);
+        buf.limit(0);
+        try {
+            if (!fill(TraceWriter.HEADER_SIZE) || buf.getInt() != TraceWriter.MAGIC) {
+                throw new IOException(path + " isn't a CPU trace");
+            }
+            final int version = buf.getInt(), size = buf.getInt();
+            if (version != TraceWriter.VERSION || size != TraceWriter.RECORD_SIZE) {
+                throw new IOException("Trace version " + version + " is not supported (expected "
+                        + TraceWriter.VERSION + ")");
+            }
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Makes sure there's at least bytes in the buffer.
+     *
+     * @return false if the file ran out first
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buf.remaining() >= bytes) {
+            return true;
+        }
+        buf.compact();
+        while (buf.position() < bytes) {
+            if (in.read(buf) < 0) {
+                break;
+            }
+        }
+        buf.flip();
+        return buf.remaining() >= bytes;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return false at the end of the trace
+     * @throws IOException if the file can't be read, or ends partway through
+     * a record
+     */
+    public boolean next() throws IOException {
+        if (!fill(TraceWriter.RECORD_SIZE)) {
+            if (buf.hasRemaining()) {
+                throw new EOFException("Trace ends partway through a record");
+            }
+            return false;
+        }
+        cycle = buf.getLong();
+        pc = buf.getShort() & 0xffff;
+        opcode = buf.get() & 0xff;
+        op1 = buf.get() & 0xff;
+        op2 = buf.get() & 0xff;
+        a = buf.get() & 0xff;
+        x = buf.get() & 0xff;
+        y = buf.get() & 0xff;
+        p = buf.get() & 0xff;
+        s = buf.get() & 0xff;
+        scanline = buf.getShort();
+        dot = buf.getShort();
+        buf.getShort();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * HalfNES by Andrew Hoffman
+ * Licensed under the GNU GPL Version 3. See LICENSE file
+ */
+package com.grapeshot.halfnes.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a binary CPU trace, one fixed size record per instruction, fast
+ * enough to leave on for a whole session. Records go into one of a few big
+ * direct buffers; when one fills up it gets handed to a background thread
+ * that writes it out through a FileChannel while the emulator carries on
+ * with the next. Nothing gets allocated per record, and if the disk can't
+ * keep up the emulator waits for it rather than anything getting dropped.
+ *
+ * The file is a header (magic "HNTR", version, record size, all little
+ * endian ints) then the records, laid out as:
+ * <pre>
+ *  0 long  CPU cycle since the trace started
+ *  8 short PC
+ * 10 byte  opcode
+ * 11 byte  operand 1 (0 if the instruction doesn't have one)
+ * 12 byte  operand 2 (same)
+ * 13 byte  A
+ * 14 byte  X
+ * 15 byte  Y
+ * 16 byte  P
+ * 17 byte  S
+ * 18 short scanline
+ * 20 short PPU dot
+ * 22 short nothing yet, always 0
+ * </pre>
+ * Registers are as they were before the instruction ran. TraceConverter turns
+ * one of these into a nestest style text log.
+ *
+ * Only one thread (the emulator's) should be calling record().
+ *
+ * @author Andrew Hoffman
+ */
+public class TraceWriter implements AutoCloseable {
+
+    public static final int MAGIC = 0x52544e48; //"HNTR"
+    public static final int VERSION = 1, HEADER_SIZE = 12, RECORD_SIZE = 24;
+    private static final int BUFFERS = 4;
+    private static final int[] LENGTHS = new int[256];
+    //on the way to the writer thread, then back again
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(BUFFERS + 1),
+            empty = new ArrayBlockingQueue<>(BUFFERS);
+    //tells the writer thread there's nothing more coming
+    private final ByteBuffer end = ByteBuffer.allocate(0);
+    private final FileChannel out;
+    private final Thread writer;
+    private ByteBuffer buf;
+    private volatile IOException error;
+    private long records = 0;
+    private boolean closed = false;
+
+    static {
+        for (int op = 0; op < 256; ++op) {
+            //middle 3 bits are (mostly) the addressing mode
+            final int mode = (op >> 2) & 7;
+            final int len = (mode == 3 || mode == 7) ? 3 : (mode == 2 || mode == 6) ? 1 : 2;
+            switch (op & 3) {
+                case 0:
+                    //BRK RTI RTS are 1, JSR 3, the rest immediate
+                    LENGTHS[op] = (mode != 0) ? len : (op == 0x20) ? 3 : (op >= 0x80) ? 2 : 1;
+                    break;
+                case 2:
+                    //KILs in with the immediates, and in a column of their own
+                    LENGTHS[op] = (mode == 4 || (mode == 0 && op < 0x80)) ? 1 : len;
+                    break;
+                default:
+                    //ALU ops and the unofficial ones like them: (zp,x) zp imm
+                    //abs (zp),y zp,x abs,y abs,x
+                    LENGTHS[op] = (mode == 3 || mode >= 6) ? 3 : 2;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @param opcode opcode
+     * @return how many bytes the instruction is, opcode included
+     */
+    public static int length(int opcode) {
+        return LENGTHS[opcode];
+    }
+
+    public TraceWriter(Path path) throws IOException {
+        this(path, 1 << 20);
+    }
+
+    /**
+     * @param path file to write, replaced if it's there already
+     * @param bufferSize bytes in each buffer, rounded down to whole records
+     * @throws IOException if the file can't be opened
+     */
+    public TraceWriter(Path path, int bufferSize) throws IOException {
+        out = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        final int size = Math.max(1, bufferSize / RECORD_SIZE) * RECORD_SIZE;
+        for (int i = 0; i < BUFFERS; ++i) {
+            empty.add(ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+        while (header.hasRemaining()) {
+            out.write(header);
+        }
+        buf = empty.remove();
+        writer = new Thread(this::drain, "Trace writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Adds an instruction to the trace.
+     *
+     * @param cycle CPU cycle it started on
+     * @param pc address of the opcode
+     * @param opcode opcode
+     * @param op1 first operand byte
+     * @param op2 second operand byte
+     * @param a accumulator
+     * @param x x register
+     * @param y y register
+     * @param p status flags
+     * @param s stack pointer
+     * @param scanline PPU scanline
+     * @param dot PPU dot on the scanline
+     */
+    public final void record(long cycle, int pc, int opcode, int op1, int op2,
+            int a, int x, int y, int p, int s, int scanline, int dot) {
+        buf.putLong(cycle)
+                .putShort((short) pc)
+                .put((byte) opcode)
+                .put((byte) op1)
+                .put((byte) op2)
+                .put((byte) a)
+                .put((byte) x)
+                .put((byte) y)
+                .put((byte) p)
+                .put((byte) s)
+                .putShort((short) scanline)
+                .putShort((short) dot)
+                .putShort((short) 0);
+        ++records;
+        if (!buf.hasRemaining()) {
+            handOff();
+        }
+    }
+
+    /**
+     * @return how many records have gone in so far
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    private void handOff() {
+        try {
+            full.put(buf);
+            buf = empty.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing trace", e);
+        }
+    }
+
+    private void drain() {
+        try {
+            for (ByteBuffer b = full.take(); b != end; b = full.take()) {
+                b.flip();
+                try {
+                    if (error == null) {
+                        while (b.hasRemaining()) {
+                            out.write(b);
+                        }
+                    }
+                } catch (IOException e) {
+                    //keep taking buffers so the emulator doesn't get stuck,
+                    //close() will throw this
+                    error = e;
+                }
+                b.clear();
+                empty.put(b);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes out whatever's left and closes the file.
+     *
+     * @throws IOException if anything went wrong writing the trace
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (buf.position() > 0) {
+                full.put(buf);
+            }
+            full.put(end);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            out.close();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
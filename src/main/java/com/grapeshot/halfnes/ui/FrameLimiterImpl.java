@@ -5,7 +5,6 @@
 package com.grapeshot.halfnes.ui;
 
 import com.grapeshot.halfnes.NES;
-import com.grapeshot.halfnes.PrefsSingleton;
 
 /**
  *
@@ -30,7 +29,7 @@ public class FrameLimiterImpl implements FrameLimiterInterface {
     @Override
     public void sleep() {
         //Frame Limiter
-        if (!PrefsSingleton.get().getBoolean("Sleep", true)) {
+        if (!nes.getConfig().isSleep()) {
             return; //skip frame limiter if pref set
         }
         final long timeleft = System.nanoTime() - nes.frameStartTime;
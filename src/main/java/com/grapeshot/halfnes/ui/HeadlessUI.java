@@ -1,7 +1,9 @@
 package com.grapeshot.halfnes.ui;
 
 import com.grapeshot.halfnes.CPURAM;
+import com.grapeshot.halfnes.EmulatorConfig;
 import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.PrefsSingleton;
 import com.grapeshot.halfnes.video.RGBRenderer;
 import com.grapeshot.halfnes.video.Renderer;
 
@@ -19,8 +21,20 @@ public class HeadlessUI implements GUIInterface {
     private boolean updateImage;
     private PuppetController controller1, controller2;
 
+    /**
+     * An ordinary emulator that just doesn't have a window: it uses the
+     * user's preferences, plays sound and keeps .sav files like the GUI does.
+     */
     public HeadlessUI(String romToLoad, boolean renderFrames) {
-        nes = new NES(this);
+        this(romToLoad, renderFrames, false, EmulatorConfig.fromPreferences(PrefsSingleton.get()));
+    }
+
+    /**
+     * @param headless whether the NES is a headless one, see NES
+     * @param config settings for the NES
+     */
+    protected HeadlessUI(String romToLoad, boolean renderFrames, boolean headless, EmulatorConfig config) {
+        nes = new NES(this, headless, config);
         this.loadROM(romToLoad);
         this.renderer = new RGBRenderer();
         this.controller1 = new PuppetController();
@@ -29,6 +43,21 @@ public class HeadlessUI implements GUIInterface {
         this.renderFrames = renderFrames;
     }
 
+    /**
+     * Makes an emulator for EmulatorPool and other batch jobs. It has no sound
+     * device, doesn't touch .sav files and keeps no rewind history, so lots of
+     * them can run side by side, and uses the given settings rather than the
+     * user's preferences.
+     *
+     * @param romToLoad path of the ROM
+     * @param renderFrames whether to keep a BufferedImage of the last frame
+     * @param config settings for the NES
+     * @return the new instance
+     */
+    public static HeadlessUI pooled(String romToLoad, boolean renderFrames, EmulatorConfig config) {
+        return new HeadlessUI(romToLoad, renderFrames, true, config);
+    }
+
     public void loadROM(String romToLoad) {
         this.nes.loadROM(romToLoad);
     }
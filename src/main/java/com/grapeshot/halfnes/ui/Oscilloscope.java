@@ -48,17 +48,39 @@ public class Oscilloscope implements AudioOutInterface {
     }
 
     @Override
-    public void outputSample(int sample) {
-        if (buf_ptr > 0
-                || (prevsample <= 0 && sample >= 0)) {
-            //start cap @ zero crossing
-            if (buf_ptr < buffer.length) {
-                buffer[buf_ptr++] = sample;
+    public void outputSamples(short[] buf, int off, int len) {
+        for (int i = off; i < off + len; ++i) {
+            final int sample = buf[i];
+            if (buf_ptr > 0
+                    || (prevsample <= 0 && sample >= 0)) {
+                //start cap @ zero crossing
+                if (buf_ptr < buffer.length) {
+                    buffer[buf_ptr++] = sample;
+                }
             }
+            prevsample = sample;
         }
-        prevsample = sample;
         if (!(iface == null)) {
-            iface.outputSample(sample);
+            iface.outputSamples(buf, off, len);
+        }
+    }
+
+    @Override
+    public void outputStereoSamples(short[] buf, int off, int frames) {
+        //the scope only shows the left side
+        for (int i = 0; i < frames; ++i) {
+            final int sample = buf[off + i * 2];
+            if (buf_ptr > 0
+                    || (prevsample <= 0 && sample >= 0)) {
+                //start cap @ zero crossing
+                if (buf_ptr < buffer.length) {
+                    buffer[buf_ptr++] = sample;
+                }
+            }
+            prevsample = sample;
+        }
+        if (!(iface == null)) {
+            iface.outputStereoSamples(buf, off, frames);
         }
     }
 
@@ -103,9 +125,9 @@ public class Oscilloscope implements AudioOutInterface {
     }
 
     @Override
-    public boolean bufferHasLessThan(int samples) {
+    public boolean pacesFrames() {
         if (!(iface == null)) {
-            return iface.bufferHasLessThan(samples);
+            return iface.pacesFrames();
         } else {
             return false;
         }
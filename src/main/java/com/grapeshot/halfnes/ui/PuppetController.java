@@ -41,6 +41,23 @@ public class PuppetController implements ControllerInterface {
         controllerbyte = 0;
     }
 
+    /**
+     * Sets every button at once.
+     *
+     * @param buttons one bit per button in the order the NES reads them: A,
+     * B, Select, Start, Up, Down, Left, Right from bit 0 up
+     */
+    public void setButtons(int buttons) {
+        controllerbyte = buttons & 0xff;
+    }
+
+    /**
+     * @return the buttons held down, laid out like setButtons
+     */
+    public int getButtons() {
+        return controllerbyte;
+    }
+
     public void releaseButton(Button button) {
         switch (button) {
             case UP:
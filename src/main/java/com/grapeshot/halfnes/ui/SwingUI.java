@@ -4,12 +4,14 @@
  */
 package com.grapeshot.halfnes.ui;
 
+import com.grapeshot.halfnes.EmulatorConfig;
 import com.grapeshot.halfnes.FileUtils;
 import com.grapeshot.halfnes.NES;
 import com.grapeshot.halfnes.PrefsSingleton;
 import com.grapeshot.halfnes.video.RGBRenderer;
 import com.grapeshot.halfnes.cheats.ActionReplay;
 import com.grapeshot.halfnes.cheats.ActionReplayGui;
+import com.grapeshot.halfnes.movie.Movie;
 import com.grapeshot.halfnes.video.NTSCRenderer;
 import com.grapeshot.halfnes.video.Renderer;
 import java.awt.*;
@@ -211,11 +213,22 @@ public class SwingUI extends JFrame implements GUIInterface {
         item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE,
                 Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
 
+        nesmenu.add(item = new JMenuItem("Rewind"));
+        item.addActionListener(listener);
+        item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
+
         nesmenu.add(item = new JMenuItem("Frame Advance"));
         item.addActionListener(listener);
         item.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_PERIOD,
                 Toolkit.getDefaultToolkit().getMenuShortcutKeyMask()));
 
+        nesmenu.add(item = new JMenuItem("Record Movie"));
+        item.addActionListener(listener);
+
+        nesmenu.add(item = new JMenuItem("Stop Recording"));
+        item.addActionListener(listener);
+
         nesmenu.addSeparator();
 
         nesmenu.add(item = new JMenuItem("Controller Settings"));
@@ -476,7 +489,7 @@ public class SwingUI extends JFrame implements GUIInterface {
         dialog.setVisible(true);
         if (dialog.okClicked()) {
             setRenderOptions();
-            nes.setParameters();
+            nes.setConfig(EmulatorConfig.fromPreferences(PrefsSingleton.get()));
         }
     }
 
@@ -489,6 +502,31 @@ public class SwingUI extends JFrame implements GUIInterface {
         }
     }
 
+    private void stopMovie() {
+        final Movie movie = nes.stopMovie();
+        if (movie == null) {
+            return;
+        }
+        nes.pause();
+        FileDialog fileDialog = new FileDialog(this);
+        fileDialog.setMode(FileDialog.SAVE);
+        fileDialog.setTitle("Save the movie as");
+        fileDialog.setFile(FileUtils.stripExtension(nes.getCurrentRomName()) + ".hnm");
+        final String path = PrefsSingleton.get().get("filePath", System.getProperty("user.dir", ""));
+        if (new File(path).isDirectory()) {
+            fileDialog.setDirectory(path);
+        }
+        fileDialog.setVisible(true);
+        if (fileDialog.getFile() != null) {
+            try {
+                movie.save(new File(fileDialog.getDirectory(), fileDialog.getFile()).toPath());
+            } catch (IOException ex) {
+                messageBox("Could not save the movie.\n" + ex.getMessage());
+            }
+        }
+        nes.resume();
+    }
+
     private void showActionReplayDialog() {
         nes.pause();
         final ActionReplay actionReplay = nes.getActionReplay();
@@ -534,6 +572,8 @@ public class SwingUI extends JFrame implements GUIInterface {
                 showOptions();
             } else if (arg0.getActionCommand().equals("Fast Forward")) {
                 nes.toggleFrameLimiter();
+            } else if (arg0.getActionCommand().equals("Rewind")) {
+                nes.toggleRewind();
             } else if (arg0.getActionCommand().equals("About")) {
                 messageBox("HalfNES " + NES.VERSION
                         + "\n"
@@ -553,6 +593,10 @@ public class SwingUI extends JFrame implements GUIInterface {
                 toggleFullScreen();
             } else if (arg0.getActionCommand().equals("Frame Advance")) {
                 nes.frameAdvance();
+            } else if (arg0.getActionCommand().equals("Record Movie")) {
+                nes.recordMovie();
+            } else if (arg0.getActionCommand().equals("Stop Recording")) {
+                stopMovie();
             } else if (arg0.getActionCommand().equals("Escape")) {
                 if (inFullScreen) {
                     toggleFullScreen();
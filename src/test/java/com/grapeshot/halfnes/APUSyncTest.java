@@ -0,0 +1,165 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import java.io.IOException;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Only syncing the APU when it's due to do something has to come out exactly
+ * the same as syncing it on every instruction.
+ */
+public class APUSyncTest {
+
+    //NROM test program that keeps DMC and frame IRQs going, with a busy loop
+    //of varying length so they land at all sorts of points in instructions
+    private static final int[] RESET = {
+        0x78, //SEI
+        0xD8, //CLD
+        0xA2, 0xFF, //LDX #$FF
+        0x9A, //TXS
+        0xA9, 0x80, //LDA #$80
+        0x8D, 0x00, 0x20, //STA $2000 (NMI on)
+        0xA9, 0x8F, //LDA #$8F
+        0x8D, 0x10, 0x40, //STA $4010 (DMC IRQ on, fastest rate)
+        0xA9, 0x00, //LDA #$00
+        0x8D, 0x12, 0x40, //STA $4012 (sample at $C000)
+        0xA9, 0x01, //LDA #$01
+        0x8D, 0x13, 0x40, //STA $4013 (17 bytes long)
+        0xA9, 0x1F, //LDA #$1F
+        0x8D, 0x15, 0x40, //STA $4015 (everything on, start DMC)
+        0xA9, 0x00, //LDA #$00
+        0x8D, 0x17, 0x40, //STA $4017 (4 step, frame IRQ on)
+        0x58, //CLI
+        //loop: $C024
+        0xE6, 0x00, //INC $00
+        0xA5, 0x00, //LDA $00
+        0x29, 0x07, //AND #$07
+        0xAA, //TAX
+        0xCA, //DEX
+        0x10, 0xFD, //BPL -3
+        0x4C, 0x24, 0xC0 //JMP loop
+    };
+    private static final int[] IRQ = {
+        0x48, //PHA
+        0x8A, //TXA
+        0x48, //PHA
+        0x98, //TYA
+        0x48, //PHA
+        //keep a log of where every irq hit, so being off by even one
+        //instruction shows up in RAM
+        0xBA, //TSX
+        0xBD, 0x05, 0x01, //LDA $0105,X (return address low byte)
+        0xA4, 0x02, //LDY $02
+        0x99, 0x00, 0x03, //STA $0300,Y
+        0xA5, 0x00, //LDA $00
+        0x99, 0x00, 0x04, //STA $0400,Y
+        0xE6, 0x02, //INC $02
+        0xAD, 0x15, 0x40, //LDA $4015 (acks frame IRQ)
+        0x85, 0x01, //STA $01
+        0x29, 0x80, //AND #$80
+        0xF0, 0x0E, //BEQ done
+        0xA5, 0x02, //LDA $02
+        0x29, 0x0F, //AND #$0F
+        0x09, 0x80, //ORA #$80
+        0x8D, 0x10, 0x40, //STA $4010 (new DMC rate)
+        0xA9, 0x1F, //LDA #$1F
+        0x8D, 0x15, 0x40, //STA $4015 (ack DMC IRQ and restart it)
+        //done:
+        0x68, //PLA
+        0xA8, //TAY
+        0x68, //PLA
+        0xAA, //TAX
+        0x68, //PLA
+        0x40 //RTI
+    };
+    private static final int[] NMI = {
+        0x48, //PHA
+        0xA9, 0x02, //LDA #$02
+        0x8D, 0x14, 0x40, //STA $4014 (sprite DMA)
+        0xE6, 0x03, //INC $03
+        0xA5, 0x03, //LDA $03
+        0x8D, 0x02, 0x40, //STA $4002
+        0xA9, 0xBF, //LDA #$BF
+        0x8D, 0x00, 0x40, //STA $4000
+        0xA9, 0x08, //LDA #$08
+        0x8D, 0x03, 0x40, //STA $4003
+        0x68, //PLA
+        0x40 //RTI
+    };
+
+    private static String makeROM(boolean dmc) throws IOException {
+        final TestROM rom = new TestROM();
+        rom.put(0xC000, RESET);
+        if (!dmc) {
+            //leave the DMC off so the frame IRQ is the only thing going on
+            rom.put(0xC000 + 26, 0x0F);
+        }
+        rom.put(0xC040, IRQ);
+        rom.put(0xC080, NMI);
+        rom.vectors(0xC000, 0xC080, 0xC040);
+        return rom.write();
+    }
+
+    private static NES start(String rom, EmulatorConfig config, boolean eventSync) {
+        final NES nes = new NES(null, true, config);
+        nes.loadROM(rom);
+        nes.setControllers(mock(ControllerInterface.class), mock(ControllerInterface.class));
+        nes.getCPURAM().apu.eventSync = eventSync;
+        return nes;
+    }
+
+    private static void compare(EmulatorConfig config, boolean dmc) throws IOException {
+        final String rom = makeROM(dmc);
+        final NES reference = start(rom, config, false);
+        final NES nes = start(rom, config, true);
+        for (int i = 0; i < 300; ++i) {
+            reference.frameAdvance();
+            nes.frameAdvance();
+            assertArrayEquals("frame " + i, reference.saveState(), nes.saveState());
+        }
+        //make sure the program actually got some irqs
+        assertTrue(nes.getCPURAM().read(2) != 0);
+    }
+
+    @Test
+    public void bandLimitedKeepsTiming() throws IOException {
+        //band limited mode runs the channels differently, so the saved
+        //sound state isn't the same, but irqs have to land in the same place
+        final String rom = makeROM(true);
+        final NES reference = start(rom, EmulatorConfig.DEFAULTS, true);
+        final NES nes = start(rom, EmulatorConfig.DEFAULTS.withBandLimited(true), true);
+        for (int i = 0; i < 300; ++i) {
+            reference.frameAdvance();
+            nes.frameAdvance();
+            for (int addr = 0; addr < 0x800; ++addr) {
+                assertEquals("frame " + i + " addr " + addr,
+                        reference.getCPURAM().read(addr), nes.getCPURAM().read(addr));
+            }
+        }
+        assertTrue(nes.getCPURAM().read(2) != 0);
+    }
+
+    @Test
+    public void matchesSyncEveryInstruction() throws IOException {
+        compare(EmulatorConfig.DEFAULTS, true);
+    }
+
+    @Test
+    public void matchesFrameIrqOnly() throws IOException {
+        compare(EmulatorConfig.DEFAULTS, false);
+    }
+
+    @Test
+    public void matchesWithoutFiltering() throws IOException {
+        compare(EmulatorConfig.DEFAULTS.withSoundFiltering(false), true);
+    }
+
+    @Test
+    public void matchesInStereo() throws IOException {
+        compare(EmulatorConfig.DEFAULTS.withStereo(true), true);
+    }
+}
@@ -0,0 +1,145 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.audio.AudioOutInterface;
+import com.grapeshot.halfnes.audio.WavAudioImpl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Renders a little two track NSF: track 1 plays a square wave forever, track
+ * 2 is silent.
+ */
+public class AudioRendererTest {
+
+    private static String makeNSF() throws IOException {
+        final int[] code = {
+            //init
+            0xC9, 0x00, //CMP #0
+            0xD0, 0x0F, //BNE done
+            0xA9, 0xBF, 0x8D, 0x00, 0x40, //square 1 at full volume
+            0xA9, 0x40, 0x8D, 0x02, 0x40, //~1.7 kHz
+            0xA9, 0x08, 0x8D, 0x03, 0x40,
+            0x60, //done: RTS
+            //play
+            0x60};
+        final byte[] nsf = new byte[0x80 + code.length];
+        nsf[0] = 'N';
+        nsf[1] = 'E';
+        nsf[2] = 'S';
+        nsf[3] = 'M';
+        nsf[4] = 0x1A;
+        nsf[5] = 1;
+        nsf[6] = 2; //tracks
+        nsf[7] = 1; //first track
+        nsf[0x09] = (byte) 0x80; //load $8000
+        nsf[0x0b] = (byte) 0x80; //init $8000
+        nsf[0x0c] = 0x14;
+        nsf[0x0d] = (byte) 0x80; //play $8014
+        for (int i = 0; i < code.length; ++i) {
+            nsf[0x80 + i] = (byte) code[i];
+        }
+        final File f = File.createTempFile("halfnes", ".nsf");
+        f.deleteOnExit();
+        Files.write(f.toPath(), nsf);
+        return f.getPath();
+    }
+
+    private static Path temp(String suffix) throws IOException {
+        final File f = File.createTempFile("halfnes", suffix);
+        f.deleteOnExit();
+        return f.toPath();
+    }
+
+    @Test
+    public void rendersTracksInParallel() throws IOException {
+        final String nsf = makeNSF();
+        final int rate = EmulatorConfig.DEFAULTS.getSampleRate();
+        final AudioRenderer.Track tone = new AudioRenderer.Track(nsf, 0, temp(".wav"))
+                .withLength(1).withFade(0.5).withSilenceLimit(0.5);
+        final AudioRenderer.Track quiet = new AudioRenderer.Track(nsf, 1, temp(".raw"))
+                .withLength(10).withSilenceLimit(0.5).withRaw(true);
+        final EmulatorPool pool = new EmulatorPool(2, false, EmulatorConfig.DEFAULTS);
+        final List<AudioRenderer.Result> results
+                = new AudioRenderer(pool).renderAll(Arrays.asList(tone, quiet));
+        pool.shutdown();
+
+        //the tone goes the full length and fades out
+        assertEquals(rate, results.get(0).getSamples());
+        assertFalse(results.get(0).endedInSilence());
+        final ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(tone.getOutput()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(44 + rate * 2, wav.capacity());
+        assertEquals(0x46464952, wav.getInt(0)); //RIFF
+        assertEquals(rate, wav.getInt(24));
+        assertEquals(rate * 2, wav.getInt(40));
+        int loud = 0;
+        for (int i = rate / 4; i < rate / 2; ++i) {
+            loud = Math.max(loud, Math.abs(wav.getShort(44 + i * 2)));
+        }
+        assertTrue(loud > 1000);
+        for (int i = rate - 10; i < rate; ++i) {
+            assertTrue(Math.abs(wav.getShort(44 + i * 2)) < 10);
+        }
+
+        //the silent one stops well before its 10 seconds
+        assertTrue(results.get(1).endedInSilence());
+        assertTrue(results.get(1).getSamples() < rate * 2);
+        assertEquals(results.get(1).getSamples() * 2, Files.size(quiet.getOutput()));
+    }
+
+    @Test
+    public void leavesOutputOpenWhenSwitchedBack() throws IOException {
+        //whoever hands the emulator an output closes it, not the APU
+        final NES nes = new NES(null, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM(makeNSF());
+        final AudioOutInterface out = mock(AudioOutInterface.class);
+        nes.setAudioOut(out);
+        nes.setAudioOut(null);
+        verify(out, never()).destroy();
+    }
+
+    @Test
+    public void silenceOnlyCountsAfterTheFirstSound() throws IOException {
+        final WavAudioImpl wav = new WavAudioImpl(temp(".raw"), 1000, true);
+        final short[] quiet = new short[5000], loud = {1000};
+        wav.outputSamples(quiet, 0, quiet.length);
+        assertEquals(0, wav.getSilentSamples());
+        wav.outputSamples(loud, 0, 1);
+        wav.outputSamples(quiet, 0, 300);
+        assertEquals(300, wav.getSilentSamples());
+        wav.destroy();
+    }
+
+    @Test
+    public void writesStereo() throws IOException {
+        final Path out = temp(".wav");
+        final WavAudioImpl wav = new WavAudioImpl(out, 1000, false, true);
+        wav.outputStereoSamples(new short[]{0, 1, 2, 3, 4, 5, 6, 7}, 2, 3);
+        //mono goes on both sides
+        wav.outputSamples(new short[]{-8}, 0, 1);
+        wav.destroy();
+        final ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(out)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(44 + 4 * 4, b.capacity());
+        assertEquals(2, b.getShort(22)); //channels
+        assertEquals(4000, b.getInt(28)); //bytes per second
+        assertEquals(4, b.getShort(32)); //bytes per frame
+        assertEquals(16, b.getInt(40)); //data size
+        final short[] expected = {2, 3, 4, 5, 6, 7, -8, -8};
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], b.getShort(44 + i * 2));
+        }
+    }
+}
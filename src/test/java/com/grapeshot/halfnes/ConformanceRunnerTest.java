@@ -0,0 +1,136 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.ConformanceRunner.Result;
+import com.grapeshot.halfnes.ConformanceRunner.Status;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConformanceRunnerTest {
+
+    private static final Path NESTEST = Paths.get("src/test/resources/nestest");
+
+    /**
+     * Little program builder for blargg style tests.
+     */
+    private static class Program {
+
+        private final List<Integer> code = new ArrayList<>();
+
+        Program(int... bytes) {
+            add(bytes);
+        }
+
+        final Program add(int... bytes) {
+            for (int b : bytes) {
+                code.add(b);
+            }
+            return this;
+        }
+
+        //LDA #val, STA addr
+        Program store(int addr, int val) {
+            return add(0xA9, val, 0x8D, addr & 0xff, addr >> 8);
+        }
+
+        Program running() {
+            //status first, otherwise it'd look finished as soon as the
+            //signature went in
+            return store(0x6000, 0x80).store(0x6001, 0xDE).store(0x6002, 0xB0).store(0x6003, 0x61);
+        }
+
+        Program text(String s) {
+            for (int i = 0; i < s.length(); ++i) {
+                store(0x6004 + i, s.charAt(i));
+            }
+            return store(0x6004 + s.length(), 0);
+        }
+
+        int here() {
+            return 0xC000 + code.size();
+        }
+
+        Program hang() {
+            final int at = here();
+            return add(0x4C, at & 0xff, at >> 8);
+        }
+
+        void write(Path file) throws IOException {
+            final TestROM rom = new TestROM();
+            final int[] bytes = new int[code.size()];
+            for (int i = 0; i < bytes.length; ++i) {
+                bytes[i] = code.get(i);
+            }
+            rom.put(0xC000, bytes);
+            rom.vectors(0xC000, 0xC000, 0xC000);
+            Files.copy(Paths.get(rom.write()), file);
+        }
+    }
+
+    private static Program start() {
+        return new Program(0x78, 0xD8, 0xA2, 0xFF, 0x9A); //SEI CLD LDX #$FF TXS
+    }
+
+    private static Program finish(int code, String message) {
+        return start().running()
+                //take a few frames about it
+                .add(0xA2, 0x00, 0xA0, 0x00, //LDX #0 LDY #0
+                        0xCA, 0xD0, 0xFD, //DEX BNE -3
+                        0x88, 0xD0, 0xFA) //DEY BNE -6
+                .text(message).store(0x6000, code).hang();
+    }
+
+    @Test
+    public void runsAFolder() throws IOException {
+        final Path dir = Files.createTempDirectory("halfnes");
+        dir.toFile().deleteOnExit();
+        finish(0, "Passed").write(dir.resolve("01-pass.nes"));
+        finish(3, "Failed #3").write(dir.resolve("02-fail.nes"));
+        //asks for a reset, and passes after it
+        final Program reset = start().running()
+                .add(0xAD, 0x00, 0x61, //LDA $6100
+                        0xC9, 0x42, //CMP #$42
+                        0xF0, 0x0D) //BEQ done
+                .store(0x6100, 0x42).store(0x6000, 0x81);
+        reset.hang().store(0x6000, 0).hang();
+        reset.write(dir.resolve("03-reset.nes"));
+        start().running().hang().write(dir.resolve("04-hang.nes"));
+        //nestest with its log, and again with a log that's wrong on line 100
+        Files.copy(NESTEST.resolve("nestest.nes"), dir.resolve("05-nestest.nes"));
+        Files.copy(NESTEST.resolve("nestest.log"), dir.resolve("05-nestest.log"));
+        Files.copy(NESTEST.resolve("nestest.nes"), dir.resolve("06-badlog.nes"));
+        final List<String> log = Files.readAllLines(NESTEST.resolve("nestest.log"), StandardCharsets.UTF_8);
+        final String line = log.get(99);
+        log.set(99, line.substring(0, 50) + ((line.charAt(50) == '0') ? '1' : '0') + line.substring(51));
+        Files.write(dir.resolve("06-badlog.log"), log, StandardCharsets.UTF_8);
+
+        final EmulatorPool pool = new EmulatorPool(2, false, EmulatorConfig.DEFAULTS);
+        final List<Result> results = new ConformanceRunner(pool, 2).runAll(ConformanceRunner.findROMs(dir));
+        pool.shutdown();
+        for (String f : dir.toFile().list()) {
+            dir.resolve(f).toFile().delete();
+        }
+        final String table = ConformanceRunner.table(results);
+        assertEquals(table, 6, results.size());
+        assertEquals(table, Status.PASS, results.get(0).getStatus());
+        assertEquals("Passed", results.get(0).getMessage());
+        assertTrue(results.get(0).getFrames() > 5);
+        assertEquals(table, Status.FAIL, results.get(1).getStatus());
+        assertEquals(3, results.get(1).getCode());
+        assertEquals("Failed #3", results.get(1).getMessage());
+        assertEquals(table, Status.PASS, results.get(2).getStatus());
+        assertEquals(table, Status.TIMEOUT, results.get(3).getStatus());
+        assertEquals(120, results.get(3).getFrames());
+        assertEquals(table, Status.PASS, results.get(4).getStatus());
+        assertEquals(table, Status.FAIL, results.get(5).getStatus());
+        assertTrue(table, results.get(5).getMessage().startsWith("line 100:"));
+        assertTrue(table, table.contains("3 passed, 2 failed, 1 timed out, 0 errors"));
+    }
+}
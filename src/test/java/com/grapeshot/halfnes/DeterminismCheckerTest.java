@@ -0,0 +1,80 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.DeterminismChecker.Component;
+import com.grapeshot.halfnes.DeterminismChecker.Divergence;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DeterminismCheckerTest {
+
+    private static final String NESTEST = "src/test/resources/nestest/nestest.nes";
+    private static final int FRAMES = 120;
+
+    //wait a bit, press start to run the official opcode tests
+    private static byte[] input(int startFrame) {
+        final byte[] in = new byte[FRAMES * 2];
+        in[startFrame * 2] = 0x08;
+        in[startFrame * 2 + 1] = 0x08;
+        return in;
+    }
+
+    private static Path record() throws IOException {
+        final Path hashes = Files.createTempFile("halfnes", ".hashes");
+        hashes.toFile().deleteOnExit();
+        final DeterminismChecker checker = new DeterminismChecker(NESTEST, EmulatorConfig.DEFAULTS);
+        checker.setInput(input(30));
+        checker.record(hashes, FRAMES);
+        assertEquals(16 + FRAMES * 24, Files.size(hashes));
+        return hashes;
+    }
+
+    @Test
+    public void slowPathsMatch() throws IOException {
+        final Path hashes = record();
+        final DeterminismChecker same = new DeterminismChecker(NESTEST, EmulatorConfig.DEFAULTS);
+        same.setInput(input(30));
+        assertNull(same.check(hashes));
+
+        final DeterminismChecker slow = new DeterminismChecker(NESTEST,
+                EmulatorConfig.DEFAULTS.withTableCPU(true));
+        slow.setInput(input(30));
+        slow.setFastPPU(false);
+        slow.setEventSync(false);
+        assertNull(slow.check(hashes));
+    }
+
+    @Test
+    public void otherInputDiverges() throws IOException {
+        final Path hashes = record();
+        final DeterminismChecker later = new DeterminismChecker(NESTEST, EmulatorConfig.DEFAULTS);
+        later.setInput(input(40));
+        final Divergence d = later.check(hashes);
+        assertNotNull(d);
+        //the press gets read into RAM that frame, the screen changes later
+        assertEquals(30, d.getFrame());
+        assertEquals(EnumSet.of(Component.RAM), d.getComponents());
+    }
+
+    @Test
+    public void reportsFirstBadFrame() throws IOException {
+        final Path hashes = record();
+        try (RandomAccessFile f = new RandomAccessFile(hashes.toFile(), "rw")) {
+            f.seek(16 + 50 * 24);
+            final int b = f.read();
+            f.seek(16 + 50 * 24);
+            f.write(b ^ 1);
+        }
+        final DeterminismChecker checker = new DeterminismChecker(NESTEST, EmulatorConfig.DEFAULTS);
+        checker.setInput(input(30));
+        final Divergence d = checker.check(hashes);
+        assertEquals(50, d.getFrame());
+        assertEquals(EnumSet.of(Component.VIDEO), d.getComponents());
+    }
+}
@@ -0,0 +1,126 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Running a batch of games on the pool has to come out exactly the same as
+ * running them one at a time, and the batch should actually get spread over
+ * more than one worker.
+ */
+public class EmulatorPoolTest {
+
+    private static final int FRAMES = 30;
+
+    //strobes the controller in a loop and keeps a running total in $10,
+    //different for every marker
+    private static String makeROM(int marker) throws IOException {
+        final TestROM rom = new TestROM();
+        rom.put(0xC000,
+                0xA9, 0x01, //LDA #1
+                0x8D, 0x16, 0x40, //STA $4016
+                0xA9, 0x00, //LDA #0
+                0x8D, 0x16, 0x40, //STA $4016
+                0xAD, 0x16, 0x40, //LDA $4016
+                0xA5, 0x10, //LDA $10
+                0x69, marker, //ADC #marker
+                0x85, 0x10, //STA $10
+                0x4C, 0x00, 0xC0); //JMP $C000
+        rom.vectors(0xC000, 0xC000, 0xC000);
+        return rom.write();
+    }
+
+    private static List<String> roms() throws IOException {
+        final List<String> roms = new ArrayList<>();
+        roms.add("src/test/resources/nestest/nestest.nes");
+        for (int i = 1; i <= 5; ++i) {
+            roms.add(makeROM(i * 3));
+        }
+        return roms;
+    }
+
+    //notes which threads ran a game. the first time a thread shows up it
+    //waits for a second one, so one worker can't just do the whole batch
+    private static class Probe implements ControllerInterface {
+
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch two = new CountDownLatch(2);
+
+        @Override
+        public void strobe() {
+            if (threads.add(Thread.currentThread())) {
+                two.countDown();
+                try {
+                    two.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void output(boolean state) {
+        }
+
+        @Override
+        public int peekOutput() {
+            return 0;
+        }
+
+        @Override
+        public int getbyte() {
+            return 0;
+        }
+    }
+
+    private static byte[] alone(String rom, EmulatorConfig config) {
+        final HeadlessUI ui = HeadlessUI.pooled(rom, false, config);
+        ui.getNes().setControllers(mock(ControllerInterface.class), mock(ControllerInterface.class));
+        for (int i = 0; i < FRAMES; ++i) {
+            ui.runFrame();
+        }
+        return ui.getNes().saveState();
+    }
+
+    private static void check(EmulatorConfig config) throws IOException {
+        final List<String> roms = roms();
+        final EmulatorPool pool = new EmulatorPool(3, false, config);
+        final Probe probe = new Probe();
+        final List<HeadlessUI> uis = new ArrayList<>();
+        try {
+            for (String rom : roms) {
+                final HeadlessUI ui = pool.addInstance(rom);
+                ui.getNes().setControllers(probe, probe);
+                uis.add(ui);
+            }
+            pool.runFrames(FRAMES);
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(probe.threads.size() + " threads", probe.threads.size() >= 2);
+        for (int i = 0; i < roms.size(); ++i) {
+            assertArrayEquals(roms.get(i), alone(roms.get(i), config), uis.get(i).getNes().saveState());
+        }
+    }
+
+    @Test
+    public void matchesRunningOneAtATime() throws IOException {
+        check(EmulatorConfig.DEFAULTS);
+    }
+
+    @Test
+    public void matchesRunningOneAtATimeOnPAL() throws IOException {
+        check(EmulatorConfig.DEFAULTS.withRegion(2));
+    }
+}
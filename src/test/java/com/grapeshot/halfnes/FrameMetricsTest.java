@@ -0,0 +1,84 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.metrics.FrameMetrics;
+import com.grapeshot.halfnes.metrics.FrameMetrics.Counter;
+import com.grapeshot.halfnes.metrics.FrameMetrics.Phase;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameMetricsTest {
+
+    //NROM program with all 64 sprites on the same lines and rendering on
+    private static final int[] RESET = {
+        0x78, //SEI
+        0xD8, //CLD
+        0xA2, 0xFF, //LDX #$FF
+        0x9A, //TXS
+        0x2C, 0x02, 0x20, //BIT $2002
+        0x10, 0xFB, //BPL -5
+        0x2C, 0x02, 0x20, //BIT $2002
+        0x10, 0xFB, //BPL -5
+        0xA9, 0x40, //LDA #$40
+        0xA2, 0x00, //LDX #$00
+        0x9D, 0x00, 0x02, //STA $0200,X
+        0xE8, //INX
+        0xD0, 0xFA, //BNE -6
+        0xA9, 0x80, 0x8D, 0x00, 0x20, //NMI on
+        0xA9, 0x18, 0x8D, 0x01, 0x20, //rendering on
+        //busy loop, a JMP to itself would get skipped as idle
+        0xE6, 0x00, //INC $00
+        0x4C, 0x23, 0xC0 //JMP $C023
+    };
+    private static final int[] NMI = {
+        0xA9, 0x02, 0x8D, 0x14, 0x40, //sprite DMA from page 2
+        0x40 //RTI
+    };
+
+    @Test
+    public void countsFrames() throws IOException {
+        final TestROM rom = new TestROM();
+        rom.put(0xC000, RESET);
+        rom.put(0xC100, NMI);
+        rom.vectors(0xC000, 0xC100, 0xC105);
+        final NES nes = new NES(null, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM(rom.write());
+        for (int i = 0; i < 10; ++i) {
+            nes.frameAdvance();
+        }
+        final FrameMetrics m = nes.getMetrics();
+        assertEquals(10, m.getFrames());
+        final long dots = m.getLast(Counter.PPU_DOTS);
+        assertTrue(dots + " dots", dots == 262 * 341 || dots == 262 * 341 - 1);
+        final long apu = m.getLast(Counter.APU_CYCLES);
+        assertTrue(apu + " APU cycles", Math.abs(apu - 29781) <= 1);
+        assertTrue(m.getLast(Counter.INSTRUCTIONS) > 5000);
+        //8 lines with more than 8 sprites on them
+        assertEquals(8, m.getLast(Counter.SPRITE_OVERFLOWS));
+        assertEquals(0, m.getTotal(Counter.MAPPER_IRQS));
+        assertEquals(10, m.getHistogram(Phase.FRAME).getCount());
+        assertTrue(m.getLastNanos(Phase.FRAME) >= m.getLastNanos(Phase.CPU_PPU));
+        assertTrue(m.getLastNanos(Phase.CPU_PPU) > 0);
+        m.reset();
+        assertEquals(0, m.getFrames());
+    }
+
+    private static int registered() throws JMException {
+        return ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("com.grapeshot.halfnes:type=FrameMetrics,*"), null).size();
+    }
+
+    @Test
+    public void windowedInstancesDontClash() throws JMException {
+        final int before = registered();
+        final NES one = new NES(null), two = new NES(null);
+        assertEquals(before + 2, registered());
+        one.getMetrics().unregister();
+        two.getMetrics().unregister();
+        assertEquals(before, registered());
+    }
+}
@@ -0,0 +1,72 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.mappers.Mapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Instances running the same ROM share one copy of it, but CHR RAM is still
+ * each instance's own.
+ */
+public class ROMCacheTest {
+
+    private static TestROM makeROM(boolean chrram, int marker) {
+        final TestROM rom = new TestROM(chrram);
+        rom.put(0xC000, 0x4C, 0x00, 0xC0);
+        rom.put(0xD000, marker);
+        rom.vectors(0xC000, 0xC000, 0xC000);
+        return rom;
+    }
+
+    private static Mapper load(String path) {
+        final NES nes = new NES(null, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM(path);
+        return nes.getCPURAM().mapper;
+    }
+
+    @Test
+    public void sameContentsShareOneImage() throws IOException {
+        //two different files with the same thing in them
+        final String a = makeROM(false, 1).write(), b = makeROM(false, 1).write();
+        final ROMCache.Image image = ROMCache.get(a);
+        assertSame(image, ROMCache.get(b));
+        assertSame(image.slice(16, 16384), ROMCache.get(b).slice(16, 16384));
+        assertEquals(16 + 16384 + 8192, image.length());
+        assertNotSame(image, ROMCache.get(makeROM(false, 2).write()));
+    }
+
+    @Test
+    public void changedFileIsHashedAgain() throws IOException {
+        final String path = makeROM(false, 4).write();
+        final ROMCache.Image before = ROMCache.get(path);
+        assertSame(before, ROMCache.get(path));
+        //same size, different contents, newer mtime
+        final String other = makeROM(false, 5).write();
+        Files.copy(Paths.get(other), Paths.get(path),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.setLastModifiedTime(Paths.get(path),
+                FileTime.fromMillis(Files.getLastModifiedTime(Paths.get(path)).toMillis() + 5000));
+        final ROMCache.Image after = ROMCache.get(path);
+        assertNotSame(before, after);
+        assertEquals(5, after.get(16 + 0x1000));
+    }
+
+    @Test
+    public void chrRAMIsNotShared() throws IOException {
+        final String path = makeROM(true, 3).write();
+        final Mapper one = load(path), two = load(path);
+        assertEquals(3, one.cartRead(0xD000));
+        assertEquals(3, two.cartRead(0xD000));
+        one.ppuWrite(0x0123, 0x55);
+        two.ppuWrite(0x0123, 0xAA);
+        assertEquals(0x55, one.ppuRead(0x0123));
+        assertEquals(0xAA, two.ppuRead(0x0123));
+    }
+}
@@ -0,0 +1,196 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import com.grapeshot.halfnes.ui.GUIInterface;
+import java.io.IOException;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Drawing lines with PPU.renderLine has to come out exactly the same as going
+ * through clock() for every dot, including on lines where the registers get
+ * changed part way through.
+ */
+public class RenderLineTest {
+
+    private static final int[] RESET = {
+        0x78, //SEI
+        0xD8, //CLD
+        0xA2, 0xFF, //LDX #$FF
+        0x9A, //TXS
+        0x2C, 0x02, 0x20, //BIT $2002
+        0x10, 0xFB, //BPL -5
+        0x2C, 0x02, 0x20, //BIT $2002
+        0x10, 0xFB, //BPL -5
+        //sprites in page 2, every byte = its own address
+        0xA2, 0x00, //LDX #$00
+        0x8A, //TXA
+        0x9D, 0x00, 0x02, //STA $0200,X
+        0xE8, //INX
+        0xD0, 0xF9, //BNE -7
+        //palette
+        0xA9, 0x3F, //LDA #$3F
+        0x8D, 0x06, 0x20, //STA $2006
+        0xA9, 0x00, //LDA #$00
+        0x8D, 0x06, 0x20, //STA $2006
+        0xA2, 0x00, //LDX #$00
+        0x8E, 0x07, 0x20, //STX $2007
+        0xE8, //INX
+        0xE0, 0x20, //CPX #$20
+        0xD0, 0xF8, //BNE -8
+        //both nametables
+        0xA9, 0x20, //LDA #$20
+        0x8D, 0x06, 0x20, //STA $2006
+        0xA9, 0x00, //LDA #$00
+        0x8D, 0x06, 0x20, //STA $2006
+        0xA0, 0x08, //LDY #$08
+        0xA2, 0x00, //LDX #$00
+        0x8E, 0x07, 0x20, //STX $2007
+        0xE8, //INX
+        0xD0, 0xFA, //BNE -6
+        0x88, //DEY
+        0xD0, 0xF7, //BNE -9
+        0xA9, 0x80, //LDA #$80
+        0x8D, 0x00, 0x20, //STA $2000 (NMI on)
+        0xA9, 0x1E, //LDA #$1E
+        0x8D, 0x01, 0x20, //STA $2001 (rendering on)
+        //loop: $C04D
+        //keep changing scroll, emphasis, grayscale and whether the background
+        //is on, with delays that land the writes all over the screen
+        0xE6, 0x00, //INC $00
+        0xA5, 0x00, //LDA $00
+        0x8D, 0x05, 0x20, //STA $2005
+        0x29, 0xE9, //AND #$E9
+        0x09, 0x16, //ORA #$16
+        0x8D, 0x01, 0x20, //STA $2001
+        0xA6, 0x00, //LDX $00
+        0xCA, //DEX
+        0xD0, 0xFD, //BNE -3
+        0x4C, 0x4D, 0xC0 //JMP loop
+    };
+    //replaces the loop in RESET for CNROM: switch CHR banks instead, which
+    //doesn't touch the PPU registers so the lines all stay fast
+    private static final int[] BANKSWITCH = {
+        0xE6, 0x00, //INC $00
+        0xA5, 0x00, //LDA $00
+        0x8D, 0x00, 0x80, //STA $8000
+        0xA6, 0x00, //LDX $00
+        0xCA, //DEX
+        0xD0, 0xFD, //BNE -3
+        0x4C, 0x4D, 0xC0 //JMP loop
+    };
+    private static final int[] NMI = {
+        0x48, //PHA
+        0xA9, 0x02, //LDA #$02
+        0x8D, 0x14, 0x40, //STA $4014 (sprite DMA)
+        0x68, //PLA
+        0x40 //RTI
+    };
+
+    private static class FrameGrabber implements GUIInterface {
+
+        private NES nes;
+        private int[] frame;
+
+        @Override
+        public NES getNes() {
+            return nes;
+        }
+
+        @Override
+        public void setNES(NES nes) {
+            this.nes = nes;
+        }
+
+        @Override
+        public void setFrame(int[] frame, int[] bgcolor, boolean dotcrawl) {
+            this.frame = frame.clone();
+        }
+
+        @Override
+        public void messageBox(String message) {
+            throw new AssertionError(message);
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void render() {
+        }
+
+        @Override
+        public void loadROMs(String path) {
+        }
+    }
+
+    private static NES start(String rom, FrameGrabber gui, boolean fastLines) {
+        final NES nes = new NES(gui, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM(rom);
+        nes.setControllers(mock(ControllerInterface.class), mock(ControllerInterface.class));
+        nes.getCPURAM().ppu.fastLines = fastLines;
+        return nes;
+    }
+
+    @Test
+    public void matchesDotByDot() throws IOException {
+        final TestROM rom = new TestROM();
+        rom.put(0xC000, RESET);
+        rom.put(0xC070, NMI);
+        rom.vectors(0xC000, 0xC070, 0xC077);
+        for (int i = 0; i < 8192; ++i) {
+            rom.putCHR(i, i * 37 + (i >> 8));
+        }
+        final String path = rom.write();
+
+        final FrameGrabber slowgui = new FrameGrabber(), fastgui = new FrameGrabber();
+        final NES slow = start(path, slowgui, false);
+        final NES fast = start(path, fastgui, true);
+        final PPU ppu = fast.getCPURAM().ppu;
+        boolean sawFast = false, sawSlow = false;
+        for (int i = 0; i < 120; ++i) {
+            slow.frameAdvance();
+            fast.frameAdvance();
+            assertArrayEquals("frame " + i, slowgui.frame, fastgui.frame);
+            assertArrayEquals("frame " + i, slow.saveState(), fast.saveState());
+            for (int line = 0; line < 240; ++line) {
+                if (ppu.wasFastLine(line)) {
+                    sawFast = true;
+                } else {
+                    sawSlow = true;
+                }
+            }
+        }
+        //should have had plenty of both
+        assertTrue(sawFast);
+        assertTrue(sawSlow);
+    }
+
+    @Test
+    public void followsCHRBankSwitchesPartWayThroughATile() throws IOException {
+        //the bank can change between the low and high plane fetches
+        final TestROM rom = new TestROM(3, 2);
+        rom.put(0xC000, RESET);
+        rom.put(0xC04D, BANKSWITCH);
+        rom.put(0xC070, NMI);
+        rom.vectors(0xC000, 0xC070, 0xC077);
+        for (int i = 0; i < 16384; ++i) {
+            rom.putCHR(i, i * 37 + (i >> 8));
+        }
+        final String path = rom.write();
+
+        final FrameGrabber slowgui = new FrameGrabber(), fastgui = new FrameGrabber();
+        final NES slow = start(path, slowgui, false);
+        final NES fast = start(path, fastgui, true);
+        assertTrue(fast.getCPURAM().ppu.mapper.usesTileCache());
+        for (int i = 0; i < 60; ++i) {
+            slow.frameAdvance();
+            fast.frameAdvance();
+            assertArrayEquals("frame " + i, slowgui.frame, fastgui.frame);
+            assertArrayEquals("frame " + i, slow.saveState(), fast.saveState());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.grapeshot.halfnes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Builds little NROM images (16k PRG at $C000, 8k CHR ROM or RAM) for tests
+ * that need a program of their own, or the same with another mapper number
+ * and more CHR.
+ */
+class TestROM {
+
+    private final byte[] rom;
+
+    TestROM() {
+        this(false);
+    }
+
+    TestROM(boolean chrram) {
+        this(0, chrram ? 0 : 1);
+    }
+
+    /**
+     * @param mapper iNES mapper number
+     * @param chrbanks number of 8k CHR ROM banks, 0 for CHR RAM
+     */
+    TestROM(int mapper, int chrbanks) {
+        rom = new byte[16 + 16384 + 8192 * chrbanks];
+        rom[0] = 'N';
+        rom[1] = 'E';
+        rom[2] = 'S';
+        rom[3] = 0x1A;
+        rom[4] = 1; //16k PRG
+        rom[5] = (byte) chrbanks;
+        rom[6] = (byte) ((mapper & 0xf) << 4);
+        rom[7] = (byte) (mapper & 0xf0);
+    }
+
+    /**
+     * Puts code or data into PRG.
+     *
+     * @param addr CPU address, $C000-$FFFF
+     * @param data bytes to put there
+     */
+    void put(int addr, int... data) {
+        for (int i = 0; i < data.length; ++i) {
+            rom[16 + (addr & 0x3fff) + i] = (byte) data[i];
+        }
+    }
+
+    /**
+     * Sets the reset, NMI and IRQ vectors.
+     */
+    void vectors(int reset, int nmi, int irq) {
+        put(0xFFFA, nmi & 0xff, nmi >> 8, reset & 0xff, reset >> 8, irq & 0xff, irq >> 8);
+    }
+
+    void putCHR(int addr, int data) {
+        rom[16 + 16384 + addr] = (byte) data;
+    }
+
+    /**
+     * Writes the image to a temp file that goes away when the JVM exits.
+     *
+     * @return path to load
+     */
+    String write() throws IOException {
+        final File f = File.createTempFile("halfnes", ".nes");
+        f.deleteOnExit();
+        Files.write(f.toPath(), rom);
+        return f.getPath();
+    }
+}
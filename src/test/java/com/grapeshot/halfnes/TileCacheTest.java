@@ -0,0 +1,57 @@
+package com.grapeshot.halfnes;
+
+import com.grapeshot.halfnes.mappers.Mapper;
+import java.io.IOException;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rows out of the decoded tile cache have to match what ppuRead gives, and
+ * stay matching after CHR RAM gets written.
+ */
+public class TileCacheTest {
+
+    private static Mapper load(boolean chrram) throws IOException {
+        final TestROM rom = new TestROM(chrram);
+        //just sit there
+        rom.put(0xC000, 0x4C, 0x00, 0xC0);
+        rom.vectors(0xC000, 0xC000, 0xC000);
+        if (!chrram) {
+            for (int i = 0; i < 8192; ++i) {
+                rom.putCHR(i, i * 37 + (i >> 8));
+            }
+        }
+        final NES nes = new NES(null, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM(rom.write());
+        return nes.getCPURAM().mapper;
+    }
+
+    private static void checkAllRows(Mapper mapper) {
+        for (int tile = 0; tile < 0x2000; tile += 16) {
+            for (int row = 0; row < 8; ++row) {
+                final int lo = mapper.ppuRead(tile + row), hi = mapper.ppuRead(tile + row + 8);
+                assertEquals(lo | (hi << 8) | (utils.reverseByte(lo) << 16) | (utils.reverseByte(hi) << 24),
+                        mapper.tileRow(tile + row));
+            }
+        }
+    }
+
+    @Test
+    public void matchesCHRROM() throws IOException {
+        final Mapper mapper = load(false);
+        assertTrue(mapper.usesTileCache());
+        checkAllRows(mapper);
+    }
+
+    @Test
+    public void followsCHRRAMWrites() throws IOException {
+        final Mapper mapper = load(true);
+        assertTrue(mapper.usesTileCache());
+        checkAllRows(mapper);
+        for (int i = 0; i < 0x2000; i += 3) {
+            mapper.ppuWrite(i, (i * 11) & 0xff);
+        }
+        checkAllRows(mapper);
+    }
+}
@@ -0,0 +1,56 @@
+package com.grapeshot.halfnes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+
+public class XXHash64Test {
+
+    private static long hash(String s, long seed) {
+        final XXHash64 h = new XXHash64();
+        h.reset(seed);
+        final byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        h.update(b, 0, b.length);
+        return h.digest();
+    }
+
+    @Test
+    public void knownValues() {
+        assertEquals(0xEF46DB3751D8E999L, hash("", 0));
+        assertEquals(0xD24EC4F1A98C6E5BL, hash("a", 0));
+        assertEquals(0x44BC2CF5AD770999L, hash("abc", 0));
+        assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition", 0));
+    }
+
+    @Test
+    public void intsAndShortsAreTheirBytes() {
+        final Random r = new Random(1);
+        for (int n = 0; n < 200; ++n) {
+            final XXHash64 bytes = new XXHash64(), mixed = new XXHash64();
+            bytes.reset(n);
+            mixed.reset(n);
+            for (int i = r.nextInt(100); i > 0; --i) {
+                final int v = r.nextInt();
+                switch (r.nextInt(3)) {
+                    case 0:
+                        mixed.updateByte(v);
+                        bytes.updateByte(v);
+                        break;
+                    case 1:
+                        mixed.updateShort(v);
+                        bytes.updateByte(v);
+                        bytes.updateByte(v >> 8);
+                        break;
+                    default:
+                        mixed.updateInt(v);
+                        for (int b = 0; b < 4; ++b) {
+                            bytes.updateByte(v >> (b * 8));
+                        }
+                        break;
+                }
+            }
+            assertEquals(bytes.digest(), mixed.digest());
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.grapeshot.halfnes.audio;
+
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioRingBufferTest {
+
+    @Test
+    public void dropsWhenFull() {
+        final AudioRingBuffer ring = new AudioRingBuffer(10);
+        final int cap = ring.capacity();
+        for (int i = 0; i < cap; ++i) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(-1));
+        assertEquals(1, ring.getOverruns());
+        final int[] out = new int[cap + 5];
+        assertEquals(cap, ring.poll(out, 0, out.length));
+        for (int i = 0; i < cap; ++i) {
+            assertEquals(i, out[i]);
+        }
+        assertEquals(0, ring.poll(out, 0, out.length));
+    }
+
+    @Test
+    public void blockOfferTakesWhatFits() {
+        final AudioRingBuffer ring = new AudioRingBuffer(10);
+        assertEquals(16, ring.capacity());
+        final int[] block = new int[12];
+        for (int i = 0; i < block.length; ++i) {
+            block[i] = i - 6;
+        }
+        assertEquals(10, ring.offer(block, 2, 10));
+        //only room for 6 more of these 10
+        assertEquals(6, ring.offer(block, 2, 10));
+        assertEquals(4, ring.getOverruns());
+        final int[] out = new int[16];
+        assertEquals(16, ring.poll(out, 0, out.length));
+        for (int i = 0; i < 16; ++i) {
+            assertEquals(i % 10 - 4, out[i]);
+        }
+    }
+
+    @Test
+    public void roundsUpToAPowerOfTwo() {
+        assertEquals(1, new AudioRingBuffer(0).capacity());
+        assertEquals(1, new AudioRingBuffer(1).capacity());
+        assertEquals(4096, new AudioRingBuffer(4096).capacity());
+        assertEquals(8192, new AudioRingBuffer(4097).capacity());
+    }
+
+    @Test
+    public void everySampleComesOutInOrderAcrossThreads() throws InterruptedException {
+        final AudioRingBuffer ring = new AudioRingBuffer(100);
+        final int total = 50000;
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < total; ) {
+                if (ring.offer(i)) {
+                    ++i;
+                } else {
+                    //let the reader run if there's only one cpu
+                    Thread.yield();
+                }
+            }
+        });
+        writer.start();
+        final int[] out = new int[37];
+        int expected = 0;
+        while (expected < total) {
+            final int n = ring.poll(out, 0, out.length);
+            if (n == 0) {
+                Thread.yield();
+            }
+            for (int i = 0; i < n; ++i) {
+                assertEquals(expected++, out[i]);
+            }
+        }
+        writer.join();
+        assertEquals(0, ring.size());
+    }
+}
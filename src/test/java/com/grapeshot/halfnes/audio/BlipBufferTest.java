@@ -0,0 +1,46 @@
+package com.grapeshot.halfnes.audio;
+
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlipBufferTest {
+
+    private static final double CPS = 1789773.0 / 44100;
+
+    @Test
+    public void stepSettlesAtItsHeight() {
+        final BlipBuffer blip = new BlipBuffer(CPS, 29781 * 2);
+        final int[] out = new int[blip.maxSamples()];
+        blip.addDelta(1000, 5000);
+        blip.endFrame(29781);
+        final int n = blip.readSamples(out);
+        //before the step (and the pulse's lead in) nothing
+        assertEquals(0, out[0]);
+        //well after it, exactly the step
+        for (int i = n - 100; i < n; ++i) {
+            assertEquals(5000, out[i]);
+        }
+    }
+
+    @Test
+    public void samplesPerFrameAverageOut() {
+        final BlipBuffer blip = new BlipBuffer(CPS, 29781 * 2);
+        final int[] out = new int[blip.maxSamples()];
+        long total = 0;
+        int n = 0, min = Integer.MAX_VALUE, max = 0;
+        for (int frame = 0; frame < 600; ++frame) {
+            blip.addDelta(frame * 37 % 29781, (frame & 1) == 0 ? 1000 : -1000);
+            blip.endFrame(29781);
+            n = blip.readSamples(out);
+            total += n;
+            min = Math.min(min, n);
+            max = Math.max(max, n);
+        }
+        //never more than one sample off from the real rate
+        assertTrue(Math.abs(total - 600 * 29781 / CPS) <= 1);
+        assertTrue(max - min <= 1);
+        //and every step up came back down
+        assertEquals(0, out[n - 1]);
+    }
+}
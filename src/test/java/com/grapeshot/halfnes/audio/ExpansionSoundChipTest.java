@@ -0,0 +1,161 @@
+package com.grapeshot.halfnes.audio;
+
+import com.grapeshot.halfnes.state.StateReader;
+import com.grapeshot.halfnes.state.StateWriter;
+import java.util.Random;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs each expansion chip one cycle at a time and in random sized bunches
+ * with clock(cycles, out, off), and checks the output is the same. Then
+ * checks a chip loaded from a save state carries on exactly like the one the
+ * state came from.
+ */
+public class ExpansionSoundChipTest {
+
+    private static final int NOTES = 8, NOTE = 20000;
+
+    /**
+     * @param make makes a new chip
+     * @param note register writes that start note n
+     */
+    private static void check(Supplier<ExpansionSoundChip> make,
+            BiConsumer<ExpansionSoundChip, Integer> note) {
+        final ExpansionSoundChip one = make.get(), bulk = make.get();
+        final int[] expected = new int[NOTES * NOTE], actual = new int[NOTES * NOTE];
+        final Random r = new Random(4);
+        int pos = 0;
+        for (int n = 0; n < NOTES; ++n) {
+            note.accept(one, n);
+            note.accept(bulk, n);
+            for (int i = n * NOTE; i < (n + 1) * NOTE; ++i) {
+                one.clock(1);
+                expected[i] = one.getval();
+            }
+            while (pos < (n + 1) * NOTE) {
+                final int len = Math.min(1 + r.nextInt(2000), (n + 1) * NOTE - pos);
+                bulk.clock(len, actual, pos);
+                pos += len;
+            }
+        }
+        assertArrayEquals(expected, actual);
+        int loud = 0;
+        for (int v : expected) {
+            loud = Math.max(loud, Math.abs(v));
+        }
+        assertTrue("it's actually playing something", loud > 0);
+
+        //save in the middle of a note, load into a fresh chip
+        final StateWriter w = new StateWriter();
+        one.saveState(w);
+        final ExpansionSoundChip loaded = make.get();
+        loaded.loadState(new StateReader(w.toByteArray()));
+        note.accept(one, 3);
+        note.accept(loaded, 3);
+        final int[] after = new int[NOTE], afterLoad = new int[NOTE];
+        one.clock(NOTE, after, 0);
+        loaded.clock(NOTE, afterLoad, 0);
+        assertArrayEquals(after, afterLoad);
+    }
+
+    @Test
+    public void vrc6() {
+        check(VRC6SoundChip::new, (c, n) -> {
+            c.write(0x9000, 0x3F + (n << 4));
+            c.write(0x9001, 50 + 37 * n);
+            c.write(0x9002, 0x80);
+            c.write(0xa000, 0x2A);
+            c.write(0xa001, 200 - 11 * n);
+            c.write(0xa002, 0x80 | (n & 1));
+            c.write(0xb000, 0x20 + n);
+            c.write(0xb001, 40 + 13 * n);
+            c.write(0xb002, 0x80);
+        });
+    }
+
+    @Test
+    public void mmc5() {
+        check(MMC5SoundChip::new, (c, n) -> {
+            c.write(0x0, ((n & 1) == 0) ? 0x9F : 0x03);
+            c.write(0x2, 60 + 29 * n);
+            c.write(0x3, 0x08);
+            c.write(0x4, 0x7A);
+            c.write(0x6, 150 - 9 * n);
+            c.write(0x7, 0x18 | (n & 1));
+            c.write(0x11, 8 * n + 1);
+        });
+    }
+
+    @Test
+    public void sunsoft5B() {
+        check(Sunsoft5BSoundChip::new, (c, n) -> {
+            for (int ch = 0; ch < 3; ++ch) {
+                c.write(2 * ch, 40 + 31 * n + 7 * ch);
+                c.write(2 * ch + 1, ch & 1);
+                c.write(8 + ch, (ch == n % 3) ? 0 : 15 - n);
+            }
+            c.write(7, n & 3);
+        });
+    }
+
+    @Test
+    public void namco163() {
+        check(Namco163SoundChip::new, (c, n) -> {
+            for (int i = 0; i < 16; ++i) {
+                c.write(i, (i * 0x23 + n) & 0xff);
+            }
+            for (int ch = 0; ch < 4; ++ch) {
+                final int off = 0x80 - 8 * (ch + 1);
+                c.write(off, 0x40 + 17 * n + ch);
+                c.write(off + 2, 0x08 + ch);
+                c.write(off + 4, 0xE0);
+                c.write(off + 6, 4 * ch);
+                c.write(off + 7, (ch == 0) ? 0x30 | (15 - n) : 12);
+            }
+        });
+    }
+
+    @Test
+    public void fds() {
+        check(FDSSoundChip::new, (c, n) -> {
+            c.write(0x4023, 1);
+            c.write(0x4089, 0x80);
+            for (int i = 0; i < 64; ++i) {
+                c.write(0x4040 + i, (i < 32) ? i * 2 : 127 - i * 2);
+            }
+            c.write(0x4089, n & 3);
+            c.write(0x4080, ((n & 1) == 0) ? 0xA0 : 0x05);
+            c.write(0x4082, 0x80 + 19 * n);
+            c.write(0x4083, 0x02);
+            c.write(0x4087, 0x80);
+            c.write(0x4088, n);
+            c.write(0x4086, 0x30);
+            c.write(0x4087, 0x00);
+            c.write(0x4084, 0x82);
+            c.write(0x408A, 0xff);
+        });
+    }
+
+    private static void vrc7Note(ExpansionSoundChip c, int n) {
+        final int ch = n % 6;
+        c.write(0x30 + ch, ((n + 1) << 4) | (n & 3));
+        c.write(0x10 + ch, 172 + 29 * n);
+        c.write(0x20 + ch, 0x10 | (((n & 3) + 2) << 1));
+        //let the last one go
+        c.write(0x20 + (n + 5) % 6, 0x04);
+    }
+
+    @Test
+    public void vrc7() {
+        check(VRC7FixedPointSoundChip::new, ExpansionSoundChipTest::vrc7Note);
+    }
+
+    @Test
+    public void vrc7Reference() {
+        check(VRC7SoundChip::new, ExpansionSoundChipTest::vrc7Note);
+    }
+}
@@ -0,0 +1,107 @@
+package com.grapeshot.halfnes.audio;
+
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResamplerTest {
+
+    private static final double CLOCK = 1789773.0;
+    private static final int FRAME = 29781;
+
+    //feeds it cycles of some level the same way the APU does, with the
+    //partly added up group carrying over from one frame to the next
+    private static class Feeder {
+
+        private final Resampler r;
+        private final int[] out;
+        private int cycle, sum, n;
+
+        Feeder(Resampler r) {
+            this.r = r;
+            out = new int[r.maxSamples()];
+        }
+
+        int frame(Level level) {
+            for (int c = 0; c < FRAME; ++c) {
+                sum += level.at(cycle++);
+                if (++n >= r.getDecimation()) {
+                    r.write(sum);
+                    sum = 0;
+                    n = 0;
+                }
+            }
+            return r.readSamples(out);
+        }
+    }
+
+    private interface Level {
+
+        int at(int cycle);
+    }
+
+    @Test
+    public void samplesPerFrameAverageOut() {
+        for (int rate : new int[]{22050, 44100, 48000, 96000}) {
+            final Feeder f = new Feeder(new Resampler(CLOCK, rate, FRAME * 2));
+            long total = 0;
+            int min = Integer.MAX_VALUE, max = 0;
+            for (int i = 0; i < 600; ++i) {
+                final int n = f.frame(c -> 0);
+                total += n;
+                min = Math.min(min, n);
+                max = Math.max(max, n);
+            }
+            //the exact rate, give or take the filter delay and one sample
+            assertTrue(rate + ": " + total, Math.abs(total - 600.0 * FRAME * rate / CLOCK) <= 2);
+            //and no frame gets more than a sample more or less than it should
+            final double exact = FRAME * (double) rate / CLOCK;
+            assertTrue(rate + ": " + min + "-" + max, min >= Math.floor(exact) - 1 && max <= Math.ceil(exact) + 1);
+        }
+    }
+
+    @Test
+    public void steadyLevelComesOutUnchanged() {
+        final Resampler r = new Resampler(CLOCK, 48000, FRAME * 2);
+        r.clear(1234);
+        final Feeder f = new Feeder(r);
+        final int n = f.frame(c -> 1234);
+        for (int i = 0; i < n; ++i) {
+            assertEquals(1234, f.out[i]);
+        }
+    }
+
+    @Test
+    public void toneAboveNyquistIsCutOff() {
+        final Feeder f = new Feeder(new Resampler(CLOCK, 44100, FRAME * 2));
+        //square wave at ~30 kHz, which point sampling would alias right down
+        //into the audible range
+        final Level tone = c -> (c / 30 % 2 == 0) ? 10000 : 0;
+        f.frame(tone);
+        final int n = f.frame(tone);
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int i = 0; i < n; ++i) {
+            min = Math.min(min, f.out[i]);
+            max = Math.max(max, f.out[i]);
+        }
+        //what's left is about the average level, with only a little ripple
+        assertTrue(min > 4000 && max < 6000);
+    }
+
+    @Test
+    public void longFrameLosesNothing() {
+        //made for frames a tenth as long as the ones it gets
+        final Resampler r = new Resampler(CLOCK, 44100, FRAME / 10);
+        final int[] out = new int[r.maxSamples()];
+        final int size = r.maxSamples();
+        for (int c = 0; c < FRAME; c += r.getDecimation()) {
+            r.write(0);
+        }
+        assertTrue(r.maxSamples() > size);
+        int total = 0, n;
+        while ((n = r.readSamples(out)) > 0) {
+            total += n;
+        }
+        assertTrue(total + " samples", Math.abs(total - FRAME * 44100 / CLOCK) <= 2);
+    }
+}
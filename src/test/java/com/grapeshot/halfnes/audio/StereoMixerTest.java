@@ -0,0 +1,69 @@
+package com.grapeshot.halfnes.audio;
+
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+
+public class StereoMixerTest {
+
+    @Test
+    public void pansAndAddsUp() {
+        final StereoMix mix = StereoMix.DEFAULTS
+                .withPan(StereoMix.PULSE1, -1)
+                .withPan(StereoMix.PULSE2, 1)
+                .withPan(StereoMix.TRIANGLE, 0)
+                .withGain(StereoMix.NOISE, 0)
+                .withPan(StereoMix.EXPANSION, 0.5);
+        final StereoMixer mixer = new StereoMixer();
+        mixer.setChannels(mix, 1, 1);
+        assertEquals(6, mixer.getChannels());
+        final int n = 3;
+        final int[][] ch = new int[6][n];
+        for (int i = 0; i < n; ++i) {
+            ch[StereoMix.PULSE1][i] = 1000;
+            ch[StereoMix.PULSE2][i] = 2000;
+            ch[StereoMix.TRIANGLE][i] = 400;
+            ch[StereoMix.NOISE][i] = 9999;
+            ch[StereoMix.EXPANSION][i] = 800;
+        }
+        final int[] left = new int[n], right = new int[n];
+        mixer.mix(ch, n, left, right);
+        for (int i = 0; i < n; ++i) {
+            //pulse 1 all left, pulse 2 all right, triangle both, noise
+            //nowhere, the expansion chip at half on the left
+            assertEquals(1000 + 400 + 400, left[i]);
+            assertEquals(2000 + 400 + 800, right[i]);
+        }
+    }
+
+    @Test
+    public void settingsSurviveThePreferences() {
+        final StereoMix mix = StereoMix.DEFAULTS.withPan(StereoMix.DMC, 0.25).withGain(StereoMix.NOISE, 1.5);
+        assertEquals(mix, StereoMix.parse(mix.toString(), null));
+        assertEquals(StereoMix.DEFAULTS, StereoMix.parse("garbage", StereoMix.DEFAULTS));
+        assertEquals(StereoMix.DEFAULTS, StereoMix.parse(null, StereoMix.DEFAULTS));
+    }
+
+    @Test
+    public void loudestMixStillFitsInAnInt() {
+        StereoMix mix = StereoMix.DEFAULTS;
+        for (int c = 0; c < StereoMix.CHANNELS; ++c) {
+            mix = mix.withPan(c, 0).withGain(c, 1e6);
+        }
+        assertEquals(StereoMix.MAX_GAIN, mix.getGain(StereoMix.PULSE1), 0);
+        final StereoMixer mixer = new StereoMixer();
+        mixer.setChannels(mix, 11, 1);
+        final int n = 2;
+        final int[][] ch = new int[16][n];
+        for (int[] c : ch) {
+            c[0] = Short.MIN_VALUE;
+            c[1] = Short.MAX_VALUE;
+        }
+        final int[] left = new int[n], right = new int[n];
+        mixer.mix(ch, n, left, right);
+        final int most = (int) (16 * StereoMix.MAX_GAIN);
+        assertEquals(most * Short.MIN_VALUE, left[0]);
+        assertEquals(most * Short.MAX_VALUE, left[1]);
+        assertEquals(most * Short.MIN_VALUE, right[0]);
+        assertEquals(most * Short.MAX_VALUE, right[1]);
+    }
+}
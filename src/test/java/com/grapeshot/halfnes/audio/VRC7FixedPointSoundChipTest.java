@@ -0,0 +1,83 @@
+package com.grapeshot.halfnes.audio;
+
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays the same notes on VRC7FixedPointSoundChip and on VRC7SoundChip, which
+ * it's meant to sound the same as, and compares the output.
+ */
+public class VRC7FixedPointSoundChipTest {
+
+    private static final int NOTE = 16000, RELEASE = 8000;
+    //a user tone with some of everything turned on: vibrato, AM, feedback,
+    //key scaling and half wave rectified on both operators
+    private static final int[] USERTONE = {0xD2, 0xC1, 0x9A, 0x5D, 0xB6, 0x94, 0x47, 0x28};
+
+    /**
+     * Every built in instrument and the user one, in different octaves and
+     * volumes, going round the 6 channels so they overlap.
+     *
+     * @param chip chip to play
+     * @param step cycles per clock() call, getval() is read after each
+     * @return what getval() said
+     */
+    private static int[] play(ExpansionSoundChip chip, int step) {
+        for (int r = 0; r < USERTONE.length; ++r) {
+            chip.write(r, USERTONE[r]);
+        }
+        final int[] out = new int[16 * (NOTE + RELEASE) / step];
+        int n = 0;
+        for (int i = 0; i < 16; ++i) {
+            final int ch = i % 6;
+            final int fnum = 172 + 29 * i;
+            final int oct = 1 + i % 6;
+            final int sus = (i % 3 == 0) ? 0x20 : 0;
+            chip.write(0x30 + ch, (i << 4) | (i % 4));
+            chip.write(0x10 + ch, fnum & 0xff);
+            chip.write(0x20 + ch, 0x10 | sus | (oct << 1) | (fnum >> 8));
+            for (int c = 0; c < NOTE; c += step) {
+                chip.clock(step);
+                out[n++] = chip.getval();
+            }
+            chip.write(0x20 + ch, sus | (oct << 1) | (fnum >> 8));
+            for (int c = 0; c < RELEASE; c += step) {
+                chip.clock(step);
+                out[n++] = chip.getval();
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void blockSizeDoesntMatter() {
+        final int[] one = play(new VRC7FixedPointSoundChip(), 1);
+        for (int step : new int[]{40, 1000, 8000}) {
+            final int[] block = play(new VRC7FixedPointSoundChip(), step);
+            final int[] expected = new int[block.length];
+            for (int i = 0; i < expected.length; ++i) {
+                expected[i] = one[(i + 1) * step - 1];
+            }
+            assertArrayEquals("clock(" + step + ")", expected, block);
+        }
+    }
+
+    @Test
+    public void matchesFloatingPointChip() {
+        final int[] ref = play(new VRC7SoundChip(), 40);
+        final int[] fixed = play(new VRC7FixedPointSoundChip(), 40);
+        double signal = 0, error = 0;
+        int peak = 0, worst = 0;
+        for (int i = 0; i < ref.length; ++i) {
+            signal += (double) ref[i] * ref[i];
+            error += (double) (fixed[i] - ref[i]) * (fixed[i] - ref[i]);
+            peak = Math.max(peak, Math.abs(ref[i]));
+            worst = Math.max(worst, Math.abs(fixed[i] - ref[i]));
+        }
+        final double snr = 10 * Math.log10(signal / Math.max(error, 1));
+        assertTrue("it's actually playing something", peak > 1000);
+        assertTrue("SNR " + snr + " dB", snr > 40);
+        assertTrue("worst " + worst + " of peak " + peak, worst < peak / 10);
+    }
+}
@@ -0,0 +1,39 @@
+package com.grapeshot.halfnes.metrics;
+
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsAreCloseEnough() {
+        int lastindex = -1;
+        for (long v = 0; v < (1L << 40); v += 1 + v / 97) {
+            final int i = Histogram.index(v);
+            assertTrue("buckets go in order at " + v, i >= lastindex);
+            lastindex = i;
+            final long high = Histogram.highestValue(i);
+            assertTrue(v + " fits in its bucket", high >= v);
+            assertTrue(v + " is close to " + high, high - v <= v / 64);
+            assertEquals(i, Histogram.index(high));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        final Histogram h = new Histogram();
+        for (int i = 1; i <= 10000; ++i) {
+            h.record(i * 1000L);
+        }
+        assertEquals(10000, h.getCount());
+        assertEquals(10000 * 1000L, h.getMax());
+        assertEquals(5000.5 * 1000, h.getMean(), 0.001);
+        assertEquals(5000 * 1000.0, h.getValueAtPercentile(50), 5000 * 1000.0 / 64);
+        assertEquals(9900 * 1000.0, h.getValueAtPercentile(99), 9900 * 1000.0 / 64);
+        assertEquals(10000 * 1000L, h.getValueAtPercentile(100));
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(50));
+    }
+}
@@ -0,0 +1,141 @@
+package com.grapeshot.halfnes.movie;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import com.grapeshot.halfnes.ui.HeadlessUI;
+import com.grapeshot.halfnes.ui.PuppetController;
+import java.io.IOException;
+import java.util.Arrays;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MovieTest {
+
+    private static final String NESTEST = "src/test/resources/nestest/nestest.nes";
+
+    @Test
+    public void roundTrip() throws IOException {
+        final MovieRecorder rec = new MovieRecorder(0x12345678L);
+        final PuppetController pad1 = new PuppetController(), pad2 = new PuppetController();
+        final ControllerInterface port1 = rec.wrap(0, pad1), port2 = rec.wrap(1, pad2);
+        for (int f = 0; f < 100000; ++f) {
+            //held for long stretches like real play
+            pad1.setButtons((f / 1000) * 7);
+            pad2.setButtons((f % 300 < 5) ? 0x80 : 0);
+            port1.output(true);
+            port1.output(false);
+            port2.output(true);
+            port2.output(false);
+            if (f == 500) {
+                rec.event(Movie.Event.RESET);
+            }
+            if (f == 70000) {
+                rec.event(Movie.Event.POWER);
+            }
+            rec.endFrame();
+        }
+        final Movie movie = rec.toMovie();
+        assertEquals(100000, movie.getFrames());
+        assertEquals((1234 / 1000) * 7, movie.getButtons(1234, 0));
+        assertEquals(0x80, movie.getButtons(600, 1));
+        assertEquals(0, movie.getButtons(606, 1));
+        assertEquals(2, movie.getEventCount());
+        assertEquals(500, movie.getEventFrame(0));
+        assertEquals(Movie.Event.POWER, movie.getEvent(1));
+
+        final byte[] data = movie.toBytes();
+        assertTrue("runs compress: " + data.length, data.length < 5000);
+        assertEquals(movie, Movie.fromBytes(data));
+    }
+
+    @Test
+    public void badFiles() {
+        final MovieRecorder rec = new MovieRecorder(1);
+        for (int f = 0; f < 10; ++f) {
+            rec.endFrame();
+        }
+        final byte[] data = rec.toMovie().toBytes();
+        try {
+            Movie.fromBytes(Arrays.copyOf(data, data.length - 1));
+            fail("cut off");
+        } catch (IOException expected) {
+        }
+        //a header asking for way more frames than a movie can have
+        final byte[] huge = data.clone();
+        huge[16] = huge[17] = huge[18] = (byte) 0xff;
+        huge[19] = 0x7f;
+        try {
+            Movie.fromBytes(huge);
+            fail("too long");
+        } catch (IOException expected) {
+        }
+        data[0] = 'X';
+        try {
+            Movie.fromBytes(data);
+            fail("not a movie");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void recordAndPlayBack() {
+        final HeadlessUI ui = HeadlessUI.pooled(NESTEST, false, EmulatorConfig.DEFAULTS);
+        final NES nes = ui.getNes();
+        nes.recordMovie();
+        assertTrue(nes.isRecordingMovie());
+        for (int f = 0; f < 150; ++f) {
+            if (f == 30 || f == 100) {
+                ui.getController1().pressButton(PuppetController.Button.START);
+            } else if (f == 31 || f == 101) {
+                ui.getController1().releaseButton(PuppetController.Button.START);
+            }
+            if (f == 60) {
+                nes.reset();
+            }
+            if (f == 90) {
+                nes.reloadROM();
+            }
+            ui.runFrame();
+        }
+        final Movie movie = nes.stopMovie();
+        assertFalse(nes.isRecordingMovie());
+        assertNull(nes.stopMovie());
+        assertSame(ui.getController1(), nes.getcontroller1());
+        assertEquals(150, movie.getFrames());
+        assertEquals(0x08, movie.getButtons(30, 0));
+        assertEquals(2, movie.getEventCount());
+        assertEquals(60, movie.getEventFrame(0));
+        assertEquals(Movie.Event.RESET, movie.getEvent(0));
+        assertEquals(90, movie.getEventFrame(1));
+        assertEquals(Movie.Event.POWER, movie.getEvent(1));
+        final byte[] recorded = nes.saveState();
+
+        final HeadlessUI replay = HeadlessUI.pooled(NESTEST, false, EmulatorConfig.DEFAULTS);
+        final MoviePlayer player = new MoviePlayer(movie);
+        player.attach(replay.getNes());
+        while (player.runFrame()) {
+        }
+        assertEquals(150, player.getFrame());
+        assertArrayEquals(recorded, replay.getNes().saveState());
+
+        //and without the input it ends up somewhere else
+        final HeadlessUI idle = HeadlessUI.pooled(NESTEST, false, EmulatorConfig.DEFAULTS);
+        for (int f = 0; f < 150; ++f) {
+            idle.runFrame();
+        }
+        assertFalse(Arrays.equals(recorded, idle.getNes().saveState()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void otherROM() {
+        final HeadlessUI ui = HeadlessUI.pooled(NESTEST, false, EmulatorConfig.DEFAULTS);
+        new MoviePlayer(new MovieRecorder(ui.getNes().getCRC() + 1).toMovie()).attach(ui.getNes());
+    }
+}
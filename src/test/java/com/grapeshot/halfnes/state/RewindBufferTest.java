@@ -0,0 +1,122 @@
+package com.grapeshot.halfnes.state;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Whatever comes back out of the rewind buffer has to be exactly the state
+ * that went in, whether it was kept as a keyframe or as a delta, and however
+ * many times the ring has gone around.
+ */
+public class RewindBufferTest {
+
+    private final StateReader reader = new StateReader(new byte[0]);
+
+    private byte[] pop(RewindBuffer rb, int len) {
+        assertTrue(rb.pop(reader));
+        final byte[] b = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            b[i] = (byte) reader.readByte();
+        }
+        return b;
+    }
+
+    //states from a real game, so the deltas look like they do in use
+    private static List<byte[]> play(int frames) {
+        final NES nes = new NES(null, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM("src/test/resources/nestest/nestest.nes");
+        nes.setControllers(mock(ControllerInterface.class), mock(ControllerInterface.class));
+        final List<byte[]> states = new ArrayList<>();
+        for (int i = 0; i < frames; ++i) {
+            nes.frameAdvance();
+            states.add(nes.saveState());
+        }
+        return states;
+    }
+
+    //made up states where a few bytes change every frame
+    private static List<byte[]> random(int frames, int size) {
+        final Random rng = new Random(12345);
+        final List<byte[]> states = new ArrayList<>();
+        byte[] state = new byte[size];
+        rng.nextBytes(state);
+        for (int i = 0; i < frames; ++i) {
+            state = state.clone();
+            for (int j = 0; j < 20; ++j) {
+                state[rng.nextInt(size)] = (byte) rng.nextInt();
+            }
+            states.add(state);
+        }
+        return states;
+    }
+
+    @Test
+    public void restoresSeveralFramesBack() {
+        final List<byte[]> states = play(40);
+        final RewindBuffer rb = new RewindBuffer(64, 4 << 20, 10);
+        for (byte[] s : states) {
+            rb.push(s, s.length);
+        }
+        assertEquals(40, rb.size());
+        //back 5 frames, forward 5 different ones, then all the way back
+        for (int i = 39; i >= 35; --i) {
+            assertArrayEquals("frame " + i, states.get(i), pop(rb, states.get(i).length));
+        }
+        final List<byte[]> more = random(5, states.get(0).length);
+        for (byte[] s : more) {
+            rb.push(s, s.length);
+        }
+        for (int i = 4; i >= 0; --i) {
+            assertArrayEquals("new frame " + i, more.get(i), pop(rb, more.get(i).length));
+        }
+        for (int i = 34; i >= 0; --i) {
+            assertArrayEquals("frame " + i, states.get(i), pop(rb, states.get(i).length));
+        }
+        assertFalse(rb.pop(reader));
+    }
+
+    @Test
+    public void wrapsAroundAndDropsOldestWhenOutOfBytes() {
+        //room for a few keyframes and their deltas, nowhere near all 200
+        final List<byte[]> states = random(200, 1000);
+        final RewindBuffer rb = new RewindBuffer(200, 5000, 4);
+        for (byte[] s : states) {
+            rb.push(s, s.length);
+        }
+        final int kept = rb.size();
+        assertTrue(kept + " kept", kept > 4 && kept < 200);
+        //a keyframe then 4 deltas, and the oldest left has to be a keyframe
+        assertEquals(0, (200 - kept) % 5);
+        for (int i = 199; i > 199 - kept; --i) {
+            assertArrayEquals("frame " + i, states.get(i), pop(rb, 1000));
+        }
+        assertFalse(rb.pop(reader));
+    }
+
+    @Test
+    public void dropsOldestWhenOutOfFrames() {
+        final List<byte[]> states = random(25, 500);
+        final RewindBuffer rb = new RewindBuffer(10, 1 << 20, 3);
+        for (byte[] s : states) {
+            rb.push(s, s.length);
+        }
+        //a keyframe goes along with the deltas that need it
+        final int kept = rb.size();
+        assertTrue(kept + " kept", kept >= 7 && kept <= 10);
+        assertEquals(0, (25 - kept) % 4);
+        for (int i = 24; i > 24 - kept; --i) {
+            assertArrayEquals("frame " + i, states.get(i), pop(rb, 500));
+        }
+        assertFalse(rb.pop(reader));
+    }
+}
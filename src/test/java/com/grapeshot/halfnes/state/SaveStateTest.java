@@ -0,0 +1,57 @@
+package com.grapeshot.halfnes.state;
+
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import java.util.Arrays;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Restoring a state and running the same frames again has to end up in
+ * exactly the same place.
+ */
+public class SaveStateTest {
+
+    private static long runFrames(NES nes, int frames) {
+        long hash = 1;
+        for (int i = 0; i < frames; ++i) {
+            nes.frameAdvance();
+            for (int j = 0; j < 0x800; ++j) {
+                hash = 31 * hash + nes.getCPURAM().read(j);
+            }
+        }
+        return hash;
+    }
+
+    @Test
+    public void roundTrip() {
+        NES nes = new NES(null);
+        nes.loadROM("src/test/resources/nestest/nestest.nes");
+        nes.setControllers(mock(ControllerInterface.class), mock(ControllerInterface.class));
+        runFrames(nes, 120);
+
+        byte[] state = nes.saveState();
+        long first = runFrames(nes, 60);
+        byte[] after = nes.saveState();
+
+        nes.loadState(state);
+        assertEquals(first, runFrames(nes, 60));
+        assertArrayEquals(after, nes.saveState());
+    }
+
+    @Test
+    public void rejectsTruncatedState() {
+        NES nes = new NES(null);
+        nes.loadROM("src/test/resources/nestest/nestest.nes");
+        nes.setControllers(mock(ControllerInterface.class), mock(ControllerInterface.class));
+        byte[] state = nes.saveState();
+        try {
+            nes.loadState(Arrays.copyOf(state, state.length / 2));
+            fail("loaded a truncated state");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.grapeshot.halfnes.trace;
+
+import com.grapeshot.halfnes.EmulatorConfig;
+import com.grapeshot.halfnes.NES;
+import com.grapeshot.halfnes.ui.ControllerInterface;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import org.testng.annotations.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class TraceTest {
+
+    private static File temp() throws IOException {
+        final File f = File.createTempFile("halfnes", ".trace");
+        f.deleteOnExit();
+        return f;
+    }
+
+    @Test
+    public void writesWhatItWasGiven() throws IOException {
+        final File f = temp();
+        //small buffers so it has to hand lots of them off
+        try (TraceWriter w = new TraceWriter(f.toPath(), 100 * TraceWriter.RECORD_SIZE)) {
+            for (int i = 0; i < 12345; ++i) {
+                w.record(i * 3L, i, i >> 3, i >> 5, i >> 7, i + 1, i + 2, i + 3, i + 4, i + 5, i % 262, i % 341);
+            }
+            assertEquals(12345, w.getRecords());
+        }
+        assertEquals(TraceWriter.HEADER_SIZE + 12345 * TraceWriter.RECORD_SIZE, f.length());
+        try (TraceReader r = new TraceReader(f.toPath())) {
+            for (int i = 0; i < 12345; ++i) {
+                assertTrue(r.next());
+                assertEquals(i * 3L, r.cycle);
+                assertEquals(i & 0xffff, r.pc);
+                assertEquals((i >> 3) & 0xff, r.opcode);
+                assertEquals((i >> 5) & 0xff, r.op1);
+                assertEquals((i >> 7) & 0xff, r.op2);
+                assertEquals((i + 1) & 0xff, r.a);
+                assertEquals((i + 5) & 0xff, r.s);
+                assertEquals(i % 262, r.scanline);
+                assertEquals(i % 341, r.dot);
+            }
+            assertFalse(r.next());
+        }
+    }
+
+    @Test
+    public void nestestTraceMatchesNestestLog() throws IOException {
+        final NES nes = new NES(null, true, EmulatorConfig.DEFAULTS);
+        nes.loadROM("src/test/resources/nestest/nestest.nes", 0xC000);
+        nes.setControllers(mock(ControllerInterface.class), mock(ControllerInterface.class));
+        final File f = temp();
+        nes.getCPU().startTrace(f.getPath());
+        while (nes.runEmulation) {
+            nes.frameAdvance();
+        }
+        nes.getCPU().stopTrace();
+        final StringWriter text = new StringWriter();
+        try (TraceReader r = new TraceReader(f.toPath())) {
+            TraceConverter.convert(r, text);
+        }
+        final String[] ours = text.toString().split("\n");
+        int lines = 0;
+        try (BufferedReader log = Files.newBufferedReader(
+                Paths.get("src/test/resources/nestest/nestest.log"), StandardCharsets.UTF_8)) {
+            for (String expected = log.readLine(); expected != null; expected = log.readLine()) {
+                final String actual = ours[lines++];
+                //address and bytes, then registers. The disassembly, the * on
+                //unofficial opcodes and PPU timing aren't the same
+                assertEquals("line " + lines, expected.substring(0, 15), actual.substring(0, 15));
+                assertEquals("line " + lines, expected.substring(48, 73), actual.substring(48, 73));
+            }
+        }
+        assertEquals(8991, lines);
+        assertTrue(ours[0].startsWith("C000  4C F5 C5  JMP $C5F5                       A:00 X:00 Y:00 P:24 SP:FD CYC:"));
+    }
+}